@@ -0,0 +1,83 @@
+package com.faderw.http.benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded server on 127.0.0.1 for the end-to-end benchmarks.
+ * {@code /bytes?n} answers n bytes with a Content-Length,
+ * {@code /chunked?n} the same without one and {@code /echo} drains the request
+ * body and answers 204. Bodies are built once per size so the server adds as
+ * little as possible to the allocation rate reported by {@code -prof gc}.
+ */
+
+final class LoopbackServer implements AutoCloseable {
+
+    static {
+        // headers and body go out in separate writes, without this every
+        // response waits for the client's delayed ACK
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final Map<Integer, byte[]> bodies = new ConcurrentHashMap<>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    LoopbackServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        server.createContext("/bytes", exchange -> {
+            final byte[] body = body(Integer.parseInt(exchange.getRequestURI().getQuery()));
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/chunked", exchange -> {
+            final byte[] body = body(Integer.parseInt(exchange.getRequestURI().getQuery()));
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/echo", exchange -> {
+            final byte[] skip = new byte[8192];
+            try (InputStream in = exchange.getRequestBody()) {
+                while (in.read(skip) != -1) {
+                    // drain
+                }
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        executor = Executors.newFixedThreadPool(4);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    private byte[] body(final int size) {
+        return bodies.computeIfAbsent(size, n -> {
+            final byte[] body = new byte[n];
+            Arrays.fill(body, (byte) 'x');
+            return body;
+        });
+    }
+
+    String url(final String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,64 @@
+package com.faderw.http.benchmark;
+
+import com.faderw.http.HttpRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+
+/**
+ * Connection that discards the request and answers 200 with an empty body,
+ * so request building can be measured without any socket in the way.
+ */
+
+final class NullConnection extends HttpURLConnection {
+
+    static final HttpRequest.ConnectionFactory FACTORY = new HttpRequest.ConnectionFactory() {
+        @Override
+        public HttpURLConnection create(final URL url) {
+            return new NullConnection(url);
+        }
+
+        @Override
+        public HttpURLConnection create(final URL url, final Proxy proxy) {
+            return new NullConnection(url);
+        }
+    };
+
+    private NullConnection(final URL url) {
+        super(url);
+    }
+
+    @Override
+    public void connect() {
+        connected = true;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        connected = true;
+        return NullOutputStream.INSTANCE;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public int getResponseCode() {
+        return HTTP_OK;
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+}
@@ -0,0 +1,23 @@
+package com.faderw.http.benchmark;
+
+import java.io.OutputStream;
+
+/**
+ * Sink discarding everything written to it.
+ */
+
+final class NullOutputStream extends OutputStream {
+
+    static final NullOutputStream INSTANCE = new NullOutputStream();
+
+    private NullOutputStream() {
+    }
+
+    @Override
+    public void write(final int b) {
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+    }
+}
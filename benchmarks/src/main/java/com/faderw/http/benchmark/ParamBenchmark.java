@@ -0,0 +1,63 @@
+package com.faderw.http.benchmark;
+
+import com.faderw.http.HttpRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Header parameter parsing, e.g. the charset out of a Content-Type.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParamBenchmark {
+
+    private ParamRequest request;
+
+    @Setup
+    public void setUp() {
+        request = new ParamRequest();
+    }
+
+    @Benchmark
+    public String charset() {
+        return request.param("text/html; charset=UTF-8", "charset");
+    }
+
+    @Benchmark
+    public String quotedLast() {
+        return request.param("multipart/form-data; charset=utf-8; boundary=\"00content0boundary00\"", "boundary");
+    }
+
+    @Benchmark
+    public String missing() {
+        return request.param("application/json; q=0.9; level=1", "charset");
+    }
+
+    /**
+     * {@code getParam} is protected, reach it through a subclass
+     */
+    static final class ParamRequest extends HttpRequest {
+        ParamRequest() {
+            super("http://127.0.0.1/", "GET");
+        }
+
+        String param(final String value, final String name) {
+            return getParam(value, name);
+        }
+    }
+}
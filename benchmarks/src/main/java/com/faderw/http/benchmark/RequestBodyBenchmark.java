@@ -0,0 +1,83 @@
+package com.faderw.http.benchmark;
+
+import com.faderw.http.HttpRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building form and multipart bodies. Requests go to {@link NullConnection}
+ * so only the library's own encoding and buffering is measured.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBodyBenchmark {
+
+    private static final String URL = "http://127.0.0.1/upload";
+
+    private Map<String, Object> form;
+    private byte[] attachment;
+
+    @Setup
+    public void setUp() {
+        HttpRequest.setConnectionFactory(NullConnection.FACTORY);
+        form = new LinkedHashMap<>();
+        for (int i = 0; i < 16; i++) {
+            form.put("field" + i, "value " + i + " & more");
+        }
+        attachment = new byte[16 * 1024];
+    }
+
+    @TearDown
+    public void tearDown() {
+        HttpRequest.setConnectionFactory(null);
+    }
+
+    @Benchmark
+    public int form() {
+        return HttpRequest.post(URL).form(form).code();
+    }
+
+    @Benchmark
+    public int formStreaming() {
+        return HttpRequest.post(URL).streaming().form(form).code();
+    }
+
+    @Benchmark
+    public int multipart() {
+        return HttpRequest.post(URL)
+                .part("title", "quarterly report")
+                .part("owner", "faderw")
+                .part("file", "report.csv", "text/csv", "id,name\n1,a\n2,b\n")
+                .part("blob", "blob.bin", new ByteArrayInputStream(attachment))
+                .code();
+    }
+
+    @Benchmark
+    public int multipartStreaming() {
+        return HttpRequest.post(URL).streaming()
+                .part("title", "quarterly report")
+                .part("owner", "faderw")
+                .part("file", "report.csv", "text/csv", "id,name\n1,a\n2,b\n")
+                .part("blob", "blob.bin", new ByteArrayInputStream(attachment))
+                .code();
+    }
+}
@@ -0,0 +1,95 @@
+package com.faderw.http.benchmark;
+
+import com.faderw.http.RequestOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link RequestOutputStream#write(String)} with the previous
+ * implementation, which encoded every fragment into a fresh ByteBuffer.
+ * Run with {@code -prof gc} to see the allocation rate.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestOutputStreamBenchmark {
+
+    @Param({"UTF-8", "ISO-8859-1", "GB18030"})
+    public String charset;
+
+    @Param({"ascii", "mixed"})
+    public String text;
+
+    private String fragment;
+    private RequestOutputStream current;
+    private LegacyRequestOutputStream legacy;
+
+    @Setup
+    public void setUp() {
+        fragment = "ascii".equals(text) || "ISO-8859-1".equals(charset)
+                ? "form-data;name=\"upload\";filename=\"report-2018.csv\""
+                : "form-data;name=\"上传\";filename=\"报告-2018.csv\"";
+        current = new RequestOutputStream(NullOutputStream.INSTANCE, charset, 8192);
+        legacy = new LegacyRequestOutputStream(NullOutputStream.INSTANCE, charset, 8192);
+    }
+
+    @Benchmark
+    public RequestOutputStream partHeader() throws IOException {
+        return current.write("Content-Disposition").write(":").write(fragment).write("\r\n");
+    }
+
+    @Benchmark
+    public LegacyRequestOutputStream partHeaderLegacy() throws IOException {
+        return legacy.write("Content-Disposition").write(":").write(fragment).write("\r\n");
+    }
+
+    @Benchmark
+    public RequestOutputStream fragment() throws IOException {
+        return current.write(fragment);
+    }
+
+    @Benchmark
+    public LegacyRequestOutputStream fragmentLegacy() throws IOException {
+        return legacy.write(fragment);
+    }
+
+    /**
+     * The implementation before the allocation-free encoder
+     */
+    public static class LegacyRequestOutputStream extends BufferedOutputStream {
+        private final CharsetEncoder encoder;
+
+        LegacyRequestOutputStream(final OutputStream outputStream, final String charset, final int bufferSize) {
+            super(outputStream, bufferSize);
+            encoder = Charset.forName(charset).newEncoder();
+        }
+
+        public LegacyRequestOutputStream write(final String value) throws IOException {
+            final ByteBuffer byteBuffer = encoder.encode(CharBuffer.wrap(value));
+            super.write(byteBuffer.array(), 0, byteBuffer.limit());
+            return this;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.faderw.http.benchmark;
+
+import com.faderw.http.HttpRequest;
+import com.faderw.http.PooledConnectionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end requests against {@link LoopbackServer}: reading bodies of
+ * {@code size} bytes with and without a Content-Length, and uploading as many,
+ * over the JDK transport and the pooled one.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseBodyBenchmark {
+
+    @Param({"jdk", "pooled"})
+    public String transport;
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    private LoopbackServer server;
+    private PooledConnectionFactory pooled;
+    private String bytesUrl;
+    private String chunkedUrl;
+    private String echoUrl;
+    private String payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new LoopbackServer();
+        if ("pooled".equals(transport)) {
+            pooled = new PooledConnectionFactory();
+            HttpRequest.setConnectionFactory(pooled);
+        }
+        bytesUrl = server.url("/bytes?" + size);
+        chunkedUrl = server.url("/chunked?" + size);
+        echoUrl = server.url("/echo");
+        final StringBuilder builder = new StringBuilder(size);
+        while (builder.length() < size) {
+            builder.append('x');
+        }
+        payload = builder.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HttpRequest.setConnectionFactory(null);
+        if (pooled != null) {
+            pooled.getPool().close();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    public String body() {
+        return HttpRequest.get(bytesUrl).body("UTF-8");
+    }
+
+    @Benchmark
+    public byte[] bytes() {
+        return HttpRequest.get(bytesUrl).bytes();
+    }
+
+    @Benchmark
+    public byte[] bytesChunked() {
+        return HttpRequest.get(chunkedUrl).bytes();
+    }
+
+    @Benchmark
+    public int upload() {
+        return HttpRequest.post(echoUrl).send(payload).code();
+    }
+}
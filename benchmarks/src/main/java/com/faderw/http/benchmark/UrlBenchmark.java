@@ -0,0 +1,74 @@
+package com.faderw.http.benchmark;
+
+import com.faderw.http.HttpRequest;
+import com.faderw.http.UrlTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HttpRequest#append(CharSequence, Map)}, {@link HttpRequest#encode(CharSequence)}
+ * and a precompiled {@link UrlTemplate} on a typical search url.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlBenchmark {
+
+    private static final UrlTemplate SEARCH = UrlTemplate.compile(
+            "http://example.com/api/search?q={q}&page={page}&size={size}&sort={sort}&lang={lang}");
+
+    private Map<String, Object> params;
+    private final StringBuilder builder = new StringBuilder(128);
+
+    @Setup
+    public void setUp() {
+        params = new LinkedHashMap<>();
+        params.put("q", "reach http");
+        params.put("page", 3);
+        params.put("size", 50);
+        params.put("sort", "updated,desc");
+        params.put("lang", "zh-CN");
+    }
+
+    @Benchmark
+    public String append() {
+        return HttpRequest.append("http://example.com/api/search", params);
+    }
+
+    @Benchmark
+    public String encodeAscii() {
+        return HttpRequest.encode("http://example.com/api/search?q=reach http&page=3");
+    }
+
+    @Benchmark
+    public String encodeUnicode() {
+        return HttpRequest.encode("http://example.com/文档/搜索?q=请求 库&page=3");
+    }
+
+    @Benchmark
+    public String template() {
+        return SEARCH.expand(params);
+    }
+
+    @Benchmark
+    public int templateReusedBuilder() {
+        builder.setLength(0);
+        return SEARCH.expandTo(builder, "reach http", 3, 50, "updated,desc", "zh-CN").length();
+    }
+}
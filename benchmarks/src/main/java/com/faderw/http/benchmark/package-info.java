@@ -0,0 +1,16 @@
+/**
+ * JMH suites for the hot paths of reach-http.
+ *
+ * <pre>
+ * mvn -f ../pom.xml install -DskipTests
+ * mvn package
+ * java -jar target/benchmarks.jar -prof gc
+ * java -jar target/benchmarks.jar ResponseBodyBenchmark -p transport=pooled -prof gc
+ * </pre>
+ *
+ * {@code -prof gc} adds {@code gc.alloc.rate.norm}, the bytes allocated per
+ * operation, next to the throughput. End to end suites run against
+ * {@link com.faderw.http.benchmark.LoopbackServer} on 127.0.0.1, nothing
+ * leaves the machine.
+ */
+package com.faderw.http.benchmark;
@@ -0,0 +1,252 @@
+package com.faderw.http;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.faderw.http.HttpRequestConst.*;
+
+/**
+ * Base for the connections reach-http implements itself. Request headers are
+ * kept as a flat name/value list, which stays readable after connecting
+ * unlike {@link java.net.URLConnection}'s own storage.
+ */
+
+abstract class AbstractHttpURLConnection extends HttpURLConnection {
+
+    protected final List<String> requestHeaders = new ArrayList<>();
+    protected final List<String> responseHeaders = new ArrayList<>();
+    protected String statusLine;
+    protected InputStream responseBody;
+
+    /**
+     * Set by {@link HttpRequest} when someone listens to this call
+     */
+    HttpEventListener eventListener = HttpEventListener.NONE;
+
+    /**
+     * HTTP/2 stream weight set through {@link HttpRequest#priority(int)}, 0 for the default
+     */
+    int priority;
+
+    AbstractHttpURLConnection(final URL url) {
+        super(url);
+    }
+
+    @Override
+    public void setRequestProperty(final String key, final String value) {
+        checkNotConnected();
+        if (key == null) {
+            throw new NullPointerException("key is null");
+        }
+        removeRequestProperty(key);
+        requestHeaders.add(key);
+        requestHeaders.add(value);
+    }
+
+    @Override
+    public void addRequestProperty(final String key, final String value) {
+        checkNotConnected();
+        if (key == null) {
+            throw new NullPointerException("key is null");
+        }
+        requestHeaders.add(key);
+        requestHeaders.add(value);
+    }
+
+    @Override
+    public String getRequestProperty(final String key) {
+        return key == null ? null : CacheEntry.value(requestHeaders, key);
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+        return toMap(requestHeaders, null);
+    }
+
+    private void removeRequestProperty(final String key) {
+        for (int i = requestHeaders.size() - 2; i >= 0; i -= 2) {
+            if (key.equalsIgnoreCase(requestHeaders.get(i))) {
+                requestHeaders.remove(i + 1);
+                requestHeaders.remove(i);
+            }
+        }
+    }
+
+    protected void checkNotConnected() {
+        if (connected) {
+            throw new IllegalStateException("Already connected");
+        }
+    }
+
+    /**
+     * Copy settings and request headers to a connection doing the actual work
+     */
+    protected void copyTo(final HttpURLConnection target) throws ProtocolException {
+        target.setRequestMethod(method);
+        target.setDoInput(doInput);
+        target.setDoOutput(doOutput);
+        target.setUseCaches(useCaches);
+        target.setAllowUserInteraction(allowUserInteraction);
+        target.setIfModifiedSince(ifModifiedSince);
+        target.setInstanceFollowRedirects(instanceFollowRedirects);
+        target.setConnectTimeout(getConnectTimeout());
+        target.setReadTimeout(getReadTimeout());
+        if (fixedContentLengthLong != -1) {
+            target.setFixedLengthStreamingMode(fixedContentLengthLong);
+        } else if (fixedContentLength != -1) {
+            target.setFixedLengthStreamingMode(fixedContentLength);
+        } else if (chunkLength != -1) {
+            target.setChunkedStreamingMode(chunkLength);
+        }
+        for (int i = 0; i < requestHeaders.size(); i += 2) {
+            target.addRequestProperty(requestHeaders.get(i), requestHeaders.get(i + 1));
+        }
+        if (target instanceof AbstractHttpURLConnection) {
+            ((AbstractHttpURLConnection) target).eventListener = eventListener;
+            ((AbstractHttpURLConnection) target).priority = priority;
+        }
+    }
+
+    /**
+     * Send the request if needed and read the response head, filling
+     * {@link #statusLine}, {@link #responseHeaders} and {@link #responseBody}
+     */
+    protected abstract void ensureResponse() throws IOException;
+
+    /**
+     * The caller has the response head and may never read the body. Transports
+     * holding on to a pooled connection read a small body into memory, so the
+     * connection goes back right away instead of when the body is read.
+     *
+     * @return true once the exchange no longer needs the connection
+     */
+    boolean releaseAfterHead() throws IOException {
+        return false;
+    }
+
+    /**
+     * Same as above for any connection. Those of the JDK are done when the
+     * response has no body, they keep their socket until it is read otherwise.
+     */
+    static boolean releaseAfterHead(final HttpURLConnection connection) throws IOException {
+        if (connection instanceof AbstractHttpURLConnection) {
+            return ((AbstractHttpURLConnection) connection).releaseAfterHead();
+        }
+        final int code = connection.getResponseCode();
+        return METHOD_HEAD.equals(connection.getRequestMethod()) || code == 204 || code == 304
+                || connection.getHeaderFieldLong(HEADER_CONTENT_LENGTH, -1) == 0;
+    }
+
+    protected String headerValue(final String name) {
+        return CacheEntry.value(responseHeaders, name);
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        ensureResponse();
+        return responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        ensureResponse();
+        return responseMessage;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (!doInput) {
+            throw new ProtocolException("Cannot read from URLConnection if doInput=false (call setDoInput(true))");
+        }
+        ensureResponse();
+        if (responseCode >= 400) {
+            if (responseCode == 404 || responseCode == 410) {
+                throw new FileNotFoundException(url.toString());
+            }
+            throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+        }
+        return responseBody;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if (statusLine != null && responseCode >= 400) {
+            return responseBody;
+        }
+        return null;
+    }
+
+    @Override
+    public String getHeaderField(final String name) {
+        try {
+            ensureResponse();
+        } catch (IOException e) {
+            return null;
+        }
+        return name == null ? statusLine : headerValue(name);
+    }
+
+    @Override
+    public String getHeaderFieldKey(final int n) {
+        try {
+            ensureResponse();
+        } catch (IOException e) {
+            return null;
+        }
+        return n <= 0 || 2 * n > responseHeaders.size() ? null : responseHeaders.get(2 * (n - 1));
+    }
+
+    @Override
+    public String getHeaderField(final int n) {
+        try {
+            ensureResponse();
+        } catch (IOException e) {
+            return null;
+        }
+        if (n == 0) {
+            return statusLine;
+        }
+        return n < 0 || 2 * n > responseHeaders.size() ? null : responseHeaders.get(2 * n - 1);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        try {
+            ensureResponse();
+        } catch (IOException e) {
+            return Collections.emptyMap();
+        }
+        return toMap(responseHeaders, statusLine);
+    }
+
+    /**
+     * Turn name/value pairs into the map shape of {@link HttpURLConnection#getHeaderFields()}
+     */
+    static Map<String, List<String>> toMap(final List<String> pairs, final String statusLine) {
+        final Map<String, List<String>> map = new LinkedHashMap<>();
+        if (statusLine != null) {
+            map.put(null, Collections.singletonList(statusLine));
+        }
+        for (int i = 0; i < pairs.size(); i += 2) {
+            List<String> values = map.get(pairs.get(i));
+            if (values == null) {
+                values = new ArrayList<>(1);
+                map.put(pairs.get(i), values);
+            }
+            values.add(pairs.get(i + 1));
+        }
+        for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+}
@@ -0,0 +1,60 @@
+package com.faderw.http;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default executor for the asynchronous {@link HttpRequest} methods. On Java 21+
+ * each task gets its own virtual thread, so the number of in-flight requests is
+ * not bounded by platform threads; older runtimes fall back to a cached pool of
+ * daemon threads.
+ */
+
+final class AsyncExecutors {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private AsyncExecutors() {
+    }
+
+    static Executor defaultExecutor() {
+        return Holder.DEFAULT;
+    }
+
+    /**
+     * @return true when the default executor runs tasks on virtual threads
+     */
+    static boolean isVirtual() {
+        return Holder.VIRTUAL;
+    }
+
+    private static final class Holder {
+        static final Executor DEFAULT;
+        static final boolean VIRTUAL;
+
+        static {
+            final ExecutorService virtual = virtualThreadExecutor();
+            VIRTUAL = virtual != null;
+            DEFAULT = virtual != null ? virtual : Executors.newCachedThreadPool(r -> {
+                final Thread thread = new Thread(r, "reach-http-async-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Looked up reflectively so the jar still targets Java 8.
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.faderw.http;
+
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Results of {@link BatchExecutor#stream(Iterable, java.util.function.Function)}
+ * in completion order. {@link #hasNext()} blocks until the next request
+ * completes. Closing before the end stops starting new requests and discards
+ * the results of those still running.
+ */
+
+public final class Batch<T> implements Iterator<BatchResult<T>>, AutoCloseable {
+
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> results;
+    private BatchExecutor.Dispatcher<T> dispatcher;
+    private BatchResult<T> next;
+    private boolean ended;
+    private volatile boolean closed;
+
+    Batch(final int capacity) {
+        // one slot per running request plus the end marker, so producers never wait on close
+        this.results = new ArrayBlockingQueue<>(capacity + 1);
+    }
+
+    void start(final BatchExecutor.Dispatcher<T> dispatcher) {
+        this.dispatcher = dispatcher;
+        final Thread thread = new Thread(() -> {
+            try {
+                dispatcher.run();
+            } finally {
+                put(END);
+            }
+        }, "reach-http-batch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void offer(final BatchResult<T> result) {
+        if (!closed) {
+            put(result);
+        }
+    }
+
+    private void put(final Object item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                results.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (ended || closed) {
+            return false;
+        }
+        final Object item;
+        try {
+            item = results.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpRequestException(new InterruptedIOException("Interrupted waiting for batch results"));
+        }
+        if (item == END) {
+            ended = true;
+            return false;
+        }
+        next = (BatchResult<T>) item;
+        return true;
+    }
+
+    @Override
+    public BatchResult<T> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final BatchResult<T> result = next;
+        next = null;
+        return result;
+    }
+
+    public BatchStats stats() {
+        return dispatcher.stats;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        dispatcher.cancel();
+        results.clear();
+    }
+}
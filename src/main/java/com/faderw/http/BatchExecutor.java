@@ -0,0 +1,264 @@
+package com.faderw.http;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs many prepared requests with a bound on concurrent requests overall and
+ * per host ({@code host:port}). Requests are pulled from the source only when
+ * they can run soon, so a lazily generated source of any size keeps a bounded
+ * number of requests and results in memory.
+ * <pre>
+ *     BatchStats stats = new BatchExecutor().maxConcurrency(64).maxConcurrencyPerHost(8)
+ *             .run(requests, request -> request.body("UTF-8"), result -> ...);
+ *
+ *     try (Batch&lt;byte[]&gt; batch = new BatchExecutor().stream(requests, HttpRequest::bytes)) {
+ *         while (batch.hasNext()) {
+ *             BatchResult&lt;byte[]&gt; result = batch.next();
+ *         }
+ *     }
+ * </pre>
+ * Handlers should read or close the response body, a large body left unread
+ * keeps its pooled connection.
+ * A request whose host is at its limit waits aside while requests for other
+ * hosts go ahead; at most {@link #maxPending(int)} requests wait that way.
+ */
+
+public class BatchExecutor {
+
+    private volatile int maxConcurrency = 32;
+    private volatile int maxConcurrencyPerHost = 8;
+    private volatile int maxPending = -1;
+    private volatile Executor executor;
+
+    /**
+     * Set the number of requests running at the same time across all hosts.
+     */
+    public BatchExecutor maxConcurrency(final int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency < 1: " + maxConcurrency);
+        }
+        this.maxConcurrency = maxConcurrency;
+        return this;
+    }
+
+    /**
+     * Set the number of requests running at the same time against one host.
+     */
+    public BatchExecutor maxConcurrencyPerHost(final int maxConcurrencyPerHost) {
+        if (maxConcurrencyPerHost < 1) {
+            throw new IllegalArgumentException("maxConcurrencyPerHost < 1: " + maxConcurrencyPerHost);
+        }
+        this.maxConcurrencyPerHost = maxConcurrencyPerHost;
+        return this;
+    }
+
+    /**
+     * Set how many requests may wait for a busy host before the source stops
+     * being read, 4 x maxConcurrency by default.
+     */
+    public BatchExecutor maxPending(final int maxPending) {
+        this.maxPending = maxPending;
+        return this;
+    }
+
+    /**
+     * Set the executor running the requests, null restores the default of the
+     * asynchronous {@link HttpRequest} methods (virtual threads on Java 21+).
+     */
+    public BatchExecutor executor(final Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Run every request and block until all completed. The callback is called
+     * as each one completes, from the thread that ran it, so it must be thread safe.
+     */
+    public <T> BatchStats run(final Iterable<? extends HttpRequest> requests,
+                              final Function<? super HttpRequest, ? extends T> handler,
+                              final Consumer<? super BatchResult<T>> callback) {
+        final Dispatcher<T> dispatcher = new Dispatcher<>(requests.iterator(), handler, callback);
+        dispatcher.run();
+        return dispatcher.stats;
+    }
+
+    /**
+     * Start running the requests in the background and return the results in
+     * completion order. Requests stop being started while results are not consumed.
+     */
+    public <T> Batch<T> stream(final Iterable<? extends HttpRequest> requests,
+                               final Function<? super HttpRequest, ? extends T> handler) {
+        final Batch<T> batch = new Batch<>(maxConcurrency);
+        final Dispatcher<T> dispatcher = new Dispatcher<>(requests.iterator(), handler, batch::offer);
+        batch.start(dispatcher);
+        return batch;
+    }
+
+    private static String hostKey(final HttpRequest request) {
+        final URL url = request.url();
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return url.getHost().toLowerCase(Locale.ROOT) + ':' + port;
+    }
+
+    /**
+     * Pulls requests from the source and starts them as capacity frees up.
+     */
+    final class Dispatcher<T> implements Runnable {
+        final BatchStats stats = new BatchStats();
+        private final Iterator<? extends HttpRequest> source;
+        private final Function<? super HttpRequest, ? extends T> handler;
+        private final Consumer<? super BatchResult<T>> sink;
+        private final int globalLimit = maxConcurrency;
+        private final int hostLimit = maxConcurrencyPerHost;
+        private final int pendingLimit = maxPending >= 0 ? maxPending : 4 * maxConcurrency;
+        private final Executor target;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final Map<String, Integer> activeByHost = new HashMap<>();
+        private final Map<String, ArrayDeque<HttpRequest>> pendingByHost = new HashMap<>();
+        private int active;
+        private int pending;
+        private boolean exhausted;
+        private volatile boolean cancelled;
+
+        Dispatcher(final Iterator<? extends HttpRequest> source, final Function<? super HttpRequest, ? extends T> handler,
+                   final Consumer<? super BatchResult<T>> sink) {
+            this.source = source;
+            this.handler = handler;
+            this.sink = sink;
+            final Executor configured = executor;
+            this.target = configured != null ? configured : AsyncExecutors.defaultExecutor();
+        }
+
+        @Override
+        public void run() {
+            lock.lock();
+            try {
+                while (true) {
+                    boolean progressed = startPending();
+                    if (!cancelled && !exhausted && active < globalLimit && pending < pendingLimit) {
+                        if (source.hasNext()) {
+                            final HttpRequest request = source.next();
+                            final String host = hostKey(request);
+                            if (activeCount(host) < hostLimit) {
+                                start(request, host);
+                            } else {
+                                pendingByHost.computeIfAbsent(host, h -> new ArrayDeque<>()).add(request);
+                                pending++;
+                            }
+                            progressed = true;
+                        } else {
+                            exhausted = true;
+                        }
+                    }
+                    if (active == 0 && (pending == 0 || cancelled) && (exhausted || cancelled)) {
+                        break;
+                    }
+                    if (!progressed) {
+                        changed.awaitUninterruptibly();
+                    }
+                }
+            } finally {
+                lock.unlock();
+                stats.finish();
+            }
+        }
+
+        private int activeCount(final String host) {
+            final Integer count = activeByHost.get(host);
+            return count == null ? 0 : count;
+        }
+
+        /**
+         * Start waiting requests whose host has room again
+         */
+        private boolean startPending() {
+            if (pending == 0 || cancelled) {
+                return false;
+            }
+            boolean started = false;
+            final Iterator<Map.Entry<String, ArrayDeque<HttpRequest>>> iterator = pendingByHost.entrySet().iterator();
+            while (iterator.hasNext() && active < globalLimit) {
+                final Map.Entry<String, ArrayDeque<HttpRequest>> entry = iterator.next();
+                final String host = entry.getKey();
+                final ArrayDeque<HttpRequest> queue = entry.getValue();
+                while (!queue.isEmpty() && active < globalLimit && activeCount(host) < hostLimit) {
+                    pending--;
+                    start(queue.poll(), host);
+                    started = true;
+                }
+                if (queue.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+            return started;
+        }
+
+        private void start(final HttpRequest request, final String host) {
+            active++;
+            activeByHost.put(host, activeCount(host) + 1);
+            try {
+                target.execute(() -> execute(request, host));
+            } catch (RejectedExecutionException e) {
+                complete(new BatchResult<>(request, null, e, 0), host);
+            }
+        }
+
+        private void execute(final HttpRequest request, final String host) {
+            final long start = System.nanoTime();
+            BatchResult<T> result;
+            try {
+                result = new BatchResult<T>(request, handler.apply(request), null, System.nanoTime() - start);
+            } catch (RuntimeException e) {
+                result = new BatchResult<>(request, null, e, System.nanoTime() - start);
+            }
+            complete(result, host);
+        }
+
+        /**
+         * Hand the result over before freeing the slot, so a slow consumer holds back new requests
+         */
+        private void complete(final BatchResult<T> result, final String host) {
+            stats.record(result);
+            try {
+                sink.accept(result);
+            } finally {
+                lock.lock();
+                try {
+                    active--;
+                    final int count = activeCount(host) - 1;
+                    if (count == 0) {
+                        activeByHost.remove(host);
+                    } else {
+                        activeByHost.put(host, count);
+                    }
+                    changed.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                changed.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.faderw.http;
+
+/**
+ * Outcome of one request of a batch: either the value returned by the
+ * handler or the exception it threw.
+ */
+
+public final class BatchResult<T> {
+
+    private final HttpRequest request;
+    private final T value;
+    private final RuntimeException error;
+    private final long nanos;
+
+    BatchResult(final HttpRequest request, final T value, final RuntimeException error, final long nanos) {
+        this.request = request;
+        this.value = value;
+        this.error = error;
+        this.nanos = nanos;
+    }
+
+    public HttpRequest request() {
+        return request;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return the handler's value, null when it failed
+     */
+    public T value() {
+        return value;
+    }
+
+    /**
+     * @return what the handler threw, usually a {@link HttpRequestException}
+     */
+    public RuntimeException error() {
+        return error;
+    }
+
+    /**
+     * Time spent running the handler
+     */
+    public long nanos() {
+        return nanos;
+    }
+}
@@ -0,0 +1,73 @@
+package com.faderw.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of a batch. Safe to read while the batch is in progress.
+ */
+
+public final class BatchStats {
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private volatile long endNanos;
+    private volatile boolean finished;
+
+    void record(final BatchResult<?> result) {
+        (result.isSuccess() ? succeeded : failed).incrementAndGet();
+        latency.record(result.nanos());
+    }
+
+    void finish() {
+        endNanos = System.nanoTime();
+        finished = true;
+    }
+
+    public long completed() {
+        return succeeded.get() + failed.get();
+    }
+
+    public long succeeded() {
+        return succeeded.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Time since the batch started, or its whole duration once finished
+     */
+    public long elapsedNanos() {
+        return (finished ? endNanos : System.nanoTime()) - startNanos;
+    }
+
+    /**
+     * Completed requests per second over the elapsed time
+     */
+    public double throughput() {
+        final long elapsed = elapsedNanos();
+        return elapsed <= 0 ? 0 : completed() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    /**
+     * Handler durations of the completed requests
+     */
+    public LatencyHistogram latency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return "completed=" + completed() + " failed=" + failed() + " elapsed="
+                + TimeUnit.NANOSECONDS.toMillis(elapsedNanos()) + "ms throughput="
+                + String.format("%.1f", throughput()) + "/s latency[" + latency + "]";
+    }
+}
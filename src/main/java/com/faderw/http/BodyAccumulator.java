@@ -0,0 +1,130 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects a response body with as few copies as possible. When the length is
+ * announced the body is read straight into an exactly sized array that is
+ * handed back as is; otherwise, or when the announced length is too large to
+ * trust up front, it is gathered in pooled chunks and copied once into the
+ * final array.
+ */
+
+final class BodyAccumulator {
+
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Largest announced length allocated before reading, a bogus Content-Length
+     * must not cost more than this
+     */
+    private static final int MAX_PRESIZED_LENGTH = 4 * 1024 * 1024;
+
+    private final BufferPool pool;
+    private byte[] exact;
+    private int exactCount;
+    private final List<ByteBuffer> chunks = new ArrayList<>(4);
+    private long size;
+
+    BodyAccumulator(final BufferPool pool, final long expectedLength) {
+        // the stream hands out heap bytes and the body ends up in a heap array,
+        // gathering it in direct chunks would only add a copy
+        this.pool = pool.isDirect() ? BufferPool.DEFAULT : pool;
+        if (expectedLength >= 0 && expectedLength <= MAX_PRESIZED_LENGTH) {
+            exact = new byte[(int) expectedLength];
+        }
+    }
+
+    /**
+     * Read the stream to its end.
+     */
+    BodyAccumulator readFrom(final InputStream in) throws IOException {
+        if (exact != null) {
+            int read;
+            while (exactCount < exact.length
+                    && (read = in.read(exact, exactCount, exact.length - exactCount)) != -1) {
+                exactCount += read;
+            }
+            size = exactCount;
+            if (exactCount < exact.length) {
+                return this;
+            }
+            // the announced length was reached, only spill into chunks if the server sent more
+            final int next = in.read();
+            if (next == -1) {
+                return this;
+            }
+            lastChunk().put((byte) next);
+            size++;
+        }
+        readArrays(in);
+        return this;
+    }
+
+    private void readArrays(final InputStream in) throws IOException {
+        while (true) {
+            final ByteBuffer chunk = lastChunk();
+            final int read = in.read(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+            if (read == -1) {
+                return;
+            }
+            ((Buffer) chunk).position(chunk.position() + read);
+            size += read;
+        }
+    }
+
+    private ByteBuffer lastChunk() {
+        if (!chunks.isEmpty()) {
+            final ByteBuffer last = chunks.get(chunks.size() - 1);
+            if (last.hasRemaining()) {
+                return last;
+            }
+        }
+        final ByteBuffer chunk = pool.acquire();
+        chunks.add(chunk);
+        return chunk;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return the body, the presized array itself when it was filled exactly
+     */
+    byte[] toByteArray() {
+        if (exact != null && chunks.isEmpty() && exactCount == exact.length) {
+            return exact;
+        }
+        if (size > MAX_ARRAY_SIZE) {
+            throw new HttpRequestException("Response body too large for an array: " + size + " bytes");
+        }
+        final byte[] result = new byte[(int) size];
+        int offset = 0;
+        if (exact != null) {
+            System.arraycopy(exact, 0, result, 0, exactCount);
+            offset = exactCount;
+        }
+        for (ByteBuffer chunk : chunks) {
+            final int length = chunk.position();
+            System.arraycopy(chunk.array(), chunk.arrayOffset(), result, offset, length);
+            offset += length;
+        }
+        return result;
+    }
+
+    /**
+     * Return every chunk to the pool.
+     */
+    void release() {
+        for (ByteBuffer chunk : chunks) {
+            pool.release(chunk);
+        }
+        chunks.clear();
+    }
+}
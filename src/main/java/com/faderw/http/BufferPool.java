@@ -0,0 +1,83 @@
+package com.faderw.http;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of fixed size byte chunks used to accumulate and copy response
+ * bodies. Chunks beyond the pool capacity are simply dropped on release, so
+ * the pool never holds more than {@code maxPooled * chunkSize} bytes.
+ */
+
+public class BufferPool {
+
+    /**
+     * Shared heap pool: 64 chunks of 8 KiB
+     */
+    public static final BufferPool DEFAULT = new BufferPool(8192, 64, false);
+
+    private final int chunkSize;
+    private final boolean direct;
+    private final ArrayBlockingQueue<ByteBuffer> chunks;
+    private final AtomicLong allocated = new AtomicLong();
+
+    /**
+     * @param chunkSize size of every chunk in bytes
+     * @param maxPooled number of idle chunks kept for reuse
+     * @param direct    whether chunks are allocated outside the heap
+     */
+    public BufferPool(final int chunkSize, final int maxPooled, final boolean direct) {
+        if (chunkSize <= 0 || maxPooled <= 0) {
+            throw new IllegalArgumentException("chunkSize and maxPooled must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.direct = direct;
+        this.chunks = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * Take a cleared chunk from the pool, allocating one when the pool is empty.
+     */
+    public ByteBuffer acquire() {
+        final ByteBuffer chunk = chunks.poll();
+        if (chunk != null) {
+            ((Buffer) chunk).clear();
+            return chunk;
+        }
+        allocated.incrementAndGet();
+        return direct ? ByteBuffer.allocateDirect(chunkSize) : ByteBuffer.allocate(chunkSize);
+    }
+
+    /**
+     * Give a chunk back. Chunks of a foreign size are ignored.
+     */
+    public void release(final ByteBuffer chunk) {
+        if (chunk != null && chunk.capacity() == chunkSize && chunk.isDirect() == direct) {
+            chunks.offer(chunk);
+        }
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * @return the number of idle chunks ready for reuse
+     */
+    public int pooledCount() {
+        return chunks.size();
+    }
+
+    /**
+     * @return the number of chunks allocated because the pool was empty
+     */
+    public long allocatedCount() {
+        return allocated.get();
+    }
+}
@@ -0,0 +1,241 @@
+package com.faderw.http;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static com.faderw.http.HttpRequestConst.*;
+
+/**
+ * A stored response: status, headers as name/value pairs, body and the
+ * moment it stops being fresh.
+ */
+
+final class CacheEntry {
+
+    /**
+     * The obsolete HTTP-date forms recipients must still accept, two digit
+     * years falling in 1970-2069
+     */
+    private static final DateTimeFormatter RFC_850_DATE_TIME = new DateTimeFormatterBuilder()
+            .appendPattern("EEEE, dd-MMM-")
+            .appendValueReduced(ChronoField.YEAR, 2, 2, 1970)
+            .appendPattern(" HH:mm:ss zzz")
+            .toFormatter(Locale.US);
+    private static final DateTimeFormatter ASCTIME_DATE_TIME =
+            DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy", Locale.US).withZone(ZoneOffset.UTC);
+
+    final String key;
+    final int code;
+    final String statusLine;
+    final List<String> headers;
+    final byte[] body;
+    final long storedAt;
+    final long expiresAt;
+
+    CacheEntry(final String key, final int code, final String statusLine, final List<String> headers,
+               final byte[] body, final long storedAt, final long expiresAt) {
+        this.key = key;
+        this.code = code;
+        this.statusLine = statusLine;
+        this.headers = headers;
+        this.body = body;
+        this.storedAt = storedAt;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Build an entry for a response received at responseTime, computing its
+     * freshness from Cache-Control, Expires or the Last-Modified heuristic.
+     */
+    static CacheEntry create(final String key, final int code, final String statusLine,
+                             final List<String> headers, final byte[] body, final long responseTime) {
+        final List<String> copy = Collections.unmodifiableList(new ArrayList<>(headers));
+        return new CacheEntry(key, code, statusLine, copy, body, responseTime, expiresAt(copy, responseTime));
+    }
+
+    /**
+     * @return a copy refreshed by a 304 response, its headers override the stored ones
+     */
+    CacheEntry revalidated(final List<String> notModifiedHeaders, final long responseTime) {
+        final List<String> merged = new ArrayList<>(headers.size());
+        for (int i = 0; i < headers.size(); i += 2) {
+            if (value(notModifiedHeaders, headers.get(i)) == null) {
+                merged.add(headers.get(i));
+                merged.add(headers.get(i + 1));
+            }
+        }
+        for (int i = 0; i < notModifiedHeaders.size(); i += 2) {
+            final String name = notModifiedHeaders.get(i);
+            if (!HEADER_CONTENT_LENGTH.equalsIgnoreCase(name) && !HEADER_TRANSFER_ENCODING.equalsIgnoreCase(name)) {
+                merged.add(name);
+                merged.add(notModifiedHeaders.get(i + 1));
+            }
+        }
+        return create(key, code, statusLine, merged, body, responseTime);
+    }
+
+    private static long expiresAt(final List<String> headers, final long responseTime) {
+        final String cacheControl = value(headers, HEADER_CACHE_CONTROL);
+        if (directive(cacheControl, "no-cache") != null || directive(cacheControl, "no-store") != null) {
+            return responseTime;
+        }
+        final long dateHeader = parseDate(value(headers, HEADER_DATE));
+        final long date = dateHeader >= 0 ? dateHeader : responseTime;
+        long age = Math.max(0, responseTime - date);
+        final long ageHeader = parseSeconds(value(headers, HEADER_AGE));
+        if (ageHeader > 0) {
+            age = Math.max(age, ageHeader * 1000);
+        }
+
+        final long maxAge = parseSeconds(directive(cacheControl, "max-age"));
+        long lifetime;
+        if (maxAge >= 0) {
+            lifetime = maxAge * 1000;
+        } else if (value(headers, HEADER_EXPIRES) != null) {
+            // an invalid Expires means already expired
+            final long expires = parseDate(value(headers, HEADER_EXPIRES));
+            lifetime = expires >= 0 ? expires - date : 0;
+        } else if (value(headers, HEADER_LAST_MODIFIED) != null) {
+            // heuristic freshness: a tenth of the time since the last change
+            final long lastModified = parseDate(value(headers, HEADER_LAST_MODIFIED));
+            lifetime = lastModified >= 0 ? (date - lastModified) / 10 : 0;
+        } else {
+            lifetime = 0;
+        }
+        return responseTime - age + Math.max(0, lifetime);
+    }
+
+    /**
+     * Responses worth storing: complete 200s the server did not forbid us to
+     * keep, that are either fresh for a while or can be revalidated.
+     */
+    static boolean isCacheable(final int code, final List<String> headers) {
+        if (code != HttpRequestConst.HTTP_OK) {
+            return false;
+        }
+        final String cacheControl = value(headers, HEADER_CACHE_CONTROL);
+        if (directive(cacheControl, "no-store") != null) {
+            return false;
+        }
+        final String vary = value(headers, HEADER_VARY);
+        if (vary != null && !vary.trim().equalsIgnoreCase(HEADER_ACCEPT_ENCODING)) {
+            return false;
+        }
+        return directive(cacheControl, "max-age") != null || value(headers, HEADER_EXPIRES) != null
+                || value(headers, HEADER_ETAG) != null || value(headers, HEADER_LAST_MODIFIED) != null;
+    }
+
+    boolean isFresh(final long now) {
+        return now < expiresAt;
+    }
+
+    boolean hasValidators() {
+        return header(HEADER_ETAG) != null || header(HEADER_LAST_MODIFIED) != null;
+    }
+
+    String header(final String name) {
+        return value(headers, name);
+    }
+
+    /**
+     * @return an estimate of the heap taken by this entry
+     */
+    long byteSize() {
+        long size = 64 + body.length + 2L * (key.length() + statusLine.length());
+        for (String header : headers) {
+            size += 40 + 2L * header.length();
+        }
+        return size;
+    }
+
+    static String value(final List<String> headers, final String name) {
+        for (int i = headers.size() - 2; i >= 0; i -= 2) {
+            if (name.equalsIgnoreCase(headers.get(i))) {
+                return headers.get(i + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find a Cache-Control directive.
+     *
+     * @return its value, an empty string for a bare directive or null when absent
+     */
+    static String directive(final String cacheControl, final String name) {
+        if (cacheControl == null) {
+            return null;
+        }
+        int start = 0;
+        final int length = cacheControl.length();
+        while (start < length) {
+            int end = cacheControl.indexOf(',', start);
+            if (end == -1) {
+                end = length;
+            }
+            final String token = cacheControl.substring(start, end).trim();
+            final int equals = token.indexOf('=');
+            final String tokenName = equals == -1 ? token : token.substring(0, equals).trim();
+            if (tokenName.equalsIgnoreCase(name)) {
+                if (equals == -1) {
+                    return "";
+                }
+                String value = token.substring(equals + 1).trim();
+                if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value;
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    private static long parseSeconds(final String value) {
+        if (value == null || value.length() == 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parse an HTTP-date in the preferred RFC 1123 form or the obsolete RFC 850
+     * and asctime forms.
+     *
+     * @return the time in milliseconds, -1 when missing or invalid
+     */
+    static long parseDate(final String value) {
+        if (value == null) {
+            return -1;
+        }
+        final String date = value.trim();
+        try {
+            return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ignored) {
+            // try the obsolete forms
+        }
+        try {
+            return ZonedDateTime.parse(date, RFC_850_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ignored) {
+            // try asctime
+        }
+        try {
+            // asctime pads the day with a space
+            return ZonedDateTime.parse(date.replaceAll("\\s+", " "), ASCTIME_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+
+/**
+ * {@link HttpRequest.ConnectionFactory} putting an {@link HttpCache} in front
+ * of another factory. Fresh GET responses are served from the cache without
+ * opening a connection, stale ones are revalidated with If-None-Match or
+ * If-Modified-Since.
+ */
+
+public class CachingConnectionFactory implements HttpRequest.ConnectionFactory {
+
+    private final HttpRequest.ConnectionFactory delegate;
+    private final HttpCache cache;
+
+    public CachingConnectionFactory(final HttpCache cache) {
+        this(HttpRequest.ConnectionFactory.DEFAULT, cache);
+    }
+
+    public CachingConnectionFactory(final HttpRequest.ConnectionFactory delegate, final HttpCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    public HttpCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public HttpURLConnection create(final URL url) throws IOException {
+        return new CachingHttpURLConnection(url, null, delegate, cache);
+    }
+
+    @Override
+    public HttpURLConnection create(final URL url, final Proxy proxy) throws IOException {
+        return new CachingHttpURLConnection(url, proxy, delegate, cache);
+    }
+}
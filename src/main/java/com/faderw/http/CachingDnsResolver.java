@@ -0,0 +1,224 @@
+package com.faderw.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link DnsResolver} keeping answers in memory for a fixed time to live.
+ * A host used during the last part of its ttl is looked up again in the
+ * background, so hosts in steady use never wait for DNS on the request path.
+ * Every call rotates the returned addresses, spreading connections across
+ * all A/AAAA records of a host.
+ * <pre>
+ *     CachingDnsResolver dns = new CachingDnsResolver()
+ *             .ttl(5, TimeUnit.MINUTES)
+ *             .override("api.example.com", InetAddress.getLoopbackAddress());
+ *     new ConnectionPool().dnsResolver(dns);
+ * </pre>
+ */
+
+public class CachingDnsResolver implements DnsResolver {
+
+    private static final ThreadPoolExecutor REFRESHER = new ThreadPoolExecutor(0, 4, 30, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), r -> {
+        final Thread thread = new Thread(r, "reach-http-dns-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DnsResolver delegate;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, List<InetAddress>> overrides = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+
+    private volatile long ttlNanos = TimeUnit.SECONDS.toNanos(60);
+    private volatile long negativeTtlNanos = TimeUnit.SECONDS.toNanos(5);
+    private volatile double refreshAhead = 0.25;
+
+    public CachingDnsResolver() {
+        this(SYSTEM);
+    }
+
+    public CachingDnsResolver(final DnsResolver delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Set how long an answer is used before it has to be looked up again.
+     */
+    public CachingDnsResolver ttl(final long duration, final TimeUnit unit) {
+        this.ttlNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Set how long a failed lookup is remembered, 0 to always retry.
+     */
+    public CachingDnsResolver negativeTtl(final long duration, final TimeUnit unit) {
+        this.negativeTtlNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Set the share of the ttl, at its end, during which a use triggers a
+     * background refresh. 0 disables refreshing ahead.
+     */
+    public CachingDnsResolver refreshAhead(final double fraction) {
+        if (fraction < 0 || fraction >= 1) {
+            throw new IllegalArgumentException("fraction must be in [0, 1): " + fraction);
+        }
+        this.refreshAhead = fraction;
+        return this;
+    }
+
+    /**
+     * Answer the host with fixed addresses, bypassing DNS entirely.
+     * Handy for tests and for pinning a host.
+     */
+    public CachingDnsResolver override(final String host, final InetAddress... addresses) {
+        if (addresses.length == 0) {
+            throw new IllegalArgumentException("no address for " + host);
+        }
+        overrides.put(host.toLowerCase(Locale.ROOT), Collections.unmodifiableList(new ArrayList<>(Arrays.asList(addresses))));
+        return this;
+    }
+
+    public CachingDnsResolver removeOverride(final String host) {
+        overrides.remove(host.toLowerCase(Locale.ROOT));
+        return this;
+    }
+
+    @Override
+    public List<InetAddress> resolve(final String host) throws UnknownHostException {
+        final String key = host.toLowerCase(Locale.ROOT);
+        final List<InetAddress> override = overrides.get(key);
+        if (override != null) {
+            return override;
+        }
+        final long now = System.nanoTime();
+        Entry entry = entries.get(key);
+        if (entry != null && now - entry.expiresAt < 0) {
+            hits.incrementAndGet();
+            if (entry.addresses != null && now - entry.refreshAt >= 0) {
+                refreshInBackground(key, entry);
+            }
+            return entry.rotate();
+        }
+        misses.incrementAndGet();
+        entry = lookup(key);
+        entries.put(key, entry);
+        return entry.rotate();
+    }
+
+    private Entry lookup(final String host) {
+        final long start = System.nanoTime();
+        try {
+            final List<InetAddress> addresses = delegate.resolve(host);
+            if (addresses.isEmpty()) {
+                throw new UnknownHostException(host);
+            }
+            final long ttl = ttlNanos;
+            return new Entry(addresses.toArray(new InetAddress[0]), null,
+                    start + ttl - (long) (ttl * refreshAhead), start + ttl);
+        } catch (UnknownHostException e) {
+            return new Entry(null, e, Long.MAX_VALUE, start + negativeTtlNanos);
+        }
+    }
+
+    private void refreshInBackground(final String host, final Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            REFRESHER.execute(() -> {
+                final Entry fresh = lookup(host);
+                refreshes.incrementAndGet();
+                if (fresh.addresses != null) {
+                    entries.replace(host, entry, fresh);
+                } else {
+                    // keep serving the current answer until it expires
+                    entry.refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    /**
+     * Drop every cached answer, overrides stay
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    /**
+     * Number of background lookups done ahead of expiry
+     */
+    public long refreshCount() {
+        return refreshes.get();
+    }
+
+    private static final class Entry {
+        final InetAddress[] addresses;
+        final UnknownHostException failure;
+        final long refreshAt;
+        final long expiresAt;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        final AtomicInteger next = new AtomicInteger();
+
+        Entry(final InetAddress[] addresses, final UnknownHostException failure,
+              final long refreshAt, final long expiresAt) {
+            this.addresses = addresses;
+            this.failure = failure;
+            this.refreshAt = refreshAt;
+            this.expiresAt = expiresAt;
+        }
+
+        List<InetAddress> rotate() throws UnknownHostException {
+            if (addresses == null) {
+                final UnknownHostException e = new UnknownHostException(failure.getMessage());
+                e.initCause(failure);
+                throw e;
+            }
+            final int length = addresses.length;
+            if (length == 1) {
+                return Collections.singletonList(addresses[0]);
+            }
+            final int start = (next.getAndIncrement() & Integer.MAX_VALUE) % length;
+            final InetAddress[] rotated = new InetAddress[length];
+            for (int i = 0; i < length; i++) {
+                rotated[i] = addresses[(start + i) % length];
+            }
+            return Arrays.asList(rotated);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.faderw.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.faderw.http.HttpRequestConst.*;
+
+/**
+ * Connection consulting an {@link HttpCache} before opening the real one.
+ * The delegate connection is only created when the cache cannot answer, and
+ * a successful body is copied into the cache while the caller reads it.
+ */
+
+class CachingHttpURLConnection extends AbstractHttpURLConnection {
+
+    private final Proxy proxy;
+    private final HttpRequest.ConnectionFactory factory;
+    private final HttpCache cache;
+
+    private HttpURLConnection delegate;
+    private boolean resolved;
+    private CacheEntry served;
+    private InputStream servedBody;
+
+    CachingHttpURLConnection(final URL url, final Proxy proxy, final HttpRequest.ConnectionFactory factory,
+                             final HttpCache cache) {
+        super(url);
+        this.proxy = proxy;
+        this.factory = factory;
+        this.cache = cache;
+    }
+
+    private String key() {
+        final String acceptEncoding = getRequestProperty(HEADER_ACCEPT_ENCODING);
+        final String spec = url.toExternalForm();
+        return acceptEncoding == null ? spec : spec + '\n' + acceptEncoding;
+    }
+
+    private boolean cacheableRequest() {
+        if (!METHOD_GET.equals(method) || doOutput) {
+            return false;
+        }
+        return CacheEntry.directive(getRequestProperty(HEADER_CACHE_CONTROL), "no-store") == null;
+    }
+
+    private HttpURLConnection delegate() throws IOException {
+        if (delegate == null) {
+            delegate = proxy != null ? factory.create(url, proxy) : factory.create(url);
+            copyTo(delegate);
+        }
+        return delegate;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connected) {
+            return;
+        }
+        connected = true;
+        if (!cacheableRequest()) {
+            delegate().connect();
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        connected = true;
+        return delegate().getOutputStream();
+    }
+
+    /**
+     * Answer from the cache, revalidate or go to the network, once per connection
+     */
+    @Override
+    protected void ensureResponse() throws IOException {
+        if (resolved) {
+            return;
+        }
+        resolved = true;
+        connected = true;
+        if (!cacheableRequest()) {
+            final int code = delegate().getResponseCode();
+            if (!METHOD_GET.equals(method) && !METHOD_HEAD.equals(method) && code < 400) {
+                cache.remove(url.toExternalForm());
+                cache.remove(key());
+            }
+            return;
+        }
+
+        final String key = key();
+        final CacheEntry entry = cache.get(key);
+        final boolean noCache = CacheEntry.directive(getRequestProperty(HEADER_CACHE_CONTROL), "no-cache") != null;
+        final long now = System.currentTimeMillis();
+        if (entry != null && !noCache && entry.isFresh(now)) {
+            cache.recordHit();
+            serve(entry);
+            return;
+        }
+
+        final HttpURLConnection connection = delegate();
+        boolean conditional = false;
+        if (entry != null && entry.hasValidators()) {
+            final String etag = entry.header(HEADER_ETAG);
+            if (etag != null && getRequestProperty(HEADER_IF_NONE_MATCH) == null) {
+                connection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+                conditional = true;
+            }
+            final String lastModified = entry.header(HEADER_LAST_MODIFIED);
+            if (lastModified != null && getRequestProperty(HEADER_IF_MODIFIED_SINCE) == null) {
+                connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+                conditional = true;
+            }
+        }
+        if (conditional) {
+            cache.recordRevalidation();
+        } else {
+            cache.recordMiss();
+        }
+
+        final int code = connection.getResponseCode();
+        final long responseTime = System.currentTimeMillis();
+        if (conditional && code == HTTP_NOT_MODIFIED) {
+            drain(connection);
+            final CacheEntry refreshed = entry.revalidated(headers(connection), responseTime);
+            cache.put(refreshed);
+            cache.recordNotModified();
+            serve(refreshed);
+        }
+    }
+
+    private void serve(final CacheEntry entry) {
+        served = entry;
+        responseCode = entry.code;
+        final String line = entry.statusLine;
+        final int messageStart = line.indexOf(' ', line.indexOf(' ') + 1);
+        responseMessage = messageStart > 0 ? line.substring(messageStart + 1) : "";
+        servedBody = new ByteArrayInputStream(entry.body);
+    }
+
+    private static void drain(final HttpURLConnection connection) {
+        try {
+            final InputStream in = connection.getResponseCode() >= 400
+                    ? connection.getErrorStream() : connection.getInputStream();
+            if (in != null) {
+                final byte[] skip = new byte[256];
+                while (in.read(skip) != -1) {
+                    // discard, lets the connection be reused
+                }
+                in.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static List<String> headers(final HttpURLConnection connection) {
+        final List<String> headers = new ArrayList<>();
+        for (int i = 1; ; i++) {
+            final String value = connection.getHeaderField(i);
+            if (value == null) {
+                break;
+            }
+            final String name = connection.getHeaderFieldKey(i);
+            if (name != null) {
+                headers.add(name);
+                headers.add(value);
+            }
+        }
+        return headers;
+    }
+
+    @Override
+    boolean releaseAfterHead() throws IOException {
+        ensureResponse();
+        return served != null || releaseAfterHead(delegate);
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        ensureResponse();
+        return served != null ? responseCode : delegate.getResponseCode();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        ensureResponse();
+        return served != null ? responseMessage : delegate.getResponseMessage();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        ensureResponse();
+        if (served != null) {
+            return servedBody;
+        }
+        final InputStream in = delegate.getInputStream();
+        if (cacheableRequest() && CacheEntry.isCacheable(delegate.getResponseCode(), headers(delegate))) {
+            final long length = delegate.getHeaderFieldLong(HEADER_CONTENT_LENGTH, -1);
+            if (length <= cache.maxEntryBytes()) {
+                return new CacheWritingInputStream(in, length);
+            }
+        }
+        return in;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if (served != null) {
+            return null;
+        }
+        return delegate != null ? delegate.getErrorStream() : null;
+    }
+
+    @Override
+    public String getHeaderField(final String name) {
+        if (!ensureResponseQuietly()) {
+            return null;
+        }
+        if (served != null) {
+            return name == null ? served.statusLine : served.header(name);
+        }
+        return delegate.getHeaderField(name);
+    }
+
+    @Override
+    public String getHeaderFieldKey(final int n) {
+        if (!ensureResponseQuietly()) {
+            return null;
+        }
+        if (served != null) {
+            return n <= 0 || 2 * n > served.headers.size() ? null : served.headers.get(2 * (n - 1));
+        }
+        return delegate.getHeaderFieldKey(n);
+    }
+
+    @Override
+    public String getHeaderField(final int n) {
+        if (!ensureResponseQuietly()) {
+            return null;
+        }
+        if (served != null) {
+            if (n == 0) {
+                return served.statusLine;
+            }
+            return n < 0 || 2 * n > served.headers.size() ? null : served.headers.get(2 * n - 1);
+        }
+        return delegate.getHeaderField(n);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if (!ensureResponseQuietly()) {
+            return Collections.emptyMap();
+        }
+        return served != null ? toMap(served.headers, served.statusLine) : delegate.getHeaderFields();
+    }
+
+    private boolean ensureResponseQuietly() {
+        try {
+            ensureResponse();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        if (delegate != null) {
+            delegate.disconnect();
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return delegate != null && delegate.usingProxy();
+    }
+
+    /**
+     * Copies the body aside while it is read and stores it at end of stream.
+     * Bodies growing past the entry limit are given up on.
+     */
+    private final class CacheWritingInputStream extends FilterInputStream {
+        private ByteArrayOutputStream copy;
+        private boolean done;
+
+        CacheWritingInputStream(final InputStream in, final long length) {
+            super(in);
+            this.copy = new ByteArrayOutputStream(length > 0 ? (int) length : 8192);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b == -1) {
+                store();
+            } else if (copy != null) {
+                copy.write(b);
+                checkSize();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read == -1) {
+                store();
+            } else if (copy != null) {
+                copy.write(b, off, read);
+                checkSize();
+            }
+            return read;
+        }
+
+        private void checkSize() {
+            if (copy.size() > cache.maxEntryBytes()) {
+                copy = null;
+            }
+        }
+
+        private void store() {
+            if (done || copy == null) {
+                return;
+            }
+            done = true;
+            final String line = delegate.getHeaderField(0);
+            cache.put(CacheEntry.create(key(), responseCode(), line != null ? line : "HTTP/1.1 200 OK",
+                    headers(delegate), copy.toByteArray(), System.currentTimeMillis()));
+            copy = null;
+        }
+
+        private int responseCode() {
+            try {
+                return delegate.getResponseCode();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Listener capturing when each phase of a request started and ended.
+ * Durations are in nanoseconds and -1 for phases that did not happen,
+ * e.g. dns and connect on a pooled socket.
+ *
+ * <pre>
+ * CallTimings timings = new CallTimings();
+ * HttpRequest.get(url).eventListener(timings).body("UTF-8");
+ * timings.firstByteNanos();
+ * </pre>
+ */
+
+public class CallTimings implements HttpEventListener {
+
+    private long callStart = -1;
+    private long dnsStart = -1;
+    private long dnsEnd = -1;
+    private long connectStart = -1;
+    private long secureConnectStart = -1;
+    private long secureConnectEnd = -1;
+    private long connectEnd = -1;
+    private long requestHeadersEnd = -1;
+    private long requestBodyEnd = -1;
+    private long responseHeadersEnd = -1;
+    private long callEnd = -1;
+    private int code = -1;
+    private long bodyBytes = -1;
+    private boolean reused;
+    private IOException failure;
+
+    @Override
+    public void callStart(final HttpRequest request) {
+        callStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsStart(final String host) {
+        dnsStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(final String host, final InetAddress address) {
+        dnsEnd = System.nanoTime();
+    }
+
+    @Override
+    public void connectStart(final InetSocketAddress address) {
+        connectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectStart() {
+        secureConnectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd() {
+        secureConnectEnd = System.nanoTime();
+    }
+
+    @Override
+    public void connectEnd(final InetSocketAddress address) {
+        connectEnd = System.nanoTime();
+    }
+
+    @Override
+    public void connectionAcquired(final boolean reused) {
+        this.reused = reused;
+    }
+
+    @Override
+    public void requestHeadersEnd() {
+        requestHeadersEnd = System.nanoTime();
+    }
+
+    @Override
+    public void requestBodyEnd() {
+        requestBodyEnd = System.nanoTime();
+    }
+
+    @Override
+    public void responseHeadersEnd(final int code) {
+        responseHeadersEnd = System.nanoTime();
+        this.code = code;
+    }
+
+    @Override
+    public void responseBodyEnd(final long bytes) {
+        bodyBytes = bytes;
+    }
+
+    @Override
+    public void callEnd() {
+        callEnd = System.nanoTime();
+    }
+
+    @Override
+    public void callFailed(final IOException e) {
+        callEnd = System.nanoTime();
+        failure = e;
+    }
+
+    private static long between(final long start, final long end) {
+        return start >= 0 && end >= 0 ? end - start : -1;
+    }
+
+    public long dnsNanos() {
+        return between(dnsStart, dnsEnd);
+    }
+
+    /**
+     * TCP connect, without the TLS handshake
+     */
+    public long connectNanos() {
+        return between(connectStart, secureConnectStart >= 0 ? secureConnectStart : connectEnd);
+    }
+
+    public long tlsNanos() {
+        return between(secureConnectStart, secureConnectEnd);
+    }
+
+    /**
+     * From the start of the call until the response headers arrived
+     */
+    public long firstByteNanos() {
+        return between(callStart, responseHeadersEnd);
+    }
+
+    /**
+     * From the response headers until the body was read or closed
+     */
+    public long bodyNanos() {
+        return between(responseHeadersEnd, callEnd);
+    }
+
+    public long totalNanos() {
+        return between(callStart, callEnd);
+    }
+
+    /**
+     * When the request body or, without one, the request headers were sent
+     */
+    public long requestSentNanos() {
+        return between(callStart, requestBodyEnd >= 0 ? requestBodyEnd : requestHeadersEnd);
+    }
+
+    public int code() {
+        return code;
+    }
+
+    public long bodyBytes() {
+        return bodyBytes;
+    }
+
+    public boolean isReused() {
+        return reused;
+    }
+
+    public IOException failure() {
+        return failure;
+    }
+}
@@ -0,0 +1,24 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Implemented by request body streams that can take file content straight
+ * from a {@link FileChannel}, letting the kernel copy it into the socket.
+ */
+
+interface ChannelOutput {
+
+    /**
+     * @return true when {@link #transferFrom(FileChannel, long, long)} may be used
+     */
+    boolean canTransfer();
+
+    /**
+     * Send up to count bytes of the file starting at position.
+     *
+     * @return the number of bytes sent
+     */
+    long transferFrom(FileChannel file, long position, long count) throws IOException;
+}
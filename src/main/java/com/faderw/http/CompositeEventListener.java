@@ -0,0 +1,121 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Forwards every event to two listeners, the one from the global factory
+ * and the one set on the request.
+ */
+
+final class CompositeEventListener implements HttpEventListener {
+
+    private final HttpEventListener first;
+    private final HttpEventListener second;
+
+    private CompositeEventListener(final HttpEventListener first, final HttpEventListener second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    static HttpEventListener of(final HttpEventListener first, final HttpEventListener second) {
+        if (first == NONE) {
+            return second;
+        }
+        if (second == NONE) {
+            return first;
+        }
+        return new CompositeEventListener(first, second);
+    }
+
+    @Override
+    public void callStart(final HttpRequest request) {
+        first.callStart(request);
+        second.callStart(request);
+    }
+
+    @Override
+    public void dnsStart(final String host) {
+        first.dnsStart(host);
+        second.dnsStart(host);
+    }
+
+    @Override
+    public void dnsEnd(final String host, final InetAddress address) {
+        first.dnsEnd(host, address);
+        second.dnsEnd(host, address);
+    }
+
+    @Override
+    public void connectStart(final InetSocketAddress address) {
+        first.connectStart(address);
+        second.connectStart(address);
+    }
+
+    @Override
+    public void secureConnectStart() {
+        first.secureConnectStart();
+        second.secureConnectStart();
+    }
+
+    @Override
+    public void secureConnectEnd() {
+        first.secureConnectEnd();
+        second.secureConnectEnd();
+    }
+
+    @Override
+    public void connectEnd(final InetSocketAddress address) {
+        first.connectEnd(address);
+        second.connectEnd(address);
+    }
+
+    @Override
+    public void connectFailed(final InetSocketAddress address, final IOException e) {
+        first.connectFailed(address, e);
+        second.connectFailed(address, e);
+    }
+
+    @Override
+    public void connectionAcquired(final boolean reused) {
+        first.connectionAcquired(reused);
+        second.connectionAcquired(reused);
+    }
+
+    @Override
+    public void requestHeadersEnd() {
+        first.requestHeadersEnd();
+        second.requestHeadersEnd();
+    }
+
+    @Override
+    public void requestBodyEnd() {
+        first.requestBodyEnd();
+        second.requestBodyEnd();
+    }
+
+    @Override
+    public void responseHeadersEnd(final int code) {
+        first.responseHeadersEnd(code);
+        second.responseHeadersEnd(code);
+    }
+
+    @Override
+    public void responseBodyEnd(final long bytes) {
+        first.responseBodyEnd(bytes);
+        second.responseBodyEnd(bytes);
+    }
+
+    @Override
+    public void callEnd() {
+        first.callEnd();
+        second.callEnd();
+    }
+
+    @Override
+    public void callFailed(final IOException e) {
+        first.callFailed(e);
+        second.callFailed(e);
+    }
+}
@@ -0,0 +1,58 @@
+package com.faderw.http;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Bounded pool of {@link Inflater} and {@link Deflater} instances. Both hold
+ * native zlib state that is expensive to set up, so they are reset and reused
+ * rather than created per request; surplus instances are ended on release.
+ */
+
+final class CompressionPool {
+
+    static final CompressionPool DEFAULT = new CompressionPool(32, Deflater.DEFAULT_COMPRESSION);
+
+    private final int level;
+    private final ArrayBlockingQueue<Inflater> rawInflaters;
+    private final ArrayBlockingQueue<Inflater> zlibInflaters;
+    private final ArrayBlockingQueue<Deflater> deflaters;
+
+    CompressionPool(final int maxPooled, final int level) {
+        this.level = level;
+        this.rawInflaters = new ArrayBlockingQueue<>(maxPooled);
+        this.zlibInflaters = new ArrayBlockingQueue<>(maxPooled);
+        this.deflaters = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * @param nowrap true for raw deflate data (as inside gzip), false for zlib framing
+     */
+    Inflater acquireInflater(final boolean nowrap) {
+        final Inflater inflater = (nowrap ? rawInflaters : zlibInflaters).poll();
+        return inflater != null ? inflater : new Inflater(nowrap);
+    }
+
+    void releaseInflater(final Inflater inflater, final boolean nowrap) {
+        inflater.reset();
+        if (!(nowrap ? rawInflaters : zlibInflaters).offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return a raw deflater, gzip framing is written by the caller
+     */
+    Deflater acquireDeflater() {
+        final Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(level, true);
+    }
+
+    void releaseDeflater(final Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+}
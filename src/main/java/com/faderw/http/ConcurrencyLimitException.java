@@ -0,0 +1,15 @@
+package com.faderw.http;
+
+import java.io.IOException;
+
+/**
+ * A request was refused by a {@link ConcurrencyLimiter} before being sent,
+ * so it is always safe to retry later.
+ */
+
+public class ConcurrencyLimitException extends IOException {
+
+    public ConcurrencyLimitException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,322 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive bound on the requests in flight to each host ({@code host:port}).
+ * The limit follows AIMD: it grows by one per round of successful responses
+ * while the host is kept busy, and is cut by {@link #backoffRatio(double)}
+ * on an I/O failure, a 429 or 503 answer, or a response slower than
+ * {@link #latencyTolerance(double)} times the host's usual latency. A request
+ * over the limit waits up to {@link #maxWait(long, TimeUnit)} for a slot,
+ * 0 by default so it fails fast with a {@link ConcurrencyLimitException}.
+ * <p>
+ * Used through {@link LimitingConnectionFactory}, or directly:
+ * <pre>
+ *     ConcurrencyLimiter.Permit permit = limiter.acquire(url);
+ *     try {
+ *         int code = call();
+ *         permit.onResponse(code == 503);
+ *     } catch (IOException e) {
+ *         permit.onResponse(true);
+ *     } finally {
+ *         permit.release();
+ *     }
+ * </pre>
+ */
+
+public class ConcurrencyLimiter {
+
+    private final ConcurrentMap<String, HostLimit> hosts = new ConcurrentHashMap<>();
+
+    private volatile int initialLimit = 20;
+    private volatile int minLimit = 1;
+    private volatile int maxLimit = 200;
+    private volatile double backoffRatio = 0.9;
+    private volatile double latencyTolerance = 2.0;
+    private volatile long maxWaitNanos;
+    private volatile int maxQueued = 64;
+
+    /**
+     * Set the limit of a host before any response was seen, 20 by default
+     */
+    public ConcurrencyLimiter initialLimit(final int initialLimit) {
+        if (initialLimit < 1) {
+            throw new IllegalArgumentException("initialLimit < 1: " + initialLimit);
+        }
+        this.initialLimit = initialLimit;
+        return this;
+    }
+
+    /**
+     * Set the bounds the limit moves between, 1 and 200 by default
+     */
+    public ConcurrencyLimiter limitRange(final int minLimit, final int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limit range " + minLimit + ".." + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        return this;
+    }
+
+    /**
+     * Set the factor applied to the limit on a dropped request, 0.9 by default
+     */
+    public ConcurrencyLimiter backoffRatio(final double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be in (0, 1)");
+        }
+        this.backoffRatio = backoffRatio;
+        return this;
+    }
+
+    /**
+     * Set how many times slower than usual a response may be before it counts as dropped, 2 by default
+     */
+    public ConcurrencyLimiter latencyTolerance(final double latencyTolerance) {
+        if (latencyTolerance <= 1) {
+            throw new IllegalArgumentException("latencyTolerance <= 1");
+        }
+        this.latencyTolerance = latencyTolerance;
+        return this;
+    }
+
+    /**
+     * Set how long a request over the limit waits for a slot, 0 fails it at once
+     */
+    public ConcurrencyLimiter maxWait(final long maxWait, final TimeUnit unit) {
+        if (maxWait < 0) {
+            throw new IllegalArgumentException("maxWait < 0");
+        }
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        return this;
+    }
+
+    /**
+     * Set how many requests may wait per host, later ones fail at once, 64 by default
+     */
+    public ConcurrencyLimiter maxQueued(final int maxQueued) {
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("maxQueued < 0");
+        }
+        this.maxQueued = maxQueued;
+        return this;
+    }
+
+    /**
+     * Take a slot for a request to the url, waiting for one as configured
+     *
+     * @throws ConcurrencyLimitException when no slot became free in time
+     */
+    public Permit acquire(final URL url) throws IOException {
+        final HostLimit host = host(hostKey(url));
+        host.acquire();
+        return new Permit(host);
+    }
+
+    /**
+     * Hosts seen so far, as {@code host:port}
+     */
+    public Set<String> hosts() {
+        return Collections.unmodifiableSet(hosts.keySet());
+    }
+
+    /**
+     * @return the current limit of the host, the initial one when it was never called
+     */
+    public int limit(final String host) {
+        final HostLimit limit = hosts.get(host);
+        return limit != null ? limit.limit() : initialLimit;
+    }
+
+    public int inFlight(final String host) {
+        final HostLimit limit = hosts.get(host);
+        return limit != null ? limit.inFlight() : 0;
+    }
+
+    public long rejectedCount(final String host) {
+        final HostLimit limit = hosts.get(host);
+        return limit != null ? limit.rejected : 0;
+    }
+
+    /**
+     * Share of the requests to the host rejected so far, between 0 and 1
+     */
+    public double rejectionRate(final String host) {
+        final HostLimit limit = hosts.get(host);
+        if (limit == null) {
+            return 0;
+        }
+        final long total = limit.accepted + limit.rejected;
+        return total == 0 ? 0 : (double) limit.rejected / total;
+    }
+
+    static String hostKey(final URL url) {
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return url.getHost().toLowerCase(Locale.ROOT) + ':' + port;
+    }
+
+    private HostLimit host(final String key) {
+        final HostLimit host = hosts.get(key);
+        return host != null ? host : hosts.computeIfAbsent(key, k -> new HostLimit(k, initialLimit));
+    }
+
+    /**
+     * A slot taken by one request. Report the response once, then release the slot.
+     */
+    public static final class Permit {
+        private final HostLimit host;
+        private final long startNanos = System.nanoTime();
+        private final int inFlightAtStart;
+        private boolean reported;
+        private boolean released;
+
+        Permit(final HostLimit host) {
+            this.host = host;
+            this.inFlightAtStart = host.inFlight();
+        }
+
+        /**
+         * Feed the time since the slot was taken to the limit
+         *
+         * @param dropped true on a failure or an overload answer, the limit backs off
+         */
+        public synchronized void onResponse(final boolean dropped) {
+            if (reported) {
+                return;
+            }
+            reported = true;
+            host.sample(System.nanoTime() - startNanos, inFlightAtStart, dropped);
+        }
+
+        /**
+         * Free the slot, without changing the limit unless {@link #onResponse(boolean)} was called
+         */
+        public synchronized void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            host.release();
+        }
+    }
+
+    /**
+     * Limit and counters of one host
+     */
+    final class HostLimit {
+        private final String key;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition freed = lock.newCondition();
+        // guarded by lock
+        private double limit;
+        private int inFlight;
+        private int queued;
+        private double latencyNanos;
+        volatile long accepted;
+        volatile long rejected;
+
+        HostLimit(final String key, final int initialLimit) {
+            this.key = key;
+            this.limit = initialLimit;
+        }
+
+        void acquire() throws IOException {
+            final long waitNanos = maxWaitNanos;
+            lock.lock();
+            try {
+                if (inFlight >= (int) limit) {
+                    if (waitNanos == 0 || queued >= maxQueued) {
+                        throw reject();
+                    }
+                    queued++;
+                    try {
+                        long remaining = waitNanos;
+                        while (inFlight >= (int) limit) {
+                            if (remaining <= 0) {
+                                throw reject();
+                            }
+                            remaining = freed.awaitNanos(remaining);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new ConcurrencyLimitException("Interrupted waiting for a slot to " + key);
+                    } finally {
+                        queued--;
+                    }
+                }
+                inFlight++;
+                accepted++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private ConcurrencyLimitException reject() {
+            rejected++;
+            return new ConcurrencyLimitException(inFlight + " requests in flight to " + key
+                    + ", limit " + (int) limit);
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                inFlight--;
+                freed.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void sample(final long nanos, final int inFlightAtStart, final boolean dropped) {
+            lock.lock();
+            try {
+                final boolean slow = latencyNanos > 0 && nanos > latencyTolerance * latencyNanos;
+                if (!dropped) {
+                    // slow responses count too, so a lasting change becomes the new usual latency
+                    latencyNanos = latencyNanos == 0 ? nanos : latencyNanos * 0.95 + nanos * 0.05;
+                }
+                if (dropped || slow) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                } else if (inFlightAtStart >= limit / 2) {
+                    // grow only while the limit is what holds requests back
+                    final int before = (int) limit;
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                    if ((int) limit > before) {
+                        freed.signalAll();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int limit() {
+            lock.lock();
+            try {
+                return (int) limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int inFlight() {
+            lock.lock();
+            try {
+                return inFlight;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package com.faderw.http;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-host pool of keep-alive connections used by {@link PooledConnectionFactory}.
+ * Idle connections are handed out most-recently-used first, checked for
+ * liveness on checkout and evicted in the background once they have been idle
+ * longer than the keep-alive time.
+ */
+
+public class ConnectionPool {
+
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "reach-http-pool-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConcurrentMap<Route, RoutePool> routes = new ConcurrentHashMap<>();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    private volatile int maxIdlePerRoute = 8;
+    private volatile int maxTotalPerRoute = 64;
+    private volatile long keepAliveNanos = TimeUnit.SECONDS.toNanos(60);
+    private volatile int connectTimeout = 10000;
+    private volatile long acquireTimeout = 30000;
+    private volatile SSLSocketFactory sslSocketFactory;
+    private volatile DnsResolver dnsResolver = new CachingDnsResolver();
+    private ScheduledFuture<?> evictionTask;
+    private volatile boolean closed;
+
+    /**
+     * Set the number of idle connections kept per route, extra ones are closed on release.
+     */
+    public ConnectionPool maxIdlePerRoute(final int maxIdlePerRoute) {
+        if (maxIdlePerRoute < 0) {
+            throw new IllegalArgumentException("maxIdlePerRoute < 0");
+        }
+        this.maxIdlePerRoute = maxIdlePerRoute;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of leased plus idle connections per route.
+     */
+    public ConnectionPool maxTotalPerRoute(final int maxTotalPerRoute) {
+        if (maxTotalPerRoute <= 0) {
+            throw new IllegalArgumentException("maxTotalPerRoute <= 0");
+        }
+        this.maxTotalPerRoute = maxTotalPerRoute;
+        return this;
+    }
+
+    /**
+     * Set how long a connection may stay idle before it is evicted.
+     */
+    public synchronized ConnectionPool keepAlive(final long duration, final TimeUnit unit) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("keepAlive <= 0");
+        }
+        this.keepAliveNanos = unit.toNanos(duration);
+        if (evictionTask != null) {
+            evictionTask.cancel(false);
+            evictionTask = null;
+            scheduleEviction();
+        }
+        return this;
+    }
+
+    /**
+     * Set the connect timeout in milliseconds used when a request does not set its own.
+     */
+    public ConnectionPool connectTimeout(final int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * Set how long, in milliseconds, a checkout waits for a free slot once the route is full.
+     */
+    public ConnectionPool acquireTimeout(final long acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+        return this;
+    }
+
+    /**
+     * Set the socket factory used for https routes, defaults to the JVM default.
+     */
+    public ConnectionPool sslSocketFactory(final SSLSocketFactory sslSocketFactory) {
+        this.sslSocketFactory = sslSocketFactory;
+        return this;
+    }
+
+    /**
+     * Use the socket factory of the shared {@link TlsConfig} for https routes,
+     * so reconnects resume its sessions.
+     */
+    public ConnectionPool tls(final TlsConfig tls) {
+        return sslSocketFactory(tls.socketFactory());
+    }
+
+    /**
+     * Set the resolver for host names, a {@link CachingDnsResolver} by default.
+     */
+    public ConnectionPool dnsResolver(final DnsResolver dnsResolver) {
+        this.dnsResolver = dnsResolver != null ? dnsResolver : DnsResolver.SYSTEM;
+        return this;
+    }
+
+    public DnsResolver getDnsResolver() {
+        return dnsResolver;
+    }
+
+    SSLSocketFactory getSslSocketFactory() {
+        final SSLSocketFactory factory = sslSocketFactory;
+        return factory != null ? factory : HttpsURLConnection.getDefaultSSLSocketFactory();
+    }
+
+    int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Check out a connection for the route, reusing a healthy idle one when possible.
+     */
+    PooledConnection acquire(final Route route, final int timeout, final HttpEventListener listener) throws IOException {
+        if (closed) {
+            throw new IOException("Connection pool is closed");
+        }
+        final RoutePool routePool = routePool(route);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(acquireTimeout);
+        while (true) {
+            PooledConnection connection = null;
+            synchronized (routePool) {
+                while (!routePool.idle.isEmpty()) {
+                    final PooledConnection candidate = routePool.idle.pollFirst();
+                    if (System.nanoTime() - candidate.idleSince() < keepAliveNanos) {
+                        connection = candidate;
+                        routePool.leased++;
+                        break;
+                    }
+                    routePool.total--;
+                    evicted.incrementAndGet();
+                    candidate.closeQuietly();
+                }
+                if (connection == null) {
+                    if (routePool.total < maxTotalPerRoute) {
+                        routePool.total++;
+                        routePool.leased++;
+                    } else {
+                        final long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            throw new IOException("Timed out waiting for a connection to " + route
+                                    + " (maxTotalPerRoute=" + maxTotalPerRoute + ")");
+                        }
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(routePool, remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted waiting for a connection to " + route);
+                        }
+                        continue;
+                    }
+                }
+            }
+
+            if (connection != null) {
+                if (connection.isHealthy()) {
+                    reused.incrementAndGet();
+                    connection.markUsed();
+                    return connection;
+                }
+                connection.closeQuietly();
+                evicted.incrementAndGet();
+                release(routePool, null);
+                continue;
+            }
+
+            try {
+                final PooledConnection opened = PooledConnection.open(route,
+                        timeout > 0 ? timeout : connectTimeout, getSslSocketFactory(), dnsResolver, listener);
+                created.incrementAndGet();
+                opened.markUsed();
+                return opened;
+            } catch (IOException | RuntimeException e) {
+                release(routePool, null);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Return a leased connection. Connections that cannot carry another
+     * exchange are closed and their slot is freed.
+     */
+    void release(final PooledConnection connection, final boolean reusable) {
+        final RoutePool routePool = routePool(connection.route);
+        release(routePool, reusable && !closed ? connection : null);
+        if (!reusable || closed) {
+            connection.closeQuietly();
+        }
+    }
+
+    private void release(final RoutePool routePool, final PooledConnection connection) {
+        PooledConnection overflow = null;
+        synchronized (routePool) {
+            routePool.leased--;
+            if (connection != null && routePool.idle.size() < maxIdlePerRoute) {
+                connection.markIdle(System.nanoTime());
+                routePool.idle.addFirst(connection);
+            } else {
+                routePool.total--;
+                overflow = connection;
+            }
+            routePool.notify();
+        }
+        if (overflow != null) {
+            overflow.closeQuietly();
+        } else if (connection != null) {
+            scheduleEviction();
+        }
+    }
+
+    /**
+     * Open connections to each base url in parallel and park them idle, so
+     * the first requests after startup skip DNS, TCP and TLS setup. Routes
+     * are topped up to the count, capped by maxIdlePerRoute and
+     * maxTotalPerRoute; connections already pooled count towards it.
+     * Connections used through a proxy are not covered.
+     *
+     * @param baseUrls           http or https urls, only scheme, host and port matter
+     * @param connectionsPerHost connections wanted for each of them
+     * @return the progress, done once every connection was opened or failed
+     */
+    public Preconnect preconnect(final List<String> baseUrls, final int connectionsPerHost) {
+        if (connectionsPerHost < 1) {
+            throw new IllegalArgumentException("connectionsPerHost < 1: " + connectionsPerHost);
+        }
+        if (closed) {
+            throw new IllegalStateException("Connection pool is closed");
+        }
+        final List<Route> targets = new ArrayList<>(baseUrls.size());
+        for (String baseUrl : baseUrls) {
+            final URL url;
+            try {
+                url = new URL(baseUrl);
+            } catch (MalformedURLException e) {
+                throw new HttpRequestException(e);
+            }
+            if (!"http".equalsIgnoreCase(url.getProtocol()) && !"https".equalsIgnoreCase(url.getProtocol())) {
+                throw new IllegalArgumentException("Unsupported protocol for pooled transport: " + baseUrl);
+            }
+            final Route route = Route.of(url, null);
+            if (!targets.contains(route)) {
+                targets.add(route);
+            }
+        }
+
+        final Preconnect preconnect = new Preconnect();
+        final Executor executor = AsyncExecutors.defaultExecutor();
+        for (Route route : targets) {
+            final RoutePool routePool = routePool(route);
+            final int count;
+            synchronized (routePool) {
+                final int wanted = Math.min(connectionsPerHost, Math.min(maxIdlePerRoute, maxTotalPerRoute));
+                count = Math.max(0, wanted - routePool.total);
+                // leased until parked, like a connection returned after its first exchange
+                routePool.total += count;
+                routePool.leased += count;
+            }
+            preconnect.add(count);
+            for (int i = 0; i < count; i++) {
+                executor.execute(() -> {
+                    final PooledConnection connection;
+                    try {
+                        connection = PooledConnection.open(route, connectTimeout, getSslSocketFactory(), dnsResolver,
+                                HttpEventListener.NONE);
+                    } catch (IOException e) {
+                        release(routePool, null);
+                        preconnect.connectionFailed(e);
+                        return;
+                    } catch (RuntimeException e) {
+                        release(routePool, null);
+                        preconnect.connectionFailed(new IOException(e));
+                        return;
+                    }
+                    created.incrementAndGet();
+                    release(connection, true);
+                    preconnect.connectionOpened();
+                });
+            }
+        }
+        preconnect.started();
+        return preconnect;
+    }
+
+    private RoutePool routePool(final Route route) {
+        RoutePool routePool = routes.get(route);
+        if (routePool == null) {
+            final RoutePool created = new RoutePool();
+            routePool = routes.putIfAbsent(route, created);
+            if (routePool == null) {
+                routePool = created;
+            }
+        }
+        return routePool;
+    }
+
+    private synchronized void scheduleEviction() {
+        if (evictionTask != null || closed) {
+            return;
+        }
+        final long period = Math.max(TimeUnit.MILLISECONDS.toNanos(100), keepAliveNanos / 2);
+        evictionTask = EVICTOR.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Close idle connections that have outlived the keep-alive time.
+     *
+     * @return the number of connections closed
+     */
+    public int evictIdle() {
+        final long now = System.nanoTime();
+        int count = 0;
+        for (RoutePool routePool : routes.values()) {
+            synchronized (routePool) {
+                final Iterator<PooledConnection> iterator = routePool.idle.descendingIterator();
+                while (iterator.hasNext()) {
+                    final PooledConnection connection = iterator.next();
+                    if (now - connection.idleSince() >= keepAliveNanos) {
+                        iterator.remove();
+                        routePool.total--;
+                        connection.closeQuietly();
+                        count++;
+                    }
+                }
+            }
+        }
+        evicted.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Close every idle connection and stop pooling, leased connections are closed on release.
+     */
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            if (evictionTask != null) {
+                evictionTask.cancel(false);
+                evictionTask = null;
+            }
+        }
+        for (RoutePool routePool : routes.values()) {
+            synchronized (routePool) {
+                for (PooledConnection connection : routePool.idle) {
+                    connection.closeQuietly();
+                    routePool.total--;
+                }
+                routePool.idle.clear();
+                routePool.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the number of idle connections across all routes
+     */
+    public int idleCount() {
+        int count = 0;
+        for (RoutePool routePool : routes.values()) {
+            synchronized (routePool) {
+                count += routePool.idle.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of connections currently checked out
+     */
+    public int leasedCount() {
+        int count = 0;
+        for (RoutePool routePool : routes.values()) {
+            synchronized (routePool) {
+                count += routePool.leased;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of sockets opened by this pool
+     */
+    public long createdCount() {
+        return created.get();
+    }
+
+    /**
+     * @return the number of checkouts served by an idle connection
+     */
+    public long reusedCount() {
+        return reused.get();
+    }
+
+    /**
+     * @return the number of connections closed because they expired or failed the health check
+     */
+    public long evictedCount() {
+        return evicted.get();
+    }
+
+    private static final class RoutePool {
+        final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+        int leased;
+        int total;
+    }
+}
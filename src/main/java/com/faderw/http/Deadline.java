@@ -0,0 +1,102 @@
+package com.faderw.http;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which a piece of work must be done, carried from a call
+ * to the calls it makes. While a deadline is attached to a thread, every
+ * {@link HttpRequest} created on it inherits the deadline, so nested calls
+ * share what is left of the caller's budget instead of starting their own.
+ * <pre>
+ *     try (Deadline.Scope scope = Deadline.after(2, TimeUnit.SECONDS).attach()) {
+ *         User user = loadUser(id);          // requests inside inherit the 2 seconds
+ *         Orders orders = loadOrders(user);  // and get what the first one left
+ *     }
+ * </pre>
+ * Instances are immutable.
+ */
+
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+
+    private Deadline(final long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @return a deadline the given time from now
+     */
+    public static Deadline after(final long duration, final TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("duration < 0");
+        }
+        return new Deadline(System.nanoTime() + unit.toNanos(duration));
+    }
+
+    /**
+     * @return the deadline attached to the current thread, null when there is none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the time left, 0 once it passed
+     */
+    public long remaining(final TimeUnit unit) {
+        return unit.convert(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @return the earlier of the two, this when other is null
+     */
+    public Deadline min(final Deadline other) {
+        return other == null || deadlineNanos - other.deadlineNanos <= 0 ? this : other;
+    }
+
+    /**
+     * Make this the deadline of the current thread until the scope is closed;
+     * an earlier deadline already attached stays in force
+     */
+    public Scope attach() {
+        final Deadline previous = CURRENT.get();
+        CURRENT.set(min(previous));
+        return new Scope(previous);
+    }
+
+    long nanoTime() {
+        return deadlineNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline{remaining=" + remaining(TimeUnit.MILLISECONDS) + "ms}";
+    }
+
+    /**
+     * Restores the deadline the thread had before {@link #attach()}
+     */
+    public static final class Scope implements AutoCloseable {
+        private final Deadline previous;
+
+        private Scope(final Deadline previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+}
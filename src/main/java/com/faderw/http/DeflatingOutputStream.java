@@ -0,0 +1,73 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * gzip encoder for request bodies. Unlike {@link java.util.zip.GZIPOutputStream}
+ * it borrows its {@link Deflater} from a {@link CompressionPool} and returns it
+ * on close instead of ending it.
+ */
+
+final class DeflatingOutputStream extends DeflaterOutputStream {
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final CompressionPool compressionPool;
+    private final CRC32 crc = new CRC32();
+    private boolean headerWritten;
+    private boolean finished;
+    private boolean closed;
+
+    DeflatingOutputStream(final OutputStream out, final CompressionPool compressionPool, final int bufferSize) {
+        super(out, compressionPool.acquireDeflater(), bufferSize);
+        this.compressionPool = compressionPool;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        writeHeader();
+        super.write(b, off, len);
+        crc.update(b, off, len);
+    }
+
+    private void writeHeader() throws IOException {
+        if (!headerWritten) {
+            headerWritten = true;
+            out.write(HEADER);
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        writeHeader();
+        super.finish();
+        final long value = crc.getValue();
+        final long size = def.getBytesRead();
+        final byte[] trailer = {
+                (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24),
+                (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)};
+        out.write(trailer);
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            finish();
+        } finally {
+            compressionPool.releaseDeflater(def);
+            out.close();
+        }
+    }
+}
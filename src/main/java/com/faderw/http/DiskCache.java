@@ -0,0 +1,151 @@
+package com.faderw.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Second cache tier: one file per entry in a directory, least recently used
+ * files are deleted once the directory grows past its byte budget. Files left
+ * by an earlier run are picked up on creation.
+ */
+
+final class DiskCache {
+
+    private static final int MAGIC = 0x72684331;
+    private static final String SUFFIX = ".entry";
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    DiskCache(final File directory, final long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + directory);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        final File[] existing = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (existing != null) {
+            for (File file : existing) {
+                final String name = file.getName();
+                files.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+                bytes += file.length();
+            }
+        }
+    }
+
+    synchronized CacheEntry get(final String key) {
+        final String name = fileName(key);
+        if (!files.containsKey(name)) {
+            return null;
+        }
+        final File file = new File(directory, name + SUFFIX);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || !key.equals(in.readUTF())) {
+                return null;
+            }
+            final int code = in.readInt();
+            final String statusLine = in.readUTF();
+            final long storedAt = in.readLong();
+            final long expiresAt = in.readLong();
+            final int headerCount = in.readInt();
+            final List<String> headers = new ArrayList<>(headerCount);
+            for (int i = 0; i < headerCount; i++) {
+                headers.add(in.readUTF());
+            }
+            final byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return new CacheEntry(key, code, statusLine, headers, body, storedAt, expiresAt);
+        } catch (IOException e) {
+            remove(key);
+            return null;
+        }
+    }
+
+    synchronized void put(final CacheEntry entry) {
+        final String name = fileName(entry.key);
+        final File file = new File(directory, name + SUFFIX);
+        final File temp = new File(directory, name + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(entry.key);
+            out.writeInt(entry.code);
+            out.writeUTF(entry.statusLine);
+            out.writeLong(entry.storedAt);
+            out.writeLong(entry.expiresAt);
+            out.writeInt(entry.headers.size());
+            for (String header : entry.headers) {
+                out.writeUTF(header);
+            }
+            out.writeInt(entry.body.length);
+            out.write(entry.body);
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        file.delete();
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        final Long previous = files.put(name, file.length());
+        bytes += file.length() - (previous != null ? previous : 0);
+        trim();
+    }
+
+    synchronized void remove(final String key) {
+        final String name = fileName(key);
+        final Long size = files.remove(name);
+        if (size != null) {
+            bytes -= size;
+            new File(directory, name + SUFFIX).delete();
+        }
+    }
+
+    private void trim() {
+        final Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            bytes -= eldest.getValue();
+            new File(directory, eldest.getKey() + SUFFIX).delete();
+        }
+    }
+
+    synchronized long byteSize() {
+        return bytes;
+    }
+
+    synchronized int size() {
+        return files.size();
+    }
+
+    private static String fileName(final String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            final char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[2 * i] = Character.forDigit((digest[i] >> 4) & 0xf, 16);
+                hex[2 * i + 1] = Character.forDigit(digest[i] & 0xf, 16);
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
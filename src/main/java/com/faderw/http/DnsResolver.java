@@ -0,0 +1,25 @@
+package com.faderw.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns a host name into the addresses to connect to, in the order they
+ * should be tried. Used by {@link ConnectionPool} when opening sockets.
+ */
+
+public interface DnsResolver {
+
+    /**
+     * Ask the JVM on every call, which applies its own address cache
+     */
+    DnsResolver SYSTEM = host -> Arrays.asList(InetAddress.getAllByName(host));
+
+    /**
+     * @return at least one address
+     * @throws UnknownHostException when the name does not resolve
+     */
+    List<InetAddress> resolve(String host) throws UnknownHostException;
+}
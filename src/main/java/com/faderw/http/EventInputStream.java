@@ -0,0 +1,77 @@
+package com.faderw.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the body handed to the caller and tells the listener of the request
+ * when it was read to the end, closed or failed. Only used while a listener is set.
+ */
+
+final class EventInputStream extends FilterInputStream {
+
+    private final HttpRequest request;
+    private long bytes;
+
+    EventInputStream(final InputStream in, final HttpRequest request) {
+        super(in);
+        this.request = request;
+    }
+
+    @Override
+    public int read() throws IOException {
+        try {
+            final int b = super.read();
+            if (b == -1) {
+                end();
+            } else {
+                bytes++;
+            }
+            return b;
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        try {
+            final int read = super.read(b, off, len);
+            if (read == -1) {
+                end();
+            } else {
+                bytes += read;
+            }
+            return read;
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        final long skipped = super.skip(n);
+        bytes += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            end();
+        }
+    }
+
+    void end() {
+        request.callEnded(bytes);
+    }
+
+    private void fail(final IOException e) {
+        request.callFailed(e);
+    }
+}
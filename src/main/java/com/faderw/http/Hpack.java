@@ -0,0 +1,490 @@
+package com.faderw.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK header compression (RFC 7541) for {@link Http2Connection}. Header
+ * names and values are handled as ISO-8859-1 strings, one char per octet.
+ */
+
+final class Hpack {
+
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+            {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+            {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+            {":status", "404"}, {":status", "500"}, {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+            {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+            {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+            {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+            {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""},
+            {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+            {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""},
+            {"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+            {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+            {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+            {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+            {"www-authenticate", ""}
+    };
+
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<String, Integer> STATIC_ENTRIES = new HashMap<>();
+
+    /**
+     * Huffman code of every octet and of EOS (256), right aligned, RFC 7541 Appendix B
+     */
+    private static final int[] CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5,
+            0xfffffe6, 0xfffffe7, 0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9,
+            0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec, 0xfffffed, 0xfffffee,
+            0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9,
+            0xffffffa, 0xffffffb, 0x14, 0x3f8, 0x3f9, 0xffa,
+            0x1ff9, 0x15, 0xf8, 0x7fa, 0x3fa, 0x3fb,
+            0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b,
+            0x1c, 0x1d, 0x1e, 0x1f, 0x5c, 0xfb,
+            0x7ffc, 0x20, 0xffb, 0x3fc, 0x1ffa, 0x21,
+            0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6a, 0x6b, 0x6c, 0x6d, 0x6e,
+            0x6f, 0x70, 0x71, 0x72, 0xfc, 0x73,
+            0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5,
+            0x25, 0x26, 0x27, 0x6, 0x74, 0x75,
+            0x28, 0x29, 0x2a, 0x7, 0x2b, 0x76,
+            0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd,
+            0x1ffd, 0xffffffc, 0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8,
+            0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9, 0x3fffd6, 0x7fffda,
+            0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1,
+            0x7fffe2, 0x7fffe3, 0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5,
+            0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef, 0x3fffda, 0x1fffdd,
+            0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf,
+            0x7fffeb, 0x7fffec, 0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2,
+            0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef, 0xfffea, 0x3fffe2,
+            0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2,
+            0x3fffe8, 0x1ffffec, 0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde,
+            0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed, 0x7fff2, 0x1fffe3,
+            0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3,
+            0x7ffffe4, 0x7ffffe5, 0xfffec, 0xfffff3, 0xfffed, 0x1fffe6,
+            0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3, 0x3fffea, 0x3fffeb,
+            0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8,
+            0x7ffffe9, 0x7ffffea, 0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed,
+            0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+            0x3fffffff
+    };
+
+    private static final byte[] LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+
+    private static final Node ROOT = new Node();
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+            STATIC_ENTRIES.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+        }
+        for (int symbol = 0; symbol < CODES.length; symbol++) {
+            Node node = ROOT;
+            for (int bit = LENGTHS[symbol] - 1; bit >= 0; bit--) {
+                final int branch = (CODES[symbol] >>> bit) & 1;
+                if (node.children[branch] == null) {
+                    node.children[branch] = new Node();
+                }
+                node = node.children[branch];
+            }
+            node.symbol = symbol;
+        }
+    }
+
+    private Hpack() {
+    }
+
+    private static final class Node {
+        final Node[] children = new Node[2];
+        int symbol = -1;
+    }
+
+    /**
+     * Dynamic table, newest entry first. Sizes count 32 octets of overhead per entry.
+     */
+    private static final class DynamicTable {
+        private String[] names = new String[16];
+        private String[] values = new String[16];
+        private int head;
+        private int count;
+        private int size;
+        private int capacity;
+
+        DynamicTable(final int capacity) {
+            this.capacity = capacity;
+        }
+
+        int length() {
+            return count;
+        }
+
+        /**
+         * @param index 0 for the newest entry
+         */
+        String name(final int index) {
+            return names[(head + index) & (names.length - 1)];
+        }
+
+        String value(final int index) {
+            return values[(head + index) & (values.length - 1)];
+        }
+
+        void add(final String name, final String value) {
+            final int entrySize = name.length() + value.length() + 32;
+            if (entrySize > capacity) {
+                clear();
+                return;
+            }
+            while (size + entrySize > capacity) {
+                evict();
+            }
+            if (count == names.length) {
+                grow();
+            }
+            head = (head - 1) & (names.length - 1);
+            names[head] = name;
+            values[head] = value;
+            count++;
+            size += entrySize;
+        }
+
+        void setCapacity(final int capacity) {
+            this.capacity = capacity;
+            while (size > capacity) {
+                evict();
+            }
+        }
+
+        private void evict() {
+            final int last = (head + count - 1) & (names.length - 1);
+            size -= names[last].length() + values[last].length() + 32;
+            names[last] = null;
+            values[last] = null;
+            count--;
+        }
+
+        private void clear() {
+            while (count > 0) {
+                evict();
+            }
+        }
+
+        private void grow() {
+            final String[] newNames = new String[names.length * 2];
+            final String[] newValues = new String[values.length * 2];
+            for (int i = 0; i < count; i++) {
+                newNames[i] = name(i);
+                newValues[i] = value(i);
+            }
+            names = newNames;
+            values = newValues;
+            head = 0;
+        }
+    }
+
+    /**
+     * Encodes header blocks. Not thread safe, blocks must be encoded in the
+     * order they are sent.
+     */
+    static final class Encoder {
+        private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+        private int pendingCapacity = -1;
+
+        /**
+         * Apply the peer's SETTINGS_HEADER_TABLE_SIZE, announced at the start of the next block
+         */
+        void setMaxTableSize(final int maxTableSize) {
+            final int capacity = Math.min(maxTableSize, DEFAULT_TABLE_SIZE);
+            if (capacity != table.capacity) {
+                table.setCapacity(capacity);
+                pendingCapacity = capacity;
+            }
+        }
+
+        /**
+         * @param headers name/value pairs, names in lower case
+         */
+        void encode(final List<String> headers, final ByteArrayOutputStream out) {
+            if (pendingCapacity >= 0) {
+                writeInt(out, 0x20, 5, pendingCapacity);
+                pendingCapacity = -1;
+            }
+            for (int i = 0; i < headers.size(); i += 2) {
+                encode(headers.get(i), headers.get(i + 1), out);
+            }
+        }
+
+        private void encode(final String name, final String value, final ByteArrayOutputStream out) {
+            final Integer exact = STATIC_ENTRIES.get(name + '\0' + value);
+            if (exact != null) {
+                writeInt(out, 0x80, 7, exact);
+                return;
+            }
+            int nameIndex = 0;
+            for (int i = 0; i < table.length(); i++) {
+                if (table.name(i).equals(name)) {
+                    if (table.value(i).equals(value)) {
+                        writeInt(out, 0x80, 7, STATIC_TABLE.length + 1 + i);
+                        return;
+                    }
+                    if (nameIndex == 0) {
+                        nameIndex = STATIC_TABLE.length + 1 + i;
+                    }
+                }
+            }
+            final Integer staticName = STATIC_NAMES.get(name);
+            if (staticName != null) {
+                nameIndex = staticName;
+            }
+            if (isSensitive(name)) {
+                writeInt(out, 0x10, 4, nameIndex);
+            } else if (name.length() + value.length() + 32 <= table.capacity / 2) {
+                writeInt(out, 0x40, 6, nameIndex);
+                table.add(name, value);
+            } else {
+                writeInt(out, 0x00, 4, nameIndex);
+            }
+            if (nameIndex == 0) {
+                writeString(out, name);
+            }
+            writeString(out, value);
+        }
+
+        private static boolean isSensitive(final String name) {
+            return "authorization".equals(name) || "proxy-authorization".equals(name)
+                    || "cookie".equals(name) || "set-cookie".equals(name);
+        }
+    }
+
+    /**
+     * Decodes header blocks, in the order they were received.
+     */
+    static final class Decoder {
+        private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+        private final int maxCapacity;
+        private final StringBuilder builder = new StringBuilder();
+        private int position;
+
+        Decoder(final int maxCapacity) {
+            this.maxCapacity = maxCapacity;
+        }
+
+        /**
+         * @return name/value pairs
+         */
+        List<String> decode(final byte[] block, final int offset, final int length) throws IOException {
+            final List<String> headers = new ArrayList<>(16);
+            final int end = offset + length;
+            position = offset;
+            while (position < end) {
+                final int b = block[position] & 0xff;
+                if ((b & 0x80) != 0) {
+                    final int index = readInt(block, end, 7);
+                    headers.add(name(index));
+                    headers.add(value(index));
+                } else if ((b & 0x40) != 0) {
+                    final int index = readInt(block, end, 6);
+                    final String name = index == 0 ? readString(block, end) : name(index);
+                    final String value = readString(block, end);
+                    table.add(name, value);
+                    headers.add(name);
+                    headers.add(value);
+                } else if ((b & 0x20) != 0) {
+                    final int capacity = readInt(block, end, 5);
+                    if (capacity > maxCapacity) {
+                        throw new IOException("HPACK table size update above limit: " + capacity);
+                    }
+                    table.setCapacity(capacity);
+                } else {
+                    final int index = readInt(block, end, 4);
+                    final String name = index == 0 ? readString(block, end) : name(index);
+                    headers.add(name);
+                    headers.add(readString(block, end));
+                }
+            }
+            return headers;
+        }
+
+        private String name(final int index) throws IOException {
+            if (index >= 1 && index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1][0];
+            }
+            final int dynamic = index - STATIC_TABLE.length - 1;
+            if (index < 1 || dynamic >= table.length()) {
+                throw new IOException("HPACK index out of range: " + index);
+            }
+            return table.name(dynamic);
+        }
+
+        private String value(final int index) throws IOException {
+            if (index >= 1 && index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1][1];
+            }
+            final int dynamic = index - STATIC_TABLE.length - 1;
+            if (index < 1 || dynamic >= table.length()) {
+                throw new IOException("HPACK index out of range: " + index);
+            }
+            return table.value(dynamic);
+        }
+
+        private int readInt(final byte[] block, final int end, final int prefixBits) throws IOException {
+            final int mask = (1 << prefixBits) - 1;
+            int value = block[position++] & mask;
+            if (value < mask) {
+                return value;
+            }
+            int shift = 0;
+            int b;
+            do {
+                if (position >= end || shift > 21) {
+                    throw new IOException("HPACK integer truncated or too large");
+                }
+                b = block[position++] & 0xff;
+                value += (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private String readString(final byte[] block, final int end) throws IOException {
+            if (position >= end) {
+                throw new IOException("HPACK string truncated");
+            }
+            final boolean huffman = (block[position] & 0x80) != 0;
+            final int length = readInt(block, end, 7);
+            if (length > end - position) {
+                throw new IOException("HPACK string truncated");
+            }
+            final int start = position;
+            position += length;
+            if (huffman) {
+                return huffmanDecode(block, start, length, builder);
+            }
+            builder.setLength(0);
+            for (int i = start; i < start + length; i++) {
+                builder.append((char) (block[i] & 0xff));
+            }
+            return builder.toString();
+        }
+    }
+
+    static void writeInt(final ByteArrayOutputStream out, final int flags, final int prefixBits, final int value) {
+        final int mask = (1 << prefixBits) - 1;
+        if (value < mask) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | mask);
+        int remaining = value - mask;
+        while (remaining >= 0x80) {
+            out.write((remaining & 0x7f) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write(remaining);
+    }
+
+    /**
+     * Write a string literal, Huffman coded when that is shorter
+     */
+    static void writeString(final ByteArrayOutputStream out, final String value) {
+        final int length = value.length();
+        long bits = 0;
+        for (int i = 0; i < length; i++) {
+            bits += LENGTHS[value.charAt(i) & 0xff];
+        }
+        final int huffmanLength = (int) ((bits + 7) >>> 3);
+        if (huffmanLength >= length) {
+            writeInt(out, 0x00, 7, length);
+            for (int i = 0; i < length; i++) {
+                out.write(value.charAt(i));
+            }
+            return;
+        }
+        writeInt(out, 0x80, 7, huffmanLength);
+        long current = 0;
+        int pending = 0;
+        for (int i = 0; i < length; i++) {
+            final int symbol = value.charAt(i) & 0xff;
+            current = (current << LENGTHS[symbol]) | CODES[symbol];
+            pending += LENGTHS[symbol];
+            while (pending >= 8) {
+                pending -= 8;
+                out.write((int) (current >>> pending));
+            }
+        }
+        if (pending > 0) {
+            // pad with the most significant bits of EOS, all ones
+            out.write((int) ((current << (8 - pending)) | (0xff >>> pending)));
+        }
+    }
+
+    static String huffmanDecode(final byte[] data, final int offset, final int length, final StringBuilder builder)
+            throws IOException {
+        builder.setLength(0);
+        Node node = ROOT;
+        int bitsSinceSymbol = 0;
+        boolean allOnes = true;
+        for (int i = offset; i < offset + length; i++) {
+            final int b = data[i] & 0xff;
+            for (int bit = 7; bit >= 0; bit--) {
+                final int branch = (b >>> bit) & 1;
+                node = node.children[branch];
+                if (node == null) {
+                    throw new IOException("Invalid Huffman code");
+                }
+                bitsSinceSymbol++;
+                allOnes &= branch == 1;
+                if (node.symbol >= 0) {
+                    if (node.symbol == 256) {
+                        throw new IOException("EOS in Huffman string");
+                    }
+                    builder.append((char) node.symbol);
+                    node = ROOT;
+                    bitsSinceSymbol = 0;
+                    allOnes = true;
+                }
+            }
+        }
+        if (bitsSinceSymbol > 7 || !allOnes) {
+            throw new IOException("Invalid Huffman padding");
+        }
+        return builder.toString();
+    }
+}
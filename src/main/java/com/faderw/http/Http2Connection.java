@@ -0,0 +1,816 @@
+package com.faderw.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * HTTP/2 connection (RFC 7540) carrying many concurrent {@link Http2Stream}s
+ * over one socket. A daemon thread reads frames and dispatches them to the
+ * streams; callers write their own frames under a shared lock.
+ * <p>
+ * Both directions are flow controlled. Outgoing data waits for window from
+ * the peer; incoming data is acknowledged with WINDOW_UPDATE as the caller
+ * consumes it, so a slow reader holds back only its own stream.
+ */
+
+final class Http2Connection {
+
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    static final int TYPE_DATA = 0x0;
+    static final int TYPE_HEADERS = 0x1;
+    static final int TYPE_PRIORITY = 0x2;
+    static final int TYPE_RST_STREAM = 0x3;
+    static final int TYPE_SETTINGS = 0x4;
+    static final int TYPE_PUSH_PROMISE = 0x5;
+    static final int TYPE_PING = 0x6;
+    static final int TYPE_GOAWAY = 0x7;
+    static final int TYPE_WINDOW_UPDATE = 0x8;
+    static final int TYPE_CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+
+    static final int DEFAULT_WINDOW = 65535;
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    private static final int MAX_STREAM_ID = Integer.MAX_VALUE;
+
+    /**
+     * The stream was not processed by the peer and may be sent again elsewhere
+     */
+    static final class RefusedStreamException extends IOException {
+        RefusedStreamException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The peer answered the preface with HTTP/1.x, or did not pick h2 through ALPN
+     */
+    static final class UnsupportedException extends IOException {
+        UnsupportedException(final String message) {
+            super(message);
+        }
+    }
+
+    final Route route;
+    private final PooledConnection transport;
+    private final InputStream in;
+    private final OutputStream out;
+    private final int streamWindow;
+    private final int connectionWindow;
+
+    private final Object writeLock = new Object();
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream(512);
+    private final byte[] frameHeader = new byte[9];
+    private int nextStreamId = 1;
+
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    private final ByteArrayOutputStream readerBlock = new ByteArrayOutputStream(512);
+    private final byte[] readerHeader = new byte[9];
+    private final byte[] readerBuffer = new byte[DEFAULT_MAX_FRAME_SIZE];
+    private int continuationStream;
+    private boolean continuationEndStream;
+
+    private final ConcurrentMap<Integer, Http2Stream> streams = new ConcurrentHashMap<>();
+    private long connectionSendWindow = DEFAULT_WINDOW;
+    private int peerInitialWindow = DEFAULT_WINDOW;
+    private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private int peerMaxConcurrentStreams = Integer.MAX_VALUE;
+    private int activeStreams;
+    private long openedStreams;
+    private int connectionUnacked;
+    private boolean shutdown;
+    private IOException failure;
+
+    private Http2Connection(final PooledConnection transport, final int streamWindow, final int connectionWindow) {
+        this.route = transport.route;
+        this.transport = transport;
+        this.in = transport.in;
+        this.out = transport.out;
+        this.streamWindow = streamWindow;
+        this.connectionWindow = connectionWindow;
+    }
+
+    /**
+     * Send the preface, wait for the server's SETTINGS and start reading frames.
+     *
+     * @param streamWindow    receive window of each stream
+     * @param connectionWindow receive window of the whole connection
+     */
+    static Http2Connection open(final PooledConnection transport, final int streamWindow,
+                                final int connectionWindow, final int timeout) throws IOException {
+        final Http2Connection connection = new Http2Connection(transport, streamWindow, connectionWindow);
+        try {
+            connection.start(timeout);
+        } catch (IOException | RuntimeException e) {
+            transport.closeQuietly();
+            throw e;
+        }
+        return connection;
+    }
+
+    private void start(final int timeout) throws IOException {
+        synchronized (writeLock) {
+            out.write(PREFACE);
+            final byte[] settings = new byte[12];
+            putSetting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+            putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, streamWindow);
+            writeFrame(TYPE_SETTINGS, 0, 0, settings, 0, settings.length);
+            if (connectionWindow > DEFAULT_WINDOW) {
+                writeWindowUpdate(0, connectionWindow - DEFAULT_WINDOW);
+            }
+            out.flush();
+        }
+
+        // the server's first frame must be SETTINGS; an HTTP/1.x server answers with a status line
+        transport.socket.setSoTimeout(timeout);
+        try {
+            readFully(readerHeader, 9);
+        } finally {
+            transport.socket.setSoTimeout(0);
+        }
+        if (new String(readerHeader, 0, 5, StandardCharsets.ISO_8859_1).equals("HTTP/")) {
+            throw new UnsupportedException(route.authority() + " does not speak HTTP/2");
+        }
+        final int length = frameLength(readerHeader);
+        if (readerHeader[3] != TYPE_SETTINGS || (readerHeader[4] & FLAG_ACK) != 0 || length > readerBuffer.length) {
+            throw new UnsupportedException(route.authority() + " did not start with HTTP/2 SETTINGS");
+        }
+        readFully(readerBuffer, length);
+        onSettings(readerBuffer, length);
+
+        final Thread reader = new Thread(this::readLoop, "reach-http-h2-" + route.authority());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private static void putSetting(final byte[] b, final int offset, final int id, final int value) {
+        b[offset] = (byte) (id >>> 8);
+        b[offset + 1] = (byte) id;
+        putInt(b, offset + 2, value);
+    }
+
+    private static void putInt(final byte[] b, final int offset, final int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(final byte[] b, final int offset) {
+        return (b[offset] & 0xff) << 24 | (b[offset + 1] & 0xff) << 16 | (b[offset + 2] & 0xff) << 8 | (b[offset + 3] & 0xff);
+    }
+
+    private static int frameLength(final byte[] header) {
+        return (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | (header[2] & 0xff);
+    }
+
+    /**
+     * @return true while new streams may be opened
+     */
+    synchronized boolean isUsable() {
+        return !shutdown && failure == null;
+    }
+
+    synchronized int activeStreams() {
+        return activeStreams;
+    }
+
+    /**
+     * @return true once a stream has been opened on this connection
+     */
+    synchronized boolean isReused() {
+        return openedStreams > 0;
+    }
+
+    /**
+     * Open a stream and send its request headers.
+     *
+     * @param headers   pseudo headers first, names in lower case
+     * @param endStream true when the request has no body
+     * @param weight    HTTP/2 priority weight 1..256, 0 to leave the default
+     * @param timeout   milliseconds to wait while the peer's stream limit is reached, 0 for no limit
+     */
+    Http2Stream newStream(final List<String> headers, final boolean endStream, final int weight,
+                          final int timeout) throws IOException {
+        reserveStream(timeout);
+        Http2Stream stream = null;
+        try {
+            synchronized (writeLock) {
+                final int id = nextStreamId;
+                if (id < 0 || id > MAX_STREAM_ID - 2) {
+                    shutdown();
+                    throw new RefusedStreamException("Stream ids exhausted on " + route.authority());
+                }
+                nextStreamId += 2;
+                synchronized (this) {
+                    if (failure != null) {
+                        throw new RefusedStreamException("Connection failed: " + failure.getMessage());
+                    }
+                    stream = new Http2Stream(id, this, peerInitialWindow);
+                    stream.localClosed = endStream;
+                    streams.put(id, stream);
+                    openedStreams++;
+                }
+                headerBlock.reset();
+                if (weight > 0) {
+                    // exclusive flag clear, depends on stream 0
+                    for (int i = 0; i < 4; i++) {
+                        headerBlock.write(0);
+                    }
+                    headerBlock.write(Math.min(256, weight) - 1);
+                }
+                encoder.encode(headers, headerBlock);
+                writeHeaders(id, endStream, weight > 0);
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (stream == null) {
+                synchronized (this) {
+                    activeStreams--;
+                    notifyAll();
+                }
+            } else if (!(e instanceof RefusedStreamException)) {
+                fail(e);
+            }
+            throw e;
+        }
+        return stream;
+    }
+
+    private synchronized void reserveStream(final int timeout) throws IOException {
+        final long deadline = timeout > 0 ? System.nanoTime() + timeout * 1_000_000L : 0;
+        while (activeStreams >= peerMaxConcurrentStreams && failure == null && !shutdown) {
+            await(deadline, "Timed out waiting for a free HTTP/2 stream on " + route.authority());
+        }
+        if (failure != null || shutdown) {
+            throw new RefusedStreamException("Connection to " + route.authority() + " is shutting down");
+        }
+        activeStreams++;
+    }
+
+    private void writeHeaders(final int id, final boolean endStream, final boolean priority) throws IOException {
+        final byte[] block = headerBlock.toByteArray();
+        final int total = headerBlock.size();
+        int offset = 0;
+        boolean first = true;
+        do {
+            final int length = Math.min(total - offset, peerMaxFrameSize());
+            final boolean last = offset + length == total;
+            if (first) {
+                int flags = last ? FLAG_END_HEADERS : 0;
+                if (endStream) {
+                    flags |= FLAG_END_STREAM;
+                }
+                if (priority) {
+                    flags |= FLAG_PRIORITY;
+                }
+                writeFrame(TYPE_HEADERS, flags, id, block, offset, length);
+                first = false;
+            } else {
+                writeFrame(TYPE_CONTINUATION, last ? FLAG_END_HEADERS : 0, id, block, offset, length);
+            }
+            offset += length;
+        } while (offset < total);
+    }
+
+    private synchronized int peerMaxFrameSize() {
+        return peerMaxFrameSize;
+    }
+
+    /**
+     * Send request body bytes, waiting for flow-control window as needed
+     */
+    void writeData(final Http2Stream stream, final byte[] b, int offset, int length,
+                   final boolean endStream) throws IOException {
+        do {
+            final int n = length > 0 ? reserveWindow(stream, length) : 0;
+            final boolean last = endStream && n == length;
+            synchronized (writeLock) {
+                writeFrame(TYPE_DATA, last ? FLAG_END_STREAM : 0, stream.id, b, offset, n);
+                out.flush();
+            }
+            offset += n;
+            length -= n;
+            if (last) {
+                localClosed(stream);
+            }
+        } while (length > 0);
+    }
+
+    private synchronized int reserveWindow(final Http2Stream stream, final int wanted) throws IOException {
+        while (true) {
+            if (failure != null) {
+                throw failure;
+            }
+            if (stream.sendFailure != null) {
+                throw stream.sendFailure;
+            }
+            final long n = Math.min(Math.min(wanted, peerMaxFrameSize), Math.min(connectionSendWindow, stream.sendWindow));
+            if (n > 0) {
+                connectionSendWindow -= n;
+                stream.sendWindow -= n;
+                return (int) n;
+            }
+            await(0, null);
+        }
+    }
+
+    private void await(final long deadline, final String timeoutMessage) throws IOException {
+        try {
+            if (deadline == 0) {
+                wait();
+                return;
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new SocketTimeoutException(timeoutMessage);
+            }
+            wait(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted on HTTP/2 connection to " + route.authority());
+        }
+    }
+
+    /**
+     * Acknowledge data the caller has read, reopening the receive windows
+     */
+    void consumed(final Http2Stream stream, final int bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        int connectionIncrement = 0;
+        int streamIncrement = 0;
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            connectionUnacked += bytes;
+            if (connectionUnacked >= connectionWindow / 2) {
+                connectionIncrement = connectionUnacked;
+                connectionUnacked = 0;
+            }
+            if (stream != null) {
+                stream.receiveUnacked += bytes;
+                if (stream.receiveUnacked >= streamWindow / 2 && !stream.isRemoteClosed()) {
+                    streamIncrement = stream.receiveUnacked;
+                    stream.receiveUnacked = 0;
+                }
+            }
+        }
+        if (connectionIncrement == 0 && streamIncrement == 0) {
+            return;
+        }
+        try {
+            synchronized (writeLock) {
+                if (connectionIncrement > 0) {
+                    writeWindowUpdate(0, connectionIncrement);
+                }
+                if (streamIncrement > 0) {
+                    writeWindowUpdate(stream.id, streamIncrement);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Abandon the stream, e.g. when its body is closed before the end
+     */
+    void reset(final Http2Stream stream, final int errorCode) {
+        synchronized (this) {
+            if (!streams.containsKey(stream.id)) {
+                return;
+            }
+        }
+        try {
+            final byte[] payload = new byte[4];
+            putInt(payload, 0, errorCode);
+            synchronized (writeLock) {
+                writeFrame(TYPE_RST_STREAM, 0, stream.id, payload, 0, 4);
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+        failStream(stream, new IOException("Stream " + stream.id + " cancelled"));
+    }
+
+    private void localClosed(final Http2Stream stream) {
+        int unread = 0;
+        synchronized (this) {
+            stream.localClosed = true;
+            if (stream.isRemoteClosed()) {
+                unread = remove(stream);
+            }
+        }
+        consumed(null, unread);
+    }
+
+    private void remoteClosed(final Http2Stream stream) {
+        int unread = 0;
+        synchronized (this) {
+            if (stream.localClosed) {
+                unread = remove(stream);
+            }
+        }
+        consumed(null, unread);
+    }
+
+    /**
+     * The data the stream still buffers stops counting against the connection
+     * window, the caller acknowledges it with {@link #consumed(Http2Stream, int)}
+     * outside the lock. Otherwise every body finished or reset without being
+     * read would shrink the window for good.
+     *
+     * @return the bytes buffered but not read, 0 when the stream was already removed
+     */
+    private synchronized int remove(final Http2Stream stream) {
+        if (!streams.remove(stream.id, stream)) {
+            return 0;
+        }
+        activeStreams--;
+        notifyAll();
+        if (shutdown && activeStreams == 0) {
+            transport.closeQuietly();
+        }
+        return stream.detach();
+    }
+
+    private void failStream(final Http2Stream stream, final IOException e) {
+        stream.fail(e);
+        final int unread;
+        synchronized (this) {
+            if (stream.sendFailure == null) {
+                stream.sendFailure = e;
+            }
+            unread = remove(stream);
+            notifyAll();
+        }
+        consumed(null, unread);
+    }
+
+    /**
+     * Stop opening streams here, close once the running ones are done
+     */
+    synchronized void shutdown() {
+        shutdown = true;
+        notifyAll();
+        if (activeStreams == 0) {
+            transport.closeQuietly();
+        }
+    }
+
+    /**
+     * Tell the peer we are going away and fail every stream
+     */
+    void close() {
+        try {
+            final byte[] payload = new byte[8];
+            putInt(payload, 4, NO_ERROR);
+            synchronized (writeLock) {
+                writeFrame(TYPE_GOAWAY, 0, 0, payload, 0, payload.length);
+                out.flush();
+            }
+        } catch (IOException ignored) {
+        }
+        fail(new IOException("Connection to " + route.authority() + " closed"));
+    }
+
+    private void fail(final IOException e) {
+        final List<Http2Stream> failed;
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+            shutdown = true;
+            failed = new ArrayList<>(streams.values());
+            streams.clear();
+            activeStreams = 0;
+            notifyAll();
+        }
+        for (Http2Stream stream : failed) {
+            stream.fail(e);
+        }
+        transport.closeQuietly();
+    }
+
+    private void writeFrame(final int type, final int flags, final int streamId,
+                            final byte[] payload, final int offset, final int length) throws IOException {
+        frameHeader[0] = (byte) (length >>> 16);
+        frameHeader[1] = (byte) (length >>> 8);
+        frameHeader[2] = (byte) length;
+        frameHeader[3] = (byte) type;
+        frameHeader[4] = (byte) flags;
+        putInt(frameHeader, 5, streamId);
+        out.write(frameHeader);
+        if (length > 0) {
+            out.write(payload, offset, length);
+        }
+    }
+
+    private void writeWindowUpdate(final int streamId, final int increment) throws IOException {
+        final byte[] payload = new byte[4];
+        putInt(payload, 0, increment);
+        writeFrame(TYPE_WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+    }
+
+    private void readFully(final byte[] b, final int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            final int n = in.read(b, read, length - read);
+            if (n == -1) {
+                throw new EOFException("HTTP/2 connection to " + route.authority() + " closed by peer");
+            }
+            read += n;
+        }
+    }
+
+    private void readLoop() {
+        try {
+            while (true) {
+                readFrame();
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(new IOException(e));
+        }
+    }
+
+    private void readFrame() throws IOException {
+        readFully(readerHeader, 9);
+        final int length = frameLength(readerHeader);
+        final int type = readerHeader[3] & 0xff;
+        final int flags = readerHeader[4] & 0xff;
+        final int streamId = getInt(readerHeader, 5) & MAX_STREAM_ID;
+        if (length > readerBuffer.length) {
+            throw connectionError(FRAME_SIZE_ERROR, "Frame of " + length + " bytes exceeds SETTINGS_MAX_FRAME_SIZE");
+        }
+        final byte[] payload = readerBuffer;
+        readFully(payload, length);
+        if (continuationStream != 0 && type != TYPE_CONTINUATION) {
+            throw connectionError(PROTOCOL_ERROR, "Expected CONTINUATION for stream " + continuationStream);
+        }
+
+        switch (type) {
+            case TYPE_DATA:
+                onData(streamId, flags, payload, length);
+                break;
+            case TYPE_HEADERS: {
+                int start = 0;
+                int end = length;
+                if ((flags & FLAG_PADDED) != 0) {
+                    end -= payload[0] & 0xff;
+                    start = 1;
+                }
+                if ((flags & FLAG_PRIORITY) != 0) {
+                    start += 5;
+                }
+                if (start > end) {
+                    throw connectionError(PROTOCOL_ERROR, "Padding exceeds HEADERS payload");
+                }
+                readerBlock.reset();
+                readerBlock.write(payload, start, end - start);
+                if ((flags & FLAG_END_HEADERS) != 0) {
+                    onHeaderBlock(streamId, (flags & FLAG_END_STREAM) != 0);
+                } else {
+                    continuationStream = streamId;
+                    continuationEndStream = (flags & FLAG_END_STREAM) != 0;
+                }
+                break;
+            }
+            case TYPE_CONTINUATION:
+                if (streamId != continuationStream) {
+                    throw connectionError(PROTOCOL_ERROR, "Unexpected CONTINUATION for stream " + streamId);
+                }
+                readerBlock.write(payload, 0, length);
+                if ((flags & FLAG_END_HEADERS) != 0) {
+                    continuationStream = 0;
+                    onHeaderBlock(streamId, continuationEndStream);
+                }
+                break;
+            case TYPE_RST_STREAM: {
+                final Http2Stream stream = streams.get(streamId);
+                if (stream != null) {
+                    final int code = getInt(payload, 0);
+                    failStream(stream, code == REFUSED_STREAM
+                            ? new RefusedStreamException("Stream " + streamId + " refused by " + route.authority())
+                            : new IOException("Stream " + streamId + " reset by peer, error code " + code));
+                }
+                break;
+            }
+            case TYPE_SETTINGS:
+                if ((flags & FLAG_ACK) == 0) {
+                    if (length % 6 != 0) {
+                        throw connectionError(FRAME_SIZE_ERROR, "SETTINGS length " + length);
+                    }
+                    onSettings(payload, length);
+                }
+                break;
+            case TYPE_PING:
+                if ((flags & FLAG_ACK) == 0) {
+                    synchronized (writeLock) {
+                        writeFrame(TYPE_PING, FLAG_ACK, 0, Arrays.copyOf(payload, 8), 0, 8);
+                        out.flush();
+                    }
+                }
+                break;
+            case TYPE_GOAWAY:
+                onGoAway(getInt(payload, 0) & MAX_STREAM_ID, getInt(payload, 4));
+                break;
+            case TYPE_WINDOW_UPDATE:
+                onWindowUpdate(streamId, getInt(payload, 0) & MAX_STREAM_ID);
+                break;
+            case TYPE_PUSH_PROMISE:
+                throw connectionError(PROTOCOL_ERROR, "PUSH_PROMISE received with push disabled");
+            default:
+                // PRIORITY and unknown frame types are ignored
+                break;
+        }
+    }
+
+    private void onData(final int streamId, final int flags, final byte[] payload, final int length) throws IOException {
+        int start = 0;
+        int end = length;
+        if ((flags & FLAG_PADDED) != 0) {
+            end -= payload[0] & 0xff;
+            start = 1;
+            if (end < start) {
+                throw connectionError(PROTOCOL_ERROR, "Padding exceeds DATA payload");
+            }
+        }
+        final boolean endStream = (flags & FLAG_END_STREAM) != 0;
+        final Http2Stream stream = streams.get(streamId);
+        if (stream == null) {
+            // reset or finished stream, the data still counts against the connection window
+            consumed(null, length);
+            return;
+        }
+        if (!stream.onData(Arrays.copyOfRange(payload, start, end), endStream, streamWindow)) {
+            reset(stream, FLOW_CONTROL_ERROR);
+            consumed(null, length);
+            return;
+        }
+        consumed(stream, length - (end - start));
+        if (endStream) {
+            remoteClosed(stream);
+        }
+    }
+
+    private void onHeaderBlock(final int streamId, final boolean endStream) throws IOException {
+        final List<String> headers;
+        try {
+            headers = decoder.decode(readerBlock.toByteArray(), 0, readerBlock.size());
+        } catch (IOException e) {
+            throw connectionError(COMPRESSION_ERROR, e.getMessage());
+        }
+        final Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            stream.onHeaders(headers, endStream);
+            if (endStream) {
+                remoteClosed(stream);
+            }
+        }
+    }
+
+    private void onSettings(final byte[] payload, final int length) throws IOException {
+        Integer headerTableSize = null;
+        synchronized (this) {
+            for (int i = 0; i < length; i += 6) {
+                final int id = (payload[i] & 0xff) << 8 | (payload[i + 1] & 0xff);
+                final int value = getInt(payload, i + 2);
+                switch (id) {
+                    case SETTINGS_HEADER_TABLE_SIZE:
+                        headerTableSize = value;
+                        break;
+                    case SETTINGS_MAX_CONCURRENT_STREAMS:
+                        peerMaxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                        break;
+                    case SETTINGS_INITIAL_WINDOW_SIZE:
+                        if (value < 0) {
+                            throw connectionError(FLOW_CONTROL_ERROR, "SETTINGS_INITIAL_WINDOW_SIZE " + value);
+                        }
+                        final int delta = value - peerInitialWindow;
+                        for (Http2Stream stream : streams.values()) {
+                            stream.sendWindow += delta;
+                        }
+                        peerInitialWindow = value;
+                        break;
+                    case SETTINGS_MAX_FRAME_SIZE:
+                        if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+                            throw connectionError(PROTOCOL_ERROR, "SETTINGS_MAX_FRAME_SIZE " + value);
+                        }
+                        peerMaxFrameSize = value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            notifyAll();
+        }
+        synchronized (writeLock) {
+            if (headerTableSize != null) {
+                encoder.setMaxTableSize(headerTableSize);
+            }
+            writeFrame(TYPE_SETTINGS, FLAG_ACK, 0, null, 0, 0);
+            out.flush();
+        }
+    }
+
+    private void onGoAway(final int lastStreamId, final int errorCode) {
+        final List<Http2Stream> refused = new ArrayList<>();
+        synchronized (this) {
+            shutdown = true;
+            for (Http2Stream stream : streams.values()) {
+                if (stream.id > lastStreamId) {
+                    refused.add(stream);
+                }
+            }
+            notifyAll();
+        }
+        for (Http2Stream stream : refused) {
+            failStream(stream, new RefusedStreamException("Stream " + stream.id + " not processed, "
+                    + route.authority() + " is going away (error code " + errorCode + ")"));
+        }
+        synchronized (this) {
+            if (activeStreams == 0) {
+                transport.closeQuietly();
+            }
+        }
+    }
+
+    private void onWindowUpdate(final int streamId, final int increment) throws IOException {
+        if (increment == 0) {
+            if (streamId == 0) {
+                throw connectionError(PROTOCOL_ERROR, "WINDOW_UPDATE with zero increment");
+            }
+            final Http2Stream stream = streams.get(streamId);
+            if (stream != null) {
+                reset(stream, PROTOCOL_ERROR);
+            }
+            return;
+        }
+        synchronized (this) {
+            if (streamId == 0) {
+                connectionSendWindow += increment;
+            } else {
+                final Http2Stream stream = streams.get(streamId);
+                if (stream != null) {
+                    stream.sendWindow += increment;
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Send GOAWAY with the error and return the exception ending the read loop
+     */
+    private IOException connectionError(final int errorCode, final String message) {
+        try {
+            final byte[] payload = new byte[8];
+            // push is disabled, so the last peer-initiated stream is always 0
+            putInt(payload, 4, errorCode);
+            synchronized (writeLock) {
+                writeFrame(TYPE_GOAWAY, 0, 0, payload, 0, payload.length);
+                out.flush();
+            }
+        } catch (IOException ignored) {
+        }
+        return new IOException("HTTP/2 protocol error with " + route.authority() + ": " + message);
+    }
+}
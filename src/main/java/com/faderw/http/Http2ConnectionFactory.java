@@ -0,0 +1,228 @@
+package com.faderw.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * {@link HttpRequest.ConnectionFactory} multiplexing requests to the same
+ * host over one HTTP/2 connection. https hosts are offered h2 through ALPN;
+ * plain http hosts speak h2c with prior knowledge once
+ * {@link #cleartext(boolean)} is on. Hosts that only speak HTTP/1.1, and
+ * requests through a proxy, go to the fallback factory.
+ * <pre>
+ *     HttpRequest.setConnectionFactory(new Http2ConnectionFactory());
+ *     HttpRequest.get(url).priority(200).body();
+ * </pre>
+ * ALPN needs Java 9+ or 8u252+, on older runtimes https hosts fall back.
+ */
+
+public class Http2ConnectionFactory implements HttpRequest.ConnectionFactory {
+
+    private static final String[] PROTOCOLS = {"h2", "http/1.1"};
+
+    private final HttpRequest.ConnectionFactory fallback;
+    private final ConcurrentMap<Route, Http2Connection> connections = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Route, Object> locks = new ConcurrentHashMap<>();
+    private final Set<Route> http1Routes = ConcurrentHashMap.newKeySet();
+    private final AtomicLong created = new AtomicLong();
+
+    private volatile int connectTimeout = 10000;
+    private volatile SSLSocketFactory sslSocketFactory;
+    private volatile DnsResolver dnsResolver = new CachingDnsResolver();
+    private volatile int streamWindow = 1 << 20;
+    private volatile int connectionWindow = 16 << 20;
+    private volatile boolean cleartext;
+
+    public Http2ConnectionFactory() {
+        this(new PooledConnectionFactory());
+    }
+
+    /**
+     * @param fallback serves the requests HTTP/2 can't, e.g. a {@link PooledConnectionFactory}
+     */
+    public Http2ConnectionFactory(final HttpRequest.ConnectionFactory fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * Set the connect timeout in milliseconds used when a request does not set its own.
+     */
+    public Http2ConnectionFactory connectTimeout(final int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * Set the socket factory used for https hosts, defaults to the JVM default.
+     */
+    public Http2ConnectionFactory sslSocketFactory(final SSLSocketFactory sslSocketFactory) {
+        this.sslSocketFactory = sslSocketFactory;
+        return this;
+    }
+
+    /**
+     * Use the socket factory of the shared {@link TlsConfig} for https hosts.
+     */
+    public Http2ConnectionFactory tls(final TlsConfig tls) {
+        return sslSocketFactory(tls.socketFactory());
+    }
+
+    /**
+     * Set the resolver for host names, a {@link CachingDnsResolver} by default.
+     */
+    public Http2ConnectionFactory dnsResolver(final DnsResolver dnsResolver) {
+        this.dnsResolver = dnsResolver != null ? dnsResolver : DnsResolver.SYSTEM;
+        return this;
+    }
+
+    /**
+     * Set how many unread bytes each stream may buffer, 1 MiB by default.
+     */
+    public Http2ConnectionFactory streamWindow(final int streamWindow) {
+        if (streamWindow < Http2Connection.DEFAULT_WINDOW) {
+            throw new IllegalArgumentException("streamWindow < 65535");
+        }
+        this.streamWindow = streamWindow;
+        return this;
+    }
+
+    /**
+     * Set how many unread bytes a connection may buffer over its open streams, 16 MiB by default.
+     * Data left in streams that are finished or reset no longer counts.
+     */
+    public Http2ConnectionFactory connectionWindow(final int connectionWindow) {
+        if (connectionWindow < Http2Connection.DEFAULT_WINDOW) {
+            throw new IllegalArgumentException("connectionWindow < 65535");
+        }
+        this.connectionWindow = connectionWindow;
+        return this;
+    }
+
+    /**
+     * Speak h2c with prior knowledge to plain http hosts, off by default.
+     * Hosts answering the preface with HTTP/1.x are sent to the fallback.
+     */
+    public Http2ConnectionFactory cleartext(final boolean cleartext) {
+        this.cleartext = cleartext;
+        return this;
+    }
+
+    @Override
+    public HttpURLConnection create(final URL url) throws IOException {
+        return create(url, null);
+    }
+
+    @Override
+    public HttpURLConnection create(final URL url, final Proxy proxy) throws IOException {
+        final String protocol = url.getProtocol();
+        final boolean secure = "https".equalsIgnoreCase(protocol);
+        if ((proxy != null && proxy.type() != Proxy.Type.DIRECT)
+                || !(secure || ("http".equalsIgnoreCase(protocol) && cleartext))) {
+            return fallback.create(url, proxy);
+        }
+        final Route route = Route.of(url, null);
+        if (http1Routes.contains(route)) {
+            return fallback.create(url, proxy);
+        }
+        if (!connections.containsKey(route)) {
+            // first contact decides whether the host speaks HTTP/2 at all
+            try {
+                connection(route, connectTimeout, HttpEventListener.NONE);
+            } catch (Http2Connection.UnsupportedException e) {
+                return fallback.create(url, proxy);
+            }
+        }
+        return new Http2HttpURLConnection(url, this, route);
+    }
+
+    /**
+     * @return the open connection to the route, connecting when there is none usable
+     */
+    Http2Connection connection(final Route route, final int timeout,
+                               final HttpEventListener listener) throws IOException {
+        Http2Connection connection = connections.get(route);
+        if (connection != null && connection.isUsable()) {
+            return connection;
+        }
+        synchronized (locks.computeIfAbsent(route, r -> new Object())) {
+            connection = connections.get(route);
+            if (connection != null && connection.isUsable()) {
+                return connection;
+            }
+            if (http1Routes.contains(route)) {
+                throw new Http2Connection.UnsupportedException(route.authority() + " does not speak HTTP/2");
+            }
+            connection = open(route, timeout > 0 ? timeout : connectTimeout, listener);
+            connections.put(route, connection);
+            return connection;
+        }
+    }
+
+    private Http2Connection open(final Route route, final int timeout,
+                                 final HttpEventListener listener) throws IOException {
+        final SSLSocketFactory factory = sslSocketFactory;
+        final PooledConnection transport = PooledConnection.open(route, timeout,
+                factory != null ? factory : HttpsURLConnection.getDefaultSSLSocketFactory(), dnsResolver, listener,
+                route.secure ? PROTOCOLS : null);
+        if (route.secure && !"h2".equals(transport.applicationProtocol())) {
+            transport.closeQuietly();
+            http1Routes.add(route);
+            throw new Http2Connection.UnsupportedException(route.authority() + " did not negotiate h2");
+        }
+        try {
+            final Http2Connection connection = Http2Connection.open(transport, streamWindow, connectionWindow, timeout);
+            created.incrementAndGet();
+            return connection;
+        } catch (Http2Connection.UnsupportedException e) {
+            http1Routes.add(route);
+            throw e;
+        } catch (EOFException e) {
+            // some HTTP/1.1 servers just hang up on the preface
+            http1Routes.add(route);
+            throw new Http2Connection.UnsupportedException(route.authority() + " closed the connection on the HTTP/2 preface");
+        }
+    }
+
+    /**
+     * @return number of HTTP/2 connections opened so far
+     */
+    public long createdCount() {
+        return created.get();
+    }
+
+    /**
+     * @return number of HTTP/2 connections currently usable
+     */
+    public int connectionCount() {
+        int count = 0;
+        for (Http2Connection connection : connections.values()) {
+            if (connection.isUsable()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Close every connection, failing the streams still running on them
+     */
+    public void close() {
+        final List<Http2Connection> open = new ArrayList<>(connections.values());
+        connections.clear();
+        for (Http2Connection connection : open) {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.faderw.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static com.faderw.http.HttpRequestConst.*;
+
+/**
+ * {@link HttpURLConnection} sending its exchange as one stream of a shared
+ * {@link Http2Connection}. Many of them run at once over a single socket;
+ * a response body closed before its end cancels only its own stream.
+ */
+
+class Http2HttpURLConnection extends AbstractHttpURLConnection {
+
+    private final Http2ConnectionFactory factory;
+    private final Route route;
+
+    private Http2Connection connection;
+    private Http2Stream stream;
+    private OutputStream requestBody;
+    private ByteArrayOutputStream bufferedBody;
+    private boolean requestSent;
+
+    Http2HttpURLConnection(final URL url, final Http2ConnectionFactory factory, final Route route) {
+        super(url);
+        this.factory = factory;
+        this.route = route;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connected) {
+            return;
+        }
+        connection = factory.connection(route, getConnectTimeout(), eventListener);
+        eventListener.connectionAcquired(connection.isReused());
+        connected = true;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!doOutput) {
+            throw new ProtocolException("cannot write to a URLConnection if doOutput=false - call setDoOutput(true)");
+        }
+        if (requestSent) {
+            throw new ProtocolException("Cannot write output after reading input.");
+        }
+        if (requestBody != null) {
+            return requestBody;
+        }
+        if (METHOD_GET.equals(method)) {
+            method = METHOD_POST;
+        }
+        connect();
+        if (fixedContentLengthLong != -1 || fixedContentLength != -1) {
+            final long length = fixedContentLengthLong != -1 ? fixedContentLengthLong : fixedContentLength;
+            openStream(length, false);
+            requestBody = new DataOutputStream(length);
+        } else if (chunkLength != -1) {
+            openStream(-1, false);
+            requestBody = new DataOutputStream(-1);
+        } else {
+            bufferedBody = new ByteArrayOutputStream();
+            requestBody = bufferedBody;
+        }
+        return requestBody;
+    }
+
+    private void openStream(final long contentLength, final boolean endStream) throws IOException {
+        stream = connection.newStream(requestHeaders(contentLength), endStream, priority, getConnectTimeout());
+        eventListener.requestHeadersEnd();
+    }
+
+    /**
+     * Pseudo headers first, then the request headers in lower case without
+     * the connection-specific ones HTTP/2 forbids
+     */
+    private List<String> requestHeaders(final long contentLength) {
+        final List<String> headers = new ArrayList<>(requestHeaders.size() + 10);
+        headers.add(":method");
+        headers.add(method);
+        headers.add(":scheme");
+        headers.add(route.secure ? "https" : "http");
+        headers.add(":authority");
+        final String host = getRequestProperty(HEADER_HOST);
+        headers.add(host != null ? host : route.authority());
+        headers.add(":path");
+        final String file = url.getFile();
+        headers.add(file.length() == 0 ? "/" : file);
+        for (int i = 0; i < requestHeaders.size(); i += 2) {
+            final String name = requestHeaders.get(i).toLowerCase(Locale.ROOT);
+            switch (name) {
+                case "host":
+                case "connection":
+                case "keep-alive":
+                case "proxy-connection":
+                case "transfer-encoding":
+                case "upgrade":
+                case "content-length":
+                    continue;
+                default:
+                    final String value = requestHeaders.get(i + 1);
+                    headers.add(name);
+                    headers.add(value == null ? "" : value);
+            }
+        }
+        if (contentLength >= 0) {
+            headers.add("content-length");
+            headers.add(Long.toString(contentLength));
+        }
+        return headers;
+    }
+
+    /**
+     * Send whatever of the request has not gone out yet and wait for the
+     * response head. A buffered request refused by the server, e.g. because
+     * the connection was going away, is sent once more on a fresh connection.
+     */
+    @Override
+    protected void ensureResponse() throws IOException {
+        if (statusLine != null) {
+            return;
+        }
+        connect();
+        List<String> headers;
+        try {
+            if (!requestSent) {
+                sendRequest();
+            }
+            headers = stream.awaitHeaders(getReadTimeout());
+        } catch (Http2Connection.RefusedStreamException e) {
+            if (requestBody != null && bufferedBody == null) {
+                throw e;
+            }
+            connected = false;
+            stream = null;
+            connect();
+            sendRequest();
+            headers = stream.awaitHeaders(getReadTimeout());
+        }
+        readResponseHead(headers);
+    }
+
+    private void sendRequest() throws IOException {
+        if (requestBody == null || bufferedBody != null) {
+            if (bufferedBody != null) {
+                openStream(bufferedBody.size(), false);
+                connection.writeData(stream, bufferedBody.toByteArray(), 0, bufferedBody.size(), true);
+            } else {
+                openStream(doOutput ? 0 : -1, true);
+            }
+        } else {
+            requestBody.close();
+        }
+        requestSent = true;
+    }
+
+    private void readResponseHead(final List<String> headers) throws IOException {
+        final String status = CacheEntry.value(headers, ":status");
+        try {
+            responseCode = Integer.parseInt(status);
+        } catch (NumberFormatException e) {
+            cancel();
+            throw new ProtocolException("Invalid :status " + status + " on stream " + stream.id);
+        }
+        statusLine = "HTTP/2 " + status;
+        responseMessage = "";
+        for (int i = 0; i < headers.size(); i += 2) {
+            if (headers.get(i).charAt(0) != ':') {
+                responseHeaders.add(headers.get(i));
+                responseHeaders.add(headers.get(i + 1));
+            }
+        }
+        responseBody = new DataInputStream();
+    }
+
+    private void cancel() {
+        if (stream != null) {
+            connection.reset(stream, Http2Connection.CANCEL);
+        }
+    }
+
+    /**
+     * Done once the peer ended the stream, the whole body is in memory then
+     */
+    @Override
+    boolean releaseAfterHead() throws IOException {
+        ensureResponse();
+        return stream.isRemoteClosed();
+    }
+
+    @Override
+    public void disconnect() {
+        cancel();
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    /**
+     * Request body sent as DATA frames while it is written
+     */
+    private final class DataOutputStream extends OutputStream {
+        private long remaining;
+        private boolean closed;
+
+        /**
+         * @param length number of bytes to expect, -1 when unknown
+         */
+        DataOutputStream(final long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream is closed");
+            }
+            if (len == 0) {
+                return;
+            }
+            if (remaining != -1) {
+                if (len > remaining) {
+                    throw new IOException("too many bytes written, expected " + remaining + " more but got " + len);
+                }
+                remaining -= len;
+            }
+            connection.writeData(stream, b, off, len, false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (remaining > 0) {
+                cancel();
+                throw new IOException("insufficient data written, " + remaining + " bytes missing");
+            }
+            connection.writeData(stream, null, 0, 0, true);
+        }
+    }
+
+    /**
+     * Response body read from the stream's DATA frames, cancels the stream when closed early
+     */
+    private final class DataInputStream extends InputStream {
+        private boolean eof;
+        private boolean closed;
+
+        @Override
+        public int read() throws IOException {
+            final byte[] single = new byte[1];
+            final int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream is closed");
+            }
+            if (eof) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            final int read = stream.read(b, off, len, getReadTimeout());
+            if (read == -1) {
+                eof = true;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!eof) {
+                cancel();
+            }
+        }
+    }
+}
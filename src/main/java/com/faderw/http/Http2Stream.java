@@ -0,0 +1,166 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * One request/response exchange multiplexed on an {@link Http2Connection}.
+ * The reader thread fills it with headers and data, the caller's thread
+ * waits on it.
+ */
+
+final class Http2Stream {
+
+    final int id;
+    final Http2Connection connection;
+
+    /**
+     * Guarded by the connection
+     */
+    long sendWindow;
+    boolean localClosed;
+    int receiveUnacked;
+    IOException sendFailure;
+
+    private List<String> headers;
+    private final ArrayDeque<byte[]> data = new ArrayDeque<>();
+    private int headOffset;
+    private int buffered;
+    private boolean remoteClosed;
+    private boolean detached;
+    private IOException failure;
+
+    Http2Stream(final int id, final Http2Connection connection, final long sendWindow) {
+        this.id = id;
+        this.connection = connection;
+        this.sendWindow = sendWindow;
+    }
+
+    synchronized void onHeaders(final List<String> block, final boolean endStream) {
+        if (headers == null) {
+            final String status = CacheEntry.value(block, ":status");
+            // interim 1xx responses are skipped, the final response follows
+            if (endStream || status == null || status.length() != 3 || status.charAt(0) != '1') {
+                headers = block;
+            }
+        }
+        if (endStream) {
+            remoteClosed = true;
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return false when the peer sent more than the window allows
+     */
+    synchronized boolean onData(final byte[] chunk, final boolean endStream, final int window) {
+        if (chunk.length > 0) {
+            if (buffered + chunk.length > window) {
+                return false;
+            }
+            data.add(chunk);
+            buffered += chunk.length;
+        }
+        if (endStream) {
+            remoteClosed = true;
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Fail waiting readers. A response already read in full stays readable.
+     */
+    synchronized void fail(final IOException e) {
+        if (failure == null && !remoteClosed) {
+            failure = e;
+        }
+        notifyAll();
+    }
+
+    synchronized boolean isRemoteClosed() {
+        return remoteClosed;
+    }
+
+    /**
+     * Called once the connection forgets the stream: data read from now on
+     * comes from memory and is not acknowledged again
+     *
+     * @return the bytes buffered but not read yet
+     */
+    synchronized int detach() {
+        detached = true;
+        return buffered;
+    }
+
+    synchronized List<String> awaitHeaders(final int timeoutMillis) throws IOException {
+        final long deadline = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1_000_000L : 0;
+        while (headers == null) {
+            if (failure != null) {
+                throw failure;
+            }
+            if (remoteClosed) {
+                throw new IOException("Stream " + id + " closed without response headers");
+            }
+            await(deadline);
+        }
+        return headers;
+    }
+
+    /**
+     * @return the number of bytes copied, -1 once the peer ended the stream
+     */
+    int read(final byte[] b, final int off, final int len, final int timeoutMillis) throws IOException {
+        int read = 0;
+        final boolean acknowledge;
+        synchronized (this) {
+            final long deadline = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1_000_000L : 0;
+            while (data.isEmpty()) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (remoteClosed) {
+                    return -1;
+                }
+                await(deadline);
+            }
+            while (read < len && !data.isEmpty()) {
+                final byte[] head = data.peek();
+                final int n = Math.min(len - read, head.length - headOffset);
+                System.arraycopy(head, headOffset, b, off + read, n);
+                read += n;
+                headOffset += n;
+                if (headOffset == head.length) {
+                    data.poll();
+                    headOffset = 0;
+                }
+            }
+            buffered -= read;
+            acknowledge = !detached;
+        }
+        if (acknowledge) {
+            connection.consumed(this, read);
+        }
+        return read;
+    }
+
+    private void await(final long deadline) throws IOException {
+        try {
+            if (deadline == 0) {
+                wait();
+                return;
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Read timed out on HTTP/2 stream " + id);
+            }
+            wait(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting on HTTP/2 stream " + id);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.faderw.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client side HTTP cache used by {@link CachingConnectionFactory}. Entries
+ * live in a bounded in-memory LRU tier and, when a directory is configured,
+ * entries pushed out of memory move to a disk tier.
+ * <pre>
+ *     HttpCache cache = new HttpCache(32 * 1024 * 1024).disk(new File("cache"), 512 * 1024 * 1024);
+ *     HttpRequest.setConnectionFactory(new CachingConnectionFactory(cache));
+ * </pre>
+ */
+
+public class HttpCache {
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    private volatile DiskCache disk;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxBytes size of the memory tier, a single entry may take at most an eighth of it
+     */
+    public HttpCache(final long maxBytes) {
+        this(maxBytes, maxBytes / 8);
+    }
+
+    public HttpCache(final long maxBytes, final long maxEntryBytes) {
+        if (maxBytes <= 0 || maxEntryBytes <= 0) {
+            throw new IllegalArgumentException("cache sizes must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    /**
+     * Add a disk tier in the directory holding up to maxBytes
+     */
+    public HttpCache disk(final File directory, final long maxBytes) {
+        try {
+            this.disk = new DiskCache(directory, maxBytes);
+        } catch (IOException e) {
+            throw new HttpRequestException(e);
+        }
+        return this;
+    }
+
+    /**
+     * @return the largest body that will be stored
+     */
+    public long maxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    CacheEntry get(final String key) {
+        synchronized (this) {
+            final CacheEntry entry = entries.get(key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        final DiskCache diskCache = disk;
+        if (diskCache == null) {
+            return null;
+        }
+        final CacheEntry entry = diskCache.get(key);
+        if (entry != null) {
+            putMemory(entry);
+        }
+        return entry;
+    }
+
+    void put(final CacheEntry entry) {
+        if (entry.body.length > maxEntryBytes) {
+            return;
+        }
+        stores.incrementAndGet();
+        putMemory(entry);
+        final DiskCache diskCache = disk;
+        if (diskCache != null) {
+            diskCache.remove(entry.key);
+        }
+    }
+
+    private void putMemory(final CacheEntry entry) {
+        List<CacheEntry> demoted = null;
+        synchronized (this) {
+            final CacheEntry previous = entries.put(entry.key, entry);
+            bytes += entry.byteSize() - (previous != null ? previous.byteSize() : 0);
+            final Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                final CacheEntry eldest = iterator.next().getValue();
+                if (eldest == entry) {
+                    continue;
+                }
+                iterator.remove();
+                bytes -= eldest.byteSize();
+                evictions.incrementAndGet();
+                if (demoted == null) {
+                    demoted = new ArrayList<>(2);
+                }
+                demoted.add(eldest);
+            }
+        }
+        final DiskCache diskCache = disk;
+        if (diskCache != null && demoted != null) {
+            for (CacheEntry eldest : demoted) {
+                diskCache.put(eldest);
+            }
+        }
+    }
+
+    /**
+     * Drop the entry, used after unsafe methods on the same url
+     */
+    public void remove(final String url) {
+        synchronized (this) {
+            final CacheEntry previous = entries.remove(url);
+            if (previous != null) {
+                bytes -= previous.byteSize();
+            }
+        }
+        final DiskCache diskCache = disk;
+        if (diskCache != null) {
+            diskCache.remove(url);
+        }
+    }
+
+    /**
+     * Remove every entry from memory, the disk tier is left alone
+     */
+    public synchronized void evictAll() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    void recordRevalidation() {
+        revalidations.incrementAndGet();
+    }
+
+    void recordNotModified() {
+        notModified.incrementAndGet();
+    }
+
+    /**
+     * @return requests served from a fresh entry without touching the network
+     */
+    public long hitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return requests that had no usable entry and went to the server
+     */
+    public long missCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return conditional requests sent for stale entries
+     */
+    public long revalidationCount() {
+        return revalidations.get();
+    }
+
+    /**
+     * @return conditional requests answered with 304 and served from the cache
+     */
+    public long notModifiedCount() {
+        return notModified.get();
+    }
+
+    public long storeCount() {
+        return stores.get();
+    }
+
+    /**
+     * @return entries pushed out of the memory tier
+     */
+    public long evictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return estimated bytes held by the memory tier
+     */
+    public synchronized long byteSize() {
+        return bytes;
+    }
+
+    /**
+     * @return bytes held by the disk tier, 0 without one
+     */
+    public long diskByteSize() {
+        final DiskCache diskCache = disk;
+        return diskCache != null ? diskCache.byteSize() : 0;
+    }
+}
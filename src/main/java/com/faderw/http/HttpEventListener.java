@@ -0,0 +1,88 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Callbacks following one request through its phases. Every method does
+ * nothing by default, override the ones of interest.
+ * <p>
+ * Request and response events are raised for every transport. Connection
+ * events (dns, connect, tls, acquired, request headers) come from the
+ * transports reach-http implements itself, {@link PooledConnectionFactory}
+ * among them; {@link java.net.HttpURLConnection} from the JDK does not expose them.
+ * <p>
+ * A listener belongs to a single request and is called from the thread
+ * executing it, so it may keep per-call state without synchronization.
+ */
+
+public interface HttpEventListener {
+
+    HttpEventListener NONE = new HttpEventListener() {
+    };
+
+    /**
+     * Creates the listener of each request, see {@link HttpRequest#setEventListenerFactory(Factory)}
+     */
+    interface Factory {
+        HttpEventListener create(HttpRequest request);
+    }
+
+    default void callStart(HttpRequest request) {
+    }
+
+    default void dnsStart(String host) {
+    }
+
+    default void dnsEnd(String host, InetAddress address) {
+    }
+
+    default void connectStart(InetSocketAddress address) {
+    }
+
+    default void secureConnectStart() {
+    }
+
+    default void secureConnectEnd() {
+    }
+
+    default void connectEnd(InetSocketAddress address) {
+    }
+
+    default void connectFailed(InetSocketAddress address, IOException e) {
+    }
+
+    /**
+     * @param reused true when the socket came out of a pool
+     */
+    default void connectionAcquired(boolean reused) {
+    }
+
+    default void requestHeadersEnd() {
+    }
+
+    default void requestBodyEnd() {
+    }
+
+    default void responseHeadersEnd(int code) {
+    }
+
+    /**
+     * @param bytes body bytes handed to the caller, after any decoding
+     */
+    default void responseBodyEnd(long bytes) {
+    }
+
+    /**
+     * The response body was read to the end or closed, the exchange completed
+     * while the caller only asked for the head ({@link HttpRequest#code()} on
+     * a small or empty body), or the request was disconnected. Comes once,
+     * and never after {@link #callFailed(IOException)}.
+     */
+    default void callEnd() {
+    }
+
+    default void callFailed(IOException e) {
+    }
+}
@@ -1,14 +1,27 @@
 package com.faderw.http;
 
 
+import javax.net.ssl.HttpsURLConnection;
+
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import static com.faderw.http.HttpRequestConst.*;
 
@@ -23,6 +36,16 @@ public class HttpRequest {
     public HttpRequest(final URL url, final String requestMethod) {
         this.url = url;
         this.requestMethod = requestMethod;
+        this.template = null;
+    }
+
+    /**
+     * Request made from a template, see {@link RequestTemplate#request(CharSequence)}
+     */
+    HttpRequest(final URL url, final RequestTemplate template) {
+        this.url = url;
+        this.requestMethod = template.method();
+        this.template = template;
     }
 
     public HttpRequest(final CharSequence url, final String requestMethod) {
@@ -33,6 +56,7 @@ public class HttpRequest {
         }
 
         this.requestMethod = requestMethod;
+        this.template = null;
     }
 
     public interface ConnectionFactory {
@@ -65,13 +89,42 @@ public class HttpRequest {
 
     private static final int BUFFER_SIZE = 8132;
     private static final String DEFAULT_CHARSET = "UTF-8";
+    private static final String CHARSET_SEPARATOR = ";" + PARAM_CHARSET + "=";
     private final URL url;
     private final String requestMethod;
-    private HttpURLConnection connection = null;
+    private final RequestTemplate template;
+    private volatile HttpURLConnection connection = null;
+    private volatile boolean cancelled;
+    private volatile Deadline deadline = Deadline.current();
+    private volatile TimerWheel.Timeout deadlineTimer;
+    private volatile boolean deadlineExceeded;
+    private Executor executor;
     private boolean form;
+    private StringBuilder formBuffer;
     private boolean multipart;
+    private boolean streaming;
+    private boolean streamingModeSet;
+    private List<Part> pendingParts;
+    private boolean uncompress;
+    private boolean decoded;
+    private int compressThreshold = -1;
+    private boolean gzipRequest;
     private boolean unprogress;
     private boolean ignoreCloseException = true;
+    private HttpEventListener requestListener = HttpEventListener.NONE;
+    private HttpEventListener listener = HttpEventListener.NONE;
+    private boolean responseHeadersSeen;
+    private volatile boolean callEnded;
+    private EventInputStream bodyEvents;
+    private int priority;
+    private int connectTimeout = -1;
+    private int readTimeout = -1;
+
+    /**
+     * Name/value pairs set through {@link #header(String, String)}, kept here
+     * since the JDK connection hides credentials from getRequestProperties()
+     */
+    private List<String> headers;
 
 
     private String proxyHostName;
@@ -81,20 +134,348 @@ public class HttpRequest {
 
 
     private static ConnectionFactory connectionFactory = ConnectionFactory.DEFAULT;
+    private static volatile Executor asyncExecutor;
+    private static volatile BufferPool bufferPool = BufferPool.DEFAULT;
+    private static volatile HttpEventListener.Factory eventListenerFactory;
+    private static volatile TlsConfig tlsConfig;
+
+    /**
+     * Set the factory used to open connections for every request,
+     * null restores {@link ConnectionFactory#DEFAULT}
+     */
+    public static void setConnectionFactory(final ConnectionFactory connectionFactory) {
+        HttpRequest.connectionFactory = connectionFactory != null ? connectionFactory : ConnectionFactory.DEFAULT;
+    }
+
+    /**
+     * Warm up the pool of the {@link PooledConnectionFactory} set as the
+     * connection factory, see {@link ConnectionPool#preconnect(List, int)}
+     *
+     * @throws IllegalStateException when another factory is set
+     */
+    public static Preconnect preconnect(final List<String> baseUrls, final int connectionsPerHost) {
+        final ConnectionFactory factory = connectionFactory;
+        if (!(factory instanceof PooledConnectionFactory)) {
+            throw new IllegalStateException("Preconnecting needs a PooledConnectionFactory, the factory is "
+                    + factory.getClass().getName());
+        }
+        return ((PooledConnectionFactory) factory).getPool().preconnect(baseUrls, connectionsPerHost);
+    }
+
+    /**
+     * Set the executor running the *Async methods of every request,
+     * null restores the default (virtual threads on Java 21+)
+     */
+    public static void setAsyncExecutor(final Executor asyncExecutor) {
+        HttpRequest.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * Set the pool lending chunks for reading response bodies,
+     * null restores {@link BufferPool#DEFAULT}
+     */
+    public static void setBufferPool(final BufferPool bufferPool) {
+        HttpRequest.bufferPool = bufferPool != null ? bufferPool : BufferPool.DEFAULT;
+    }
+
+    static BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Set the factory creating a listener for every request, null removes it
+     */
+    public static void setEventListenerFactory(final HttpEventListener.Factory eventListenerFactory) {
+        HttpRequest.eventListenerFactory = eventListenerFactory;
+    }
+
+    /**
+     * Set the TLS settings for https connections of the JDK transport, null
+     * restores the JVM default. Pooled and HTTP/2 transports take theirs from
+     * {@link ConnectionPool#tls(TlsConfig)} and {@link Http2ConnectionFactory#tls(TlsConfig)}.
+     */
+    public static void setTlsConfig(final TlsConfig tlsConfig) {
+        HttpRequest.tlsConfig = tlsConfig;
+    }
 
     private HttpURLConnection createConnection() {
+        final HttpEventListener.Factory factory = eventListenerFactory;
+        listener = CompositeEventListener.of(factory != null ? factory.create(this) : HttpEventListener.NONE,
+                requestListener);
+        listener.callStart(this);
         final HttpURLConnection connection;
         try {
+            if (cancelled) {
+                throw new IOException("Request was cancelled");
+            }
+            final Deadline current = deadline;
+            if (current != null && current.isExpired()) {
+                deadlineExceeded = true;
+                throw new IOException("Deadline passed before the request started");
+            }
             if (proxyHostName != null && proxyHostPort != null) {
-                connection = connectionFactory.create(url, new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHostName, proxyHostPort)));
+                // left unresolved, the transport resolves it (the pooled one through its DnsResolver)
+                connection = connectionFactory.create(url, new Proxy(Proxy.Type.HTTP,
+                        InetSocketAddress.createUnresolved(proxyHostName, proxyHostPort)));
             } else {
                 connection = connectionFactory.create(url);
             }
             connection.setRequestMethod(requestMethod);
+            if (template != null) {
+                template.applyTo(connection);
+            }
+            final TlsConfig tls = tlsConfig;
+            if (tls != null && connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(tls.socketFactory());
+            }
+            if (connection instanceof AbstractHttpURLConnection) {
+                if (listener != HttpEventListener.NONE) {
+                    ((AbstractHttpURLConnection) connection).eventListener = listener;
+                }
+                ((AbstractHttpURLConnection) connection).priority = priority;
+            }
+            if (current != null) {
+                armDeadline(connection, current);
+            }
             return connection;
         } catch (IOException e) {
-            throw new HttpRequestException(e);
+            throw failed(e);
+        }
+    }
+
+    /**
+     * Weight of this request among the others sharing an HTTP/2 connection,
+     * 1 to 256, higher gets more bandwidth. Transports without priorities ignore it.
+     * Must be set before the connection is opened.
+     */
+    public HttpRequest priority(final int weight) {
+        if (weight < 1 || weight > 256) {
+            throw new IllegalArgumentException("weight must be between 1 and 256");
+        }
+        this.priority = weight;
+        return this;
+    }
+
+    /**
+     * Report the failure to the listener and wrap it
+     */
+    private HttpRequestException failed(final IOException e) {
+        disarmDeadline();
+        final IOException cause = abortCause(e);
+        callFailed(cause);
+        return new HttpRequestException(cause);
+    }
+
+    /**
+     * Tell the listener the call is over. Only the first end counts: the body
+     * may still be read after code() finished the exchange, or fail after
+     * the request was disconnected.
+     */
+    void callEnded(final long bodyBytes) {
+        if (!callEnded) {
+            callEnded = true;
+            listener.responseBodyEnd(bodyBytes);
+            listener.callEnd();
+        }
+    }
+
+    void callFailed(final IOException e) {
+        if (!callEnded) {
+            callEnded = true;
+            listener.callFailed(e);
+        }
+    }
+
+    /**
+     * Fail the request once the time has passed, whether it is connecting,
+     * sending, waiting for the response or reading the body. The connection is
+     * aborted then, by a timer shared by all requests. A deadline inherited
+     * from {@link Deadline#attach()} still applies when it is earlier.
+     */
+    public HttpRequest deadline(final long timeout, final TimeUnit unit) {
+        return deadline(Deadline.after(timeout, unit));
+    }
+
+    /**
+     * Same as above, for a deadline handed down by the caller
+     */
+    public HttpRequest deadline(final Deadline deadline) {
+        this.deadline = deadline.min(this.deadline);
+        final HttpURLConnection current = connection;
+        if (current != null) {
+            armDeadline(current, this.deadline);
+        }
+        return this;
+    }
+
+    /**
+     * @return the deadline of this request, null when it has none
+     */
+    public Deadline deadline() {
+        return deadline;
+    }
+
+    /**
+     * Limit the time spent connecting, in milliseconds, 0 waits forever
+     */
+    public HttpRequest connectTimeout(final int connectTimeout) {
+        getConnection().setConnectTimeout(connectTimeout);
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * Limit the time waiting for each read, in milliseconds, 0 waits forever
+     */
+    public HttpRequest readTimeout(final int readTimeout) {
+        getConnection().setReadTimeout(readTimeout);
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * A new request to the same url with the method, template, headers,
+     * timeouts, deadline, proxy, executor and decoding of this one, for the
+     * extra requests one call is made of, like the ranges of a download.
+     * The request body and listener are not carried over.
+     */
+    HttpRequest derive() {
+        final HttpRequest copy = template != null ? new HttpRequest(url, template) : new HttpRequest(url, requestMethod);
+        copy.deadline = deadline;
+        copy.proxyHostName = proxyHostName;
+        copy.proxyHostPort = proxyHostPort;
+        copy.executor = executor;
+        copy.uncompress = uncompress;
+        copy.priority = priority;
+        if (connectTimeout >= 0) {
+            copy.connectTimeout(connectTimeout);
+        }
+        if (readTimeout >= 0) {
+            copy.readTimeout(readTimeout);
+        }
+        if (headers != null) {
+            for (int i = 0; i < headers.size(); i += 2) {
+                copy.header(headers.get(i), headers.get(i + 1));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Abort the request. Safe to call from any thread at any time: a request
+     * not started yet fails when it would, a blocked one fails at once.
+     */
+    public HttpRequest cancel() {
+        cancelled = true;
+        disarmDeadline();
+        abort();
+        return this;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Socket timeouts no longer than the time left, and a timer aborting the connection at the deadline
+     */
+    private void armDeadline(final HttpURLConnection connection, final Deadline current) {
+        final long remaining = Math.max(1, current.remaining(TimeUnit.MILLISECONDS));
+        final int timeout = (int) Math.min(Integer.MAX_VALUE, remaining);
+        if (connection.getConnectTimeout() == 0 || connection.getConnectTimeout() > timeout) {
+            connection.setConnectTimeout(timeout);
+        }
+        if (connection.getReadTimeout() == 0 || connection.getReadTimeout() > timeout) {
+            connection.setReadTimeout(timeout);
+        }
+        disarmDeadline();
+        deadlineTimer = TimerWheel.DEFAULT.schedule(this::deadlinePassed,
+                current.nanoTime() - System.nanoTime());
+    }
+
+    /**
+     * Runs on the timer thread, which must not block: closing a connection
+     * may wait for a lock or a TLS close, so that is left to another thread
+     */
+    private void deadlinePassed() {
+        deadlineExceeded = true;
+        cancelled = true;
+        AsyncExecutors.defaultExecutor().execute(this::abort);
+    }
+
+    private void disarmDeadline() {
+        final TimerWheel.Timeout timer = deadlineTimer;
+        if (timer != null) {
+            deadlineTimer = null;
+            timer.cancel();
+        }
+    }
+
+    /**
+     * @return the failure as a timeout when the deadline aborted the request
+     */
+    private IOException abortCause(final IOException e) {
+        if (!deadlineExceeded || e instanceof SocketTimeoutException) {
+            return e;
+        }
+        final SocketTimeoutException timeout = new SocketTimeoutException("Request deadline exceeded");
+        timeout.initCause(e);
+        return timeout;
+    }
+
+    /**
+     * Status code of the response, telling the listener once the headers are in
+     */
+    private int responseCode() throws IOException {
+        final int code = getConnection().getResponseCode();
+        if (!responseHeadersSeen) {
+            responseHeadersSeen = true;
+            listener.responseHeadersEnd(code);
         }
+        return code;
+    }
+
+    public URL url() {
+        return url;
+    }
+
+    public String method() {
+        return requestMethod;
+    }
+
+    /**
+     * Listen to the phases of this request, together with the listener of
+     * {@link #setEventListenerFactory(HttpEventListener.Factory)}.
+     * Must be set before the connection is opened.
+     */
+    public HttpRequest eventListener(final HttpEventListener listener) {
+        this.requestListener = listener != null ? listener : HttpEventListener.NONE;
+        return this;
+    }
+
+    /**
+     * Number of bytes the text takes in the charset, counted without encoding for UTF-8
+     */
+    static long byteLength(final CharSequence text, final String charset) {
+        if (!DEFAULT_CHARSET.equalsIgnoreCase(charset)) {
+            return Charset.forName(charset).encode(CharBuffer.wrap(text)).remaining();
+        }
+        long length = 0;
+        final int size = text.length();
+        for (int i = 0; i < size; i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
     }
 
     private String getValidCharset(final String charset) {
@@ -108,10 +489,42 @@ public class HttpRequest {
     public HttpURLConnection getConnection() {
         if (connection == null) {
             connection = createConnection();
+            if (cancelled) {
+                connection.disconnect();
+                throw new HttpRequestException(abortCause(new IOException("Request was cancelled")));
+            }
         }
         return connection;
     }
 
+    /**
+     * Close the underlying connection, unblocking any thread reading from it.
+     * The call ends here for the listener if the body was not read to the end.
+     */
+    public HttpRequest disconnect() {
+        disarmDeadline();
+        abort();
+        if (connection != null) {
+            if (bodyEvents != null) {
+                bodyEvents.end();
+            } else {
+                callEnded(0);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Close the connection from any thread, the listener hears of it through
+     * the failure of the thread executing the request
+     */
+    private void abort() {
+        final HttpURLConnection current = connection;
+        if (current != null) {
+            current.disconnect();
+        }
+    }
+
     public HttpRequest userProxy(String proxyHostName, Integer proxyHostPort) {
         this.proxyHostName = proxyHostName;
         this.proxyHostPort = proxyHostPort;
@@ -123,15 +536,86 @@ public class HttpRequest {
             return this;
         }
         getConnection().setDoOutput(true);
-        final String charset = getParam(getConnection().getRequestProperty(HEADER_CONTENT_TYPE), PARAM_CHARSET);
+        if ((streaming || gzipRequest) && !streamingModeSet) {
+            chunkedStreaming(BUFFER_SIZE);
+        }
+        final String charset = getValidCharset(getParam(getConnection().getRequestProperty(HEADER_CONTENT_TYPE), PARAM_CHARSET));
         try {
-            outputStream = new RequestOutputStream(getConnection().getOutputStream(), charset, BUFFER_SIZE);
+            OutputStream target = getConnection().getOutputStream();
+            if (gzipRequest) {
+                target = new DeflatingOutputStream(target, CompressionPool.DEFAULT, BUFFER_SIZE);
+            }
+            outputStream = new RequestOutputStream(target, charset, BUFFER_SIZE);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new HttpRequestException(e);
         }
         return this;
     }
 
+    /**
+     * Stream the request body instead of letting the connection buffer it.
+     * Bodies of known size (json, form maps, multipart parts) are sent with a
+     * fixed Content-Length, anything else with chunked transfer encoding.
+     * Multipart parts are collected and written when the output is closed so
+     * their total size can be computed first.
+     */
+    public HttpRequest streaming() {
+        streaming = true;
+        return this;
+    }
+
+    /**
+     * Send the body with a fixed Content-Length, writing exactly that many bytes is up to the caller
+     */
+    public HttpRequest fixedLengthStreaming(final long contentLength) {
+        getConnection().setFixedLengthStreamingMode(contentLength);
+        streamingModeSet = true;
+        return this;
+    }
+
+    /**
+     * Send the body with chunked transfer encoding
+     */
+    public HttpRequest chunkedStreaming(final int chunkSize) {
+        getConnection().setChunkedStreamingMode(chunkSize);
+        streamingModeSet = true;
+        return this;
+    }
+
+    /**
+     * Ask for a gzip or deflate encoded response and decode it transparently
+     * in {@link #stream()}, {@link #buffer()} and {@link #body(String)}
+     */
+    public HttpRequest acceptGzipEncoding() {
+        header(HEADER_ACCEPT_ENCODING, ENCODING_GZIP + ", " + ENCODING_DEFLATE);
+        return uncompress(true);
+    }
+
+    /**
+     * Decode 'gzip' and 'deflate' encoded responses while reading them
+     */
+    public HttpRequest uncompress(final boolean uncompress) {
+        this.uncompress = uncompress;
+        return this;
+    }
+
+    /**
+     * Gzip send, json and form bodies of at least threshold bytes. The
+     * decision is made when the output is opened, from the size of the first
+     * body written; compressed bodies are always streamed chunked.
+     */
+    public HttpRequest compress(final int threshold) {
+        this.compressThreshold = threshold;
+        return this;
+    }
+
+    private void prepareCompression(final long length) {
+        if (compressThreshold >= 0 && outputStream == null && !gzipRequest && length >= compressThreshold) {
+            gzipRequest = true;
+            header(HEADER_CONTENT_ENCODING, ENCODING_GZIP);
+        }
+    }
+
     public static HttpRequest get(final CharSequence url) {
         return new HttpRequest(url, METHOD_GET);
     }
@@ -148,38 +632,26 @@ public class HttpRequest {
         return new HttpRequest(url, METHOD_POST);
     }
 
-    public static HttpRequest post(final CharSequence baseUrl,final Map<?, ?> params, final boolean encode) {
-        String url = append(baseUrl, params);
-        return post(encode ? encode(url) : url);
+    /**
+     * POST to the base URL with the parameters added to its query. With
+     * encode the base URL is quoted and each key and value percent-encoded.
+     */
+    public static HttpRequest post(final CharSequence baseUrl, final Map<?, ?> params, final boolean encode) {
+        if (!encode) {
+            return post(append(baseUrl, params));
+        }
+        return post(appendParams(encode(baseUrl), params, PercentEncoder.UNRESERVED));
     }
 
+    /**
+     * Percent-encode the path and query of the URL, leaving their delimiters alone
+     */
     public static String encode(final CharSequence url) {
-        URL parsed;
         try {
-            parsed = new URL(url.toString());
+            return PercentEncoder.encodeUrl(url);
         } catch (MalformedURLException e) {
             throw new HttpRequestException(e);
         }
-        String host = parsed.getHost();
-        int port = parsed.getPort();
-        if (port != -1) {
-            host = host + ':' + Integer.toString(port);
-        }
-        try {
-            String encoded = new URI(parsed.getProtocol(), host, parsed.getPath(), parsed.getQuery(), null)
-                    .toASCIIString();
-            int paramStart = encoded.indexOf("?");
-            if (paramStart > 0 && paramStart + 1 < encoded.length()) {
-                encoded = encoded.substring(0, paramStart + 1)
-                    + encoded.substring(paramStart + 1).replace("+", "%20");
-            }
-
-            return encoded;
-        } catch (URISyntaxException e) {
-            IOException io = new IOException("Parsing URI failed");
-            io.initCause(e);
-            throw new HttpRequestException(io);
-		}
     }
 
     public HttpRequest form(Map<?, ?> params) {
@@ -188,14 +660,51 @@ public class HttpRequest {
 
     public HttpRequest json(final String json) {
         contentType(CONTENT_TYPE_JSON, DEFAULT_CHARSET);
+        if (outputStream == null && (streaming || compressThreshold >= 0)) {
+            final long length = byteLength(json, DEFAULT_CHARSET);
+            prepareCompression(length);
+            if (streaming && !streamingModeSet && !gzipRequest) {
+                fixedLengthStreaming(length);
+            }
+        }
         send(json);
         return this;
     }
 
+    /**
+     * Send the value as JSON, written by the encoder straight into the request body.
+     * The size isn't known up front, so a streaming request is chunked and
+     * {@link #compress(int)} compresses whatever the threshold.
+     */
+    public <T> HttpRequest json(final T value, final RequestEncoder<? super T> encoder) {
+        contentType(CONTENT_TYPE_JSON, DEFAULT_CHARSET);
+        return send(value, encoder);
+    }
+
+    /**
+     * Send the value written by the encoder, in the charset of the Content-Type set
+     */
+    public <T> HttpRequest send(final T value, final RequestEncoder<? super T> encoder) {
+        if (outputStream == null) {
+            prepareCompression(Long.MAX_VALUE);
+        }
+        openOutput();
+        try {
+            encoder.encode(value, outputStream);
+        } catch (IOException e) {
+            throw new HttpRequestException(e);
+        }
+        return this;
+    }
+
     public HttpRequest send(final CharSequence charSequence) {
+        if (compressThreshold >= 0 && outputStream == null) {
+            prepareCompression(byteLength(charSequence,
+                    getValidCharset(getParam(getConnection().getRequestProperty(HEADER_CONTENT_TYPE), PARAM_CHARSET))));
+        }
         openOutput();
         try {
-            outputStream.write(charSequence.toString());
+            outputStream.write(charSequence);
         } catch (IOException e) {
             throw new HttpRequestException(e);
         }
@@ -206,8 +715,26 @@ public class HttpRequest {
         return part(name, null, null, part);
     }
 
-    public HttpRequest part(final String name, final String filename, File file) {
-        return this;
+    public HttpRequest part(final String name, final File file) {
+        return part(name, file.getName(), file);
+    }
+
+    public HttpRequest part(final String name, final String filename, final File file) {
+        return part(name, filename, null, file.toPath());
+    }
+
+    public HttpRequest part(final String name, final Path path) {
+        final Path fileName = path.getFileName();
+        return part(name, fileName != null ? fileName.toString() : null, null, path);
+    }
+
+    /**
+     * Write a file part straight from its {@link FileChannel}. A null
+     * content type is guessed from the file name.
+     */
+    public HttpRequest part(final String name, final String filename, final String contentType, final Path path) {
+        return addPart(new Part(name, filename, contentType != null ? contentType : guessContentType(filename),
+                null, path, null));
     }
 
     public HttpRequest part(final String name, final String filename, final String part) {
@@ -215,50 +742,124 @@ public class HttpRequest {
     }
 
     public HttpRequest part(final String name, final String filename, final InputStream inputStream) {
-        try {
-            BufferedInputStream in = new BufferedInputStream(inputStream);
-            startPart();
-            writePartHeader(name, filename, null);
-            copy(in, outputStream);
-        } catch (IOException e) {
-            throw new HttpRequestException(e);
-        }
+        return addPart(new Part(name, filename, guessContentType(filename), null, null, inputStream));
     }
 
     public HttpRequest part(final String name, final String filename, final String contentType, final String part) {
+        return addPart(new Part(name, filename, contentType, part, null, null));
+    }
+
+    private HttpRequest addPart(final Part part) {
+        if (streaming && outputStream == null && !streamingModeSet) {
+            if (pendingParts == null) {
+                pendingParts = new ArrayList<>();
+                multipart = true;
+                contentType(CONTENT_TYPE_MUITIPART + BOUNDARY, null);
+            }
+            pendingParts.add(part);
+            return this;
+        }
         try {
             startPart();
-            writePartHeader(name, filename, contentType);
-            outputStream.write(part);
+            writePartHeader(part.name, part.filename, part.contentType);
+            writePartBody(part);
         } catch (IOException e) {
             throw new HttpRequestException(e);
         }
         return this;
     }
 
+    private void writePartBody(final Part part) throws IOException {
+        if (part.text != null) {
+            outputStream.write(part.text);
+        } else if (part.path != null) {
+            try (FileChannel channel = FileChannel.open(part.path, StandardOpenOption.READ)) {
+                outputStream.write(channel, 0, channel.size());
+            }
+        } else {
+            outputStream.write(part.stream);
+        }
+    }
+
+    /**
+     * Write the parts collected in streaming mode, with a fixed length when
+     * every part size is known up front.
+     */
+    private void writePendingParts() throws IOException {
+        final List<Part> parts = pendingParts;
+        pendingParts = null;
+        final String charset = DEFAULT_CHARSET;
+        final long boundaryLength = byteLength(BOUNDARY, charset);
+        long total = (boundaryLength + 2 + CRLF.length()) + (CRLF.length() + boundaryLength + 4 + CRLF.length());
+        for (int i = 0; i < parts.size() && total >= 0; i++) {
+            final Part part = parts.get(i);
+            if (i > 0) {
+                total += CRLF.length() + 2 + boundaryLength + CRLF.length();
+            }
+            total += byteLength(partHeaderText(part.name, part.filename, part.contentType), charset);
+            if (part.text != null) {
+                total += byteLength(part.text, charset);
+            } else if (part.path != null) {
+                total += Files.size(part.path);
+            } else {
+                total = -1;
+            }
+        }
+        if (total >= 0) {
+            fixedLengthStreaming(total);
+        } else {
+            chunkedStreaming(BUFFER_SIZE);
+        }
+        for (Part part : parts) {
+            startPart();
+            writePartHeader(part.name, part.filename, part.contentType);
+            writePartBody(part);
+        }
+    }
+
+    /**
+     * Guess a part content type from the file name, null for plain form fields
+     */
+    protected static String guessContentType(final String filename) {
+        if (filename == null) {
+            return null;
+        }
+        final String guessed = URLConnection.guessContentTypeFromName(filename);
+        return guessed != null ? guessed : CONTENT_TYPE_OCTET_STREAM;
+    }
 
     protected HttpRequest startPart() throws IOException {
         if (!multipart) {
+            multipart = true;
             contentType(CONTENT_TYPE_MUITIPART + BOUNDARY, null);
+        }
+        if (outputStream == null) {
             openOutput();
             outputStream.write("--" + BOUNDARY + CRLF);
         } else {
-            outputStream.write("--"+ BOUNDARY + CRLF);
+            outputStream.write(CRLF + "--" + BOUNDARY + CRLF);
         }
         return this;
     }
 
     protected HttpRequest writePartHeader(final String name, final String filename, final String contentType) {
-        final StringBuilder partBuilder = new StringBuilder();
-        partBuilder.append("form-data;name=\"").append(name).append("\"");
+        return send(partHeaderText(name, filename, contentType));
+    }
+
+    /**
+     * Build the header block of a part, including the blank line ending it
+     */
+    protected static String partHeaderText(final String name, final String filename, final String contentType) {
+        final StringBuilder partBuilder = new StringBuilder(128);
+        partBuilder.append("Content-Disposition:form-data;name=\"").append(name).append("\"");
         if (filename != null) {
             partBuilder.append(";filename=\"").append(filename).append("\"");
         }
-        partHeader("Content-Disposition", partBuilder.toString());
+        partBuilder.append(CRLF);
         if (contentType != null) {
-            partHeader(HEADER_CONTENT_TYPE, contentType);
+            partBuilder.append(HEADER_CONTENT_TYPE).append(':').append(contentType).append(CRLF);
         }
-        return send(CRLF);
+        return partBuilder.append(CRLF).toString();
     }
 
     protected HttpRequest partHeader(final String header, final String value) {
@@ -272,6 +873,27 @@ public class HttpRequest {
             return this;
         }
         charset = getValidCharset(charset);
+        if ((streaming || compressThreshold >= 0) && !form && outputStream == null && !streamingModeSet) {
+            final Charset encoding = formCharset(charset);
+            final StringBuilder encoded = new StringBuilder(params.size() * 16);
+            for (Entry<?, ?> entry : params.entrySet()) {
+                if (encoded.length() > 0) {
+                    encoded.append('&');
+                }
+                PercentEncoder.encodeForm(entry.getKey().toString(), encoding, encoded).append('=');
+                if (entry.getValue() != null) {
+                    PercentEncoder.encodeForm(entry.getValue().toString(), encoding, encoded);
+                }
+            }
+            contentType(CONTENT_TYPE_FORM, charset);
+            form = true;
+            // url encoded text is pure ASCII, one byte per char
+            prepareCompression(encoded.length());
+            if (streaming && !gzipRequest) {
+                fixedLengthStreaming(encoded.length());
+            }
+            return send(encoded);
+        }
         for (Entry<?, ?> entry : params.entrySet()) {
             form(entry.getKey(), entry.getValue(), charset);
         }
@@ -285,43 +907,63 @@ public class HttpRequest {
             form = true;
         }
 
+        final Charset encoding = formCharset(getValidCharset(charset));
+        if (formBuffer == null) {
+            formBuffer = new StringBuilder(64);
+        }
+        formBuffer.setLength(0);
+        if (!first) {
+            formBuffer.append('&');
+        }
+        PercentEncoder.encodeForm(key.toString(), encoding, formBuffer).append('=');
+        if (value != null) {
+            PercentEncoder.encodeForm(value.toString(), encoding, formBuffer);
+        }
         try {
             openOutput();
-            if (!first) {
-                outputStream.write('&');
-            }
-            outputStream.write(URLEncoder.encode(value.toString(), charset));
-            outputStream.write("=");
-            if (value != null) {
-                outputStream.write(URLEncoder.encode(value.toString(), charset));
-            }
-
+            outputStream.write(formBuffer);
         } catch (IOException e) {
             throw new HttpRequestException(e);
         }
         return this;
     }
 
-    public static String append(final CharSequence url, Map<?, ?> params) {
-        String baseUrl = url.toString();
+    private static Charset formCharset(final String charset) {
+        try {
+            return Charset.forName(charset);
+        } catch (IllegalArgumentException e) {
+            throw new HttpRequestException(new UnsupportedEncodingException(charset));
+        }
+    }
+
+    /**
+     * Add the parameters to the query of the URL as they are, see
+     * {@link #encode(CharSequence)} to quote the result
+     */
+    public static String append(final CharSequence url, final Map<?, ?> params) {
+        return appendParams(url.toString(), params, null);
+    }
+
+    /**
+     * @param safe characters keys and values may keep, null to append them unencoded
+     */
+    private static String appendParams(final String baseUrl, final Map<?, ?> params, final boolean[] safe) {
         if (params == null || params.isEmpty()) {
             return baseUrl;
         }
-        StringBuilder result = new StringBuilder();
+        final StringBuilder result = new StringBuilder(baseUrl.length() + 16 * params.size());
+        result.append(baseUrl);
         addPathSeparator(baseUrl, result);
         addParamPrefix(baseUrl, result);
 
-        Entry<?, ?> entry;
-        Iterator iterator = params.entrySet().iterator();
-        entry = (Entry<?, ?>) iterator.next();
-        addParam(entry.getKey(), entry.getValue(), result);
-        
-        while (iterator.hasNext()) {
-            result.append("&");
-            entry = (Entry<?, ?>) iterator.next();
-            addParam(entry.getKey(), entry.getValue(), result);
+        boolean first = true;
+        for (Entry<?, ?> entry : params.entrySet()) {
+            if (!first) {
+                result.append('&');
+            }
+            first = false;
+            addParam(entry.getKey(), entry.getValue(), result, safe);
         }
-
         return result.toString();
     }
 
@@ -344,100 +986,162 @@ public class HttpRequest {
         return result;
     }
 
-    private static StringBuilder addParam(Object key, Object value, final StringBuilder result) {
-        if (value.getClass().isArray()) {
-            value = arrayToList(value);
+    private static StringBuilder addParam(final Object key, final Object value, final StringBuilder result,
+                                          final boolean[] safe) {
+        if (value != null && value.getClass().isArray() && !(value instanceof Object[])) {
+            return addPrimitiveArray(key, value, result, safe);
         }
-
-        if (value instanceof Iterable) {
-            Iterator<?> iterator = ((Iterable) value).iterator();
+        final Iterable<?> values = value instanceof Object[] ? Arrays.asList((Object[]) value)
+                : value instanceof Iterable ? (Iterable<?>) value : null;
+        if (values != null) {
+            final Iterator<?> iterator = values.iterator();
             while (iterator.hasNext()) {
-                result.append(key);
-                result.append("[]=");
-                Object element = iterator.next();
+                appendText(key, result, safe).append("[]=");
+                final Object element = iterator.next();
                 if (null != element) {
-                    result.append(element);
+                    appendText(element, result, safe);
                 }
                 if (iterator.hasNext()) {
                     result.append("&");
                 }
             }
         } else {
-            result.append(key);
-            result.append("=");
+            appendText(key, result, safe).append("=");
             if (null != value) {
-                result.append(value);
+                appendText(value, result, safe);
             }
         }
 
         return result;
     }
 
-    private static List<Object> arrayToList(final Object array) {
-        if (array instanceof Object[]) {
-            return Arrays.asList((Object[]) array);
-
+    private static StringBuilder appendText(final Object value, final StringBuilder result, final boolean[] safe) {
+        if (safe == null) {
+            return result.append(value);
         }
-        List<Object> result = new ArrayList<>();
-        // Arrays of the primitive types can't be cast to array of Object, so this:
+        return PercentEncoder.encode(value.toString(), safe, result);
+    }
+
+    /**
+     * Arrays of the primitive types can't be cast to an array of Object, each
+     * gets its own loop so the elements are appended without boxing. Numbers
+     * and booleans never need encoding, chars may.
+     */
+    private static StringBuilder addPrimitiveArray(final Object key, final Object array, final StringBuilder result,
+                                                   final boolean[] safe) {
         if (array instanceof int[]) {
-            for (int value : (int[]) array) {
-                result.add(value);
-            }
-        } else if (array instanceof boolean[]) {
-            for (boolean value : (boolean[]) array) {
-                result.add(value);
+            final int[] values = (int[]) array;
+            for (int i = 0; i < values.length; i++) {
+                addArrayKey(key, i, result, safe).append(values[i]);
             }
         } else if (array instanceof long[]) {
-            for (long value : (long[]) array) {
-                result.add(value);
+            final long[] values = (long[]) array;
+            for (int i = 0; i < values.length; i++) {
+                addArrayKey(key, i, result, safe).append(values[i]);
             }
-        } else if (array instanceof float[]) {
-            for (float value : (float[]) array) {
-                result.add(value);
+        } else if (array instanceof boolean[]) {
+            final boolean[] values = (boolean[]) array;
+            for (int i = 0; i < values.length; i++) {
+                addArrayKey(key, i, result, safe).append(values[i]);
             }
         } else if (array instanceof double[]) {
-            for (double value : (double[]) array) {
-                result.add(value);
+            final double[] values = (double[]) array;
+            for (int i = 0; i < values.length; i++) {
+                addArrayKey(key, i, result, safe).append(values[i]);
+            }
+        } else if (array instanceof float[]) {
+            final float[] values = (float[]) array;
+            for (int i = 0; i < values.length; i++) {
+                addArrayKey(key, i, result, safe).append(values[i]);
             }
         } else if (array instanceof short[]) {
-            for (short value : (short[]) array) {
-                result.add(value);
+            final short[] values = (short[]) array;
+            for (int i = 0; i < values.length; i++) {
+                addArrayKey(key, i, result, safe).append(values[i]);
             }
         } else if (array instanceof byte[]) {
-            for (byte value : (byte[]) array) {
-                result.add(value);
+            final byte[] values = (byte[]) array;
+            for (int i = 0; i < values.length; i++) {
+                addArrayKey(key, i, result, safe).append(values[i]);
             }
         } else if (array instanceof char[]) {
-            for (char value : (char[]) array) {
-                result.add(value);
+            final char[] values = (char[]) array;
+            for (int i = 0; i < values.length; i++) {
+                addArrayKey(key, i, result, safe);
+                if (safe == null) {
+                    result.append(values[i]);
+                } else {
+                    PercentEncoder.encode(CharBuffer.wrap(values, i, 1), safe, result);
+                }
             }
         }
-
         return result;
     }
 
-    public String body(String charset) {
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        copy(buffer(), outputStream);
+    private static StringBuilder addArrayKey(final Object key, final int index, final StringBuilder result,
+                                             final boolean[] safe) {
+        if (index > 0) {
+            result.append('&');
+        }
+        return appendText(key, result, safe).append("[]=");
+    }
 
+    public String body(String charset) {
+        final byte[] bytes = bytes();
         try {
             charset = getValidCharset(charset);
-            return outputStream.toString(charset);
+            return new String(bytes, charset);
         } catch (UnsupportedEncodingException e) {
             throw new HttpRequestException(e);
         }
     }
 
-    protected void copy(BufferedInputStream inputStream, final OutputStream outputStream) {
-        byte[] bytes = new byte[BUFFER_SIZE];
+    /**
+     * Read the whole response body. When 'Content-Length' is present the body
+     * is read straight into an array of that size, otherwise it is gathered in
+     * pooled chunks and copied once.
+     */
+    public byte[] bytes() {
+        final InputStream stream = stream();
+        if (stream == null) {
+            return new byte[0];
+        }
+        final BodyAccumulator accumulator = new BodyAccumulator(bufferPool,
+                decoded ? -1 : getConnection().getHeaderFieldLong(HEADER_CONTENT_LENGTH, -1));
+        try {
+            return accumulator.readFrom(stream).toByteArray();
+        } catch (IOException e) {
+            throw new HttpRequestException(abortCause(e));
+        } finally {
+            accumulator.release();
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+                // the body is read, a failing close doesn't change it
+            }
+            disarmDeadline();
+        }
+    }
+
+    /**
+     * Read the whole response body into a heap buffer backed by the array of {@link #bytes()}
+     */
+    public ByteBuffer byteBuffer() {
+        return ByteBuffer.wrap(bytes());
+    }
+
+    protected void copy(InputStream inputStream, final OutputStream outputStream) {
+        final ByteBuffer chunk = bufferPool.acquire();
+        final byte[] bytes = chunk.hasArray() ? chunk.array() : new byte[BUFFER_SIZE];
         try {
             int read;
-            while ((read = inputStream.read(bytes)) > 0) {
+            while ((read = inputStream.read(bytes)) != -1) {
                 outputStream.write(bytes, 0, read);
             }
         } catch (IOException e) {
             throw new HttpRequestException(e);
+        } finally {
+            bufferPool.release(chunk);
         }
     }
 
@@ -446,20 +1150,198 @@ public class HttpRequest {
     }
 
     public InputStream stream() {
+        closeOutputQuietly();
         InputStream stream;
         try {
-            if (getConnection().getResponseCode() < 400) {
+            if (responseCode() < 400) {
                 stream = getConnection().getInputStream();
             } else {
                 stream = getConnection().getErrorStream();
             }
         } catch (IOException e) {
-            throw new HttpRequestException(e);
+            throw failed(e);
         }
 
+        if (uncompress && stream != null) {
+            final String encoding = getConnection().getHeaderField(HEADER_CONTENT_ENCODING);
+            if (ENCODING_GZIP.equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+                stream = new InflatingInputStream(stream, true, CompressionPool.DEFAULT, bufferPool);
+                decoded = true;
+            } else if (ENCODING_DEFLATE.equalsIgnoreCase(encoding)) {
+                stream = new InflatingInputStream(stream, false, CompressionPool.DEFAULT, bufferPool);
+                decoded = true;
+            }
+        }
+        if (listener != HttpEventListener.NONE && !callEnded) {
+            if (stream == null) {
+                callEnded(0);
+            } else {
+                bodyEvents = new EventInputStream(stream, this);
+                stream = bodyEvents;
+            }
+        }
+        if (stream == null) {
+            disarmDeadline();
+        } else if (deadlineTimer != null) {
+            stream = new DeadlineInputStream(stream);
+        }
         return stream;
     }
 
+    /**
+     * Decode the response body as it arrives, without buffering it first.
+     * The body is closed once the decoder returns.
+     */
+    public <T> T as(final ResponseDecoder<T> decoder) {
+        final InputStream stream = bodyStream();
+        try {
+            return decoder.decode(stream, responseCharset());
+        } catch (IOException e) {
+            throw new HttpRequestException(abortCause(e));
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+                // the value is decoded, a failing close doesn't change it
+            }
+            disarmDeadline();
+        }
+    }
+
+    public <T> CompletableFuture<T> asAsync(final ResponseDecoder<T> decoder) {
+        return async(() -> as(decoder));
+    }
+
+    /**
+     * Read the response body line by line as it arrives, decoded with the
+     * charset of the response Content-Type (UTF-8 when it has none)
+     */
+    public RecordReader lines() {
+        return new RecordReader(bodyStream(), responseCharset(), null, bufferPool);
+    }
+
+    /**
+     * Read the response body as records separated by the delimiter as it arrives
+     */
+    public RecordReader records(final String delimiter) {
+        return new RecordReader(bodyStream(), responseCharset(), delimiter, bufferPool);
+    }
+
+    /**
+     * Read the response body as Server-Sent Events as they arrive
+     */
+    public SseReader events() {
+        return new SseReader(lines());
+    }
+
+    private InputStream bodyStream() {
+        final InputStream stream = stream();
+        return stream != null ? stream : new ByteArrayInputStream(new byte[0]);
+    }
+
+    private Charset responseCharset() {
+        final String charset = getParam(getConnection().getHeaderField(HEADER_CONTENT_TYPE), PARAM_CHARSET);
+        if (charset != null) {
+            try {
+                return Charset.forName(charset);
+            } catch (IllegalArgumentException ignored) {
+                // unknown charset, read as the default
+            }
+        }
+        return Charset.forName(DEFAULT_CHARSET);
+    }
+
+    /**
+     * Save the response body to the file, fetched as 4 concurrent byte ranges
+     * when the server supports them and resumable after an interruption. See
+     * {@link RangedDownload} for the other settings.
+     *
+     * @return the size of the file
+     */
+    public long download(final Path target) {
+        return new RangedDownload(this).download(target);
+    }
+
+    /**
+     * Get the status code of the response. A small body is read ahead so a
+     * pooled connection goes back even if the body is never read; a larger
+     * one keeps it until it is read or closed, or the request disconnected.
+     */
+    public int code() {
+        closeOutputQuietly();
+        try {
+            final int code = responseCode();
+            headRead();
+            return code;
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * The caller took what it needed from the response head and may not read
+     * the body. When that completed the exchange the call and its deadline
+     * end here.
+     */
+    private void headRead() throws IOException {
+        if (AbstractHttpURLConnection.releaseAfterHead(getConnection()) && bodyEvents == null) {
+            disarmDeadline();
+            callEnded(0);
+        }
+    }
+
+    /**
+     * Set the executor used by the *Async methods of this request
+     */
+    public HttpRequest executor(final Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public CompletableFuture<String> bodyAsync(final String charset) {
+        return async(() -> body(charset));
+    }
+
+    public CompletableFuture<InputStream> streamAsync() {
+        return async(this::stream);
+    }
+
+    public CompletableFuture<Integer> codeAsync() {
+        return async(this::code);
+    }
+
+    /**
+     * Run the call on the request executor. Cancelling the returned future
+     * disconnects the request so a blocked read fails fast.
+     */
+    protected <V> CompletableFuture<V> async(final Callable<V> call) {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        future.whenComplete((value, error) -> {
+            if (future.isCancelled()) {
+                cancel();
+            }
+        });
+        Executor target = executor != null ? executor : asyncExecutor;
+        if (target == null) {
+            target = AsyncExecutors.defaultExecutor();
+        }
+        try {
+            target.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(call.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
     public int intHeader(final String name) {
         return intHeader(name, -1);
     }
@@ -467,11 +1349,30 @@ public class HttpRequest {
     public int intHeader(final String name, final int defaultValue) {
         //todo closeOutput
         closeOutputQuietly();
+        try {
+            responseCode();
+            headRead();
+        } catch (IOException e) {
+            // reported to the listener, the caller gets the default as before
+            failed(e);
+            return defaultValue;
+        }
         return getConnection().getHeaderFieldInt(name, defaultValue);
     }
 
     public HttpRequest header(final String headerName, final String value) {
         getConnection().setRequestProperty(headerName, value);
+        if (headers == null) {
+            headers = new ArrayList<>(8);
+        }
+        for (int i = headers.size() - 2; i >= 0; i -= 2) {
+            if (headerName.equalsIgnoreCase(headers.get(i))) {
+                headers.remove(i + 1);
+                headers.remove(i);
+            }
+        }
+        headers.add(headerName);
+        headers.add(value);
         return this;
     }
     /**
@@ -483,9 +1384,8 @@ public class HttpRequest {
     }
 
     public HttpRequest contentType(final String contentType, final String charset) {
-        if (charset != null && charset.length() == 0) {
-            String separator = ";" + PARAM_CHARSET + "=";
-            return header(HEADER_CONTENT_TYPE, contentType + separator + charset);
+        if (charset != null && charset.length() > 0) {
+            return header(HEADER_CONTENT_TYPE, contentType + CHARSET_SEPARATOR + charset);
         }
         return header(HEADER_CONTENT_TYPE, contentType);
     }
@@ -504,28 +1404,34 @@ public class HttpRequest {
         try {
             closeOutput();
         } catch (IOException e) {
-            throw new HttpRequestException(e);
+            throw failed(e);
         }
         return this;
     }
 
     protected HttpRequest closeOutput() throws IOException {
         //todo progress upload
+        if (pendingParts != null) {
+            writePendingParts();
+        }
         if (outputStream == null) {
             return this;
         }
         if (multipart) {
             outputStream.write(CRLF + "--" + BOUNDARY + "--" + CRLF);
         }
+        final RequestOutputStream stream = outputStream;
+        outputStream = null;
         if (ignoreCloseException) {
             try {
-                outputStream.close();
+                stream.close();
             } catch (Exception e) {
 
             }
         } else {
-            outputStream.close();
+            stream.close();
         }
+        listener.requestBodyEnd();
         return this;
     }
 
@@ -571,4 +1477,69 @@ public class HttpRequest {
         return null;
     }
 
+    /**
+     * Body stream reporting reads failed by the deadline as timeouts and
+     * stopping the timer once the body is read or closed
+     */
+    private final class DeadlineInputStream extends FilterInputStream {
+
+        DeadlineInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                final int b = in.read();
+                if (b == -1) {
+                    disarmDeadline();
+                }
+                return b;
+            } catch (IOException e) {
+                throw abortCause(e);
+            }
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            try {
+                final int n = in.read(b, off, len);
+                if (n == -1) {
+                    disarmDeadline();
+                }
+                return n;
+            } catch (IOException e) {
+                throw abortCause(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            disarmDeadline();
+            super.close();
+        }
+    }
+
+    /**
+     * A multipart entry, exactly one of text, path and stream is set
+     */
+    private static final class Part {
+        final String name;
+        final String filename;
+        final String contentType;
+        final String text;
+        final Path path;
+        final InputStream stream;
+
+        Part(final String name, final String filename, final String contentType,
+             final String text, final Path path, final InputStream stream) {
+            this.name = name;
+            this.filename = filename;
+            this.contentType = contentType;
+            this.text = text;
+            this.path = path;
+            this.stream = stream;
+        }
+    }
+
 }
@@ -17,6 +17,41 @@ public interface HttpRequestConst {
      */
     String METHOD_POST = "POST";
 
+    /**
+     * 'HEAD' request method
+     */
+    String METHOD_HEAD = "HEAD";
+
+    /**
+     * 'PUT' request method
+     */
+    String METHOD_PUT = "PUT";
+
+    /**
+     * 'DELETE' request method
+     */
+    String METHOD_DELETE = "DELETE";
+
+    /**
+     * 'OPTIONS' request method
+     */
+    String METHOD_OPTIONS = "OPTIONS";
+
+    /**
+     * 'TRACE' request method
+     */
+    String METHOD_TRACE = "TRACE";
+
+    /**
+     * '200 OK' response code
+     */
+    int HTTP_OK = 200;
+
+    /**
+     * '304 Not Modified' response code
+     */
+    int HTTP_NOT_MODIFIED = 304;
+
     /**
      * 'Content-Length' header name
      */
@@ -27,6 +62,101 @@ public interface HttpRequestConst {
      */
     String HEADER_CONTENT_TYPE = "Content-Type";
 
+    /**
+     * 'Accept-Encoding' header name
+     */
+    String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+    /**
+     * 'Content-Encoding' header name
+     */
+    String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+    /**
+     * 'Cache-Control' header name
+     */
+    String HEADER_CACHE_CONTROL = "Cache-Control";
+
+    /**
+     * 'Date' header name
+     */
+    String HEADER_DATE = "Date";
+
+    /**
+     * 'Age' header name
+     */
+    String HEADER_AGE = "Age";
+
+    /**
+     * 'Expires' header name
+     */
+    String HEADER_EXPIRES = "Expires";
+
+    /**
+     * 'Last-Modified' header name
+     */
+    String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    /**
+     * 'ETag' header name
+     */
+    String HEADER_ETAG = "ETag";
+
+    /**
+     * 'Vary' header name
+     */
+    String HEADER_VARY = "Vary";
+
+    /**
+     * 'If-None-Match' header name
+     */
+    String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    /**
+     * 'If-Modified-Since' header name
+     */
+    String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /**
+     * 'Host' header name
+     */
+    String HEADER_HOST = "Host";
+
+    /**
+     * 'Connection' header name
+     */
+    String HEADER_CONNECTION = "Connection";
+
+    /**
+     * 'Transfer-Encoding' header name
+     */
+    String HEADER_TRANSFER_ENCODING = "Transfer-Encoding";
+
+    /**
+     * 'Range' header name
+     */
+    String HEADER_RANGE = "Range";
+
+    /**
+     * 'If-Range' header name
+     */
+    String HEADER_IF_RANGE = "If-Range";
+
+    /**
+     * 'Content-Range' header name
+     */
+    String HEADER_CONTENT_RANGE = "Content-Range";
+
+    /**
+     * 'gzip' encoding header value
+     */
+    String ENCODING_GZIP = "gzip";
+
+    /**
+     * 'deflate' encoding header value
+     */
+    String ENCODING_DEFLATE = "deflate";
+
     /**
      * 'charset' param charset name
      */
@@ -52,6 +182,11 @@ public interface HttpRequestConst {
      */
     String CONTENT_TYPE_MUITIPART = "multipart/form-data;boundary=";
 
+    /**
+     * 'application/octet-stream' content type header value
+     */
+    String CONTENT_TYPE_OCTET_STREAM = "application/octet-stream";
+
     /**
      * 'CRLF' text
      */
@@ -0,0 +1,282 @@
+package com.faderw.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes a 'gzip' or 'deflate' response body while it is read, using a
+ * pooled {@link Inflater} and a pooled input chunk. The inflater goes back to
+ * the pool at end of stream or on close. The underlying stream is read to its
+ * end before end of stream is reported. Concatenated gzip members are
+ * supported, and 'deflate' accepts both zlib framed and raw data.
+ */
+
+final class InflatingInputStream extends InputStream {
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final InputStream in;
+    private final boolean gzip;
+    private final CompressionPool compressionPool;
+    private final BufferPool bufferPool;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer chunk;
+    private byte[] input;
+    private int position;
+    private int limit;
+    private Inflater inflater;
+    private boolean nowrap;
+    private boolean started;
+    private boolean eof;
+    private boolean closed;
+    private final byte[] single = new byte[1];
+
+    InflatingInputStream(final InputStream in, final boolean gzip, final CompressionPool compressionPool,
+                         final BufferPool bufferPool) {
+        this.in = in;
+        this.gzip = gzip;
+        this.compressionPool = compressionPool;
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (eof) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!started) {
+            started = true;
+            if (!start()) {
+                return finish();
+            }
+        }
+        try {
+            while (true) {
+                final int inflated = inflater.inflate(b, off, len);
+                if (inflated > 0) {
+                    if (gzip) {
+                        crc.update(b, off, inflated);
+                    }
+                    return inflated;
+                }
+                if (inflater.finished()) {
+                    position = limit - inflater.getRemaining();
+                    if (!gzip || !readTrailer() || !nextMember()) {
+                        return finish();
+                    }
+                } else if (inflater.needsDictionary()) {
+                    throw new ZipException("Compressed body needs a preset dictionary");
+                } else if (inflater.needsInput()) {
+                    if (fill() == -1) {
+                        throw new EOFException("Unexpected end of compressed body");
+                    }
+                    inflater.setInput(input, position, limit - position);
+                    position = limit;
+                }
+            }
+        } catch (DataFormatException e) {
+            final String message = e.getMessage();
+            throw new ZipException(message != null ? message : "Invalid compressed body");
+        }
+    }
+
+    /**
+     * Read the framing in front of the compressed data.
+     *
+     * @return false when the body is empty
+     */
+    private boolean start() throws IOException {
+        chunk = bufferPool.acquire();
+        input = chunk.hasArray() ? chunk.array() : new byte[chunk.capacity()];
+        if (gzip) {
+            final int first = next();
+            if (first == -1) {
+                return false;
+            }
+            readGzipHeader(first);
+            nowrap = true;
+        } else {
+            if (fill() == -1) {
+                return false;
+            }
+            if (limit - position < 2 && fill() == -1) {
+                nowrap = true;
+            } else {
+                // zlib header: compression method 8 and a header checksum divisible by 31
+                final int cmf = input[position] & 0xff;
+                final int flg = input[position + 1] & 0xff;
+                nowrap = (cmf & 0x0f) != 8 || ((cmf << 8) | flg) % 31 != 0;
+            }
+        }
+        inflater = compressionPool.acquireInflater(nowrap);
+        inflater.setInput(input, position, limit - position);
+        position = limit;
+        return true;
+    }
+
+    private void readGzipHeader(final int first) throws IOException {
+        if ((first | (nextRequired() << 8)) != GZIP_MAGIC) {
+            throw new ZipException("Not in gzip format");
+        }
+        if (nextRequired() != 8) {
+            throw new ZipException("Unsupported gzip compression method");
+        }
+        final int flags = nextRequired();
+        skip(6);
+        if ((flags & FEXTRA) != 0) {
+            skip(nextRequired() | (nextRequired() << 8));
+        }
+        if ((flags & FNAME) != 0) {
+            while (nextRequired() != 0) {
+                // skip file name
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (nextRequired() != 0) {
+                // skip comment
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            skip(2);
+        }
+        crc.reset();
+    }
+
+    private boolean readTrailer() throws IOException {
+        final long expectedCrc = readInt();
+        final long expectedSize = readInt();
+        if (expectedCrc != crc.getValue()) {
+            throw new ZipException("Corrupt gzip body (CRC mismatch)");
+        }
+        if (expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+            throw new ZipException("Corrupt gzip body (size mismatch)");
+        }
+        return true;
+    }
+
+    /**
+     * @return true when another gzip member follows
+     */
+    private boolean nextMember() throws IOException {
+        final int first = next();
+        if (first == -1) {
+            return false;
+        }
+        readGzipHeader(first);
+        inflater.reset();
+        inflater.setInput(input, position, limit - position);
+        position = limit;
+        return true;
+    }
+
+    private long readInt() throws IOException {
+        return (nextRequired() | (nextRequired() << 8) | (nextRequired() << 16) | ((long) nextRequired() << 24));
+    }
+
+    private void skip(int count) throws IOException {
+        while (count-- > 0) {
+            nextRequired();
+        }
+    }
+
+    private int nextRequired() throws IOException {
+        final int value = next();
+        if (value == -1) {
+            throw new EOFException("Unexpected end of gzip body");
+        }
+        return value;
+    }
+
+    private int next() throws IOException {
+        if (position == limit && fill() == -1) {
+            return -1;
+        }
+        return input[position++] & 0xff;
+    }
+
+    /**
+     * Append more compressed bytes to the input chunk, compacting it first when full
+     */
+    private int fill() throws IOException {
+        if (position == limit) {
+            position = 0;
+            limit = 0;
+        } else if (limit == input.length) {
+            System.arraycopy(input, position, input, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        final int read = in.read(input, limit, input.length - limit);
+        if (read > 0) {
+            limit += read;
+        }
+        return read;
+    }
+
+    /**
+     * Read the transport to its end before releasing: a deflate stream stops
+     * at the end of the compressed data, but a pooled connection only goes
+     * back once the framing after it, like the last chunk, has been read.
+     */
+    private int finish() throws IOException {
+        try {
+            if (input != null) {
+                while (in.read(input, 0, input.length) != -1) {
+                    // skip what follows the compressed data
+                }
+            }
+        } finally {
+            eof = true;
+            release();
+        }
+        return -1;
+    }
+
+    private void release() {
+        if (inflater != null) {
+            compressionPool.releaseInflater(inflater, nowrap);
+            inflater = null;
+        }
+        if (chunk != null) {
+            bufferPool.release(chunk);
+            chunk = null;
+            input = null;
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return eof || closed ? 0 : in.available() > 0 || (inflater != null && !inflater.needsInput()) ? 1 : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        release();
+        in.close();
+    }
+}
@@ -0,0 +1,47 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+
+/**
+ * {@link HttpRequest.ConnectionFactory} holding every request to a slot of
+ * a {@link ConcurrencyLimiter} from the moment it is sent until its response
+ * headers arrive, the time spent waiting on the host.
+ * <pre>
+ *     ConcurrencyLimiter limiter = new ConcurrencyLimiter().maxWait(100, TimeUnit.MILLISECONDS);
+ *     HttpRequest.setConnectionFactory(new LimitingConnectionFactory(new PooledConnectionFactory(), limiter));
+ * </pre>
+ * Refused requests fail with a {@link ConcurrencyLimitException} wrapped in
+ * an {@link HttpRequestException}.
+ */
+
+public class LimitingConnectionFactory implements HttpRequest.ConnectionFactory {
+
+    private final HttpRequest.ConnectionFactory delegate;
+    private final ConcurrencyLimiter limiter;
+
+    public LimitingConnectionFactory(final ConcurrencyLimiter limiter) {
+        this(HttpRequest.ConnectionFactory.DEFAULT, limiter);
+    }
+
+    public LimitingConnectionFactory(final HttpRequest.ConnectionFactory delegate, final ConcurrencyLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    @Override
+    public HttpURLConnection create(final URL url) throws IOException {
+        return new LimitingHttpURLConnection(url, null, delegate, limiter);
+    }
+
+    @Override
+    public HttpURLConnection create(final URL url, final Proxy proxy) throws IOException {
+        return new LimitingHttpURLConnection(url, proxy, delegate, limiter);
+    }
+}
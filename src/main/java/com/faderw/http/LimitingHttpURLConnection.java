@@ -0,0 +1,189 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Connection taking a {@link ConcurrencyLimiter} slot before the delegate
+ * sends anything and giving it back once the response head is read, the
+ * request failed or it was disconnected.
+ */
+
+class LimitingHttpURLConnection extends AbstractHttpURLConnection {
+
+    private final Proxy proxy;
+    private final HttpRequest.ConnectionFactory factory;
+    private final ConcurrencyLimiter limiter;
+
+    private volatile HttpURLConnection delegate;
+    private volatile ConcurrencyLimiter.Permit permit;
+    private IOException failure;
+    private boolean resolved;
+
+    LimitingHttpURLConnection(final URL url, final Proxy proxy, final HttpRequest.ConnectionFactory factory,
+                              final ConcurrencyLimiter limiter) {
+        super(url);
+        this.proxy = proxy;
+        this.factory = factory;
+        this.limiter = limiter;
+    }
+
+    private HttpURLConnection delegate() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (delegate == null) {
+            try {
+                permit = limiter.acquire(url);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+            try {
+                delegate = proxy != null ? factory.create(url, proxy) : factory.create(url);
+                copyTo(delegate);
+            } catch (IOException e) {
+                failure = e;
+                finish(true);
+                throw e;
+            } catch (RuntimeException e) {
+                finish(true);
+                throw e;
+            }
+        }
+        return delegate;
+    }
+
+    private void finish(final boolean dropped) {
+        if (permit != null) {
+            permit.onResponse(dropped);
+            permit.release();
+        }
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connected) {
+            return;
+        }
+        connected = true;
+        try {
+            delegate().connect();
+        } catch (IOException e) {
+            finish(true);
+            throw e;
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        connected = true;
+        try {
+            return delegate().getOutputStream();
+        } catch (IOException e) {
+            finish(true);
+            throw e;
+        }
+    }
+
+    @Override
+    protected void ensureResponse() throws IOException {
+        if (resolved) {
+            if (delegate == null) {
+                throw failure != null ? failure : new IOException("No connection to " + url);
+            }
+            return;
+        }
+        resolved = true;
+        connected = true;
+        final int code;
+        try {
+            code = delegate().getResponseCode();
+        } catch (IOException e) {
+            finish(true);
+            throw e;
+        }
+        // overload answers back the limit off like failures
+        finish(code == 429 || code == 503);
+    }
+
+    @Override
+    boolean releaseAfterHead() throws IOException {
+        ensureResponse();
+        return releaseAfterHead(delegate);
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        ensureResponse();
+        return delegate.getResponseCode();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        ensureResponse();
+        return delegate.getResponseMessage();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        ensureResponse();
+        return delegate.getInputStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return delegate != null ? delegate.getErrorStream() : null;
+    }
+
+    @Override
+    public String getHeaderField(final String name) {
+        return ensureResponseQuietly() ? delegate.getHeaderField(name) : null;
+    }
+
+    @Override
+    public String getHeaderFieldKey(final int n) {
+        return ensureResponseQuietly() ? delegate.getHeaderFieldKey(n) : null;
+    }
+
+    @Override
+    public String getHeaderField(final int n) {
+        return ensureResponseQuietly() ? delegate.getHeaderField(n) : null;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return ensureResponseQuietly() ? delegate.getHeaderFields() : Collections.<String, List<String>>emptyMap();
+    }
+
+    private boolean ensureResponseQuietly() {
+        try {
+            ensureResponse();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        if (delegate != null) {
+            delegate.disconnect();
+        }
+        if (permit != null) {
+            permit.release();
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return delegate != null && delegate.usingProxy();
+    }
+}
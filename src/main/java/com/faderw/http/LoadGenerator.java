@@ -0,0 +1,399 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives {@link HttpRequest} against a target and reports throughput, errors,
+ * latency percentiles, allocation and garbage collections. Without a target
+ * it starts an embedded server on the loopback answering every request with
+ * {@link #responseSize(int)} bytes after {@link #responseDelay(long, TimeUnit)}.
+ * <p>
+ * Open loop sends requests at a fixed rate whatever the answers, as
+ * independent users do; latency counts from when each request was due, so a
+ * stall shows in every request queued behind it. Closed loop keeps a fixed
+ * number of callers each waiting for its answer before the next request;
+ * latencies longer than the usual interval are back-filled, see
+ * {@link LatencyHistogram#recordCorrected(long, long)}, the interval being
+ * the median service time of the warm-up, or the running median of the
+ * measured part without one.
+ * <pre>
+ *     LoadReport report = new LoadGenerator().openLoop(2000).concurrency(64)
+ *             .duration(30, TimeUnit.SECONDS).responseSize(4096).run();
+ *     Files.write(Paths.get("run.json"), report.toJson().getBytes(StandardCharsets.UTF_8));
+ * </pre>
+ * Requests go through the connection factory set on {@link HttpRequest}.
+ * {@link #main(String[])} runs it from the command line.
+ */
+
+public class LoadGenerator {
+
+    private static final Method ALLOCATED_BYTES = allocatedBytesMethod();
+
+    private String target;
+    private int responseSize = 1024;
+    private long responseDelayNanos;
+    private double rate;
+    private int concurrency = 16;
+    private long durationNanos = TimeUnit.SECONDS.toNanos(10);
+    private long warmupNanos = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * Send requests to the url, null for the embedded server
+     */
+    public LoadGenerator target(final String target) {
+        this.target = target;
+        return this;
+    }
+
+    /**
+     * Set the body size of the embedded server's answers, 1024 by default
+     */
+    public LoadGenerator responseSize(final int responseSize) {
+        if (responseSize < 0) {
+            throw new IllegalArgumentException("responseSize < 0");
+        }
+        this.responseSize = responseSize;
+        return this;
+    }
+
+    /**
+     * Set how long the embedded server waits before answering, none by default
+     */
+    public LoadGenerator responseDelay(final long delay, final TimeUnit unit) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("delay < 0");
+        }
+        this.responseDelayNanos = unit.toNanos(delay);
+        return this;
+    }
+
+    /**
+     * Send requests at a fixed rate, at most {@link #concurrency(int)} of them at once
+     */
+    public LoadGenerator openLoop(final double requestsPerSecond) {
+        if (requestsPerSecond <= 0) {
+            throw new IllegalArgumentException("requestsPerSecond <= 0");
+        }
+        this.rate = requestsPerSecond;
+        return this;
+    }
+
+    /**
+     * Send requests from {@link #concurrency(int)} callers, each waiting for its answer; the default
+     */
+    public LoadGenerator closedLoop() {
+        this.rate = 0;
+        return this;
+    }
+
+    /**
+     * Set the number of callers, the most requests in flight, 16 by default
+     */
+    public LoadGenerator concurrency(final int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency < 1");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Set how long the measured part runs, 10 seconds by default
+     */
+    public LoadGenerator duration(final long duration, final TimeUnit unit) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("duration <= 0");
+        }
+        this.durationNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Set how long requests run unmeasured first, letting the JIT and the pools settle, 2 seconds by default
+     */
+    public LoadGenerator warmup(final long duration, final TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("warmup < 0");
+        }
+        this.warmupNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Run the warm-up and the measured part, blocking until both are over
+     */
+    public LoadReport run() throws IOException, InterruptedException {
+        HttpServer server = null;
+        String url = target;
+        if (url == null) {
+            server = startServer();
+            url = "http://127.0.0.1:" + server.getAddress().getPort() + "/load";
+        }
+        try {
+            long expectedInterval = 0;
+            if (warmupNanos > 0) {
+                final Run warmup = new Run(url, warmupNanos, 0);
+                warmup.execute();
+                expectedInterval = warmup.serviceTime.percentileNanos(50);
+            }
+            final Run measured = new Run(url, durationNanos, rate > 0 ? 0 : expectedInterval);
+            final long gcCountBefore = gcCount();
+            final long gcMillisBefore = gcMillis();
+            final long elapsed = measured.execute();
+            return new LoadReport(rate > 0 ? "open" : "closed", url, concurrency, rate, elapsed,
+                    measured.requests.get(), measured.errors.get(), measured.bytes.get(), measured.latency,
+                    measured.serviceTime, measured.allocated.get(), gcCount() - gcCountBefore,
+                    gcMillis() - gcMillisBefore);
+        } finally {
+            if (server != null) {
+                server.stop(0);
+                ((ExecutorService) server.getExecutor()).shutdownNow();
+            }
+        }
+    }
+
+    private HttpServer startServer() throws IOException {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            // headers and body go out as separate writes, Nagle would hold the body for the delayed ack;
+            // read once per JVM, so only effective before the first server starts
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        final byte[] body = new byte[responseSize];
+        Arrays.fill(body, (byte) 'x');
+        final long delayNanos = responseDelayNanos;
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "reach-http-load-server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext("/", exchange -> {
+            final InputStream in = exchange.getRequestBody();
+            while (in.read() != -1) {
+                // drain, the connection is kept alive
+            }
+            if (delayNanos > 0) {
+                LockSupport.parkNanos(delayNanos);
+            }
+            exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+            if (body.length > 0) {
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * One timed phase, run by {@link #concurrency} threads
+     */
+    private final class Run {
+        private final String url;
+        private final long lengthNanos;
+        private final long expectedIntervalNanos;
+        private final AtomicLong tickets = new AtomicLong();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong allocated = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private long startNanos;
+
+        Run(final String url, final long lengthNanos, final long expectedIntervalNanos) {
+            this.url = url;
+            this.lengthNanos = lengthNanos;
+            this.expectedIntervalNanos = expectedIntervalNanos;
+        }
+
+        /**
+         * @return the time it took, up to the last answer
+         */
+        long execute() throws InterruptedException {
+            final List<Thread> threads = new ArrayList<>(concurrency);
+            startNanos = System.nanoTime();
+            for (int i = 0; i < concurrency; i++) {
+                final Thread thread = new Thread(this::work, "reach-http-load-" + i);
+                thread.setDaemon(true);
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return System.nanoTime() - startNanos;
+        }
+
+        private void work() {
+            final long allocatedBefore = threadAllocatedBytes();
+            final long endNanos = startNanos + lengthNanos;
+            final long periodNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+            while (true) {
+                final long intended;
+                if (periodNanos > 0) {
+                    // the schedule doesn't wait for answers, late tickets are sent at once
+                    intended = startNanos + tickets.getAndIncrement() * periodNanos;
+                    if (intended - endNanos >= 0) {
+                        break;
+                    }
+                    long wait;
+                    while ((wait = intended - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                } else {
+                    intended = System.nanoTime();
+                    if (intended - endNanos >= 0) {
+                        break;
+                    }
+                }
+                final long sent = System.nanoTime();
+                call();
+                final long done = System.nanoTime();
+                serviceTime.record(done - sent);
+                if (periodNanos > 0) {
+                    latency.record(done - intended);
+                } else {
+                    latency.recordCorrected(done - sent, expectedIntervalNanos > 0
+                            ? expectedIntervalNanos : serviceTime.percentileNanos(50));
+                }
+            }
+            final long allocatedAfter = threadAllocatedBytes();
+            if (allocatedBefore < 0 || allocatedAfter < 0) {
+                allocated.set(-1);
+            } else if (allocated.get() >= 0) {
+                allocated.addAndGet(allocatedAfter - allocatedBefore);
+            }
+        }
+
+        private void call() {
+            try {
+                final HttpRequest request = HttpRequest.get(url);
+                final byte[] body = request.bytes();
+                bytes.addAndGet(body.length);
+                if (request.code() >= 400) {
+                    errors.incrementAndGet();
+                }
+            } catch (HttpRequestException e) {
+                errors.incrementAndGet();
+            }
+            requests.incrementAndGet();
+        }
+    }
+
+    /**
+     * Bytes allocated by the current thread, through the HotSpot extension
+     * of {@link ThreadMXBean}; -1 when there is none
+     */
+    private static long threadAllocatedBytes() {
+        if (ALLOCATED_BYTES == null) {
+            return -1;
+        }
+        try {
+            return (Long) ALLOCATED_BYTES.invoke(ManagementFactory.getThreadMXBean(), Thread.currentThread().getId());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static Method allocatedBytesMethod() {
+        try {
+            final Class<?> extension = Class.forName("com.sun.management.ThreadMXBean");
+            return extension.isInstance(ManagementFactory.getThreadMXBean())
+                    ? extension.getMethod("getThreadAllocatedBytes", long.class) : null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * Run from the command line, printing the report:
+     * <pre>
+     *     java com.faderw.http.LoadGenerator [--target=url] [--rate=requests/s] [--concurrency=n]
+     *         [--duration=seconds] [--warmup=seconds] [--size=bytes] [--delay=ms]
+     *         [--pooled] [--format=text|csv|json]
+     * </pre>
+     * Without --rate it runs a closed loop, without --target against the embedded server.
+     */
+    public static void main(final String[] args) throws Exception {
+        final LoadGenerator generator = new LoadGenerator();
+        String format = "text";
+        for (String arg : args) {
+            final int equals = arg.indexOf('=');
+            final String name = equals > 0 ? arg.substring(0, equals) : arg;
+            final String value = equals > 0 ? arg.substring(equals + 1) : "";
+            switch (name) {
+                case "--target":
+                    generator.target(value);
+                    break;
+                case "--rate":
+                    generator.openLoop(Double.parseDouble(value));
+                    break;
+                case "--concurrency":
+                    generator.concurrency(Integer.parseInt(value));
+                    break;
+                case "--duration":
+                    generator.duration(Long.parseLong(value), TimeUnit.SECONDS);
+                    break;
+                case "--warmup":
+                    generator.warmup(Long.parseLong(value), TimeUnit.SECONDS);
+                    break;
+                case "--size":
+                    generator.responseSize(Integer.parseInt(value));
+                    break;
+                case "--delay":
+                    generator.responseDelay(Long.parseLong(value), TimeUnit.MILLISECONDS);
+                    break;
+                case "--pooled":
+                    HttpRequest.setConnectionFactory(new PooledConnectionFactory());
+                    break;
+                case "--format":
+                    format = value;
+                    break;
+                default:
+                    System.err.println("Unknown option " + arg);
+                    System.exit(2);
+            }
+        }
+        final LoadReport report = generator.run();
+        if ("csv".equals(format)) {
+            System.out.print(report.toCsv());
+        } else if ("json".equals(format)) {
+            System.out.println(report.toJson());
+        } else {
+            System.out.println(report);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.faderw.http;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of one {@link LoadGenerator} run. {@link #latency()} is measured
+ * from when each request was meant to be sent, so it includes the time spent
+ * waiting behind slow ones; {@link #serviceTime()} only from when it was
+ * actually sent. Times in the exports are in microseconds.
+ * <p>
+ * {@link #toCsv()} writes a header and one row, append {@link #csvRow()} of
+ * later runs to the same file to compare them.
+ */
+
+public final class LoadReport {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final String mode;
+    private final String target;
+    private final int concurrency;
+    private final double rate;
+    private final long elapsedNanos;
+    private final long requests;
+    private final long errors;
+    private final long bytesReceived;
+    private final LatencyHistogram latency;
+    private final LatencyHistogram serviceTime;
+    private final long allocatedBytes;
+    private final long gcCount;
+    private final long gcMillis;
+
+    LoadReport(final String mode, final String target, final int concurrency, final double rate,
+               final long elapsedNanos, final long requests, final long errors, final long bytesReceived,
+               final LatencyHistogram latency, final LatencyHistogram serviceTime, final long allocatedBytes,
+               final long gcCount, final long gcMillis) {
+        this.mode = mode;
+        this.target = target;
+        this.concurrency = concurrency;
+        this.rate = rate;
+        this.elapsedNanos = elapsedNanos;
+        this.requests = requests;
+        this.errors = errors;
+        this.bytesReceived = bytesReceived;
+        this.latency = latency;
+        this.serviceTime = serviceTime;
+        this.allocatedBytes = allocatedBytes;
+        this.gcCount = gcCount;
+        this.gcMillis = gcMillis;
+    }
+
+    /**
+     * "open" for a fixed arrival rate, "closed" for a fixed number of callers
+     */
+    public String mode() {
+        return mode;
+    }
+
+    public String target() {
+        return target;
+    }
+
+    public long requests() {
+        return requests;
+    }
+
+    /**
+     * Requests failing with an I/O error or answered with a status of 400 or more
+     */
+    public long errors() {
+        return errors;
+    }
+
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public long bytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Completed requests per second
+     */
+    public double throughput() {
+        return elapsedNanos <= 0 ? 0 : requests * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * Share of the requests that failed, between 0 and 1
+     */
+    public double errorRate() {
+        return requests == 0 ? 0 : (double) errors / requests;
+    }
+
+    /**
+     * Latency corrected for coordinated omission
+     */
+    public LatencyHistogram latency() {
+        return latency;
+    }
+
+    /**
+     * Latency from the moment each request was actually sent
+     */
+    public LatencyHistogram serviceTime() {
+        return serviceTime;
+    }
+
+    /**
+     * Bytes allocated by the load threads, -1 when the JVM can't tell
+     */
+    public long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Allocated bytes per request, -1 when the JVM can't tell
+     */
+    public long allocatedBytesPerRequest() {
+        return allocatedBytes < 0 || requests == 0 ? -1 : allocatedBytes / requests;
+    }
+
+    /**
+     * Garbage collections during the run, all collectors together
+     */
+    public long gcCount() {
+        return gcCount;
+    }
+
+    public long gcMillis() {
+        return gcMillis;
+    }
+
+    public static String csvHeader() {
+        final StringBuilder header = new StringBuilder(256)
+                .append("mode,target,concurrency,rate,elapsed_ms,requests,errors,error_rate,throughput,bytes");
+        for (String name : PERCENTILE_NAMES) {
+            header.append(",latency_").append(name).append("_us");
+        }
+        header.append(",latency_max_us");
+        for (String name : PERCENTILE_NAMES) {
+            header.append(",service_").append(name).append("_us");
+        }
+        return header.append(",service_max_us,allocated_bytes,allocated_per_request,gc_count,gc_ms").toString();
+    }
+
+    public String csvRow() {
+        final StringBuilder row = new StringBuilder(256)
+                .append(mode).append(',').append(csvText(target)).append(',').append(concurrency).append(',')
+                .append(format(rate)).append(',').append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)).append(',')
+                .append(requests).append(',').append(errors).append(',').append(format(errorRate())).append(',')
+                .append(format(throughput())).append(',').append(bytesReceived);
+        appendPercentiles(row, latency, ",", null);
+        appendPercentiles(row, serviceTime, ",", null);
+        return row.append(',').append(allocatedBytes).append(',').append(allocatedBytesPerRequest())
+                .append(',').append(gcCount).append(',').append(gcMillis).toString();
+    }
+
+    /**
+     * @return the header line and the row of this run
+     */
+    public String toCsv() {
+        return csvHeader() + '\n' + csvRow() + '\n';
+    }
+
+    public String toJson() {
+        final StringBuilder json = new StringBuilder(512)
+                .append("{\"mode\":\"").append(mode).append("\",\"target\":").append(jsonText(target))
+                .append(",\"concurrency\":").append(concurrency).append(",\"rate\":").append(format(rate))
+                .append(",\"elapsedMs\":").append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos))
+                .append(",\"requests\":").append(requests).append(",\"errors\":").append(errors)
+                .append(",\"errorRate\":").append(format(errorRate()))
+                .append(",\"throughput\":").append(format(throughput()))
+                .append(",\"bytes\":").append(bytesReceived)
+                .append(",\"latencyUs\":{");
+        appendPercentiles(json, latency, ",", "\"");
+        json.append("},\"serviceTimeUs\":{");
+        appendPercentiles(json, serviceTime, ",", "\"");
+        return json.append("},\"allocatedBytes\":").append(allocatedBytes)
+                .append(",\"allocatedBytesPerRequest\":").append(allocatedBytesPerRequest())
+                .append(",\"gcCount\":").append(gcCount).append(",\"gcMs\":").append(gcMillis)
+                .append('}').toString();
+    }
+
+    /**
+     * Percentiles and max in microseconds, as {@code ,v...} or, with a quote, {@code "p50":v,...}
+     */
+    private static void appendPercentiles(final StringBuilder out, final LatencyHistogram histogram,
+                                          final String separator, final String quote) {
+        for (int i = 0; i <= PERCENTILES.length; i++) {
+            if (quote == null || i > 0) {
+                out.append(separator);
+            }
+            final long nanos = i < PERCENTILES.length
+                    ? histogram.percentileNanos(PERCENTILES[i]) : histogram.maxNanos();
+            if (quote != null) {
+                out.append(quote).append(i < PERCENTILES.length ? PERCENTILE_NAMES[i] : "max").append(quote).append(':');
+            }
+            out.append(TimeUnit.NANOSECONDS.toMicros(nanos));
+        }
+    }
+
+    private static String format(final double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String csvText(final String value) {
+        return value.indexOf(',') < 0 && value.indexOf('"') < 0 ? value : '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String jsonText(final String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder text = new StringBuilder(256)
+                .append(mode).append("-loop ").append(target).append(": ").append(requests).append(" requests in ")
+                .append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)).append("ms, ")
+                .append(String.format(Locale.ROOT, "%.1f/s, %.2f%% errors", throughput(), errorRate() * 100))
+                .append("\n  latency (us)      ");
+        appendPercentiles(text, latency, " ", "");
+        text.append("\n  service time (us) ");
+        appendPercentiles(text, serviceTime, " ", "");
+        return text.append("\n  allocated ").append(allocatedBytesPerRequest()).append(" B/request, gc ")
+                .append(gcCount).append(" collections in ").append(gcMillis).append("ms").toString();
+    }
+}
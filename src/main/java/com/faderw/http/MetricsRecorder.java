@@ -0,0 +1,149 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Listener factory recording the total and time to first byte of every call
+ * in a {@link LatencyHistogram} per host and status class.
+ *
+ * <pre>
+ * MetricsRecorder metrics = new MetricsRecorder();
+ * HttpRequest.setEventListenerFactory(metrics);
+ * ...
+ * metrics.total("example.com", "2xx").percentileNanos(99);
+ * </pre>
+ *
+ * Status classes are "1xx" to "5xx", and "failed" for calls ending with an
+ * I/O error. Calls are recorded when {@link HttpEventListener#callEnd()} comes,
+ * calls with a large body that is never read, closed or disconnected are not.
+ */
+
+public class MetricsRecorder implements HttpEventListener.Factory {
+
+    private static final String[] CLASSES = {"failed", "1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private final ConcurrentMap<String, HostMetrics> hosts = new ConcurrentHashMap<>();
+
+    @Override
+    public HttpEventListener create(final HttpRequest request) {
+        return new Recording(request.url().getHost());
+    }
+
+    private HostMetrics host(final String host) {
+        final HostMetrics metrics = hosts.get(host);
+        return metrics != null ? metrics : hosts.computeIfAbsent(host, h -> new HostMetrics());
+    }
+
+    private static int index(final String statusClass) {
+        for (int i = 0; i < CLASSES.length; i++) {
+            if (CLASSES[i].equals(statusClass)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown status class: " + statusClass);
+    }
+
+    /**
+     * Hosts seen so far
+     */
+    public Set<String> hosts() {
+        return Collections.unmodifiableSet(hosts.keySet());
+    }
+
+    /**
+     * @return the histogram of whole calls, null when none was recorded
+     */
+    public LatencyHistogram total(final String host, final String statusClass) {
+        final HostMetrics metrics = hosts.get(host);
+        final Slot slot = metrics != null ? metrics.slots.get(index(statusClass)) : null;
+        return slot != null ? slot.total : null;
+    }
+
+    /**
+     * @return the histogram of time until the response headers, null when none was recorded
+     */
+    public LatencyHistogram firstByte(final String host, final String statusClass) {
+        final HostMetrics metrics = hosts.get(host);
+        final Slot slot = metrics != null ? metrics.slots.get(index(statusClass)) : null;
+        return slot != null ? slot.firstByte : null;
+    }
+
+    /**
+     * Whole call histograms keyed by "host statusClass"
+     */
+    public Map<String, LatencyHistogram> totals() {
+        final Map<String, LatencyHistogram> totals = new TreeMap<>();
+        for (Map.Entry<String, HostMetrics> entry : hosts.entrySet()) {
+            for (int i = 0; i < CLASSES.length; i++) {
+                final Slot slot = entry.getValue().slots.get(i);
+                if (slot != null) {
+                    totals.put(entry.getKey() + ' ' + CLASSES[i], slot.total);
+                }
+            }
+        }
+        return totals;
+    }
+
+    public void reset() {
+        hosts.clear();
+    }
+
+    private static final class HostMetrics {
+        final AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<>(CLASSES.length);
+
+        Slot slot(final int index) {
+            final Slot slot = slots.get(index);
+            if (slot != null) {
+                return slot;
+            }
+            slots.compareAndSet(index, null, new Slot());
+            return slots.get(index);
+        }
+    }
+
+    private static final class Slot {
+        final LatencyHistogram total = new LatencyHistogram();
+        final LatencyHistogram firstByte = new LatencyHistogram();
+    }
+
+    private final class Recording extends CallTimings {
+        private final String host;
+        private boolean recorded;
+
+        Recording(final String host) {
+            this.host = host;
+        }
+
+        @Override
+        public void callEnd() {
+            super.callEnd();
+            record(code() >= 100 && code() < 600 ? code() / 100 : 0);
+        }
+
+        @Override
+        public void callFailed(final IOException e) {
+            super.callFailed(e);
+            record(0);
+        }
+
+        private void record(final int index) {
+            if (recorded) {
+                return;
+            }
+            recorded = true;
+            final Slot slot = host(host).slot(index);
+            slot.total.record(totalNanos());
+            final long firstByte = firstByteNanos();
+            if (firstByte >= 0) {
+                slot.firstByte.record(firstByte);
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.faderw.http;
+
+import java.net.MalformedURLException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Table driven percent-encoding written straight into a caller's
+ * {@link StringBuilder}. UTF-8 is encoded inline, one pass over the input
+ * and no intermediate strings, which is what {@link java.net.URLEncoder}
+ * and a {@link java.net.URI} round trip cost per call.
+ */
+
+final class PercentEncoder {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * RFC 3986 unreserved characters, what a template variable may contain unencoded
+     */
+    static final boolean[] UNRESERVED = table("-._~");
+
+    /**
+     * application/x-www-form-urlencoded as {@link java.net.URLEncoder} does it, space is handled apart
+     */
+    static final boolean[] FORM = table(".-*_");
+
+    /**
+     * Path characters {@link java.net.URI} leaves alone
+     */
+    static final boolean[] PATH = table("-_.!~*'();/:@&=+$,");
+
+    /**
+     * Query characters {@link java.net.URI} leaves alone, '+' is handled apart
+     */
+    static final boolean[] QUERY = table("-_.!~*'();/?:@&=$,[]");
+
+    private PercentEncoder() {
+    }
+
+    private static boolean[] table(final String extra) {
+        final boolean[] safe = new boolean[128];
+        for (char c = 'a'; c <= 'z'; c++) {
+            safe[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            safe[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            safe[c] = true;
+        }
+        for (int i = 0; i < extra.length(); i++) {
+            safe[extra.charAt(i)] = true;
+        }
+        return safe;
+    }
+
+    /**
+     * Append the characters, percent-encoding those not marked safe as UTF-8
+     */
+    static StringBuilder encode(final CharSequence s, final int start, final int end,
+                                final boolean[] safe, final StringBuilder out) {
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                if (safe[c]) {
+                    out.append(c);
+                } else {
+                    escape(c, out);
+                }
+            } else if (c < 0x800) {
+                escape(0xc0 | c >> 6, out);
+                escape(0x80 | c & 0x3f, out);
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                escape(0xf0 | cp >> 18, out);
+                escape(0x80 | cp >> 12 & 0x3f, out);
+                escape(0x80 | cp >> 6 & 0x3f, out);
+                escape(0x80 | cp & 0x3f, out);
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, replaced like String#getBytes does
+                escape('?', out);
+            } else {
+                escape(0xe0 | c >> 12, out);
+                escape(0x80 | c >> 6 & 0x3f, out);
+                escape(0x80 | c & 0x3f, out);
+            }
+        }
+        return out;
+    }
+
+    static StringBuilder encode(final CharSequence s, final boolean[] safe, final StringBuilder out) {
+        return encode(s, 0, s.length(), safe, out);
+    }
+
+    /**
+     * Same output as {@link java.net.URLEncoder#encode(String, String)}
+     */
+    static StringBuilder encodeForm(final CharSequence s, final Charset charset, final StringBuilder out) {
+        final boolean utf8 = StandardCharsets.UTF_8.equals(charset);
+        final int length = s.length();
+        int i = 0;
+        while (i < length) {
+            final char c = s.charAt(i);
+            if (c < 0x80 && FORM[c]) {
+                out.append(c);
+                i++;
+            } else if (c == ' ') {
+                out.append('+');
+                i++;
+            } else {
+                // run of characters to encode, multibyte charsets need it whole
+                int end = i + 1;
+                while (end < length && !isFormSafe(s.charAt(end))) {
+                    end++;
+                }
+                if (utf8) {
+                    encode(s, i, end, FORM, out);
+                } else {
+                    for (byte b : s.subSequence(i, end).toString().getBytes(charset)) {
+                        escape(b & 0xff, out);
+                    }
+                }
+                i = end;
+            }
+        }
+        return out;
+    }
+
+    private static boolean isFormSafe(final char c) {
+        return c == ' ' || c < 0x80 && FORM[c];
+    }
+
+    /**
+     * Quote a whole URL the way {@code new URI(scheme, authority, path, query, null)}
+     * did: the path and query keep their delimiters, anything else is
+     * percent-encoded, '+' in the query becomes %20 and the fragment is dropped.
+     */
+    static String encodeUrl(final CharSequence url) throws MalformedURLException {
+        final int length = url.length();
+        final int schemeEnd = indexOf(url, ':', 0, length);
+        if (schemeEnd <= 0) {
+            throw new MalformedURLException("no protocol: " + url);
+        }
+        int end = indexOf(url, '#', schemeEnd, length);
+        if (end < 0) {
+            end = length;
+        }
+        int pathStart = schemeEnd + 1;
+        if (pathStart + 1 < end && url.charAt(pathStart) == '/' && url.charAt(pathStart + 1) == '/') {
+            pathStart += 2;
+            while (pathStart < end && url.charAt(pathStart) != '/' && url.charAt(pathStart) != '?') {
+                pathStart++;
+            }
+        }
+        int queryStart = indexOf(url, '?', pathStart, end);
+        if (queryStart < 0) {
+            queryStart = end;
+        }
+
+        final StringBuilder out = new StringBuilder(end + 16);
+        out.append(url, 0, pathStart);
+        encode(url, pathStart, queryStart, PATH, out);
+        if (queryStart < end) {
+            out.append('?');
+            for (int i = queryStart + 1; i < end; i++) {
+                final char c = url.charAt(i);
+                if (c == '+') {
+                    out.append("%20");
+                } else if (c < 0x80 && QUERY[c]) {
+                    out.append(c);
+                } else {
+                    int run = i + 1;
+                    while (run < end && url.charAt(run) != '+' && !(url.charAt(run) < 0x80 && QUERY[url.charAt(run)])) {
+                        run++;
+                    }
+                    encode(url, i, run, QUERY, out);
+                    i = run - 1;
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static int indexOf(final CharSequence s, final char c, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void escape(final int b, final StringBuilder out) {
+        out.append('%').append(HEX[b >> 4 & 0xf]).append(HEX[b & 0xf]);
+    }
+}
@@ -0,0 +1,287 @@
+package com.faderw.http;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static com.faderw.http.HttpRequestConst.CRLF;
+
+/**
+ * A keep-alive socket owned by a {@link ConnectionPool}. The channel stays in
+ * blocking mode while leased; it is only switched to non-blocking for the
+ * liveness probe done on checkout.
+ */
+
+final class PooledConnection {
+
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
+    final Route route;
+    final SocketChannel channel;
+    final Socket socket;
+    final InputStream in;
+    final OutputStream out;
+    private final ByteBuffer probe = ByteBuffer.allocate(1);
+    private final StringBuilder line = new StringBuilder(128);
+    private long idleSince;
+    private int useCount;
+
+    private PooledConnection(final Route route, final SocketChannel channel, final Socket socket) throws IOException {
+        this.route = route;
+        this.channel = channel;
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream(), STREAM_BUFFER_SIZE);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_SIZE);
+    }
+
+    /**
+     * Open a new connection for the route, tunnelling through the proxy and
+     * doing the TLS handshake when required. The addresses of the host are
+     * tried in the resolver's order until one accepts the TCP connection.
+     */
+    static PooledConnection open(final Route route, final int connectTimeout,
+                                 final SSLSocketFactory sslSocketFactory, final DnsResolver dnsResolver,
+                                 final HttpEventListener listener) throws IOException {
+        return open(route, connectTimeout, sslSocketFactory, dnsResolver, listener, null);
+    }
+
+    /**
+     * Same as above, offering the given protocols through ALPN on TLS connections
+     */
+    static PooledConnection open(final Route route, final int connectTimeout,
+                                 final SSLSocketFactory sslSocketFactory, final DnsResolver dnsResolver,
+                                 final HttpEventListener listener, final String[] protocols) throws IOException {
+        final InetSocketAddress target = route.connectAddress();
+        final List<InetAddress> addresses;
+        if (target.isUnresolved()) {
+            final String host = target.getHostString();
+            listener.dnsStart(host);
+            addresses = dnsResolver.resolve(host);
+            listener.dnsEnd(host, addresses.get(0));
+        } else {
+            addresses = Collections.singletonList(target.getAddress());
+        }
+
+        IOException failure = null;
+        for (InetAddress address : addresses) {
+            final InetSocketAddress socketAddress = new InetSocketAddress(address, target.getPort());
+            listener.connectStart(socketAddress);
+            try {
+                final PooledConnection connection = open(route, socketAddress, connectTimeout, sslSocketFactory,
+                        listener, protocols);
+                listener.connectEnd(socketAddress);
+                return connection;
+            } catch (IOException e) {
+                listener.connectFailed(socketAddress, e);
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+                if (!(e instanceof ConnectException || e instanceof NoRouteToHostException
+                        || e instanceof SocketTimeoutException)) {
+                    // past the TCP connect, another address of the same host won't help
+                    break;
+                }
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Connect to one address of the route, tunnel and handshake when needed
+     */
+    private static PooledConnection open(final Route route, final InetSocketAddress address, final int connectTimeout,
+                                         final SSLSocketFactory sslSocketFactory, final HttpEventListener listener,
+                                         final String[] protocols) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(true);
+            final Socket raw = channel.socket();
+            raw.setTcpNoDelay(true);
+            raw.setKeepAlive(true);
+            raw.connect(address, connectTimeout);
+            if (!route.secure) {
+                return new PooledConnection(route, channel, raw);
+            }
+            if (route.proxy != null) {
+                tunnel(raw, route, connectTimeout);
+            }
+            listener.secureConnectStart();
+            final SSLSocket ssl = (SSLSocket) sslSocketFactory.createSocket(raw, route.host, route.port, true);
+            final SSLParameters parameters = ssl.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            if (protocols != null) {
+                setApplicationProtocols(parameters, protocols);
+            }
+            ssl.setSSLParameters(parameters);
+            ssl.setSoTimeout(connectTimeout);
+            ssl.startHandshake();
+            ssl.setSoTimeout(0);
+            listener.secureConnectEnd();
+            return new PooledConnection(route, channel, ssl);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * ALPN arrived in Java 9 and 8u252, looked up reflectively so the jar still targets Java 8.
+     */
+    private static void setApplicationProtocols(final SSLParameters parameters, final String[] protocols) {
+        try {
+            SSLParameters.class.getMethod("setApplicationProtocols", String[].class)
+                    .invoke(parameters, (Object) protocols);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            // no ALPN, the server picks its default protocol
+        }
+    }
+
+    /**
+     * @return the protocol agreed through ALPN, null for plain sockets or when none was
+     */
+    String applicationProtocol() {
+        if (!(socket instanceof SSLSocket)) {
+            return null;
+        }
+        try {
+            final Object protocol = SSLSocket.class.getMethod("getApplicationProtocol").invoke(socket);
+            return protocol == null || "".equals(protocol) ? null : (String) protocol;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void tunnel(final Socket raw, final Route route, final int timeout) throws IOException {
+        final String authority = route.host + ':' + route.port;
+        final OutputStream out = raw.getOutputStream();
+        out.write(("CONNECT " + authority + " HTTP/1.1" + CRLF + "Host: " + authority + CRLF + CRLF)
+                .getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+
+        raw.setSoTimeout(timeout);
+        final InputStream in = raw.getInputStream();
+        final StringBuilder builder = new StringBuilder();
+        final String status = readLine(in, builder);
+        if (status == null || status.length() < 12 || !status.startsWith("HTTP/") || status.charAt(9) != '2') {
+            throw new IOException("Unable to tunnel through proxy " + route.proxy + ": " + status);
+        }
+        String header;
+        do {
+            header = readLine(in, builder);
+        } while (header != null && header.length() > 0);
+        raw.setSoTimeout(0);
+    }
+
+    /**
+     * Read one CRLF terminated ISO-8859-1 line, reusing the supplied builder.
+     *
+     * @return the line without its terminator or null at end of stream
+     */
+    static String readLine(final InputStream in, final StringBuilder builder) throws IOException {
+        builder.setLength(0);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                final int length = builder.length();
+                if (length > 0 && builder.charAt(length - 1) == '\r') {
+                    builder.setLength(length - 1);
+                }
+                return builder.toString();
+            }
+            builder.append((char) b);
+        }
+        return builder.length() == 0 ? null : builder.toString();
+    }
+
+    String readLine() throws IOException {
+        return readLine(in, line);
+    }
+
+    /**
+     * Cheap liveness check: the socket must be open and have nothing to read.
+     * Pending bytes on an idle keep-alive connection mean either EOF or a
+     * response we did not ask for, so the connection cannot be reused.
+     */
+    boolean isHealthy() {
+        if (!channel.isOpen() || !channel.isConnected() || socket.isClosed()
+                || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+        try {
+            if (in.available() > 0) {
+                return false;
+            }
+            synchronized (channel.blockingLock()) {
+                channel.configureBlocking(false);
+                try {
+                    ((Buffer) probe).clear();
+                    return channel.read(probe) == 0;
+                } finally {
+                    channel.configureBlocking(true);
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true when bytes written to the channel reach the peer unchanged, i.e. no TLS
+     */
+    boolean isPlain() {
+        return socket == channel.socket();
+    }
+
+    void setReadTimeout(final int timeout) throws IOException {
+        socket.setSoTimeout(timeout);
+    }
+
+    void markIdle(final long now) {
+        idleSince = now;
+    }
+
+    long idleSince() {
+        return idleSince;
+    }
+
+    void markUsed() {
+        useCount++;
+    }
+
+    /**
+     * @return true once the connection has carried at least one earlier exchange
+     */
+    boolean isReused() {
+        return useCount > 1;
+    }
+
+    void closeQuietly() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+
+/**
+ * {@link HttpRequest.ConnectionFactory} that serves requests over keep-alive
+ * sockets from a {@link ConnectionPool} instead of {@link URL#openConnection()}.
+ * <pre>
+ *     HttpRequest.setConnectionFactory(new PooledConnectionFactory());
+ * </pre>
+ */
+
+public class PooledConnectionFactory implements HttpRequest.ConnectionFactory {
+
+    private final ConnectionPool pool;
+
+    public PooledConnectionFactory() {
+        this(new ConnectionPool());
+    }
+
+    public PooledConnectionFactory(final ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    @Override
+    public HttpURLConnection create(final URL url) throws IOException {
+        return create(url, null);
+    }
+
+    @Override
+    public HttpURLConnection create(final URL url, final Proxy proxy) throws IOException {
+        final String protocol = url.getProtocol();
+        if (!"http".equalsIgnoreCase(protocol) && !"https".equalsIgnoreCase(protocol)) {
+            throw new IOException("Unsupported protocol for pooled transport: " + protocol);
+        }
+        if (proxy != null && proxy.type() == Proxy.Type.SOCKS) {
+            throw new IOException("SOCKS proxies are not supported by the pooled transport");
+        }
+        return new PooledHttpURLConnection(url, pool, Route.of(url, proxy));
+    }
+}
@@ -0,0 +1,613 @@
+package com.faderw.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import static com.faderw.http.HttpRequestConst.*;
+
+/**
+ * {@link HttpURLConnection} speaking HTTP/1.1 over a socket borrowed from a
+ * {@link ConnectionPool}. The socket goes back to the pool as soon as the
+ * response body has been read to the end, so {@link HttpRequest#body(String)}
+ * and friends reuse connections without any change on the caller side. Small
+ * bodies are read ahead when the caller only asks for the head, through
+ * {@link HttpRequest#code()} for one.
+ */
+
+class PooledHttpURLConnection extends AbstractHttpURLConnection {
+
+    /**
+     * Largest body read into memory when the caller only asked for the head
+     */
+    private static final int SMALL_BODY_LIMIT = 64 * 1024;
+
+    private final ConnectionPool pool;
+    private final Route route;
+
+    private PooledConnection connection;
+    private OutputStream requestBody;
+    private ByteArrayOutputStream bufferedBody;
+    private boolean requestSent;
+    private boolean released;
+
+    private boolean keepAlive;
+
+    PooledHttpURLConnection(final URL url, final ConnectionPool pool, final Route route) {
+        super(url);
+        this.pool = pool;
+        this.route = route;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connected) {
+            return;
+        }
+        connection = pool.acquire(route, getConnectTimeout(), eventListener);
+        eventListener.connectionAcquired(connection.isReused());
+        connection.setReadTimeout(getReadTimeout());
+        connected = true;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!doOutput) {
+            throw new ProtocolException("cannot write to a URLConnection if doOutput=false - call setDoOutput(true)");
+        }
+        if (requestSent) {
+            throw new ProtocolException("Cannot write output after reading input.");
+        }
+        if (requestBody != null) {
+            return requestBody;
+        }
+        if (METHOD_GET.equals(method)) {
+            method = METHOD_POST;
+        }
+        connect();
+        if (fixedContentLengthLong != -1 || fixedContentLength != -1) {
+            final long length = fixedContentLengthLong != -1 ? fixedContentLengthLong : fixedContentLength;
+            writeRequestHead(length, false);
+            requestBody = new FixedLengthOutputStream(connection.out, length);
+        } else if (chunkLength != -1) {
+            writeRequestHead(-1, true);
+            requestBody = new ChunkedOutputStream(connection.out);
+        } else {
+            bufferedBody = new ByteArrayOutputStream();
+            requestBody = bufferedBody;
+        }
+        return requestBody;
+    }
+
+    private void writeRequestHead(final long contentLength, final boolean chunked) throws IOException {
+        final StringBuilder head = new StringBuilder(256);
+        head.append(method).append(' ');
+        if (route.absoluteForm()) {
+            head.append(url.getProtocol()).append("://").append(route.authority());
+        }
+        final String file = url.getFile();
+        head.append(file.length() == 0 ? "/" : file).append(" HTTP/1.1").append(CRLF);
+        if (getRequestProperty(HEADER_HOST) == null) {
+            head.append(HEADER_HOST).append(": ").append(route.authority()).append(CRLF);
+        }
+        for (int i = 0; i < requestHeaders.size(); i += 2) {
+            final String name = requestHeaders.get(i);
+            if (HEADER_CONTENT_LENGTH.equalsIgnoreCase(name) || HEADER_TRANSFER_ENCODING.equalsIgnoreCase(name)) {
+                continue;
+            }
+            final String value = requestHeaders.get(i + 1);
+            head.append(name).append(": ").append(value == null ? "" : value).append(CRLF);
+        }
+        if (chunked) {
+            head.append(HEADER_TRANSFER_ENCODING).append(": chunked").append(CRLF);
+        } else if (contentLength >= 0) {
+            head.append(HEADER_CONTENT_LENGTH).append(": ").append(contentLength).append(CRLF);
+        }
+        head.append(CRLF);
+        connection.out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        eventListener.requestHeadersEnd();
+    }
+
+    /**
+     * Send whatever of the request has not gone out yet and read the response
+     * head. A buffered request that fails on a reused connection is replayed
+     * once on a fresh one, since the server may have closed it while idle.
+     */
+    @Override
+    protected void ensureResponse() throws IOException {
+        if (statusLine != null) {
+            return;
+        }
+        connect();
+        try {
+            if (!requestSent) {
+                sendRequest();
+            }
+            readResponseHead();
+        } catch (IOException e) {
+            final boolean replayable = requestBody == null || bufferedBody != null;
+            final boolean retry = replayable && connection.isReused() && !(e instanceof SocketTimeoutException);
+            discard();
+            if (!retry) {
+                throw e;
+            }
+            connected = false;
+            released = false;
+            requestSent = false;
+            connect();
+            sendRequest();
+            readResponseHead();
+        }
+    }
+
+    private void sendRequest() throws IOException {
+        if (requestBody == null || bufferedBody != null) {
+            final int length = bufferedBody != null ? bufferedBody.size() : -1;
+            writeRequestHead(length >= 0 ? length : (doOutput ? 0 : -1), false);
+            if (bufferedBody != null) {
+                bufferedBody.writeTo(connection.out);
+            }
+        } else {
+            requestBody.close();
+        }
+        connection.out.flush();
+        requestSent = true;
+    }
+
+    private void readResponseHead() throws IOException {
+        String line;
+        int code;
+        do {
+            responseHeaders.clear();
+            line = connection.readLine();
+            if (line == null) {
+                throw new IOException("Unexpected end of stream on " + route);
+            }
+            code = parseStatus(line);
+            String header;
+            while ((header = connection.readLine()) != null && header.length() > 0) {
+                final int colon = header.indexOf(':');
+                if (colon > 0) {
+                    responseHeaders.add(header.substring(0, colon).trim());
+                    responseHeaders.add(header.substring(colon + 1).trim());
+                }
+            }
+        } while (code >= 100 && code < 200 && code != 101);
+
+        statusLine = line;
+        responseCode = code;
+        final int messageStart = line.indexOf(' ', line.indexOf(' ') + 1);
+        responseMessage = messageStart > 0 ? line.substring(messageStart + 1) : "";
+
+        final String connectionHeader = headerValue(HEADER_CONNECTION);
+        if (line.startsWith("HTTP/1.0")) {
+            keepAlive = "keep-alive".equalsIgnoreCase(connectionHeader);
+        } else {
+            keepAlive = !"close".equalsIgnoreCase(connectionHeader);
+        }
+
+        if (METHOD_HEAD.equals(method) || code == 204 || code == 304) {
+            responseBody = new FixedLengthInputStream(0);
+        } else if ("chunked".equalsIgnoreCase(headerValue(HEADER_TRANSFER_ENCODING))) {
+            responseBody = new ChunkedInputStream();
+        } else {
+            final long length = parseLength(headerValue(HEADER_CONTENT_LENGTH));
+            if (length >= 0) {
+                responseBody = new FixedLengthInputStream(length);
+            } else {
+                keepAlive = false;
+                responseBody = new UntilCloseInputStream();
+            }
+        }
+    }
+
+    private static int parseStatus(final String line) throws IOException {
+        if (!line.startsWith("HTTP/") || line.length() < 12) {
+            throw new ProtocolException("Unexpected status line: " + line);
+        }
+        final int start = line.indexOf(' ') + 1;
+        try {
+            return Integer.parseInt(line.substring(start, start + 3));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new ProtocolException("Unexpected status line: " + line);
+        }
+    }
+
+    private static long parseLength(final String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Bodies of known length up to {@link #SMALL_BODY_LIMIT} are read into
+     * memory, the others keep the connection until read, closed or disconnected.
+     */
+    @Override
+    boolean releaseAfterHead() throws IOException {
+        ensureResponse();
+        return ((ResponseBodyStream) responseBody).buffer(SMALL_BODY_LIMIT);
+    }
+
+    /**
+     * Hand the socket back to the pool once the exchange is complete.
+     */
+    private synchronized void release() {
+        if (!released && connection != null) {
+            released = true;
+            pool.release(connection, keepAlive);
+        }
+    }
+
+    /**
+     * Close the socket without returning it to the pool.
+     */
+    private synchronized void discard() {
+        if (!released && connection != null) {
+            released = true;
+            pool.release(connection, false);
+        }
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        if (connection != null && !released) {
+            released = true;
+            pool.release(connection, false);
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return route.proxy != null;
+    }
+
+    /**
+     * Body of known length written straight to the socket.
+     */
+    private final class FixedLengthOutputStream extends OutputStream implements ChannelOutput {
+        private final OutputStream out;
+        private long remaining;
+        private boolean closed;
+
+        FixedLengthOutputStream(final OutputStream out, final long length) {
+            this.out = out;
+            this.remaining = length;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream is closed");
+            }
+            if (len > remaining) {
+                throw new IOException("too many bytes written, expected " + remaining + " more but got " + len);
+            }
+            out.write(b, off, len);
+            remaining -= len;
+        }
+
+        @Override
+        public boolean canTransfer() {
+            return !closed && connection.isPlain();
+        }
+
+        @Override
+        public long transferFrom(final FileChannel file, final long position, final long count) throws IOException {
+            if (count > remaining) {
+                throw new IOException("too many bytes written, expected " + remaining + " more but got " + count);
+            }
+            out.flush();
+            final long sent = file.transferTo(position, count, connection.channel);
+            remaining -= sent;
+            return sent;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (remaining != 0) {
+                discard();
+                throw new IOException("insufficient data written, " + remaining + " bytes missing");
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Body of unknown length sent with chunked transfer encoding, one chunk per write.
+     */
+    private final class ChunkedOutputStream extends OutputStream implements ChannelOutput {
+        private final OutputStream out;
+        private boolean closed;
+
+        ChunkedOutputStream(final OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream is closed");
+            }
+            if (len == 0) {
+                return;
+            }
+            out.write((Integer.toHexString(len) + CRLF).getBytes(StandardCharsets.ISO_8859_1));
+            out.write(b, off, len);
+            out.write('\r');
+            out.write('\n');
+        }
+
+        @Override
+        public boolean canTransfer() {
+            return !closed && connection.isPlain();
+        }
+
+        /**
+         * Sends the whole range as one chunk, the chunk size has to be announced up front.
+         */
+        @Override
+        public long transferFrom(final FileChannel file, final long position, final long count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            out.write((Long.toHexString(count) + CRLF).getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            long sent = 0;
+            while (sent < count) {
+                final long transferred = file.transferTo(position + sent, count - sent, connection.channel);
+                if (transferred <= 0) {
+                    discard();
+                    throw new EOFException("File ended " + (count - sent) + " bytes early");
+                }
+                sent += transferred;
+            }
+            out.write('\r');
+            out.write('\n');
+            return sent;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            out.write('0');
+            out.write('\r');
+            out.write('\n');
+            out.write('\r');
+            out.write('\n');
+            out.flush();
+        }
+    }
+
+    /**
+     * Base for response bodies, releases the connection on end of stream and
+     * discards it when closed early. A body read ahead by {@link #buffer(int)}
+     * is served from memory.
+     */
+    private abstract class ResponseBodyStream extends InputStream {
+        boolean eof;
+        boolean closed;
+        byte[] buffered;
+        int bufferedPos;
+        IOException failure;
+
+        @Override
+        public int read() throws IOException {
+            final byte[] single = new byte[1];
+            final int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream is closed");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (buffered != null && bufferedPos < buffered.length) {
+                final int count = Math.min(len, buffered.length - bufferedPos);
+                System.arraycopy(buffered, bufferedPos, b, off, count);
+                bufferedPos += count;
+                return count;
+            }
+            if (eof) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            try {
+                final int read = readBody(b, off, len);
+                if (read == -1) {
+                    endOfBody();
+                }
+                return read;
+            } catch (IOException e) {
+                discard();
+                throw e;
+            }
+        }
+
+        abstract int readBody(byte[] b, int off, int len) throws IOException;
+
+        /**
+         * Read the rest of the body into memory when it is known to fit the
+         * limit, which releases the connection. A failure is kept for the
+         * caller's first read.
+         *
+         * @return true when nothing is left to read from the connection
+         */
+        boolean buffer(final int limit) {
+            return eof || closed || failure != null || released;
+        }
+
+        void endOfBody() {
+            eof = true;
+            release();
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!eof) {
+                discard();
+            }
+        }
+    }
+
+    private final class FixedLengthInputStream extends ResponseBodyStream {
+        private long remaining;
+
+        FixedLengthInputStream(final long length) {
+            this.remaining = length;
+            if (length == 0) {
+                endOfBody();
+            }
+        }
+
+        @Override
+        int readBody(final byte[] b, final int off, final int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            final int read = connection.in.read(b, off, (int) Math.min(len, remaining));
+            if (read == -1) {
+                throw new IOException("Unexpected end of stream, " + remaining + " bytes missing");
+            }
+            remaining -= read;
+            if (remaining == 0) {
+                endOfBody();
+            }
+            return read;
+        }
+
+        @Override
+        boolean buffer(final int limit) {
+            if (super.buffer(limit)) {
+                return true;
+            }
+            if (remaining > limit) {
+                return false;
+            }
+            final byte[] body = new byte[(int) remaining];
+            try {
+                int filled = 0;
+                while (filled < body.length) {
+                    filled += readBody(body, filled, body.length - filled);
+                }
+            } catch (IOException e) {
+                failure = e;
+                discard();
+                return true;
+            }
+            buffered = body;
+            return true;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (buffered != null) {
+                return closed ? 0 : buffered.length - bufferedPos;
+            }
+            return closed || eof ? 0 : (int) Math.min(remaining, connection.in.available());
+        }
+    }
+
+    private final class ChunkedInputStream extends ResponseBodyStream {
+        private long chunkRemaining = -1;
+
+        @Override
+        int readBody(final byte[] b, final int off, final int len) throws IOException {
+            if (chunkRemaining <= 0) {
+                if (chunkRemaining == 0) {
+                    connection.readLine();
+                }
+                final String sizeLine = connection.readLine();
+                if (sizeLine == null) {
+                    throw new IOException("Unexpected end of chunked stream");
+                }
+                final int extension = sizeLine.indexOf(';');
+                try {
+                    chunkRemaining = Long.parseLong((extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Invalid chunk size: " + sizeLine);
+                }
+                if (chunkRemaining == 0) {
+                    String trailer;
+                    do {
+                        trailer = connection.readLine();
+                    } while (trailer != null && trailer.length() > 0);
+                    return -1;
+                }
+            }
+            final int read = connection.in.read(b, off, (int) Math.min(len, chunkRemaining));
+            if (read == -1) {
+                throw new IOException("Unexpected end of chunked stream");
+            }
+            chunkRemaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return closed || eof || chunkRemaining <= 0 ? 0 : (int) Math.min(chunkRemaining, connection.in.available());
+        }
+    }
+
+    private final class UntilCloseInputStream extends ResponseBodyStream {
+        @Override
+        int readBody(final byte[] b, final int off, final int len) throws IOException {
+            return connection.in.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return closed || eof ? 0 : connection.in.available();
+        }
+    }
+}
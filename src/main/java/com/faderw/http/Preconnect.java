@@ -0,0 +1,119 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of {@link ConnectionPool#preconnect(List, int)}: how many of the
+ * connections are open and parked, and which ones failed. A health check can
+ * report ready once {@link #isDone()}, or block in {@link #await(long, TimeUnit)}.
+ */
+
+public final class Preconnect {
+
+    private final CompletableFuture<Preconnect> completion = new CompletableFuture<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final List<IOException> failures = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger remaining = new AtomicInteger(1);
+    private volatile int requested;
+
+    Preconnect() {
+    }
+
+    /**
+     * Count connections about to be opened, before {@link #started()}
+     */
+    void add(final int count) {
+        requested += count;
+        remaining.addAndGet(count);
+    }
+
+    /**
+     * Every connection was handed out, completes once they are all done
+     */
+    void started() {
+        countDown();
+    }
+
+    void connectionOpened() {
+        opened.incrementAndGet();
+        countDown();
+    }
+
+    void connectionFailed(final IOException e) {
+        failed.incrementAndGet();
+        failures.add(e);
+        countDown();
+    }
+
+    private void countDown() {
+        if (remaining.decrementAndGet() == 0) {
+            completion.complete(this);
+        }
+    }
+
+    /**
+     * Connections this warm-up opens, not counting those already in the pool
+     */
+    public int requested() {
+        return requested;
+    }
+
+    public int opened() {
+        return opened.get();
+    }
+
+    public int failed() {
+        return failed.get();
+    }
+
+    public List<IOException> failures() {
+        synchronized (failures) {
+            return new ArrayList<>(failures);
+        }
+    }
+
+    /**
+     * @return true once every connection was opened or failed
+     */
+    public boolean isDone() {
+        return completion.isDone();
+    }
+
+    /**
+     * Wait for the warm-up to finish
+     *
+     * @return true when it finished in time
+     */
+    public boolean await(final long timeout, final TimeUnit unit) throws InterruptedException {
+        try {
+            completion.get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Completes with this once the warm-up is done, failures included
+     */
+    public CompletableFuture<Preconnect> completion() {
+        return completion;
+    }
+
+    @Override
+    public String toString() {
+        return "Preconnect{requested=" + requested + ", opened=" + opened() + ", failed=" + failed()
+                + ", done=" + isDone() + '}';
+    }
+}
@@ -0,0 +1,322 @@
+package com.faderw.http;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Picks how each request leaves the client: directly or through one of a list
+ * of HTTP or SOCKS proxies, by the first rule whose pattern matches the target
+ * host. Hosts no rule matches go direct.
+ * <pre>
+ *     ProxyRouter router = new ProxyRouter()
+ *             .direct("localhost")
+ *             .direct("10.0.0.0/8")
+ *             .direct("*.corp.example.com")
+ *             .http("*", "egress1.corp.example.com:3128", "egress2.corp.example.com:3128");
+ *     HttpRequest.setConnectionFactory(new ProxyRoutingConnectionFactory(router));
+ * </pre>
+ * Patterns are a host name, {@code *.domain} for every name under the domain,
+ * {@code *} for any host, or a CIDR block matched against hosts written as
+ * IP addresses (names are not resolved for that, the proxy resolves them).
+ * <p>
+ * Proxy addresses are resolved once and reused for {@link #resolveTtl(long, TimeUnit)}.
+ * A proxy that could not be reached is skipped for {@link #cooldown(long, TimeUnit)},
+ * the next one of the rule taking its requests, and tried again afterwards.
+ */
+
+public class ProxyRouter {
+
+    private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    private final List<Rule> rules = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private volatile DnsResolver dnsResolver = DnsResolver.SYSTEM;
+    private volatile long resolveTtlNanos = TimeUnit.MINUTES.toNanos(5);
+    private volatile long cooldownNanos = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Connect directly to hosts matching the pattern
+     */
+    public ProxyRouter direct(final String pattern) {
+        rules.add(new Rule(pattern, Collections.<Endpoint>emptyList()));
+        return this;
+    }
+
+    /**
+     * Send requests to hosts matching the pattern through the HTTP proxies,
+     * given as {@code host:port} in the order they are tried
+     */
+    public ProxyRouter http(final String pattern, final String... proxies) {
+        return route(pattern, Proxy.Type.HTTP, proxies);
+    }
+
+    /**
+     * Send requests to hosts matching the pattern through the SOCKS proxies,
+     * given as {@code host:port} in the order they are tried
+     */
+    public ProxyRouter socks(final String pattern, final String... proxies) {
+        return route(pattern, Proxy.Type.SOCKS, proxies);
+    }
+
+    private ProxyRouter route(final String pattern, final Proxy.Type type, final String... proxies) {
+        if (proxies.length == 0) {
+            throw new IllegalArgumentException("No proxy given for " + pattern);
+        }
+        final List<Endpoint> list = new ArrayList<>();
+        for (String proxy : proxies) {
+            final int colon = proxy.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Proxy must be host:port, was " + proxy);
+            }
+            final String host = proxy.substring(0, colon).toLowerCase(Locale.ROOT);
+            final int port = Integer.parseInt(proxy.substring(colon + 1));
+            // rules naming the same proxy share its address and health
+            list.add(endpoints.computeIfAbsent(type + " " + host + ':' + port, k -> new Endpoint(type, host, port)));
+        }
+        rules.add(new Rule(pattern, list));
+        return this;
+    }
+
+    /**
+     * Set the resolver for proxy host names, {@link DnsResolver#SYSTEM} by default
+     */
+    public ProxyRouter dnsResolver(final DnsResolver dnsResolver) {
+        this.dnsResolver = dnsResolver != null ? dnsResolver : DnsResolver.SYSTEM;
+        return this;
+    }
+
+    /**
+     * Set how long a resolved proxy address is used, 5 minutes by default
+     */
+    public ProxyRouter resolveTtl(final long duration, final TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("resolveTtl < 0");
+        }
+        this.resolveTtlNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Set how long an unreachable proxy is skipped, 30 seconds by default
+     */
+    public ProxyRouter cooldown(final long duration, final TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("cooldown < 0");
+        }
+        this.cooldownNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * @return the proxies to try for the url in order, healthy ones first;
+     * empty to connect directly
+     */
+    public List<Endpoint> select(final URL url) {
+        final String host = url.getHost().toLowerCase(Locale.ROOT);
+        for (Rule rule : rules) {
+            if (rule.matches(host)) {
+                if (rule.endpoints.size() < 2) {
+                    return rule.endpoints;
+                }
+                final List<Endpoint> healthy = new ArrayList<>(rule.endpoints.size());
+                final List<Endpoint> cooling = new ArrayList<>(0);
+                for (Endpoint endpoint : rule.endpoints) {
+                    (endpoint.isHealthy() ? healthy : cooling).add(endpoint);
+                }
+                healthy.addAll(cooling);
+                return healthy;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Every proxy named by a rule
+     */
+    public List<Endpoint> endpoints() {
+        return new ArrayList<>(endpoints.values());
+    }
+
+    static boolean isIpLiteral(final String host) {
+        return host.startsWith("[") || host.indexOf(':') >= 0 || IPV4.matcher(host).matches();
+    }
+
+    /**
+     * One rule: a host pattern and the proxies it routes to
+     */
+    private static final class Rule {
+        private final String pattern;
+        private final List<Endpoint> endpoints;
+        private final byte[] network;
+        private final int prefixLength;
+
+        Rule(final String pattern, final List<Endpoint> endpoints) {
+            this.pattern = pattern.toLowerCase(Locale.ROOT);
+            this.endpoints = Collections.unmodifiableList(endpoints);
+            final int slash = pattern.indexOf('/');
+            if (slash > 0) {
+                final String address = pattern.substring(0, slash);
+                if (!isIpLiteral(address)) {
+                    throw new IllegalArgumentException("Not a CIDR block: " + pattern);
+                }
+                try {
+                    // a literal, nothing is looked up
+                    network = InetAddress.getByName(address).getAddress();
+                } catch (UnknownHostException e) {
+                    throw new IllegalArgumentException("Not a CIDR block: " + pattern, e);
+                }
+                prefixLength = Integer.parseInt(pattern.substring(slash + 1));
+                if (prefixLength < 0 || prefixLength > network.length * 8) {
+                    throw new IllegalArgumentException("Invalid prefix length: " + pattern);
+                }
+            } else {
+                network = null;
+                prefixLength = 0;
+            }
+        }
+
+        boolean matches(final String host) {
+            if (network != null) {
+                return inNetwork(host);
+            }
+            if ("*".equals(pattern)) {
+                return true;
+            }
+            if (pattern.startsWith("*.")) {
+                return host.endsWith(pattern.substring(1));
+            }
+            return host.equals(pattern);
+        }
+
+        private boolean inNetwork(final String host) {
+            if (!isIpLiteral(host)) {
+                return false;
+            }
+            final byte[] address;
+            try {
+                address = InetAddress.getByName(host).getAddress();
+            } catch (UnknownHostException e) {
+                return false;
+            }
+            if (address.length != network.length) {
+                return false;
+            }
+            final int whole = prefixLength / 8;
+            for (int i = 0; i < whole; i++) {
+                if (address[i] != network[i]) {
+                    return false;
+                }
+            }
+            final int rest = prefixLength % 8;
+            if (rest == 0) {
+                return true;
+            }
+            final int mask = 0xff << (8 - rest) & 0xff;
+            return (address[whole] & mask) == (network[whole] & mask);
+        }
+    }
+
+    /**
+     * A proxy with its resolved address and health
+     */
+    public final class Endpoint {
+        private final Proxy.Type type;
+        private final String host;
+        private final int port;
+        private final AtomicLong failures = new AtomicLong();
+        private volatile Proxy proxy;
+        private volatile long resolvedAt;
+        private volatile long unhealthyUntil;
+        private volatile boolean unhealthy;
+
+        Endpoint(final Proxy.Type type, final String host, final int port) {
+            this.type = type;
+            this.host = host;
+            this.port = port;
+        }
+
+        public Proxy.Type type() {
+            return type;
+        }
+
+        /**
+         * @return {@code host:port} as configured
+         */
+        public String address() {
+            return host + ':' + port;
+        }
+
+        /**
+         * @return the proxy to connect through, with its address resolved
+         * unless the name does not resolve; the same instance until it expires
+         */
+        public Proxy proxy() {
+            Proxy current = proxy;
+            final long now = System.nanoTime();
+            if (current == null || now - resolvedAt > resolveTtlNanos) {
+                synchronized (this) {
+                    current = proxy;
+                    if (current == null || now - resolvedAt > resolveTtlNanos) {
+                        InetSocketAddress socketAddress;
+                        try {
+                            socketAddress = new InetSocketAddress(dnsResolver.resolve(host).get(0), port);
+                        } catch (UnknownHostException e) {
+                            // left to the transport, which fails or resolves it itself
+                            socketAddress = InetSocketAddress.createUnresolved(host, port);
+                        }
+                        current = new Proxy(type, socketAddress);
+                        if (!current.equals(proxy)) {
+                            proxy = current;
+                        }
+                        current = proxy;
+                        resolvedAt = now;
+                    }
+                }
+            }
+            return current;
+        }
+
+        /**
+         * @return false while the proxy is skipped after a failure
+         */
+        public boolean isHealthy() {
+            return !unhealthy || System.nanoTime() - unhealthyUntil >= 0;
+        }
+
+        /**
+         * Skip the proxy for the cooldown and look its address up again on next use
+         */
+        public void markFailed() {
+            failures.incrementAndGet();
+            unhealthyUntil = System.nanoTime() + cooldownNanos;
+            unhealthy = true;
+            resolvedAt = System.nanoTime() - resolveTtlNanos - 1;
+        }
+
+        /**
+         * @return how often a connection to the proxy failed
+         */
+        public long failureCount() {
+            return failures.get();
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + address() + (isHealthy() ? "" : " (unhealthy)");
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * {@link HttpRequest.ConnectionFactory} sending every request the way its
+ * {@link ProxyRouter} says, so callers no longer pass a proxy per request.
+ * Each HTTP proxy, and direct traffic, gets a {@link ConnectionPool} of its
+ * own, so one slow egress can't starve the connections of another. SOCKS
+ * proxies are left to the JDK transport, which keeps their sockets alive itself.
+ * <pre>
+ *     HttpRequest.setConnectionFactory(new ProxyRoutingConnectionFactory(router,
+ *             () -&gt; new ConnectionPool().maxTotalPerRoute(32)));
+ * </pre>
+ * When a proxy can't be connected to, it is marked failed and the request
+ * moves on to the next proxy of its rule. A proxy given through
+ * {@link HttpRequest#userProxy(String, Integer)} is used as is.
+ */
+
+public class ProxyRoutingConnectionFactory implements HttpRequest.ConnectionFactory {
+
+    private static final String DIRECT = "DIRECT";
+
+    private final ProxyRouter router;
+    private final Supplier<ConnectionPool> poolSupplier;
+    private final ConcurrentMap<String, PooledConnectionFactory> factories = new ConcurrentHashMap<>();
+
+    public ProxyRoutingConnectionFactory(final ProxyRouter router) {
+        this(router, ConnectionPool::new);
+    }
+
+    /**
+     * @param poolSupplier creates the pool of each proxy and the direct one
+     */
+    public ProxyRoutingConnectionFactory(final ProxyRouter router, final Supplier<ConnectionPool> poolSupplier) {
+        this.router = router;
+        this.poolSupplier = poolSupplier;
+    }
+
+    public ProxyRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * @return the pool of connections made directly, null before the first one
+     */
+    public ConnectionPool directPool() {
+        final PooledConnectionFactory factory = factories.get(DIRECT);
+        return factory != null ? factory.getPool() : null;
+    }
+
+    /**
+     * @return the pool of connections through the proxy, null before the first one
+     */
+    public ConnectionPool pool(final ProxyRouter.Endpoint endpoint) {
+        final PooledConnectionFactory factory = factories.get(endpoint.type() + " " + endpoint.address());
+        return factory != null ? factory.getPool() : null;
+    }
+
+    @Override
+    public HttpURLConnection create(final URL url) throws IOException {
+        final List<ProxyRouter.Endpoint> endpoints = router.select(url);
+        if (endpoints.isEmpty()) {
+            return factory(DIRECT).create(url);
+        }
+        return new ProxyRoutingHttpURLConnection(url, this, endpoints);
+    }
+
+    @Override
+    public HttpURLConnection create(final URL url, final Proxy proxy) throws IOException {
+        if (proxy == null || proxy.type() == Proxy.Type.DIRECT) {
+            return factory(DIRECT).create(url);
+        }
+        if (proxy.type() == Proxy.Type.SOCKS) {
+            return HttpRequest.ConnectionFactory.DEFAULT.create(url, proxy);
+        }
+        return factory(proxy.type() + " " + proxy.address()).create(url, proxy);
+    }
+
+    /**
+     * Open a connection through the proxy, before anything is sent
+     */
+    HttpURLConnection create(final URL url, final ProxyRouter.Endpoint endpoint) throws IOException {
+        final Proxy proxy = endpoint.proxy();
+        if (proxy.type() == Proxy.Type.SOCKS) {
+            return HttpRequest.ConnectionFactory.DEFAULT.create(url, proxy);
+        }
+        return factory(endpoint.type() + " " + endpoint.address()).create(url, proxy);
+    }
+
+    private PooledConnectionFactory factory(final String key) {
+        final PooledConnectionFactory factory = factories.get(key);
+        return factory != null ? factory
+                : factories.computeIfAbsent(key, k -> new PooledConnectionFactory(poolSupplier.get()));
+    }
+}
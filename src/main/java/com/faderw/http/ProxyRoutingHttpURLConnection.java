@@ -0,0 +1,165 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Connection going through the first proxy of its rule that accepts the TCP
+ * connection. Proxies that don't are marked failed in the {@link ProxyRouter}.
+ * Nothing has been sent when it moves on, so any method can fail over.
+ */
+
+class ProxyRoutingHttpURLConnection extends AbstractHttpURLConnection {
+
+    private final ProxyRoutingConnectionFactory factory;
+    private final List<ProxyRouter.Endpoint> endpoints;
+
+    private volatile HttpURLConnection delegate;
+    private IOException failure;
+
+    ProxyRoutingHttpURLConnection(final URL url, final ProxyRoutingConnectionFactory factory,
+                                  final List<ProxyRouter.Endpoint> endpoints) {
+        super(url);
+        this.factory = factory;
+        this.endpoints = endpoints;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (connected) {
+            return;
+        }
+        connected = true;
+        IOException last = null;
+        for (ProxyRouter.Endpoint endpoint : endpoints) {
+            final HttpURLConnection candidate;
+            try {
+                candidate = factory.create(url, endpoint);
+                copyTo(candidate);
+                candidate.connect();
+            } catch (IOException e) {
+                if (!unreachable(e)) {
+                    failure = e;
+                    throw e;
+                }
+                endpoint.markFailed();
+                if (last == null) {
+                    last = e;
+                } else {
+                    last.addSuppressed(e);
+                }
+                continue;
+            }
+            delegate = candidate;
+            return;
+        }
+        failure = last;
+        throw last;
+    }
+
+    /**
+     * @return true when the proxy itself could not be reached: refused,
+     * unroutable, unresolvable or timed out while connecting. Later failures,
+     * like a reset during the TLS handshake tunnelled to the target, say
+     * nothing about the proxy.
+     */
+    private static boolean unreachable(final IOException e) {
+        return e instanceof ConnectException || e instanceof NoRouteToHostException
+                || e instanceof UnknownHostException
+                || e instanceof SocketTimeoutException && "connect timed out".equals(e.getMessage());
+    }
+
+    private HttpURLConnection delegate() throws IOException {
+        connect();
+        return delegate;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return delegate().getOutputStream();
+    }
+
+    @Override
+    protected void ensureResponse() throws IOException {
+        delegate();
+    }
+
+    @Override
+    boolean releaseAfterHead() throws IOException {
+        return releaseAfterHead(delegate());
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        return delegate().getResponseCode();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        return delegate().getResponseMessage();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return delegate().getInputStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return delegate != null ? delegate.getErrorStream() : null;
+    }
+
+    @Override
+    public String getHeaderField(final String name) {
+        return connectQuietly() ? delegate.getHeaderField(name) : null;
+    }
+
+    @Override
+    public String getHeaderFieldKey(final int n) {
+        return connectQuietly() ? delegate.getHeaderFieldKey(n) : null;
+    }
+
+    @Override
+    public String getHeaderField(final int n) {
+        return connectQuietly() ? delegate.getHeaderField(n) : null;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return connectQuietly() ? delegate.getHeaderFields() : Collections.<String, List<String>>emptyMap();
+    }
+
+    private boolean connectQuietly() {
+        try {
+            connect();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        if (delegate != null) {
+            delegate.disconnect();
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return true;
+    }
+}
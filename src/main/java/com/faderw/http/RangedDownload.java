@@ -0,0 +1,447 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static com.faderw.http.HttpRequestConst.*;
+
+/**
+ * Downloads a response body to a file over several concurrent range
+ * requests, each written at its offset with positional {@link FileChannel}
+ * writes, so nothing is held on the heap.
+ * <p>
+ * The original request doubles as the probe: it asks for the first range
+ * and the Content-Range of the answer gives the total size to split. While
+ * the download runs the data sits in {@code <target>.part}, next to a small
+ * {@code <target>.part.ranges} file listing the finished ranges; running
+ * the same download again only fetches the missing ones, provided the
+ * server still reports the same ETag or Last-Modified. Servers ignoring
+ * Range are read as a single stream.
+ * <pre>
+ *     new RangedDownload(HttpRequest.get(url)).parallelism(8).download(Paths.get("big.iso"));
+ * </pre>
+ */
+
+public class RangedDownload {
+
+    static final String PART_SUFFIX = ".part";
+    static final String SIDECAR_SUFFIX = ".part.ranges";
+
+    private final HttpRequest request;
+    private int parallelism = 4;
+    private long minPartSize = 1 << 20;
+    private Executor executor;
+
+    public RangedDownload(final HttpRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * Set the number of ranges fetched at once, 4 by default
+     */
+    public RangedDownload parallelism(final int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism <= 0");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Set the smallest range worth its own request, 1 MiB by default
+     */
+    public RangedDownload minPartSize(final long minPartSize) {
+        if (minPartSize <= 0) {
+            throw new IllegalArgumentException("minPartSize <= 0");
+        }
+        this.minPartSize = minPartSize;
+        return this;
+    }
+
+    /**
+     * Set the executor fetching the ranges, the async default of {@link HttpRequest} otherwise
+     */
+    public RangedDownload executor(final Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Download to the target, replacing it once every byte is on disk
+     *
+     * @return the size of the file
+     */
+    public long download(final Path target) {
+        final Path data = sibling(target, PART_SUFFIX);
+        final Path sidecarPath = sibling(target, SIDECAR_SUFFIX);
+        try {
+            Sidecar sidecar = Files.exists(data) ? Sidecar.load(sidecarPath, request.url().toString()) : null;
+            final long firstStart = sidecar != null ? sidecar.start(sidecar.firstPending()) : 0;
+            final long firstEnd = sidecar != null ? sidecar.end(sidecar.firstPending()) : minPartSize - 1;
+            request.uncompress(false)
+                    .header(HEADER_ACCEPT_ENCODING, "identity")
+                    .header(HEADER_RANGE, "bytes=" + firstStart + '-' + firstEnd);
+            if (sidecar != null) {
+                request.header(HEADER_IF_RANGE, sidecar.validator);
+            }
+
+            final int code = request.code();
+            if (code == HttpURLConnection.HTTP_OK) {
+                // no range support, or the object changed since the ranges were saved
+                Files.deleteIfExists(sidecarPath);
+                final long size = single(data);
+                moveInto(data, target);
+                return size;
+            }
+            final String contentRange = request.getConnection().getHeaderField(HEADER_CONTENT_RANGE);
+            if (code == 416 && sidecar == null && "bytes */0".equals(contentRange)) {
+                // nothing to split, the object is empty
+                request.disconnect();
+                Files.deleteIfExists(sidecarPath);
+                Files.write(data, new byte[0]);
+                moveInto(data, target);
+                return 0;
+            }
+            if (code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Unexpected response code " + code + " for " + request.url());
+            }
+            final long[] range = parseContentRange(contentRange);
+            if (range == null || range[0] != firstStart) {
+                throw new IOException("Unexpected Content-Range " + contentRange + " for " + request.url());
+            }
+            if (sidecar == null) {
+                sidecar = Sidecar.plan(request.url().toString(), range[2], validator(), minPartSize, parallelism);
+                Files.deleteIfExists(data);
+            } else if (sidecar.length != range[2]) {
+                Files.deleteIfExists(sidecarPath);
+                throw new IOException(request.url() + " changed size from " + sidecar.length + " to " + range[2]
+                        + " bytes, download it again");
+            }
+            ranged(data, sidecarPath, sidecar);
+            moveInto(data, target);
+            Files.deleteIfExists(sidecarPath);
+            return sidecar.length;
+        } catch (IOException e) {
+            // the probe's body may be left unread, give its connection back
+            request.disconnect();
+            throw new HttpRequestException(e);
+        }
+    }
+
+    /**
+     * Write the probe's range here and fetch the other pending ones concurrently
+     */
+    private void ranged(final Path data, final Path sidecarPath, final Sidecar sidecar) throws IOException {
+        try (FileChannel channel = FileChannel.open(data, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            sidecar.save(sidecarPath);
+            final int first = sidecar.firstPending();
+            final List<CompletableFuture<Void>> pending = new ArrayList<>();
+            final Executor target = executor != null ? executor : AsyncExecutors.defaultExecutor();
+            for (int i = 0; i < sidecar.done.length; i++) {
+                if (i == first || sidecar.done[i]) {
+                    continue;
+                }
+                final int part = i;
+                pending.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        fetch(part, sidecar, channel);
+                        finished(part, sidecar, sidecarPath, channel);
+                    } catch (IOException e) {
+                        throw new HttpRequestException(e);
+                    }
+                }, target));
+            }
+
+            IOException failure = null;
+            try {
+                write(request.stream(), channel, sidecar.start(first), sidecar.end(first));
+                finished(first, sidecar, sidecarPath, channel);
+            } catch (IOException e) {
+                failure = e;
+            } catch (HttpRequestException e) {
+                failure = e.getCause();
+            }
+            // let the other ranges finish, whatever completes now is not fetched again on resume
+            for (CompletableFuture<Void> future : pending) {
+                try {
+                    future.join();
+                } catch (CompletionException e) {
+                    final IOException cause = e.getCause() instanceof HttpRequestException
+                            ? ((HttpRequestException) e.getCause()).getCause()
+                            : new IOException(e.getCause());
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Fetch one range with the headers and settings of the original request
+     */
+    private void fetch(final int part, final Sidecar sidecar, final FileChannel channel) throws IOException {
+        final HttpRequest ranged = request.derive();
+        final long start = sidecar.start(part);
+        final long end = sidecar.end(part);
+        ranged.uncompress(false)
+                .header(HEADER_ACCEPT_ENCODING, "identity")
+                .header(HEADER_RANGE, "bytes=" + start + '-' + end);
+        if (sidecar.validator != null) {
+            ranged.header(HEADER_IF_RANGE, sidecar.validator);
+        }
+        final int code = ranged.code();
+        final long[] range = parseContentRange(ranged.getConnection().getHeaderField(HEADER_CONTENT_RANGE));
+        if (code != HttpURLConnection.HTTP_PARTIAL || range == null || range[0] != start || range[2] != sidecar.length) {
+            ranged.disconnect();
+            throw new IOException("Server answered " + code + " to range " + start + '-' + end + " of " + request.url());
+        }
+        write(ranged.stream(), channel, start, end);
+    }
+
+    private static void write(final InputStream in, final FileChannel channel, final long start,
+                              final long end) throws IOException {
+        final BufferPool pool = HttpRequest.bufferPool();
+        final ByteBuffer chunk = pool.acquire();
+        final byte[] buffer = chunk.hasArray() ? chunk.array() : new byte[chunk.capacity()];
+        long position = start;
+        try {
+            int read;
+            while (position <= end
+                    && (read = in.read(buffer, 0, (int) Math.min(buffer.length, end - position + 1))) != -1) {
+                final ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                while (bytes.hasRemaining()) {
+                    position += channel.write(bytes, position);
+                }
+            }
+        } finally {
+            pool.release(chunk);
+            in.close();
+        }
+        if (position != end + 1) {
+            throw new IOException("Range " + start + '-' + end + " ended after " + (position - start) + " bytes");
+        }
+    }
+
+    /**
+     * Record the range as done once its bytes are on disk
+     */
+    private static void finished(final int part, final Sidecar sidecar, final Path sidecarPath,
+                                 final FileChannel channel) throws IOException {
+        channel.force(false);
+        synchronized (sidecar) {
+            sidecar.done[part] = true;
+            sidecar.save(sidecarPath);
+        }
+    }
+
+    private long single(final Path data) throws IOException {
+        try (FileChannel channel = FileChannel.open(data, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final InputStream in = request.stream();
+            final BufferPool pool = HttpRequest.bufferPool();
+            final ByteBuffer chunk = pool.acquire();
+            final byte[] buffer = chunk.hasArray() ? chunk.array() : new byte[chunk.capacity()];
+            long position = 0;
+            try {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    final ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                    while (bytes.hasRemaining()) {
+                        position += channel.write(bytes, position);
+                    }
+                }
+            } finally {
+                pool.release(chunk);
+                in.close();
+            }
+            channel.force(true);
+            return position;
+        }
+    }
+
+    /**
+     * Strong ETag, else Last-Modified: what If-Range accepts
+     */
+    private String validator() {
+        final String etag = request.getConnection().getHeaderField(HEADER_ETAG);
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return request.getConnection().getHeaderField(HEADER_LAST_MODIFIED);
+    }
+
+    /**
+     * @return start, end and total length of "bytes start-end/total", null when malformed or the total is unknown
+     */
+    static long[] parseContentRange(final String value) {
+        if (value == null || !value.regionMatches(true, 0, "bytes ", 0, 6)) {
+            return null;
+        }
+        final int dash = value.indexOf('-', 6);
+        final int slash = value.indexOf('/', dash + 1);
+        if (dash < 0 || slash < 0) {
+            return null;
+        }
+        try {
+            return new long[]{Long.parseLong(value.substring(6, dash).trim()),
+                    Long.parseLong(value.substring(dash + 1, slash).trim()),
+                    Long.parseLong(value.substring(slash + 1).trim())};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Path sibling(final Path target, final String suffix) {
+        return target.resolveSibling(target.getFileName() + suffix);
+    }
+
+    private static void moveInto(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * The ranges of one download and which of them are on disk
+     */
+    static final class Sidecar {
+        final String url;
+        final long length;
+        final String validator;
+        final long[] starts;
+        final boolean[] done;
+
+        private Sidecar(final String url, final long length, final String validator,
+                        final long[] starts, final boolean[] done) {
+            this.url = url;
+            this.length = length;
+            this.validator = validator;
+            this.starts = starts;
+            this.done = done;
+        }
+
+        /**
+         * First range as large as the probe asked for, the rest split evenly
+         */
+        static Sidecar plan(final String url, final long length, final String validator,
+                            final long minPartSize, final int parallelism) {
+            final long first = Math.min(minPartSize, length);
+            final long rest = length - first;
+            final int parts = rest == 0 ? 0 : (int) Math.max(1, Math.min(parallelism, rest / minPartSize));
+            final long[] starts = new long[1 + parts];
+            for (int i = 1; i <= parts; i++) {
+                starts[i] = first + rest * (i - 1) / parts;
+            }
+            return new Sidecar(url, length, validator, starts, new boolean[starts.length]);
+        }
+
+        long start(final int part) {
+            return starts[part];
+        }
+
+        long end(final int part) {
+            return (part + 1 < starts.length ? starts[part + 1] : length) - 1;
+        }
+
+        int firstPending() {
+            for (int i = 0; i < done.length; i++) {
+                if (!done[i]) {
+                    return i;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return the saved ranges of the url, null when there are none or they can't be resumed
+         */
+        static Sidecar load(final Path path, final String url) throws IOException {
+            if (!Files.exists(path)) {
+                return null;
+            }
+            final Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            final String validator = properties.getProperty("validator");
+            if (!url.equals(properties.getProperty("url")) || validator == null || validator.isEmpty()) {
+                return null;
+            }
+            try {
+                final String[] starts = properties.getProperty("starts", "").split(",");
+                final long[] parsedStarts = new long[starts.length];
+                for (int i = 0; i < starts.length; i++) {
+                    parsedStarts[i] = Long.parseLong(starts[i].trim());
+                }
+                final boolean[] done = new boolean[starts.length];
+                for (String part : properties.getProperty("done", "").split(",")) {
+                    if (!part.trim().isEmpty()) {
+                        done[Integer.parseInt(part.trim())] = true;
+                    }
+                }
+                return new Sidecar(url, Long.parseLong(properties.getProperty("length")), validator,
+                        parsedStarts, done);
+            } catch (RuntimeException e) {
+                // unreadable, start over
+                return null;
+            }
+        }
+
+        /**
+         * Replace the file in one move so a crash leaves either the old or the new list
+         */
+        void save(final Path path) throws IOException {
+            final StringBuilder starts = new StringBuilder();
+            final StringBuilder finished = new StringBuilder();
+            for (int i = 0; i < this.starts.length; i++) {
+                if (i > 0) {
+                    starts.append(',');
+                }
+                starts.append(this.starts[i]);
+                if (done[i]) {
+                    if (finished.length() > 0) {
+                        finished.append(',');
+                    }
+                    finished.append(i);
+                }
+            }
+            final Properties properties = new Properties();
+            properties.setProperty("url", url);
+            properties.setProperty("length", Long.toString(length));
+            properties.setProperty("validator", validator != null ? validator : "");
+            properties.setProperty("starts", starts.toString());
+            properties.setProperty("done", finished.toString());
+            final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, null);
+            }
+            moveInto(temp, path);
+        }
+    }
+}
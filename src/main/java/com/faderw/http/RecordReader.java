@@ -0,0 +1,260 @@
+package com.faderw.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits a response body into lines or delimiter separated records while it
+ * arrives. Bytes go through one {@link CharsetDecoder} into fixed buffers and
+ * every record is capped, so memory stays the same however long the stream
+ * runs, e.g. for NDJSON exports or log tails.
+ * <pre>
+ *     try (RecordReader lines = HttpRequest.get(url).lines()) {
+ *         while (lines.hasNext()) {
+ *             handle(lines.next());
+ *         }
+ *     }
+ * </pre>
+ * Not thread safe.
+ */
+
+public class RecordReader implements Iterator<String>, Closeable {
+
+    /**
+     * Longest record accepted by default, in chars
+     */
+    public static final int DEFAULT_MAX_RECORD_LENGTH = 1 << 20;
+
+    private static final int CHAR_BUFFER_SIZE = 4096;
+
+    private final InputStream in;
+    private final BufferPool pool;
+    private final ByteBuffer chunk;
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder;
+    private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    private final char[] delimiter;
+    private final StringBuilder record = new StringBuilder(128);
+    private int maxRecordLength = DEFAULT_MAX_RECORD_LENGTH;
+
+    private boolean eof;
+    private boolean skipLf;
+    private boolean closed;
+    private String next;
+
+    /**
+     * Split on line endings: LF, CRLF or a lone CR
+     */
+    public RecordReader(final InputStream in, final Charset charset) {
+        this(in, charset, null, BufferPool.DEFAULT);
+    }
+
+    /**
+     * Split on the delimiter, e.g. the U+001E record separator of JSON text sequences
+     */
+    public RecordReader(final InputStream in, final Charset charset, final String delimiter) {
+        this(in, charset, delimiter, BufferPool.DEFAULT);
+    }
+
+    RecordReader(final InputStream in, final Charset charset, final String delimiter, final BufferPool pool) {
+        if (delimiter != null && delimiter.isEmpty()) {
+            throw new IllegalArgumentException("delimiter is empty");
+        }
+        this.in = in;
+        this.pool = pool;
+        this.chunk = pool.acquire();
+        this.bytes = chunk.hasArray() ? chunk : ByteBuffer.allocate(chunk.capacity());
+        ((Buffer) bytes).limit(0);
+        ((Buffer) chars).limit(0);
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.delimiter = delimiter != null ? delimiter.toCharArray() : null;
+    }
+
+    /**
+     * Set the longest record accepted, a longer one fails the read instead of growing memory
+     */
+    public RecordReader maxRecordLength(final int maxRecordLength) {
+        if (maxRecordLength <= 0) {
+            throw new IllegalArgumentException("maxRecordLength <= 0");
+        }
+        this.maxRecordLength = maxRecordLength;
+        return this;
+    }
+
+    /**
+     * @return the next record without its terminator, null at the end of the body
+     */
+    public String readRecord() throws IOException {
+        if (next != null) {
+            final String record = next;
+            next = null;
+            return record;
+        }
+        if (closed) {
+            throw new IOException("Reader is closed");
+        }
+        record.setLength(0);
+        while (true) {
+            final char[] array = chars.array();
+            final int start = chars.arrayOffset() + chars.position();
+            final int end = chars.arrayOffset() + chars.limit();
+            if ((delimiter == null ? scanLine(array, start, end) : scanDelimiter(array, start, end)) >= 0) {
+                return record.toString();
+            }
+            if (!fill()) {
+                // an unterminated last record, nothing when the body ended with a terminator
+                return record.length() > 0 ? record.toString() : null;
+            }
+        }
+    }
+
+    /**
+     * Move chars up to the next line ending into the record
+     *
+     * @return the array index after the line ending, -1 when more input is needed
+     */
+    private int scanLine(final char[] array, int start, final int end) throws IOException {
+        if (skipLf && start < end) {
+            skipLf = false;
+            if (array[start] == '\n') {
+                start++;
+            }
+        }
+        for (int i = start; i < end; i++) {
+            final char c = array[i];
+            if (c == '\n' || c == '\r') {
+                append(array, start, i);
+                skipLf = c == '\r';
+                consume(i + 1);
+                return i + 1;
+            }
+        }
+        append(array, start, end);
+        consume(end);
+        return -1;
+    }
+
+    /**
+     * Move chars up to the next delimiter into the record, the delimiter may span buffer refills
+     */
+    private int scanDelimiter(final char[] array, final int start, final int end) throws IOException {
+        final char last = delimiter[delimiter.length - 1];
+        int from = start;
+        for (int i = start; i < end; i++) {
+            if (array[i] == last) {
+                append(array, from, i + 1);
+                from = i + 1;
+                if (endsWithDelimiter()) {
+                    record.setLength(record.length() - delimiter.length);
+                    consume(i + 1);
+                    return i + 1;
+                }
+            }
+        }
+        append(array, from, end);
+        consume(end);
+        return -1;
+    }
+
+    private boolean endsWithDelimiter() {
+        final int offset = record.length() - delimiter.length;
+        if (offset < 0) {
+            return false;
+        }
+        for (int i = 0; i < delimiter.length; i++) {
+            if (record.charAt(offset + i) != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(final char[] array, final int start, final int end) throws IOException {
+        if (record.length() + end - start > maxRecordLength + (delimiter != null ? delimiter.length : 0)) {
+            throw new IOException("Record longer than " + maxRecordLength + " chars");
+        }
+        record.append(array, start, end - start);
+    }
+
+    private void consume(final int arrayIndex) {
+        ((Buffer) chars).position(arrayIndex - chars.arrayOffset());
+    }
+
+    /**
+     * Decode more of the body into the char buffer, which the caller has consumed in full
+     *
+     * @return false once the body and the decoder are exhausted
+     */
+    private boolean fill() throws IOException {
+        ((Buffer) chars).clear();
+        try {
+            while (chars.position() == 0) {
+                if (eof) {
+                    return false;
+                }
+                bytes.compact();
+                final int read = in.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+                if (read > 0) {
+                    ((Buffer) bytes).position(bytes.position() + read);
+                }
+                ((Buffer) bytes).flip();
+                if (read == -1) {
+                    eof = true;
+                    decoder.decode(bytes, chars, true);
+                    decoder.flush(chars);
+                } else {
+                    decoder.decode(bytes, chars, false);
+                }
+            }
+            return true;
+        } finally {
+            ((Buffer) chars).flip();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readRecord();
+            } catch (IOException e) {
+                throw new HttpRequestException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final String record = next;
+        next = null;
+        return record;
+    }
+
+    /**
+     * Close the body, the connection is not reused unless the body was read to the end
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pool.release(chunk);
+        in.close();
+    }
+}
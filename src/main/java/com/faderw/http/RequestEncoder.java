@@ -0,0 +1,23 @@
+package com.faderw.http;
+
+import java.io.IOException;
+
+/**
+ * Writes an object as the request body straight into the connection's
+ * {@link RequestOutputStream}, which encodes text in the request charset
+ * without building the whole payload as a String first.
+ * <pre>
+ *     RequestEncoder&lt;Order&gt; order = (value, out) -&gt; mapper.writeValue(out, value);
+ *
+ *     String created = HttpRequest.post(url).json(newOrder, order).body("UTF-8");
+ * </pre>
+ * Encoders are shared between requests and must be thread-safe.
+ */
+
+public interface RequestEncoder<T> {
+
+    /**
+     * @param out the request body, closed by the request once it is sent
+     */
+    void encode(T value, RequestOutputStream out) throws IOException;
+}
@@ -1,31 +1,298 @@
 package com.faderw.http;
 
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
 
 /**
+ * Buffered request body that encodes text directly into its own buffer.
+ * UTF-8, ISO-8859-1 and US-ASCII are encoded inline; other charsets go
+ * through a reused {@link CharsetEncoder}, so no write allocates.
+ *
  * FaderW
  * created on 2018/11/25
  */
 public class RequestOutputStream  extends BufferedOutputStream {
 
+    private static final int SCRATCH_SIZE = 256;
+
     private final CharsetEncoder encoder;
 
+    /**
+     * Chars below this value are written as a single byte
+     */
+    private final char singleByteLimit;
+
+    private final boolean utf8;
+
+    private final char[] single = new char[1];
+
+    private ByteBuffer bufferView;
+
+    private CharBuffer scratch;
+
+    private boolean encoding;
+
     public RequestOutputStream(final OutputStream outputStream, final String charset, final int bufferSize) {
-        super(outputStream, bufferSize);
-        encoder = Charset.forName(charset).newEncoder();
+        super(outputStream, Math.max(bufferSize, 4));
+        final Charset resolved = Charset.forName(charset);
+        encoder = resolved.newEncoder();
+        utf8 = StandardCharsets.UTF_8.equals(resolved);
+        if (StandardCharsets.ISO_8859_1.equals(resolved)) {
+            singleByteLimit = 0x100;
+        } else if (utf8 || StandardCharsets.US_ASCII.equals(resolved)) {
+            singleByteLimit = 0x80;
+        } else {
+            singleByteLimit = 0;
+        }
     }
 
     public RequestOutputStream write(final String value) throws IOException {
-        final ByteBuffer byteBuffer = encoder.encode(CharBuffer.wrap(value));
-        super.write(byteBuffer.array(), 0, byteBuffer.limit());
+        return encode(value, null, 0, value.length());
+    }
+
+    public RequestOutputStream write(final CharSequence value) throws IOException {
+        return encode(value, null, 0, value.length());
+    }
+
+    public RequestOutputStream write(final char[] value) throws IOException {
+        return encode(null, value, 0, value.length);
+    }
+
+    public RequestOutputStream write(final char[] value, final int offset, final int length) throws IOException {
+        return encode(null, value, offset, offset + length);
+    }
 
+    public RequestOutputStream write(final char value) throws IOException {
+        if (value < singleByteLimit) {
+            if (count == buf.length) {
+                drain();
+            }
+            buf[count++] = (byte) value;
+            return this;
+        }
+        single[0] = value;
+        return encode(null, single, 0, 1);
+    }
+
+    /**
+     * Encode chars [start, end) of either text or chars into the buffer
+     */
+    private RequestOutputStream encode(final CharSequence text, final char[] chars, int start, final int end) throws IOException {
+        if (encoding && scratch.position() > 0) {
+            // chars held back by the encoder must go out first
+            return encodeWithEncoder(text, chars, start, end);
+        }
+        final byte[] buf = this.buf;
+        final int limit = singleByteLimit;
+        int count = this.count;
+        while (start < end) {
+            final char c = chars != null ? chars[start] : text.charAt(start);
+            if (c < limit) {
+                if (count == buf.length) {
+                    this.count = count;
+                    drain();
+                    count = 0;
+                }
+                buf[count++] = (byte) c;
+                start++;
+            } else if (utf8) {
+                if (buf.length - count < 4) {
+                    this.count = count;
+                    drain();
+                    count = 0;
+                }
+                if (c < 0x800) {
+                    buf[count++] = (byte) (0xc0 | (c >> 6));
+                    buf[count++] = (byte) (0x80 | (c & 0x3f));
+                } else if (!Character.isSurrogate(c)) {
+                    buf[count++] = (byte) (0xe0 | (c >> 12));
+                    buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buf[count++] = (byte) (0x80 | (c & 0x3f));
+                } else {
+                    final char low = start + 1 < end ? (chars != null ? chars[start + 1] : text.charAt(start + 1)) : 0;
+                    if (!Character.isHighSurrogate(c) || !Character.isLowSurrogate(low)) {
+                        this.count = count;
+                        throw new MalformedInputException(1);
+                    }
+                    final int codePoint = Character.toCodePoint(c, low);
+                    buf[count++] = (byte) (0xf0 | (codePoint >> 18));
+                    buf[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buf[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buf[count++] = (byte) (0x80 | (codePoint & 0x3f));
+                    start++;
+                }
+                start++;
+            } else {
+                this.count = count;
+                return encodeWithEncoder(text, chars, start, end);
+            }
+        }
+        this.count = count;
         return this;
     }
 
-}
\ No newline at end of file
+    /**
+     * General path through the reused encoder, staging chars in a small
+     * scratch buffer and encoding straight into the output buffer. The
+     * encoder keeps its state between writes, so a byte order mark is written
+     * once and a surrogate pair may be split across calls; it is finished on
+     * {@link #close()}.
+     */
+    private RequestOutputStream encodeWithEncoder(final CharSequence text, final char[] chars, int start, final int end) throws IOException {
+        if (scratch == null) {
+            scratch = CharBuffer.allocate(SCRATCH_SIZE);
+        }
+        final CharBuffer in = scratch;
+        if (!encoding) {
+            encoder.reset();
+            ((Buffer) in).clear();
+            encoding = true;
+        }
+        while (start < end) {
+            final int length = Math.min(in.remaining(), end - start);
+            if (chars != null) {
+                in.put(chars, start, length);
+            } else if (text instanceof String) {
+                in.put((String) text, start, start + length);
+            } else {
+                for (int i = start; i < start + length; i++) {
+                    in.put(text.charAt(i));
+                }
+            }
+            start += length;
+            ((Buffer) in).flip();
+            encodeScratch(false);
+            in.compact();
+        }
+        return this;
+    }
+
+    private void encodeScratch(final boolean endOfInput) throws IOException {
+        CoderResult result;
+        while ((result = encoder.encode(scratch, view(), endOfInput)).isOverflow()) {
+            count = bufferView.position();
+            drain();
+        }
+        count = bufferView.position();
+        if (result.isError()) {
+            result.throwException();
+        }
+    }
+
+    /**
+     * Encode any chars held back by the encoder and write its trailing bytes
+     */
+    private void finishEncoding() throws IOException {
+        if (!encoding) {
+            return;
+        }
+        encoding = false;
+        ((Buffer) scratch).flip();
+        encodeScratch(true);
+        ((Buffer) scratch).clear();
+        while (encoder.flush(view()).isOverflow()) {
+            count = bufferView.position();
+            drain();
+        }
+        count = bufferView.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finishEncoding();
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * @return a view of the free part of the buffer
+     */
+    private ByteBuffer view() {
+        if (bufferView == null) {
+            bufferView = ByteBuffer.wrap(buf);
+        }
+        ((Buffer) bufferView).limit(buf.length);
+        ((Buffer) bufferView).position(count);
+        return bufferView;
+    }
+
+    /**
+     * Copy the input stream by reading straight into this stream's buffer
+     */
+    public RequestOutputStream write(final InputStream input) throws IOException {
+        int read;
+        while (true) {
+            if (count == buf.length) {
+                drain();
+            }
+            read = input.read(buf, count, buf.length - count);
+            if (read == -1) {
+                return this;
+            }
+            count += read;
+        }
+    }
+
+    /**
+     * Send length bytes of the file starting at position. When the
+     * underlying stream is a socket that supports it the bytes are handed to
+     * {@link FileChannel#transferTo}; otherwise they are read straight into
+     * this stream's buffer, never through an extra heap copy.
+     */
+    public RequestOutputStream write(final FileChannel file, long position, long length) throws IOException {
+        if (out instanceof ChannelOutput && ((ChannelOutput) out).canTransfer()) {
+            drain();
+            final ChannelOutput channelOutput = (ChannelOutput) out;
+            while (length > 0) {
+                final long sent = channelOutput.transferFrom(file, position, length);
+                if (sent <= 0) {
+                    throw new EOFException("File ended " + length + " bytes early");
+                }
+                position += sent;
+                length -= sent;
+            }
+            return this;
+        }
+
+        while (length > 0) {
+            if (count == buf.length) {
+                drain();
+            }
+            final ByteBuffer view = view();
+            ((Buffer) view).limit((int) Math.min(buf.length, count + length));
+            final int read = file.read(view, position);
+            if (read < 0) {
+                throw new EOFException("File ended " + length + " bytes early");
+            }
+            count += read;
+            position += read;
+            length -= read;
+        }
+        return this;
+    }
+
+    /**
+     * Write out the buffered bytes without flushing the underlying stream
+     */
+    private void drain() throws IOException {
+        if (count > 0) {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+    }
+
+}
@@ -0,0 +1,232 @@
+package com.faderw.http;
+
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static com.faderw.http.HttpRequestConst.*;
+
+/**
+ * Method, base url, default headers and timeouts shared by many requests,
+ * checked and laid out once so making a request from it skips parsing the
+ * url and validating the headers again. The {@link HttpRequest} itself still
+ * costs what it does otherwise, its own fields and the lookup of the
+ * current {@link Deadline}. Headers are kept as one flat name/value array and are
+ * applied to the connection in a single pass when it is opened; headers set
+ * on the request afterwards replace them.
+ * <pre>
+ *     static final RequestTemplate API = RequestTemplate.get("https://api.example.com/v1")
+ *             .header("Accept", "application/json")
+ *             .header("User-Agent", "reach-http")
+ *             .connectTimeout(1000)
+ *             .readTimeout(5000);
+ *
+ *     String user = API.request("/users/42").body("UTF-8");
+ * </pre>
+ * Every setter returns a new template, instances are immutable and safe to
+ * share between threads.
+ */
+
+public final class RequestTemplate {
+
+    private static final String[] NO_HEADERS = new String[0];
+    private static final boolean[] TOKEN = new boolean[128];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) {
+            TOKEN[c] = true;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            TOKEN[c] = true;
+            TOKEN[c - 'a' + 'A'] = true;
+        }
+        for (char c : "!#$%&'*+-.^_`|~".toCharArray()) {
+            TOKEN[c] = true;
+        }
+    }
+
+    private final String method;
+    private final String baseUrl;
+    private final URL url;
+    private final String[] headers;
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    private RequestTemplate(final String method, final String baseUrl, final URL url, final String[] headers,
+                            final int connectTimeout, final int readTimeout) {
+        this.method = method;
+        this.baseUrl = baseUrl;
+        this.url = url;
+        this.headers = headers;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @throws HttpRequestException when the base url is malformed
+     */
+    public static RequestTemplate of(final String method, final CharSequence baseUrl) {
+        final String base = baseUrl.toString();
+        try {
+            return new RequestTemplate(method.toUpperCase(Locale.ROOT), base, new URL(base), NO_HEADERS, -1, -1);
+        } catch (MalformedURLException e) {
+            throw new HttpRequestException(e);
+        }
+    }
+
+    public static RequestTemplate get(final CharSequence baseUrl) {
+        return of(METHOD_GET, baseUrl);
+    }
+
+    public static RequestTemplate post(final CharSequence baseUrl) {
+        return of(METHOD_POST, baseUrl);
+    }
+
+    public static RequestTemplate put(final CharSequence baseUrl) {
+        return of(METHOD_PUT, baseUrl);
+    }
+
+    public static RequestTemplate delete(final CharSequence baseUrl) {
+        return of(METHOD_DELETE, baseUrl);
+    }
+
+    /**
+     * @return a template sending the header too, replacing a header of the same name
+     * @throws IllegalArgumentException when the name is not a token or the value spans lines
+     */
+    public RequestTemplate header(final String name, final String value) {
+        checkName(name);
+        checkValue(name, value);
+        int kept = 0;
+        final String[] copy = new String[headers.length + 2];
+        for (int i = 0; i < headers.length; i += 2) {
+            if (!headers[i].equalsIgnoreCase(name)) {
+                copy[kept++] = headers[i];
+                copy[kept++] = headers[i + 1];
+            }
+        }
+        copy[kept++] = name;
+        copy[kept++] = value;
+        return new RequestTemplate(method, baseUrl, url, kept == copy.length ? copy : Arrays.copyOf(copy, kept),
+                connectTimeout, readTimeout);
+    }
+
+    /**
+     * @return a template sending the content type with its charset parameter, when given
+     */
+    public RequestTemplate contentType(final String contentType, final String charset) {
+        if (charset != null && charset.length() > 0) {
+            return header(HEADER_CONTENT_TYPE, contentType + ';' + PARAM_CHARSET + '=' + charset);
+        }
+        return header(HEADER_CONTENT_TYPE, contentType);
+    }
+
+    /**
+     * @return a template connecting within the given milliseconds, 0 waits forever
+     */
+    public RequestTemplate connectTimeout(final int connectTimeout) {
+        if (connectTimeout < 0) {
+            throw new IllegalArgumentException("connectTimeout < 0");
+        }
+        return new RequestTemplate(method, baseUrl, url, headers, connectTimeout, readTimeout);
+    }
+
+    /**
+     * @return a template waiting the given milliseconds for data, 0 waits forever
+     */
+    public RequestTemplate readTimeout(final int readTimeout) {
+        if (readTimeout < 0) {
+            throw new IllegalArgumentException("readTimeout < 0");
+        }
+        return new RequestTemplate(method, baseUrl, url, headers, connectTimeout, readTimeout);
+    }
+
+    /**
+     * @return a request to the base url
+     */
+    public HttpRequest request() {
+        return new HttpRequest(url, this);
+    }
+
+    /**
+     * @param path appended to the base url as is, e.g. {@code "/users/42?fields=name"}
+     * @return a request to the base url followed by the path
+     */
+    public HttpRequest request(final CharSequence path) {
+        if (path.length() == 0) {
+            return request();
+        }
+        try {
+            return new HttpRequest(new URL(baseUrl + path), this);
+        } catch (MalformedURLException e) {
+            throw new HttpRequestException(e);
+        }
+    }
+
+    public String method() {
+        return method;
+    }
+
+    public String baseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * @return the value of the header, null when the template doesn't set it
+     */
+    public String header(final String name) {
+        for (int i = 0; i < headers.length; i += 2) {
+            if (headers[i].equalsIgnoreCase(name)) {
+                return headers[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Apply the headers and timeouts to a connection that is not connected yet
+     */
+    void applyTo(final HttpURLConnection connection) {
+        final String[] list = headers;
+        for (int i = 0; i < list.length; i += 2) {
+            connection.setRequestProperty(list[i], list[i + 1]);
+        }
+        if (connectTimeout >= 0) {
+            connection.setConnectTimeout(connectTimeout);
+        }
+        if (readTimeout >= 0) {
+            connection.setReadTimeout(readTimeout);
+        }
+    }
+
+    private static void checkName(final String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Header name is empty");
+        }
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (c >= 128 || !TOKEN[c]) {
+                throw new IllegalArgumentException("Invalid character in header name: " + name);
+            }
+        }
+    }
+
+    private static void checkValue(final String name, final String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("No value for header " + name);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\r' || c == '\n' || c == 0) {
+                throw new IllegalArgumentException("Invalid character in value of header " + name);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RequestTemplate{" + method + ' ' + baseUrl + ", headers=" + headers.length / 2 + '}';
+    }
+}
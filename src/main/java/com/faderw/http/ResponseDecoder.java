@@ -0,0 +1,27 @@
+package com.faderw.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Turns a response body into an object while it is read from the connection,
+ * so the payload is never held as a byte array and then again as a String.
+ * A JSON mapper plugs in as, for instance:
+ * <pre>
+ *     ResponseDecoder&lt;User&gt; user = (body, charset) -&gt;
+ *             mapper.readValue(new InputStreamReader(body, charset), User.class);
+ *
+ *     User u = HttpRequest.get(url).as(user);
+ * </pre>
+ * Decoders are shared between requests and must be thread-safe.
+ */
+
+public interface ResponseDecoder<T> {
+
+    /**
+     * @param body    the body as it arrives, uncompressed; the request closes it afterwards
+     * @param charset the charset of the response Content-Type, UTF-8 when it has none
+     */
+    T decode(InputStream body, Charset charset) throws IOException;
+}
@@ -0,0 +1,78 @@
+package com.faderw.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting retries and hedges to a share of the original
+ * requests. Every request deposits {@code ratio} tokens, every extra attempt
+ * takes a whole one, and at most {@code maxTokens} are kept. While an upstream
+ * is down each request gets at most {@code ratio} extra attempts on average,
+ * instead of multiplying the load by the attempt count.
+ * <p>
+ * Share one budget between the policies calling the same upstream.
+ */
+
+public final class RetryBudget {
+
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong tokens;
+
+    /**
+     * @param ratio     extra attempts allowed per request in the long run, e.g. 0.1
+     * @param maxTokens extra attempts allowed in a burst, the bucket starts full
+     */
+    public RetryBudget(final double ratio, final int maxTokens) {
+        if (ratio < 0 || ratio > 1) {
+            throw new IllegalArgumentException("ratio must be between 0 and 1");
+        }
+        if (maxTokens < 0) {
+            throw new IllegalArgumentException("maxTokens < 0");
+        }
+        this.deposit = (long) (ratio * SCALE);
+        this.capacity = maxTokens * SCALE;
+        this.tokens = new AtomicLong(capacity);
+    }
+
+    /**
+     * Credit one original request
+     */
+    void deposit() {
+        long current;
+        while ((current = tokens.get()) < capacity
+                && !tokens.compareAndSet(current, Math.min(capacity, current + deposit))) {
+            // retry
+        }
+    }
+
+    /**
+     * Take the token of one extra attempt
+     *
+     * @return false when the budget is spent
+     */
+    boolean tryWithdraw() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < SCALE) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - SCALE));
+        return true;
+    }
+
+    /**
+     * Extra attempts that may start right now
+     */
+    public int available() {
+        return (int) (tokens.get() / SCALE);
+    }
+
+    @Override
+    public String toString() {
+        return "RetryBudget{available=" + available() + ", ratio=" + (double) deposit / SCALE
+                + ", maxTokens=" + capacity / SCALE + '}';
+    }
+}
@@ -0,0 +1,466 @@
+package com.faderw.http;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.faderw.http.HttpRequestConst.*;
+
+/**
+ * Retries and hedges idempotent requests. When no response came back after
+ * the hedge delay a backup attempt is sent, the first response wins and the
+ * other attempts are cancelled; I/O failures and the retry statuses (502, 503
+ * and 504 by default) are retried after a short jittered backoff. All extra
+ * attempts are paid from a {@link RetryBudget} so they stop adding load once
+ * an upstream is failing.
+ * <p>
+ * The hedge delay follows the observed latency: the configured percentile
+ * (95th by default) of the recent successful attempts to the same host, the
+ * fixed {@link #hedgeDelay(long, TimeUnit)} until 32 of them were seen.
+ * <pre>
+ *     RetryPolicy policy = new RetryPolicy().maxAttempts(3).hedgePercentile(90);
+ *
+ *     String body = policy.execute(() -&gt; HttpRequest.get(url), request -&gt; request.body("UTF-8"));
+ * </pre>
+ * Each attempt takes a new request from the supplier, which is called from
+ * the timer and executor threads and should only build the request. Methods
+ * other than GET, HEAD, PUT, DELETE, OPTIONS and TRACE are sent once.
+ */
+
+public class RetryPolicy {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "reach-http-retry-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Set<String> IDEMPOTENT = new HashSet<>(Arrays.asList(
+            METHOD_GET, METHOD_HEAD, METHOD_PUT, METHOD_DELETE, METHOD_OPTIONS, METHOD_TRACE));
+
+    private static final int MIN_SAMPLES = 32;
+    private static final int WINDOW = 1024;
+
+    private volatile int maxAttempts = 2;
+    private volatile boolean hedging = true;
+    private volatile long hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(50);
+    private volatile double hedgePercentile = 95;
+    private volatile long backoffNanos = TimeUnit.MILLISECONDS.toNanos(20);
+    private volatile int[] retryStatuses = {502, 503, 504};
+    private volatile RetryBudget budget = new RetryBudget(0.1, 10);
+    private volatile Executor executor;
+
+    private final ConcurrentMap<String, HostLatency> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    /**
+     * Set the number of attempts per request including the first one, 2 by default
+     */
+    public RetryPolicy maxAttempts(final int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts < 1: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * Enable or disable backup attempts for slow responses, enabled by default
+     */
+    public RetryPolicy hedging(final boolean hedging) {
+        this.hedging = hedging;
+        return this;
+    }
+
+    /**
+     * Set the hedge delay used until enough latencies of a host were seen, 50 ms by default
+     */
+    public RetryPolicy hedgeDelay(final long delay, final TimeUnit unit) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("delay < 0");
+        }
+        this.hedgeDelayNanos = unit.toNanos(delay);
+        return this;
+    }
+
+    /**
+     * Set the latency percentile after which a backup attempt is sent, 95 by default
+     */
+    public RetryPolicy hedgePercentile(final double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in (0, 100]");
+        }
+        this.hedgePercentile = percentile;
+        return this;
+    }
+
+    /**
+     * Set the mean wait before a retry, 20 ms by default, jittered by half of it either way
+     */
+    public RetryPolicy backoff(final long backoff, final TimeUnit unit) {
+        if (backoff < 0) {
+            throw new IllegalArgumentException("backoff < 0");
+        }
+        this.backoffNanos = unit.toNanos(backoff);
+        return this;
+    }
+
+    /**
+     * Set the response codes retried like an I/O failure
+     */
+    public RetryPolicy retryStatuses(final int... statuses) {
+        this.retryStatuses = statuses.clone();
+        return this;
+    }
+
+    /**
+     * Set the budget paying for retries and hedges, 10% of the requests
+     * with bursts of 10 by default
+     */
+    public RetryPolicy budget(final RetryBudget budget) {
+        if (budget == null) {
+            throw new IllegalArgumentException("budget is null");
+        }
+        this.budget = budget;
+        return this;
+    }
+
+    /**
+     * Set the executor running the attempts, null uses the one of the
+     * asynchronous {@link HttpRequest} methods
+     */
+    public RetryPolicy executor(final Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Run the request and block until an attempt succeeded or none is left
+     *
+     * @param handler reads the response of an attempt, only the winner's result is returned
+     */
+    public <T> T execute(final Supplier<? extends HttpRequest> request,
+                         final Function<? super HttpRequest, ? extends T> handler) {
+        try {
+            return executeAsync(request, handler).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Run the request in the background. Cancelling the future cancels every attempt in flight.
+     */
+    public <T> CompletableFuture<T> executeAsync(final Supplier<? extends HttpRequest> request,
+                                                 final Function<? super HttpRequest, ? extends T> handler) {
+        final Call<T> call = new Call<>(request, handler);
+        call.start();
+        return call.result;
+    }
+
+    public long requestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Attempts started after a failure or a retry status
+     */
+    public long retryCount() {
+        return retries.get();
+    }
+
+    /**
+     * Backup attempts started because the response was slow
+     */
+    public long hedgeCount() {
+        return hedges.get();
+    }
+
+    /**
+     * Requests answered by a backup attempt
+     */
+    public long hedgeWinCount() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * Retries and hedges not started because the budget was spent
+     */
+    public long budgetExhaustedCount() {
+        return budgetExhausted.get();
+    }
+
+    /**
+     * @param host as {@code host:port}
+     * @return the current hedge delay for the host
+     */
+    public long hedgeDelayNanos(final String host) {
+        final HostLatency latency = latencies.get(host);
+        return latency != null ? latency.delay(hedgePercentile, hedgeDelayNanos) : hedgeDelayNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{requests=" + requestCount() + ", retries=" + retryCount() + ", hedges=" + hedgeCount()
+                + ", hedgeWins=" + hedgeWinCount() + ", budgetExhausted=" + budgetExhaustedCount() + '}';
+    }
+
+    private static String hostKey(final HttpRequest request) {
+        final URL url = request.url();
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return url.getHost().toLowerCase(Locale.ROOT) + ':' + port;
+    }
+
+    private HostLatency latency(final String host) {
+        final HostLatency latency = latencies.get(host);
+        return latency != null ? latency : latencies.computeIfAbsent(host, h -> new HostLatency());
+    }
+
+    /**
+     * Latencies of the last 1024 to 2048 successful attempts, so the delay follows a changing upstream
+     */
+    private static final class HostLatency {
+        private volatile LatencyHistogram current = new LatencyHistogram();
+        private volatile LatencyHistogram previous;
+
+        void record(final long nanos) {
+            final LatencyHistogram histogram = current;
+            histogram.record(nanos);
+            if (histogram.count() == WINDOW) {
+                previous = histogram;
+                current = new LatencyHistogram();
+            }
+        }
+
+        long delay(final double percentile, final long fallback) {
+            final LatencyHistogram last = previous;
+            final LatencyHistogram histogram = last != null ? last : current;
+            return histogram.count() >= MIN_SAMPLES ? histogram.percentileNanos(percentile) : fallback;
+        }
+    }
+
+    /**
+     * Marks a response with a retry status whose retry was already paid for
+     */
+    private static final class RetryStatus extends RuntimeException {
+        RetryStatus(final int code) {
+            super("Response code " + code, null, false, false);
+        }
+    }
+
+    /**
+     * The attempts of one request
+     */
+    private final class Call<T> {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        private final Supplier<? extends HttpRequest> supplier;
+        private final Function<? super HttpRequest, ? extends T> handler;
+        private final RetryBudget budget = RetryPolicy.this.budget;
+        private final int[] statuses = retryStatuses;
+        private final boolean hedge = hedging;
+        private final long backoff = backoffNanos;
+        private final Executor target = executor;
+
+        // guarded by this
+        private final List<CompletableFuture<T>> inflight = new ArrayList<>(2);
+        private int limit = maxAttempts;
+        private int started;
+        private int running;
+        private int reserved;
+        private Throwable failure;
+        private String host;
+        private boolean won;
+
+        Call(final Supplier<? extends HttpRequest> supplier, final Function<? super HttpRequest, ? extends T> handler) {
+            this.supplier = supplier;
+            this.handler = handler;
+        }
+
+        void start() {
+            requests.incrementAndGet();
+            budget.deposit();
+            result.whenComplete((value, error) -> cancelInflight());
+            launch(false, false);
+        }
+
+        private void launch(final boolean backup, final boolean slotReserved) {
+            final HttpRequest request;
+            try {
+                request = supplier.get();
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            synchronized (this) {
+                if (slotReserved) {
+                    reserved--;
+                }
+                if (result.isDone()) {
+                    return;
+                }
+                if (started++ == 0) {
+                    host = hostKey(request);
+                    if (!IDEMPOTENT.contains(request.method())) {
+                        limit = 1;
+                    }
+                }
+                running++;
+            }
+            if (target != null) {
+                request.executor(target);
+            }
+            final long startNanos = System.nanoTime();
+            final CompletableFuture<T> attempt = request.async(() -> run(request));
+            synchronized (this) {
+                inflight.add(attempt);
+            }
+            attempt.whenComplete((value, error) -> completed(attempt, backup, startNanos, value, error));
+            if (result.isDone()) {
+                attempt.cancel(true);
+            } else if (hedge) {
+                TIMER.schedule(this::hedge, latency(host).delay(hedgePercentile, hedgeDelayNanos),
+                        TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private T run(final HttpRequest request) {
+            final int code = request.code();
+            for (int status : statuses) {
+                if (status == code) {
+                    if (reserve()) {
+                        request.disconnect();
+                        throw new RetryStatus(code);
+                    }
+                    break;
+                }
+            }
+            return handler.apply(request);
+        }
+
+        /**
+         * Claim an attempt and its budget token
+         */
+        private synchronized boolean reserve() {
+            if (result.isDone() || started + reserved >= limit) {
+                return false;
+            }
+            if (!budget.tryWithdraw()) {
+                budgetExhausted.incrementAndGet();
+                return false;
+            }
+            reserved++;
+            return true;
+        }
+
+        private void hedge() {
+            synchronized (this) {
+                if (running == 0 || !reserve()) {
+                    return;
+                }
+            }
+            hedges.incrementAndGet();
+            launch(true, true);
+        }
+
+        private void retry() {
+            retries.incrementAndGet();
+            if (backoff == 0) {
+                launch(false, true);
+            } else {
+                final long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff + 1);
+                TIMER.schedule(() -> launch(false, true), delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void completed(final CompletableFuture<T> attempt, final boolean backup, final long startNanos,
+                               final T value, final Throwable error) {
+            synchronized (this) {
+                inflight.remove(attempt);
+                running--;
+            }
+            if (error == null) {
+                latency(host).record(System.nanoTime() - startNanos);
+                synchronized (this) {
+                    if (won) {
+                        return;
+                    }
+                    won = true;
+                }
+                // counted before the caller can see the result
+                if (backup) {
+                    hedgeWins.incrementAndGet();
+                }
+                result.complete(value);
+                return;
+            }
+            if (result.isDone()) {
+                return;
+            }
+            final Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            if (cause instanceof RetryStatus) {
+                retry();
+                return;
+            }
+            if (cause instanceof HttpRequestException && reserve()) {
+                addFailure(cause);
+                retry();
+                return;
+            }
+            final Throwable last;
+            synchronized (this) {
+                addFailure(cause);
+                if (running > 0 || reserved > 0) {
+                    // another attempt may still succeed
+                    return;
+                }
+                last = failure;
+            }
+            result.completeExceptionally(last);
+        }
+
+        private synchronized void addFailure(final Throwable cause) {
+            if (failure == null) {
+                failure = cause;
+            } else if (failure != cause) {
+                failure.addSuppressed(cause);
+            }
+        }
+
+        private void cancelInflight() {
+            final List<CompletableFuture<T>> losers;
+            synchronized (this) {
+                losers = new ArrayList<>(inflight);
+            }
+            for (CompletableFuture<T> loser : losers) {
+                loser.cancel(true);
+            }
+        }
+    }
+}
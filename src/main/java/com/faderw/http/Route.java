@@ -0,0 +1,88 @@
+package com.faderw.http;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.Locale;
+
+/**
+ * Identifies the pool a connection belongs to: target host, port, scheme and
+ * the proxy used to reach it. Two requests with equal routes may share a socket.
+ */
+
+final class Route {
+
+    final String host;
+    final int port;
+    final boolean secure;
+    final Proxy proxy;
+    private final int hash;
+
+    Route(final String host, final int port, final boolean secure, final Proxy proxy) {
+        this.host = host;
+        this.port = port;
+        this.secure = secure;
+        this.proxy = proxy == null || proxy.type() == Proxy.Type.DIRECT ? null : proxy;
+        int h = host.toLowerCase(Locale.ROOT).hashCode();
+        h = 31 * h + port;
+        h = 31 * h + (secure ? 1 : 0);
+        h = 31 * h + (this.proxy == null ? 0 : this.proxy.hashCode());
+        this.hash = h;
+    }
+
+    static Route of(final URL url, final Proxy proxy) {
+        final boolean secure = "https".equalsIgnoreCase(url.getProtocol());
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return new Route(url.getHost(), port, secure, proxy);
+    }
+
+    /**
+     * @return the socket address to connect to, either the proxy or the target itself.
+     * The target is left unresolved for the pool's {@link DnsResolver}.
+     */
+    InetSocketAddress connectAddress() {
+        if (proxy != null) {
+            return (InetSocketAddress) proxy.address();
+        }
+        return InetSocketAddress.createUnresolved(host, port);
+    }
+
+    /**
+     * @return true when requests are sent in absolute-form to an HTTP proxy
+     */
+    boolean absoluteForm() {
+        return proxy != null && !secure;
+    }
+
+    /**
+     * @return the 'host[:port]' authority used for the Host header and CONNECT
+     */
+    String authority() {
+        final int defaultPort = secure ? 443 : 80;
+        return port == defaultPort ? host : host + ':' + port;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Route)) {
+            return false;
+        }
+        final Route other = (Route) o;
+        return port == other.port && secure == other.secure
+                && host.equalsIgnoreCase(other.host)
+                && (proxy == null ? other.proxy == null : proxy.equals(other.proxy));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return (secure ? "https://" : "http://") + host + ':' + port + (proxy == null ? "" : " via " + proxy);
+    }
+}
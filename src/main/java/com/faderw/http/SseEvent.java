@@ -0,0 +1,44 @@
+package com.faderw.http;
+
+/**
+ * One event of a text/event-stream, see {@link SseReader}.
+ */
+
+public final class SseEvent {
+
+    private final String id;
+    private final String event;
+    private final String data;
+
+    SseEvent(final String id, final String event, final String data) {
+        this.id = id;
+        this.event = event;
+        this.data = data;
+    }
+
+    /**
+     * @return the last event id seen on the stream, null when none was sent
+     */
+    public String id() {
+        return id;
+    }
+
+    /**
+     * @return the event type, "message" when the server did not name one
+     */
+    public String event() {
+        return event;
+    }
+
+    /**
+     * @return the data lines joined with '\n'
+     */
+    public String data() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "SseEvent{id=" + id + ", event=" + event + ", data=" + data + '}';
+    }
+}
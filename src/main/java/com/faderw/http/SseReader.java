@@ -0,0 +1,177 @@
+package com.faderw.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Parses a text/event-stream as it arrives, following the HTML "server-sent
+ * events" processing rules: comments are skipped, data lines are joined and
+ * an event is dispatched on each blank line. Lines come from a
+ * {@link RecordReader}, so a feed running for hours keeps using the same
+ * buffers.
+ * <pre>
+ *     try (SseReader events = HttpRequest.get(url).header("Accept", "text/event-stream").events()) {
+ *         while (events.hasNext()) {
+ *             final SseEvent event = events.next();
+ *         }
+ *     }
+ * </pre>
+ * Not thread safe.
+ */
+
+public class SseReader implements Iterator<SseEvent>, Closeable {
+
+    private static final String DEFAULT_EVENT = "message";
+
+    private final RecordReader lines;
+    private final StringBuilder data = new StringBuilder(256);
+    private final int maxEventLength;
+    private String eventType;
+    private String lastEventId;
+    private long retryMillis = -1;
+    private boolean firstLine = true;
+    private SseEvent next;
+
+    public SseReader(final RecordReader lines) {
+        this(lines, RecordReader.DEFAULT_MAX_RECORD_LENGTH);
+    }
+
+    /**
+     * @param maxEventLength longest data of one event, in chars
+     */
+    public SseReader(final RecordReader lines, final int maxEventLength) {
+        this.lines = lines;
+        this.maxEventLength = maxEventLength;
+    }
+
+    /**
+     * @return the next event, null at the end of the stream
+     */
+    public SseEvent readEvent() throws IOException {
+        if (next != null) {
+            final SseEvent event = next;
+            next = null;
+            return event;
+        }
+        String line;
+        while ((line = lines.readRecord()) != null) {
+            if (firstLine) {
+                firstLine = false;
+                if (line.length() > 0 && line.charAt(0) == '\uFEFF') {
+                    line = line.substring(1);
+                }
+            }
+            if (line.isEmpty()) {
+                final SseEvent event = dispatch();
+                if (event != null) {
+                    return event;
+                }
+            } else if (line.charAt(0) != ':') {
+                field(line);
+            }
+        }
+        // an event not followed by a blank line is incomplete and discarded
+        return null;
+    }
+
+    private void field(final String line) throws IOException {
+        final int colon = line.indexOf(':');
+        final String name = colon < 0 ? line : line.substring(0, colon);
+        int valueStart = colon < 0 ? line.length() : colon + 1;
+        if (valueStart < line.length() && line.charAt(valueStart) == ' ') {
+            valueStart++;
+        }
+        switch (name) {
+            case "data":
+                if (data.length() + line.length() - valueStart + 1 > maxEventLength) {
+                    throw new IOException("Event longer than " + maxEventLength + " chars");
+                }
+                data.append(line, valueStart, line.length()).append('\n');
+                break;
+            case "event":
+                eventType = line.substring(valueStart);
+                break;
+            case "id":
+                if (line.indexOf('\0', valueStart) < 0) {
+                    lastEventId = line.substring(valueStart);
+                }
+                break;
+            case "retry":
+                retry(line, valueStart);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void retry(final String line, final int start) {
+        if (start == line.length()) {
+            return;
+        }
+        long value = 0;
+        for (int i = start; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c < '0' || c > '9' || value > Long.MAX_VALUE / 10 - 9) {
+                return;
+            }
+            value = value * 10 + (c - '0');
+        }
+        retryMillis = value;
+    }
+
+    private SseEvent dispatch() {
+        if (data.length() == 0) {
+            eventType = null;
+            return null;
+        }
+        data.setLength(data.length() - 1);
+        final SseEvent event = new SseEvent(lastEventId,
+                eventType == null || eventType.isEmpty() ? DEFAULT_EVENT : eventType, data.toString());
+        data.setLength(0);
+        eventType = null;
+        return event;
+    }
+
+    /**
+     * @return the id to send as Last-Event-ID when reconnecting, null when none was sent
+     */
+    public String lastEventId() {
+        return lastEventId;
+    }
+
+    /**
+     * @return the reconnection delay the server asked for, -1 when it did not
+     */
+    public long retryMillis() {
+        return retryMillis;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readEvent();
+            } catch (IOException e) {
+                throw new HttpRequestException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public SseEvent next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final SseEvent event = next;
+        next = null;
+        return event;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lines.close();
+    }
+}
@@ -0,0 +1,210 @@
+package com.faderw.http;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel running many coarse timeouts on a single thread. Timeouts
+ * are hashed into a ring of buckets by the tick they expire on; every tick the
+ * thread visits one bucket and fires what is due in it. Scheduling and
+ * cancelling are a queue offer and a CAS, most timeouts being cancelled long
+ * before they fire. The thread parks while nothing is scheduled.
+ * <p>
+ * Timeouts fire up to one tick late, and never early.
+ */
+
+final class TimerWheel {
+
+    /**
+     * Wheel shared by every request deadline
+     */
+    static final TimerWheel DEFAULT = new TimerWheel("reach-http-deadline-timer",
+            TimeUnit.MILLISECONDS.toNanos(10), 512);
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startNanos = System.nanoTime();
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread worker;
+    private volatile boolean parked;
+    // worker thread only
+    private long lastTick = -1;
+
+    TimerWheel(final String name, final long tickNanos, final int buckets) {
+        if (Integer.bitCount(buckets) != 1) {
+            throw new IllegalArgumentException("buckets must be a power of two");
+        }
+        this.tickNanos = tickNanos;
+        this.wheel = new Bucket[buckets];
+        for (int i = 0; i < buckets; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = buckets - 1;
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Run the task once the delay has passed, on the timer thread; it must not block
+     */
+    Timeout schedule(final Runnable task, final long delayNanos) {
+        final Timeout timeout = new Timeout(task, System.nanoTime() + Math.max(0, delayNanos));
+        pending.incrementAndGet();
+        added.add(timeout);
+        if (parked) {
+            LockSupport.unpark(worker);
+        }
+        return timeout;
+    }
+
+    /**
+     * Timeouts scheduled and neither fired nor cancelled yet
+     */
+    int pendingCount() {
+        return pending.get();
+    }
+
+    private long tick(final long nanos) {
+        return (nanos - startNanos) / tickNanos;
+    }
+
+    private void run() {
+        while (true) {
+            if (pending.get() == 0) {
+                // only cancelled timeouts are left in the buckets, let them go
+                for (Bucket bucket : wheel) {
+                    bucket.head = null;
+                }
+                parked = true;
+                // a timeout scheduled before the flag was seen is in the queue
+                if (added.isEmpty() && pending.get() == 0) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+            }
+            final long now = System.nanoTime();
+            final long tick = tick(now);
+            transferAdded();
+            // after a park whole rounds may have passed, each bucket is visited at most once
+            final long from = Math.max(lastTick + 1, tick - mask);
+            for (long t = from; t <= tick; t++) {
+                wheel[(int) (t & mask)].expire(tick);
+            }
+            lastTick = tick;
+            final long sleep = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleep > 0 && pending.get() > 0) {
+                LockSupport.parkNanos(this, sleep);
+            }
+        }
+    }
+
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.state.get() != PENDING) {
+                continue;
+            }
+            // never into a bucket already passed, it would wait a whole round
+            final long tick = Math.max(tick(timeout.deadlineNanos + tickNanos - 1), lastTick + 1);
+            timeout.tick = tick;
+            wheel[(int) (tick & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * A scheduled task, cancelled at most once
+     */
+    final class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        // worker thread only
+        private long tick;
+        private Timeout previous;
+        private Timeout next;
+
+        Timeout(final Runnable task, final long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * @return true when the task will not run because of this call
+         */
+        boolean cancel() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                // dropped from its bucket when the wheel gets there
+                pending.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        void fire() {
+            if (state.compareAndSet(PENDING, EXPIRED)) {
+                pending.decrementAndGet();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // a failing task must not stop the wheel
+                }
+            }
+        }
+    }
+
+    /**
+     * Timeouts hashed to one slot, a doubly linked list touched by the worker only
+     */
+    private static final class Bucket {
+        private Timeout head;
+
+        void add(final Timeout timeout) {
+            timeout.next = head;
+            if (head != null) {
+                head.previous = timeout;
+            }
+            head = timeout;
+        }
+
+        private void remove(final Timeout timeout) {
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+        }
+
+        void expire(final long tick) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                final Timeout next = timeout.next;
+                if (timeout.state.get() == CANCELLED) {
+                    remove(timeout);
+                } else if (timeout.tick <= tick) {
+                    remove(timeout);
+                    timeout.fire();
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package com.faderw.http;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509KeyManager;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One {@link SSLContext} shared by every transport, so all connections to an
+ * upstream draw on the same session cache and reconnects resume the TLS
+ * session instead of doing a full handshake. Trust and key material are
+ * loaded once, when the context is first built; the settings cannot change
+ * afterwards.
+ * <pre>
+ *     TlsConfig tls = new TlsConfig().trustStore(trustStore)
+ *             .clientCertificate("payments.internal", clientKeys, password)
+ *             .protocols("TLSv1.3", "TLSv1.2");
+ *     HttpRequest.setTlsConfig(tls);
+ *     HttpRequest.setConnectionFactory(new PooledConnectionFactory(new ConnectionPool().tls(tls)));
+ * </pre>
+ * {@link #fullHandshakeCount()} and {@link #resumedHandshakeCount()} tell how
+ * often the cache paid off. They are updated by the JDK once a handshake
+ * completes, possibly from another thread.
+ */
+
+public class TlsConfig {
+
+    private KeyStore trustStore;
+    private final Map<String, KeyStore> clientKeyStores = new LinkedHashMap<>();
+    private final Map<String, char[]> clientKeyPasswords = new LinkedHashMap<>();
+    private String[] protocols;
+    private String[] cipherSuites;
+    private int sessionCacheSize = 20480;
+    private int sessionTimeoutSeconds = 86400;
+
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+    private volatile SSLContext context;
+    private volatile SSLSocketFactory socketFactory;
+
+    /**
+     * Set the certificates trusted for servers, the JVM default when not set
+     */
+    public synchronized TlsConfig trustStore(final KeyStore trustStore) {
+        checkNotBuilt();
+        this.trustStore = trustStore;
+        return this;
+    }
+
+    /**
+     * Present the key and certificate in the store when a server asks for a
+     * client certificate
+     *
+     * @param host the host it is presented to, null for any host without its own
+     */
+    public synchronized TlsConfig clientCertificate(final String host, final KeyStore keyStore,
+                                                    final char[] password) {
+        checkNotBuilt();
+        final String key = host != null ? host.toLowerCase(Locale.ROOT) : null;
+        clientKeyStores.put(key, keyStore);
+        clientKeyPasswords.put(key, password != null ? password.clone() : new char[0]);
+        return this;
+    }
+
+    /**
+     * Set the protocols offered, in preference order; unsupported ones are left out
+     */
+    public synchronized TlsConfig protocols(final String... protocols) {
+        checkNotBuilt();
+        this.protocols = protocols.clone();
+        return this;
+    }
+
+    /**
+     * Set the cipher suites offered, in preference order; unsupported ones are left out
+     */
+    public synchronized TlsConfig cipherSuites(final String... cipherSuites) {
+        checkNotBuilt();
+        this.cipherSuites = cipherSuites.clone();
+        return this;
+    }
+
+    /**
+     * Set how many sessions are kept for resumption, 20480 by default, 0 for no limit
+     */
+    public synchronized TlsConfig sessionCacheSize(final int sessionCacheSize) {
+        checkNotBuilt();
+        if (sessionCacheSize < 0) {
+            throw new IllegalArgumentException("sessionCacheSize < 0");
+        }
+        this.sessionCacheSize = sessionCacheSize;
+        return this;
+    }
+
+    /**
+     * Set how long a session may be resumed, in seconds, 24 hours by default
+     */
+    public synchronized TlsConfig sessionTimeout(final int sessionTimeoutSeconds) {
+        checkNotBuilt();
+        if (sessionTimeoutSeconds < 0) {
+            throw new IllegalArgumentException("sessionTimeout < 0");
+        }
+        this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+        return this;
+    }
+
+    private void checkNotBuilt() {
+        if (context != null) {
+            throw new IllegalStateException("TlsConfig is already in use");
+        }
+    }
+
+    /**
+     * @return the shared context, built on the first call
+     * @throws IllegalStateException when the key or trust material can't be loaded
+     */
+    public SSLContext sslContext() {
+        SSLContext built = context;
+        if (built == null) {
+            synchronized (this) {
+                built = context;
+                if (built == null) {
+                    built = build();
+                    socketFactory = new ConfiguredSocketFactory(built.getSocketFactory(),
+                            supported(protocols, built.getSupportedSSLParameters().getProtocols(), "protocols"),
+                            supported(cipherSuites, built.getSupportedSSLParameters().getCipherSuites(),
+                                    "cipher suites"));
+                    context = built;
+                }
+            }
+        }
+        return built;
+    }
+
+    /**
+     * @return a socket factory of the shared context applying the protocol
+     * and cipher preferences and counting handshakes
+     */
+    public SSLSocketFactory socketFactory() {
+        sslContext();
+        return socketFactory;
+    }
+
+    public long fullHandshakeCount() {
+        return fullHandshakes.get();
+    }
+
+    public long resumedHandshakeCount() {
+        return resumedHandshakes.get();
+    }
+
+    private SSLContext build() {
+        try {
+            TrustManager[] trustManagers = null;
+            if (trustStore != null) {
+                final TrustManagerFactory trust = TrustManagerFactory.getInstance(
+                        TrustManagerFactory.getDefaultAlgorithm());
+                trust.init(trustStore);
+                trustManagers = trust.getTrustManagers();
+            }
+            KeyManager[] keyManagers = null;
+            if (!clientKeyStores.isEmpty()) {
+                final List<String> hosts = new ArrayList<>();
+                final List<X509KeyManager> managers = new ArrayList<>();
+                for (Map.Entry<String, KeyStore> entry : clientKeyStores.entrySet()) {
+                    final KeyManagerFactory keys = KeyManagerFactory.getInstance(
+                            KeyManagerFactory.getDefaultAlgorithm());
+                    keys.init(entry.getValue(), clientKeyPasswords.get(entry.getKey()));
+                    for (KeyManager manager : keys.getKeyManagers()) {
+                        if (manager instanceof X509KeyManager) {
+                            hosts.add(entry.getKey());
+                            managers.add((X509KeyManager) manager);
+                        }
+                    }
+                }
+                keyManagers = new KeyManager[]{new HostKeyManager(hosts, managers)};
+            }
+            final SSLContext built = SSLContext.getInstance("TLS");
+            built.init(keyManagers, trustManagers, null);
+            final SSLSessionContext sessions = built.getClientSessionContext();
+            sessions.setSessionCacheSize(sessionCacheSize);
+            sessions.setSessionTimeout(sessionTimeoutSeconds);
+            return built;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot build the TLS context", e);
+        }
+    }
+
+    private static String[] supported(final String[] wanted, final String[] available, final String what) {
+        if (wanted == null) {
+            return null;
+        }
+        final List<String> availableList = Arrays.asList(available);
+        final List<String> kept = new ArrayList<>();
+        for (String name : wanted) {
+            if (availableList.contains(name)) {
+                kept.add(name);
+            }
+        }
+        if (kept.isEmpty()) {
+            throw new IllegalStateException("None of the " + what + " " + Arrays.toString(wanted) + " is supported");
+        }
+        return kept.toArray(new String[0]);
+    }
+
+    /**
+     * A session created before the handshake started was resumed from the cache
+     */
+    void handshakeCompleted(final SSLSession session, final long startMillis) {
+        if (session.getCreationTime() < startMillis) {
+            resumedHandshakes.incrementAndGet();
+        } else {
+            fullHandshakes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Applies the preferences to every socket and watches its handshake
+     */
+    private final class ConfiguredSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+        private final String[] protocols;
+        private final String[] cipherSuites;
+
+        ConfiguredSocketFactory(final SSLSocketFactory delegate, final String[] protocols,
+                                final String[] cipherSuites) {
+            this.delegate = delegate;
+            this.protocols = protocols;
+            this.cipherSuites = cipherSuites;
+        }
+
+        private Socket configure(final Socket socket) {
+            if (socket instanceof SSLSocket) {
+                final SSLSocket ssl = (SSLSocket) socket;
+                if (protocols != null || cipherSuites != null) {
+                    final SSLParameters parameters = ssl.getSSLParameters();
+                    if (protocols != null) {
+                        parameters.setProtocols(protocols);
+                    }
+                    if (cipherSuites != null) {
+                        parameters.setCipherSuites(cipherSuites);
+                        parameters.setUseCipherSuitesOrder(true);
+                    }
+                    ssl.setSSLParameters(parameters);
+                }
+                final long startMillis = System.currentTimeMillis();
+                ssl.addHandshakeCompletedListener(event -> handshakeCompleted(event.getSession(), startMillis));
+            }
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return cipherSuites != null ? cipherSuites.clone() : delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return configure(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(final Socket socket, final String host, final int port,
+                                   final boolean autoClose) throws IOException {
+            return configure(delegate.createSocket(socket, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(final String host, final int port) throws IOException {
+            return configure(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(final String host, final int port, final InetAddress localHost,
+                                   final int localPort) throws IOException {
+            return configure(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(final InetAddress host, final int port) throws IOException {
+            return configure(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(final InetAddress address, final int port,
+                                   final InetAddress localAddress, final int localPort)
+                throws IOException {
+            return configure(delegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+
+    /**
+     * Picks the client certificate configured for the host being connected to.
+     * Aliases are prefixed with the index of the manager holding them.
+     */
+    private static final class HostKeyManager extends X509ExtendedKeyManager {
+        private final List<String> hosts;
+        private final List<X509KeyManager> managers;
+
+        HostKeyManager(final List<String> hosts, final List<X509KeyManager> managers) {
+            this.hosts = hosts;
+            this.managers = managers;
+        }
+
+        private String choose(final String[] keyTypes, final Principal[] issuers, final String peerHost,
+                              final Socket socket) {
+            final String host = peerHost != null ? peerHost.toLowerCase(Locale.ROOT) : null;
+            String alias = choose(host, keyTypes, issuers, socket);
+            if (alias == null && host != null) {
+                alias = choose(null, keyTypes, issuers, socket);
+            }
+            return alias;
+        }
+
+        private String choose(final String host, final String[] keyTypes, final Principal[] issuers,
+                              final Socket socket) {
+            for (int i = 0; i < managers.size(); i++) {
+                final String managerHost = hosts.get(i);
+                if (host == null ? managerHost == null : host.equals(managerHost)) {
+                    final String alias = managers.get(i).chooseClientAlias(keyTypes, issuers, socket);
+                    if (alias != null) {
+                        return i + "/" + alias;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private static String peerHost(final Socket socket) {
+            if (socket instanceof SSLSocket) {
+                final SSLSession handshake = ((SSLSocket) socket).getHandshakeSession();
+                if (handshake != null && handshake.getPeerHost() != null) {
+                    return handshake.getPeerHost();
+                }
+            }
+            // the name the socket was opened with, never a reverse lookup inside the handshake
+            return socket != null && socket.getRemoteSocketAddress() instanceof InetSocketAddress
+                    ? ((InetSocketAddress) socket.getRemoteSocketAddress()).getHostString() : null;
+        }
+
+        private X509KeyManager manager(final String alias) {
+            final int slash = alias != null ? alias.indexOf('/') : -1;
+            if (slash <= 0) {
+                return null;
+            }
+            try {
+                return managers.get(Integer.parseInt(alias.substring(0, slash)));
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String chooseClientAlias(final String[] keyTypes, final Principal[] issuers, final Socket socket) {
+            return choose(keyTypes, issuers, peerHost(socket), socket);
+        }
+
+        @Override
+        public String chooseEngineClientAlias(final String[] keyTypes, final Principal[] issuers,
+                                              final SSLEngine engine) {
+            return choose(keyTypes, issuers, engine != null ? engine.getPeerHost() : null, null);
+        }
+
+        @Override
+        public X509Certificate[] getCertificateChain(final String alias) {
+            final X509KeyManager manager = manager(alias);
+            return manager != null ? manager.getCertificateChain(alias.substring(alias.indexOf('/') + 1)) : null;
+        }
+
+        @Override
+        public PrivateKey getPrivateKey(final String alias) {
+            final X509KeyManager manager = manager(alias);
+            return manager != null ? manager.getPrivateKey(alias.substring(alias.indexOf('/') + 1)) : null;
+        }
+
+        @Override
+        public String[] getClientAliases(final String keyType, final Principal[] issuers) {
+            final List<String> aliases = new ArrayList<>();
+            for (int i = 0; i < managers.size(); i++) {
+                final String[] found = managers.get(i).getClientAliases(keyType, issuers);
+                if (found != null) {
+                    for (String alias : found) {
+                        aliases.add(i + "/" + alias);
+                    }
+                }
+            }
+            return aliases.isEmpty() ? null : aliases.toArray(new String[0]);
+        }
+
+        @Override
+        public String[] getServerAliases(final String keyType, final Principal[] issuers) {
+            return null;
+        }
+
+        @Override
+        public String chooseServerAlias(final String keyType, final Principal[] issuers, final Socket socket) {
+            return null;
+        }
+    }
+}
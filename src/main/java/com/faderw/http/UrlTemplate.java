@@ -0,0 +1,150 @@
+package com.faderw.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * URL with {@code {name}} placeholders, parsed once and expanded many times.
+ * Values are percent-encoded like RFC 6570 simple expansion, so only
+ * unreserved characters stay as they are; the literal parts are copied
+ * unchanged.
+ * <pre>
+ *     static final UrlTemplate USER = UrlTemplate.compile("https://api.example.com/users/{id}?fields={fields}");
+ *
+ *     HttpRequest.get(USER.expand(42, "name,email")).body();
+ * </pre>
+ * Instances are immutable and safe to share between threads.
+ */
+
+public final class UrlTemplate {
+
+    private final String template;
+    private final String[] literals;
+    private final int[] slots;
+    private final List<String> variables;
+    private final int estimatedLength;
+
+    private UrlTemplate(final String template, final String[] literals, final int[] slots,
+                        final List<String> variables) {
+        this.template = template;
+        this.literals = literals;
+        this.slots = slots;
+        this.variables = variables;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.estimatedLength = length + 16 * slots.length;
+    }
+
+    /**
+     * @throws IllegalArgumentException on an unclosed or empty placeholder
+     */
+    public static UrlTemplate compile(final String template) {
+        final List<String> literals = new ArrayList<>();
+        final List<String> variables = new ArrayList<>();
+        final List<Integer> slots = new ArrayList<>();
+        int start = 0;
+        int open;
+        while ((open = template.indexOf('{', start)) >= 0) {
+            final int close = template.indexOf('}', open + 1);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed '{' at " + open + " in " + template);
+            }
+            final String name = template.substring(open + 1, close).trim();
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Empty placeholder at " + open + " in " + template);
+            }
+            literals.add(template.substring(start, open));
+            int slot = variables.indexOf(name);
+            if (slot < 0) {
+                slot = variables.size();
+                variables.add(name);
+            }
+            slots.add(slot);
+            start = close + 1;
+        }
+        literals.add(template.substring(start));
+
+        final int[] slotArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++) {
+            slotArray[i] = slots.get(i);
+        }
+        return new UrlTemplate(template, literals.toArray(new String[0]), slotArray,
+                Collections.unmodifiableList(variables));
+    }
+
+    /**
+     * @return the distinct variable names, in order of first appearance
+     */
+    public List<String> variables() {
+        return variables;
+    }
+
+    /**
+     * @param values one per variable in the order of {@link #variables()}, null expands to nothing
+     */
+    public String expand(final Object... values) {
+        return expandTo(new StringBuilder(estimatedLength), values).toString();
+    }
+
+    public String expand(final Map<String, ?> values) {
+        return expandTo(new StringBuilder(estimatedLength), values).toString();
+    }
+
+    /**
+     * Append the expanded URL to a builder the caller reuses
+     */
+    public StringBuilder expandTo(final StringBuilder out, final Object... values) {
+        if (values.length != variables.size()) {
+            throw new IllegalArgumentException("Expected " + variables.size() + " values for " + variables
+                    + " but got " + values.length);
+        }
+        out.append(literals[0]);
+        for (int i = 0; i < slots.length; i++) {
+            appendValue(values[slots[i]], out);
+            out.append(literals[i + 1]);
+        }
+        return out;
+    }
+
+    public StringBuilder expandTo(final StringBuilder out, final Map<String, ?> values) {
+        out.append(literals[0]);
+        for (int i = 0; i < slots.length; i++) {
+            appendValue(values.get(variables.get(slots[i])), out);
+            out.append(literals[i + 1]);
+        }
+        return out;
+    }
+
+    private static void appendValue(final Object value, final StringBuilder out) {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof Integer || value instanceof Long) {
+            // digits and '-' are unreserved
+            out.append(((Number) value).longValue());
+        } else if (value instanceof CharSequence) {
+            PercentEncoder.encode((CharSequence) value, PercentEncoder.UNRESERVED, out);
+        } else {
+            PercentEncoder.encode(value.toString(), PercentEncoder.UNRESERVED, out);
+        }
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof UrlTemplate && template.equals(((UrlTemplate) o).template);
+    }
+
+    @Override
+    public int hashCode() {
+        return template.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
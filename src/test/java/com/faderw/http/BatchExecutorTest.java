@@ -0,0 +1,175 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchExecutorTest {
+
+    private HttpServer server;
+    private int port;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final Map<String, AtomicInteger> runningByHost = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> maxByHost = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 100);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            final String host = exchange.getRequestHeaders().getFirst("Host");
+            final AtomicInteger hostRunning = runningByHost.computeIfAbsent(host, h -> new AtomicInteger());
+            final AtomicInteger hostMax = maxByHost.computeIfAbsent(host, h -> new AtomicInteger());
+            hostMax.accumulateAndGet(hostRunning.incrementAndGet(), Math::max);
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException ignored) {
+            }
+            running.decrementAndGet();
+            hostRunning.decrementAndGet();
+            final byte[] body = exchange.getRequestURI().getPath().getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            final OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            exchange.close();
+        });
+        server.start();
+        port = server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * Requests alternating between two host names of the same server, created
+     * only when the executor pulls them
+     */
+    private Iterable<HttpRequest> requests(final int count, final AtomicInteger created) {
+        return () -> new Iterator<HttpRequest>() {
+            int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public HttpRequest next() {
+                created.incrementAndGet();
+                final String host = next % 3 == 0 ? "localhost" : "127.0.0.1";
+                return HttpRequest.get("http://" + host + ":" + port + "/" + next++);
+            }
+        };
+    }
+
+    @Test
+    public void respectsGlobalAndPerHostLimits() {
+        final Set<String> bodies = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final BatchStats stats = new BatchExecutor().maxConcurrency(6).maxConcurrencyPerHost(3)
+                .run(requests(120, new AtomicInteger()), request -> request.body("UTF-8"), result -> {
+                    assertTrue(result.isSuccess());
+                    bodies.add(result.value());
+                });
+        assertEquals(120, bodies.size());
+        assertEquals(120, stats.completed());
+        assertEquals(0, stats.failed());
+        assertTrue(stats.isFinished());
+        assertTrue(stats.throughput() > 0);
+        assertEquals(120, stats.latency().count());
+        assertTrue(maxRunning.get() <= 6);
+        for (AtomicInteger max : maxByHost.values()) {
+            assertTrue(max.get() <= 3);
+        }
+        assertEquals(2, maxByHost.size());
+    }
+
+    @Test
+    public void pullsSourceLazily() {
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger maxOutstanding = new AtomicInteger();
+        new BatchExecutor().maxConcurrency(4).maxConcurrencyPerHost(2).maxPending(4)
+                .run(requests(200, created), HttpRequest::code, result -> {
+                    maxOutstanding.accumulateAndGet(created.get() - completed.get(), Math::max);
+                    completed.incrementAndGet();
+                });
+        assertEquals(200, completed.get());
+        // running plus waiting for a busy host, never the whole batch
+        assertTrue("outstanding " + maxOutstanding.get(), maxOutstanding.get() <= 4 + 4 + 1);
+    }
+
+    @Test
+    public void streamsResultsInCompletionOrder() {
+        final List<String> bodies = new ArrayList<>();
+        try (Batch<String> batch = new BatchExecutor().maxConcurrency(8)
+                .stream(requests(50, new AtomicInteger()), request -> request.body("UTF-8"))) {
+            while (batch.hasNext()) {
+                bodies.add(batch.next().value());
+            }
+            assertEquals(50, batch.stats().completed());
+        }
+        assertEquals(50, new HashSet<>(bodies).size());
+    }
+
+    @Test
+    public void closingStopsTheBatch() {
+        final AtomicInteger created = new AtomicInteger();
+        final Batch<Integer> batch = new BatchExecutor().maxConcurrency(2).maxConcurrencyPerHost(2)
+                .stream(requests(10_000, created), HttpRequest::code);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(200, (int) batch.next().value());
+        }
+        batch.close();
+        assertFalse(batch.hasNext());
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!batch.stats().isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertTrue(batch.stats().isFinished());
+        assertTrue(created.get() < 100);
+    }
+
+    @Test
+    public void reportsFailures() throws IOException {
+        final int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = socket.getLocalPort();
+        }
+        final List<HttpRequest> requests = new ArrayList<>();
+        requests.add(HttpRequest.get("http://127.0.0.1:" + port + "/ok"));
+        requests.add(HttpRequest.get("http://127.0.0.1:" + closedPort + "/"));
+        final List<BatchResult<Integer>> results = Collections.synchronizedList(new ArrayList<>());
+        final BatchStats stats = new BatchExecutor().run(requests, HttpRequest::code, results::add);
+        assertEquals(1, stats.succeeded());
+        assertEquals(1, stats.failed());
+        for (BatchResult<Integer> result : results) {
+            if (!result.isSuccess()) {
+                assertTrue(result.error() instanceof HttpRequestException);
+                assertNull(result.value());
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.faderw.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    private static byte[] random(final int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void reusesReleasedChunks() {
+        final BufferPool pool = new BufferPool(1024, 2, false);
+        final ByteBuffer first = pool.acquire();
+        pool.release(first);
+        assertSame(first, pool.acquire());
+        pool.release(ByteBuffer.allocate(512));
+        assertEquals(0, pool.pooledCount());
+        assertEquals(1, pool.allocatedCount());
+    }
+
+    @Test
+    public void presizedBodyIsReturnedWithoutCopy() throws IOException {
+        final byte[] data = random(5000);
+        final BufferPool pool = new BufferPool(1024, 4, false);
+        final BodyAccumulator accumulator = new BodyAccumulator(pool, data.length)
+                .readFrom(new ByteArrayInputStream(data));
+        assertArrayEquals(data, accumulator.toByteArray());
+        assertSame(accumulator.toByteArray(), accumulator.toByteArray());
+        assertEquals(0, pool.allocatedCount());
+    }
+
+    @Test
+    public void unknownLengthUsesPooledChunks() throws IOException {
+        final byte[] data = random(5000);
+        final BufferPool pool = new BufferPool(1024, 8, false);
+        for (int i = 0; i < 3; i++) {
+            final BodyAccumulator accumulator = new BodyAccumulator(pool, -1)
+                    .readFrom(new ByteArrayInputStream(data));
+            assertArrayEquals(data, accumulator.toByteArray());
+            accumulator.release();
+        }
+        assertEquals(5, pool.allocatedCount());
+        assertEquals(5, pool.pooledCount());
+    }
+
+    @Test
+    public void directPoolIsNotUsedForArrays() throws IOException {
+        final byte[] data = random(5000);
+        final BufferPool pool = new BufferPool(1024, 8, true);
+        final BodyAccumulator accumulator = new BodyAccumulator(pool, -1).readFrom(new ByteArrayInputStream(data));
+        assertArrayEquals(data, accumulator.toByteArray());
+        accumulator.release();
+        assertEquals(0, pool.allocatedCount());
+    }
+
+    @Test
+    public void hugeAnnouncedLengthIsNotAllocatedUpFront() throws IOException {
+        final byte[] data = random(3000);
+        final BodyAccumulator accumulator = new BodyAccumulator(new BufferPool(1024, 8, false), 2000000000L)
+                .readFrom(new ByteArrayInputStream(data));
+        assertArrayEquals(data, accumulator.toByteArray());
+        accumulator.release();
+    }
+
+    @Test
+    public void lengthMismatchStillReadsEverything() throws IOException {
+        final byte[] data = random(3000);
+        final BufferPool pool = new BufferPool(1024, 8, false);
+        assertArrayEquals(data, new BodyAccumulator(pool, 1000).readFrom(new ByteArrayInputStream(data)).toByteArray());
+        final byte[] shortRead = new BodyAccumulator(pool, 4000).readFrom(new ByteArrayInputStream(data)).toByteArray();
+        assertArrayEquals(data, shortRead);
+    }
+}
@@ -0,0 +1,137 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CachingDnsResolverTest {
+
+    private static InetAddress address(final int last) throws UnknownHostException {
+        return InetAddress.getByAddress("reach.test", new byte[]{10, 0, 0, (byte) last});
+    }
+
+    private static final class CountingResolver implements DnsResolver {
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile List<InetAddress> answer;
+
+        @Override
+        public List<InetAddress> resolve(final String host) throws UnknownHostException {
+            lookups.incrementAndGet();
+            if (answer == null) {
+                throw new UnknownHostException(host);
+            }
+            return answer;
+        }
+    }
+
+    @Test
+    public void cachesAndRotatesAddresses() throws UnknownHostException {
+        final CountingResolver delegate = new CountingResolver();
+        delegate.answer = Arrays.asList(address(1), address(2), address(3));
+        final CachingDnsResolver resolver = new CachingDnsResolver(delegate);
+
+        final Set<InetAddress> firsts = new HashSet<>();
+        for (int i = 0; i < 6; i++) {
+            final List<InetAddress> addresses = resolver.resolve("Reach.Test");
+            assertEquals(3, addresses.size());
+            assertEquals(3, new HashSet<>(addresses).size());
+            firsts.add(addresses.get(0));
+        }
+        assertEquals(3, firsts.size());
+        assertEquals(1, delegate.lookups.get());
+        assertEquals(1, resolver.missCount());
+        assertEquals(5, resolver.hitCount());
+    }
+
+    @Test
+    public void expiresAfterTtl() throws Exception {
+        final CountingResolver delegate = new CountingResolver();
+        delegate.answer = Arrays.asList(address(1));
+        final CachingDnsResolver resolver = new CachingDnsResolver(delegate)
+                .ttl(50, TimeUnit.MILLISECONDS).refreshAhead(0);
+        resolver.resolve("reach.test");
+        Thread.sleep(80);
+        resolver.resolve("reach.test");
+        assertEquals(2, delegate.lookups.get());
+        assertEquals(0, resolver.refreshCount());
+    }
+
+    @Test
+    public void refreshesHotHostsInBackground() throws Exception {
+        final CountingResolver delegate = new CountingResolver();
+        delegate.answer = Arrays.asList(address(1));
+        final CachingDnsResolver resolver = new CachingDnsResolver(delegate)
+                .ttl(2, TimeUnit.SECONDS).refreshAhead(0.9);
+        assertEquals(address(1), resolver.resolve("reach.test").get(0));
+
+        delegate.answer = Arrays.asList(address(2));
+        Thread.sleep(300);
+        // inside the refresh window: answered from cache, refreshed behind the scenes
+        assertEquals(address(1), resolver.resolve("reach.test").get(0));
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (resolver.refreshCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, resolver.refreshCount());
+        assertEquals(address(2), resolver.resolve("reach.test").get(0));
+        assertEquals(2, delegate.lookups.get());
+        assertEquals(1, resolver.missCount());
+    }
+
+    @Test
+    public void remembersFailures() {
+        final CountingResolver delegate = new CountingResolver();
+        final CachingDnsResolver resolver = new CachingDnsResolver(delegate);
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.resolve("missing.test");
+                fail();
+            } catch (UnknownHostException expected) {
+                assertEquals("missing.test", expected.getMessage());
+            }
+        }
+        assertEquals(1, delegate.lookups.get());
+    }
+
+    @Test
+    public void overridesFeedThePool() throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            final byte[] body = exchange.getRequestHeaders().getFirst("Host").getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            final OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            exchange.close();
+        });
+        server.start();
+        final int port = server.getAddress().getPort();
+        // 127.0.0.2 refuses the connection, the pool falls through to the next address
+        final CachingDnsResolver resolver = new CachingDnsResolver(host -> {
+            throw new UnknownHostException(host);
+        }).override("api.reach.test", InetAddress.getByName("127.0.0.2"), InetAddress.getByName("127.0.0.1"));
+        final PooledConnectionFactory factory = new PooledConnectionFactory(new ConnectionPool().dnsResolver(resolver));
+        HttpRequest.setConnectionFactory(factory);
+        try {
+            assertEquals("api.reach.test:" + port,
+                    HttpRequest.get("http://api.reach.test:" + port + "/").body("UTF-8"));
+            assertEquals(1, factory.getPool().createdCount());
+        } finally {
+            HttpRequest.setConnectionFactory(null);
+            factory.getPool().close();
+            server.stop(0);
+        }
+    }
+}
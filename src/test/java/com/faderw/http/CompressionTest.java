@@ -0,0 +1,153 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class CompressionTest {
+
+    private static final String TEXT;
+
+    static {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            builder.append("{\"id\":").append(i).append(",\"name\":\"item-").append(i).append("\"}\n");
+        }
+        TEXT = builder.toString();
+    }
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/gzip", exchange -> {
+            final String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (accept == null || !accept.contains("gzip")) {
+                respond(exchange, TEXT.getBytes(StandardCharsets.UTF_8), null);
+                return;
+            }
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(TEXT.getBytes(StandardCharsets.UTF_8));
+            }
+            respond(exchange, compressed.toByteArray(), "gzip");
+        });
+        server.createContext("/deflate", exchange -> {
+            final String query = exchange.getRequestURI().getQuery();
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (DeflaterOutputStream deflate = new DeflaterOutputStream(compressed, new Deflater(6, "raw".equals(query)))) {
+                deflate.write(TEXT.getBytes(StandardCharsets.UTF_8));
+            }
+            if ("chunked".equals(query)) {
+                exchange.getResponseHeaders().set("Content-Encoding", "deflate");
+                exchange.sendResponseHeaders(200, 0);
+                exchange.getResponseBody().write(compressed.toByteArray());
+                exchange.close();
+                return;
+            }
+            respond(exchange, compressed.toByteArray(), "deflate");
+        });
+        server.createContext("/upload", exchange -> {
+            final String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            InputStream in = exchange.getRequestBody();
+            if ("gzip".equals(encoding)) {
+                in = new GZIPInputStream(in);
+            }
+            final byte[] body = Exchanges.readAll(in);
+            respond(exchange, ((encoding != null ? encoding : "identity") + "|" + body.length)
+                    .getBytes(StandardCharsets.UTF_8), null);
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void decodesGzipResponses() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(TEXT, HttpRequest.get(baseUrl + "/gzip").acceptGzipEncoding().body("UTF-8"));
+        }
+        assertEquals(TEXT, HttpRequest.get(baseUrl + "/gzip").body("UTF-8"));
+    }
+
+    @Test
+    public void decodesDeflateResponses() {
+        assertEquals(TEXT, HttpRequest.get(baseUrl + "/deflate").acceptGzipEncoding().body("UTF-8"));
+        assertEquals(TEXT, HttpRequest.get(baseUrl + "/deflate?raw").acceptGzipEncoding().body("UTF-8"));
+    }
+
+    @Test
+    public void decodesOverPooledTransport() {
+        final PooledConnectionFactory factory = new PooledConnectionFactory();
+        HttpRequest.setConnectionFactory(factory);
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(TEXT, HttpRequest.get(baseUrl + "/gzip").acceptGzipEncoding().body("UTF-8"));
+            }
+            assertEquals(1, factory.getPool().createdCount());
+        } finally {
+            HttpRequest.setConnectionFactory(null);
+            factory.getPool().close();
+        }
+    }
+
+    @Test
+    public void chunkedDeflateGivesPooledConnectionBack() {
+        final PooledConnectionFactory factory = new PooledConnectionFactory(
+                new ConnectionPool().maxTotalPerRoute(1).acquireTimeout(1000));
+        HttpRequest.setConnectionFactory(factory);
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(TEXT, HttpRequest.get(baseUrl + "/deflate?chunked").acceptGzipEncoding().body("UTF-8"));
+            }
+            assertEquals(0, factory.getPool().leasedCount());
+            assertEquals(1, factory.getPool().createdCount());
+        } finally {
+            HttpRequest.setConnectionFactory(null);
+            factory.getPool().close();
+        }
+    }
+
+    @Test
+    public void compressesLargeRequestBodies() {
+        final int size = TEXT.getBytes(StandardCharsets.UTF_8).length;
+        assertEquals("gzip|" + size, HttpRequest.post(baseUrl + "/upload").compress(1024).send(TEXT).body("UTF-8"));
+        assertEquals("gzip|" + size, HttpRequest.post(baseUrl + "/upload").compress(1024).json(TEXT).body("UTF-8"));
+        assertEquals("identity|5", HttpRequest.post(baseUrl + "/upload").compress(1024).send("small").body("UTF-8"));
+        final String value = TEXT.replaceAll("[^a-z0-9]", "");
+        assertEquals("gzip|" + (value.length() + 2), HttpRequest.post(baseUrl + "/upload").compress(1024).streaming()
+                .form(Collections.singletonMap("q", value)).body("UTF-8"));
+    }
+
+    private static void respond(final HttpExchange exchange, final byte[] body, final String encoding) throws IOException {
+        if (encoding != null) {
+            exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        exchange.close();
+    }
+}
@@ -0,0 +1,123 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyLimiterTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final Semaphore arrived = new Semaphore(0);
+    private HttpServer server;
+    private String url;
+    private String host;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            arrived.release();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        host = "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        release.countDown();
+        server.stop(0);
+        HttpRequest.setConnectionFactory(null);
+    }
+
+    @Test
+    public void rejectsOverTheLimit() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter().initialLimit(2);
+        HttpRequest.setConnectionFactory(new LimitingConnectionFactory(limiter));
+
+        final List<CompletableFuture<Integer>> running = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            running.add(HttpRequest.get(url).codeAsync());
+        }
+        assertTrue(arrived.tryAcquire(2, 5, TimeUnit.SECONDS));
+        assertEquals(2, limiter.inFlight(host));
+        try {
+            HttpRequest.get(url).code();
+            fail();
+        } catch (HttpRequestException e) {
+            assertTrue(e.getCause() instanceof ConcurrencyLimitException);
+        }
+        assertEquals(1, limiter.rejectedCount(host));
+        assertEquals(1.0 / 3, limiter.rejectionRate(host), 1e-9);
+
+        release.countDown();
+        for (CompletableFuture<Integer> future : running) {
+            assertEquals(Integer.valueOf(200), future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, limiter.inFlight(host));
+    }
+
+    @Test
+    public void queuesForAFreeSlot() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter().initialLimit(1).maxWait(5, TimeUnit.SECONDS);
+        HttpRequest.setConnectionFactory(new LimitingConnectionFactory(limiter));
+
+        final CompletableFuture<Integer> first = HttpRequest.get(url).codeAsync();
+        assertTrue(arrived.tryAcquire(1, 5, TimeUnit.SECONDS));
+        final CompletableFuture<Integer> second = HttpRequest.get(url).codeAsync();
+        // still waiting for the slot of the first request
+        assertFalse(arrived.tryAcquire(1, 200, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertEquals(Integer.valueOf(200), first.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(200), second.get(5, TimeUnit.SECONDS));
+        assertEquals(0, limiter.rejectedCount(host));
+    }
+
+    @Test
+    public void growsWhenBusyAndBacksOffOnDrops() throws IOException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter().initialLimit(4).backoffRatio(0.5)
+                .latencyTolerance(1000);
+        final URL target = new URL("http://example.com/");
+        for (int round = 0; round < 3; round++) {
+            final List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+            for (int i = 0; i < limiter.limit("example.com:80"); i++) {
+                permits.add(limiter.acquire(target));
+            }
+            for (ConcurrencyLimiter.Permit permit : permits) {
+                permit.onResponse(false);
+                permit.release();
+            }
+        }
+        // a little under one more slot per round once half the limit is in use
+        assertEquals(5, limiter.limit("example.com:80"));
+
+        final ConcurrencyLimiter.Permit permit = limiter.acquire(target);
+        permit.onResponse(true);
+        permit.release();
+        assertEquals(2, limiter.limit("example.com:80"));
+        assertEquals(0, limiter.inFlight("example.com:80"));
+    }
+}
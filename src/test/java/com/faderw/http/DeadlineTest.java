@@ -0,0 +1,169 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DeadlineTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger hits = new AtomicInteger();
+    private HttpServer server;
+    private String url;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        // a byte every 50ms, never slow enough for a read timeout
+        server.createContext("/trickle", exchange -> {
+            hits.incrementAndGet();
+            exchange.sendResponseHeaders(200, 0);
+            final OutputStream out = exchange.getResponseBody();
+            try {
+                for (int i = 0; i < 100 && release.getCount() > 0; i++) {
+                    out.write('x');
+                    out.flush();
+                    Thread.sleep(50);
+                }
+            } catch (IOException | InterruptedException ignored) {
+                // client went away
+            }
+            exchange.close();
+        });
+        server.createContext("/stuck", exchange -> {
+            hits.incrementAndGet();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void deadlineCoversBodyRead() {
+        final long start = System.nanoTime();
+        try {
+            HttpRequest.get(url + "/trickle").deadline(300, TimeUnit.MILLISECONDS).body("UTF-8");
+            fail("Body read past the deadline");
+        } catch (HttpRequestException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+    }
+
+    @Test
+    public void cancelFromAnotherThread() throws InterruptedException {
+        final HttpRequest request = HttpRequest.get(url + "/stuck");
+        final Thread canceller = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ignored) {
+                return;
+            }
+            request.cancel();
+        });
+        canceller.start();
+        final long start = System.nanoTime();
+        try {
+            request.code();
+            fail("Cancelled request returned");
+        } catch (HttpRequestException expected) {
+            assertTrue(request.isCancelled());
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        canceller.join();
+
+        try {
+            request.code();
+            fail("Cancelled request ran again");
+        } catch (HttpRequestException expected) {
+            // stays cancelled
+        }
+    }
+
+    @Test
+    public void deadlineEndsWithTheExchange() throws InterruptedException {
+        release.countDown();
+        final HttpRequest request = HttpRequest.get(url + "/stuck").deadline(100, TimeUnit.MILLISECONDS);
+        assertEquals(204, request.code());
+        Thread.sleep(250);
+        assertFalse(request.isCancelled());
+    }
+
+    @Test
+    public void nestedCallsInheritRemainingBudget() {
+        assertNull(Deadline.current());
+        try (Deadline.Scope outer = Deadline.after(500, TimeUnit.MILLISECONDS).attach()) {
+            // a later deadline attached inside does not extend the caller's
+            try (Deadline.Scope inner = Deadline.after(1, TimeUnit.MINUTES).attach()) {
+                final HttpRequest request = HttpRequest.get(url + "/stuck");
+                assertTrue(request.deadline().remaining(TimeUnit.MILLISECONDS) <= 500);
+                try {
+                    request.code();
+                    fail("Nested request outlived the caller's deadline");
+                } catch (HttpRequestException e) {
+                    assertTrue(e.getCause() instanceof SocketTimeoutException);
+                }
+            }
+            assertNotNull(Deadline.current());
+        }
+        assertNull(Deadline.current());
+        assertNull(HttpRequest.get(url).deadline());
+    }
+
+    @Test
+    public void expiredDeadlineFailsBeforeConnecting() {
+        final Deadline passed = Deadline.after(0, TimeUnit.MILLISECONDS);
+        try {
+            HttpRequest.get(url + "/stuck").deadline(passed).code();
+            fail("Request started after its deadline");
+        } catch (HttpRequestException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        assertEquals(0, hits.get());
+    }
+
+    @Test
+    public void wheelFiresDueTimeoutsOnly() throws InterruptedException {
+        final TimerWheel wheel = new TimerWheel("test-wheel", TimeUnit.MILLISECONDS.toNanos(5), 8);
+        final CountDownLatch fired = new CountDownLatch(2);
+        final AtomicInteger cancelledRuns = new AtomicInteger();
+        final long start = System.nanoTime();
+        wheel.schedule(fired::countDown, TimeUnit.MILLISECONDS.toNanos(20));
+        // longer than one round of the wheel
+        wheel.schedule(fired::countDown, TimeUnit.MILLISECONDS.toNanos(100));
+        final TimerWheel.Timeout cancelled = wheel.schedule(cancelledRuns::incrementAndGet,
+                TimeUnit.MILLISECONDS.toNanos(30));
+        assertTrue(cancelled.cancel());
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(0, cancelledRuns.get());
+        assertFalse(cancelled.isExpired());
+        assertEquals(0, wheel.pendingCount());
+    }
+}
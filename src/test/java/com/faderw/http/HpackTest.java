@@ -0,0 +1,64 @@
+package com.faderw.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HpackTest {
+
+    @Test
+    public void roundTripsThroughDynamicTable() throws IOException {
+        final Hpack.Encoder encoder = new Hpack.Encoder();
+        final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        final List<String> headers = Arrays.asList(
+                ":method", "GET",
+                ":scheme", "https",
+                ":authority", "www.example.com",
+                ":path", "/index.html?q=caf%C3%A9",
+                "accept-encoding", "gzip, deflate",
+                "authorization", "Bearer secret",
+                "x-custom", "");
+
+        final ByteArrayOutputStream first = new ByteArrayOutputStream();
+        encoder.encode(headers, first);
+        assertEquals(headers, decoder.decode(first.toByteArray(), 0, first.size()));
+
+        // the second block refers to the entries added by the first one
+        final ByteArrayOutputStream second = new ByteArrayOutputStream();
+        encoder.encode(headers, second);
+        assertTrue(second.size() < first.size());
+        assertEquals(headers, decoder.decode(second.toByteArray(), 0, second.size()));
+    }
+
+    @Test
+    public void decodesRfcHuffmanExample() throws IOException {
+        // RFC 7541 C.4.1, first request with Huffman coding
+        final byte[] block = hex("828684418cf1e3c2e5f23a6ba0ab90f4ff");
+        assertEquals(Arrays.asList(":method", "GET", ":scheme", "http", ":path", "/",
+                ":authority", "www.example.com"),
+                new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE).decode(block, 0, block.length));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Hpack.writeString(out, "www.example.com");
+        assertArrayEquals(hex("8cf1e3c2e5f23a6ba0ab90f4ff"), out.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsIndexOutsideTables() throws IOException {
+        final byte[] block = {(byte) 0xff, 0x7f};
+        new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE).decode(block, 0, block.length);
+    }
+
+    private static byte[] hex(final String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
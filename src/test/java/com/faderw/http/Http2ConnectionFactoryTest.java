@@ -0,0 +1,436 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class Http2ConnectionFactoryTest {
+
+    private H2Server server;
+    private String baseUrl;
+    private Http2ConnectionFactory factory;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new H2Server();
+        baseUrl = "http://127.0.0.1:" + server.port();
+        factory = new Http2ConnectionFactory().cleartext(true);
+        HttpRequest.setConnectionFactory(factory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        HttpRequest.setConnectionFactory(null);
+        factory.close();
+        server.close();
+    }
+
+    @Test
+    public void multiplexesConcurrentRequestsOnOneConnection() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            final List<Future<String>> bodies = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                final int n = i;
+                bodies.add(executor.submit(() -> HttpRequest.get(baseUrl + "/slow?" + n).body("UTF-8")));
+            }
+            for (int i = 0; i < 16; i++) {
+                assertEquals("slow " + i, bodies.get(i).get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, factory.createdCount());
+        assertEquals(1, factory.connectionCount());
+        assertEquals(1, server.accepted.get());
+        assertTrue("requests were not served concurrently", server.peakInFlight.get() > 1);
+    }
+
+    @Test
+    public void largeBodiesAreFlowControlled() {
+        final byte[] body = HttpRequest.get(baseUrl + "/bytes?" + 1_000_000).bytes();
+        assertEquals(1_000_000, body.length);
+        for (int i = 0; i < body.length; i++) {
+            if (body[i] != (byte) (i % 251)) {
+                fail("unexpected byte at " + i);
+            }
+        }
+
+        // the server starts with the default 64 KiB window, so the upload waits for WINDOW_UPDATEs
+        final char[] upload = new char[300_000];
+        Arrays.fill(upload, 'x');
+        assertEquals("length=300000", HttpRequest.post(baseUrl + "/length").send(new String(upload)).body("UTF-8"));
+        assertEquals(1, factory.createdCount());
+    }
+
+    @Test
+    public void unreadBodiesGiveTheConnectionWindowBack() throws IOException {
+        factory.close();
+        factory = new Http2ConnectionFactory().cleartext(true).streamWindow(65535).connectionWindow(65535);
+        HttpRequest.setConnectionFactory(factory);
+
+        // 40 KB each, left in finished streams
+        assertEquals(200, HttpRequest.get(baseUrl + "/bytes?" + 40_000).code());
+        assertEquals(200, HttpRequest.get(baseUrl + "/bytes?" + 40_000).code());
+        // and in a reset one
+        final InputStream in = HttpRequest.get(baseUrl + "/bytes?" + 40_000).readTimeout(5000).stream();
+        assertEquals(0, in.read());
+        in.close();
+
+        assertEquals(40_000, HttpRequest.get(baseUrl + "/bytes?" + 40_000).readTimeout(5000).bytes().length);
+        assertEquals(1, factory.createdCount());
+    }
+
+    @Test
+    public void sendsRequestBodyAndHeaders() {
+        assertEquals("method=POST;x-test=a b;body=hello",
+                HttpRequest.post(baseUrl + "/echo").header("X-Test", "a b").send("hello").body("UTF-8"));
+        assertEquals("method=POST;x-test=null;body=streamed",
+                HttpRequest.post(baseUrl + "/echo").chunkedStreaming(4).send("streamed").body("UTF-8"));
+
+        final HttpRequest request = HttpRequest.get(baseUrl + "/missing");
+        assertEquals(404, request.code());
+        assertEquals("not here", request.body("UTF-8"));
+    }
+
+    @Test
+    public void sendsPriorityAsStreamWeight() {
+        assertEquals("method=GET;x-test=null;body=", HttpRequest.get(baseUrl + "/echo").priority(200).body("UTF-8"));
+        assertEquals(Integer.valueOf(200), server.weights.get("/echo"));
+    }
+
+    @Test
+    public void closingBodyEarlyCancelsOnlyThatStream() throws Exception {
+        final InputStream in = HttpRequest.get(baseUrl + "/bytes?" + 5_000_000).stream();
+        assertEquals(0, in.read());
+        in.close();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (server.resets.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(server.resets.isEmpty());
+        assertEquals("method=GET;x-test=null;body=", HttpRequest.get(baseUrl + "/echo").body("UTF-8"));
+        assertEquals(1, factory.createdCount());
+    }
+
+    @Test
+    public void fallsBackToHttp1() throws IOException {
+        final HttpServer http1 = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        http1.createContext("/", exchange -> {
+            final byte[] response = "http1".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        http1.start();
+        final PooledConnectionFactory fallback = new PooledConnectionFactory();
+        final Http2ConnectionFactory factory = new Http2ConnectionFactory(fallback).cleartext(true);
+        HttpRequest.setConnectionFactory(factory);
+        try {
+            final String url = "http://127.0.0.1:" + http1.getAddress().getPort() + "/";
+            assertEquals("http1", HttpRequest.get(url).body("UTF-8"));
+            assertEquals("http1", HttpRequest.get(url).body("UTF-8"));
+            assertEquals(0, factory.createdCount());
+            assertEquals(1, fallback.getPool().createdCount());
+        } finally {
+            fallback.getPool().close();
+            http1.stop(0);
+        }
+    }
+
+    /**
+     * Just enough of an h2c server: prior knowledge only, one handler thread per stream
+     */
+    private static final class H2Server implements Closeable {
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger peakInFlight = new AtomicInteger();
+        final Map<String, Integer> weights = new ConcurrentHashMap<>();
+        final Set<Integer> resets = ConcurrentHashMap.newKeySet();
+        private final ServerSocket serverSocket;
+        private final List<Socket> sockets = new ArrayList<>();
+
+        H2Server() throws IOException {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            final Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        final Socket socket = serverSocket.accept();
+                        accepted.incrementAndGet();
+                        synchronized (sockets) {
+                            sockets.add(socket);
+                        }
+                        final Thread thread = new Thread(new Connection(socket));
+                        thread.setDaemon(true);
+                        thread.start();
+                    }
+                } catch (IOException ignored) {
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int port() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            synchronized (sockets) {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        }
+
+        private final class Connection implements Runnable {
+            private final Socket socket;
+            private final DataInputStream in;
+            private final OutputStream out;
+            private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+            private final Hpack.Encoder encoder = new Hpack.Encoder();
+            private final Map<Integer, List<String>> headers = new HashMap<>();
+            private final Map<Integer, ByteArrayOutputStream> bodies = new HashMap<>();
+            private final Map<Integer, long[]> windows = new HashMap<>();
+            private long connectionWindow = 65535;
+            private int initialWindow = 65535;
+
+            Connection(final Socket socket) throws IOException {
+                this.socket = socket;
+                this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                this.out = new BufferedOutputStream(socket.getOutputStream());
+            }
+
+            @Override
+            public void run() {
+                try {
+                    final byte[] preface = new byte[Http2Connection.PREFACE.length];
+                    in.readFully(preface);
+                    assertArrayEquals(Http2Connection.PREFACE, preface);
+                    final byte[] settings = {0, 3, 0, 0, 0, 100};
+                    writeFrame(Http2Connection.TYPE_SETTINGS, 0, 0, settings, settings.length);
+                    while (true) {
+                        readFrame();
+                    }
+                } catch (IOException ignored) {
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+
+            private void readFrame() throws IOException {
+                final int length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+                final int type = in.readUnsignedByte();
+                final int flags = in.readUnsignedByte();
+                final int id = in.readInt();
+                final byte[] payload = new byte[length];
+                in.readFully(payload);
+                final boolean endStream = (flags & Http2Connection.FLAG_END_STREAM) != 0;
+                switch (type) {
+                    case Http2Connection.TYPE_SETTINGS:
+                        if ((flags & Http2Connection.FLAG_ACK) == 0) {
+                            for (int i = 0; i < length; i += 6) {
+                                if (payload[i + 1] == Http2Connection.SETTINGS_INITIAL_WINDOW_SIZE) {
+                                    synchronized (this) {
+                                        initialWindow = getInt(payload, i + 2);
+                                    }
+                                }
+                            }
+                            writeFrame(Http2Connection.TYPE_SETTINGS, Http2Connection.FLAG_ACK, 0, new byte[0], 0);
+                        }
+                        break;
+                    case Http2Connection.TYPE_HEADERS: {
+                        int start = 0;
+                        if ((flags & Http2Connection.FLAG_PRIORITY) != 0) {
+                            start = 5;
+                        }
+                        final List<String> block = decoder.decode(payload, start, length - start);
+                        if (start == 5) {
+                            weights.put(CacheEntry.value(block, ":path"), (payload[4] & 0xff) + 1);
+                        }
+                        synchronized (this) {
+                            headers.put(id, block);
+                            bodies.put(id, new ByteArrayOutputStream());
+                            windows.put(id, new long[]{initialWindow});
+                        }
+                        if (endStream) {
+                            dispatch(id);
+                        }
+                        break;
+                    }
+                    case Http2Connection.TYPE_DATA:
+                        synchronized (this) {
+                            bodies.get(id).write(payload, 0, length);
+                        }
+                        if (length > 0) {
+                            final byte[] increment = new byte[4];
+                            putInt(increment, length);
+                            writeFrame(Http2Connection.TYPE_WINDOW_UPDATE, 0, 0, increment, 4);
+                            writeFrame(Http2Connection.TYPE_WINDOW_UPDATE, 0, id, increment, 4);
+                        }
+                        if (endStream) {
+                            dispatch(id);
+                        }
+                        break;
+                    case Http2Connection.TYPE_WINDOW_UPDATE:
+                        synchronized (this) {
+                            if (id == 0) {
+                                connectionWindow += getInt(payload, 0);
+                            } else if (windows.containsKey(id)) {
+                                windows.get(id)[0] += getInt(payload, 0);
+                            }
+                            notifyAll();
+                        }
+                        break;
+                    case Http2Connection.TYPE_RST_STREAM:
+                        resets.add(id);
+                        synchronized (this) {
+                            windows.remove(id);
+                            notifyAll();
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            private void dispatch(final int id) {
+                final List<String> request;
+                final byte[] body;
+                synchronized (this) {
+                    request = headers.get(id);
+                    body = bodies.get(id).toByteArray();
+                }
+                final Thread handler = new Thread(() -> {
+                    final int running = inFlight.incrementAndGet();
+                    peakInFlight.accumulateAndGet(running, Math::max);
+                    try {
+                        handle(id, request, body);
+                    } catch (IOException | InterruptedException ignored) {
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                });
+                handler.setDaemon(true);
+                handler.start();
+            }
+
+            private void handle(final int id, final List<String> request, final byte[] body)
+                    throws IOException, InterruptedException {
+                final String path = CacheEntry.value(request, ":path");
+                final String query = path.indexOf('?') > 0 ? path.substring(path.indexOf('?') + 1) : "";
+                if (path.startsWith("/slow")) {
+                    Thread.sleep(200);
+                    respond(id, 200, ("slow " + query).getBytes(StandardCharsets.UTF_8));
+                } else if (path.startsWith("/bytes")) {
+                    final byte[] bytes = new byte[Integer.parseInt(query)];
+                    for (int i = 0; i < bytes.length; i++) {
+                        bytes[i] = (byte) (i % 251);
+                    }
+                    respond(id, 200, bytes);
+                } else if (path.startsWith("/length")) {
+                    respond(id, 200, ("length=" + body.length).getBytes(StandardCharsets.UTF_8));
+                } else if (path.startsWith("/echo")) {
+                    respond(id, 200, ("method=" + CacheEntry.value(request, ":method") + ";x-test="
+                            + CacheEntry.value(request, "x-test") + ";body="
+                            + new String(body, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8));
+                } else {
+                    respond(id, 404, "not here".getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            private void respond(final int id, final int status, final byte[] body)
+                    throws IOException, InterruptedException {
+                final ByteArrayOutputStream block = new ByteArrayOutputStream();
+                synchronized (out) {
+                    encoder.encode(Arrays.asList(":status", Integer.toString(status),
+                            "content-length", Integer.toString(body.length)), block);
+                    writeFrame(Http2Connection.TYPE_HEADERS, Http2Connection.FLAG_END_HEADERS, id,
+                            block.toByteArray(), block.size());
+                }
+                int offset = 0;
+                do {
+                    final int n;
+                    synchronized (this) {
+                        long[] window;
+                        while ((window = windows.get(id)) != null && body.length > 0
+                                && (window[0] <= 0 || connectionWindow <= 0)) {
+                            wait();
+                        }
+                        if (window == null) {
+                            return;
+                        }
+                        n = (int) Math.min(Math.min(body.length - offset, 16384), Math.min(window[0], connectionWindow));
+                        window[0] -= n;
+                        connectionWindow -= n;
+                    }
+                    final int flags = offset + n == body.length ? Http2Connection.FLAG_END_STREAM : 0;
+                    writeFrame(Http2Connection.TYPE_DATA, flags, id, Arrays.copyOfRange(body, offset, offset + n), n);
+                    offset += n;
+                } while (offset < body.length);
+            }
+
+            private void writeFrame(final int type, final int flags, final int id,
+                                    final byte[] payload, final int length) throws IOException {
+                synchronized (out) {
+                    out.write(length >>> 16);
+                    out.write(length >>> 8);
+                    out.write(length);
+                    out.write(type);
+                    out.write(flags);
+                    final byte[] streamId = new byte[4];
+                    putInt(streamId, id);
+                    out.write(streamId);
+                    out.write(payload, 0, length);
+                    out.flush();
+                }
+            }
+        }
+
+        private static int getInt(final byte[] b, final int offset) {
+            return (b[offset] & 0xff) << 24 | (b[offset + 1] & 0xff) << 16
+                    | (b[offset + 2] & 0xff) << 8 | (b[offset + 3] & 0xff);
+        }
+
+        private static void putInt(final byte[] b, final int value) {
+            b[0] = (byte) (value >>> 24);
+            b[1] = (byte) (value >>> 16);
+            b[2] = (byte) (value >>> 8);
+            b[3] = (byte) value;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HttpCacheTest {
+
+    private static final String LAST_MODIFIED = "Sun, 16 Dec 2018 08:00:00 GMT";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private String baseUrl;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger version = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/fresh", exchange -> {
+            hits.incrementAndGet();
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+            Exchanges.respond(exchange, 200, "fresh-" + version.get());
+        });
+        server.createContext("/etag", exchange -> {
+            hits.incrementAndGet();
+            final String etag = "\"v" + version.get() + "\"";
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            Exchanges.respond(exchange, 200, "etag-" + version.get());
+        });
+        server.createContext("/modified", exchange -> {
+            hits.incrementAndGet();
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=0");
+            exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+            if (LAST_MODIFIED.equals(exchange.getRequestHeaders().getFirst("If-Modified-Since"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            Exchanges.respond(exchange, 200, "modified");
+        });
+        server.createContext("/private", exchange -> {
+            hits.incrementAndGet();
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            Exchanges.respond(exchange, 200, "private");
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        HttpRequest.setConnectionFactory(null);
+        server.stop(0);
+    }
+
+    @Test
+    public void servesFreshEntriesWithoutNetwork() {
+        final HttpCache cache = new HttpCache(1 << 20);
+        HttpRequest.setConnectionFactory(new CachingConnectionFactory(cache));
+        for (int i = 0; i < 3; i++) {
+            assertEquals("fresh-0", HttpRequest.get(baseUrl + "/fresh").body("UTF-8"));
+        }
+        assertEquals(1, hits.get());
+        assertEquals(1, cache.missCount());
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void revalidatesWithEtag() {
+        final HttpCache cache = new HttpCache(1 << 20);
+        HttpRequest.setConnectionFactory(new CachingConnectionFactory(cache));
+        assertEquals("etag-0", HttpRequest.get(baseUrl + "/etag").body("UTF-8"));
+        assertEquals("etag-0", HttpRequest.get(baseUrl + "/etag").body("UTF-8"));
+        assertEquals(1, cache.revalidationCount());
+        assertEquals(1, cache.notModifiedCount());
+
+        version.incrementAndGet();
+        assertEquals("etag-1", HttpRequest.get(baseUrl + "/etag").body("UTF-8"));
+        assertEquals("etag-1", HttpRequest.get(baseUrl + "/etag").body("UTF-8"));
+        assertEquals(4, hits.get());
+        assertEquals(2, cache.notModifiedCount());
+    }
+
+    @Test
+    public void revalidatesWithLastModified() {
+        final HttpCache cache = new HttpCache(1 << 20);
+        HttpRequest.setConnectionFactory(new CachingConnectionFactory(cache));
+        assertEquals("modified", HttpRequest.get(baseUrl + "/modified").body("UTF-8"));
+        assertEquals("modified", HttpRequest.get(baseUrl + "/modified").body("UTF-8"));
+        assertEquals(1, cache.notModifiedCount());
+        assertEquals(0, cache.hitCount());
+    }
+
+    @Test
+    public void parsesEveryHttpDateForm() {
+        final long expected = 784111777000L;
+        assertEquals(expected, CacheEntry.parseDate("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(expected, CacheEntry.parseDate("Sunday, 06-Nov-94 08:49:37 GMT"));
+        assertEquals(expected, CacheEntry.parseDate("Sun Nov  6 08:49:37 1994"));
+        assertEquals(-1, CacheEntry.parseDate("yesterday"));
+    }
+
+    @Test
+    public void invalidLastModifiedGivesNoFreshness() {
+        final long now = System.currentTimeMillis();
+        final CacheEntry entry = CacheEntry.create("key", 200, "HTTP/1.1 200 OK",
+                Arrays.asList("Last-Modified", "yesterday"), new byte[0], now);
+        assertFalse(entry.isFresh(now));
+
+        // changed ten days before the response, fresh for a day
+        final long date = CacheEntry.parseDate("Sunday, 16-Dec-18 08:00:00 GMT");
+        final CacheEntry dated = CacheEntry.create("key", 200, "HTTP/1.1 200 OK",
+                Arrays.asList("Date", "Sunday, 16-Dec-18 08:00:00 GMT", "Last-Modified", "Thu Dec  6 08:00:00 2018"),
+                new byte[0], date);
+        assertTrue(dated.isFresh(date + 23 * 3600 * 1000L));
+        assertFalse(dated.isFresh(date + 25 * 3600 * 1000L));
+    }
+
+    @Test
+    public void skipsNoStoreResponses() {
+        final HttpCache cache = new HttpCache(1 << 20);
+        HttpRequest.setConnectionFactory(new CachingConnectionFactory(cache));
+        assertEquals("private", HttpRequest.get(baseUrl + "/private").body("UTF-8"));
+        assertEquals("private", HttpRequest.get(baseUrl + "/private").body("UTF-8"));
+        assertEquals(2, hits.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void unsafeMethodsInvalidate() {
+        final HttpCache cache = new HttpCache(1 << 20);
+        HttpRequest.setConnectionFactory(new CachingConnectionFactory(cache));
+        assertEquals("fresh-0", HttpRequest.get(baseUrl + "/fresh").body("UTF-8"));
+        version.incrementAndGet();
+        HttpRequest.post(baseUrl + "/fresh").send("x").code();
+        assertEquals("fresh-1", HttpRequest.get(baseUrl + "/fresh").body("UTF-8"));
+        assertEquals(3, hits.get());
+    }
+
+    @Test
+    public void demotesToDiskAndReloads() throws IOException {
+        // a one byte memory budget keeps only the newest entry and demotes the rest
+        final HttpCache cache = new HttpCache(1, 1 << 20).disk(folder.newFolder("cache"), 1 << 20);
+        HttpRequest.setConnectionFactory(new CachingConnectionFactory(cache));
+        assertEquals("fresh-0", HttpRequest.get(baseUrl + "/fresh?a").body("UTF-8"));
+        assertEquals("fresh-0", HttpRequest.get(baseUrl + "/fresh?b").body("UTF-8"));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.evictionCount());
+        assertTrue(cache.diskByteSize() > 0);
+
+        final HttpCache reopened = new HttpCache(1 << 20).disk(folder.getRoot().toPath().resolve("cache").toFile(), 1 << 20);
+        HttpRequest.setConnectionFactory(new CachingConnectionFactory(reopened));
+        assertEquals("fresh-0", HttpRequest.get(baseUrl + "/fresh?a").body("UTF-8"));
+        assertEquals(2, hits.get());
+        assertEquals(1, reopened.hitCount());
+    }
+
+    @Test
+    public void worksOverPooledTransport() {
+        final PooledConnectionFactory pooled = new PooledConnectionFactory();
+        final HttpCache cache = new HttpCache(1 << 20);
+        HttpRequest.setConnectionFactory(new CachingConnectionFactory(pooled, cache));
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertEquals("etag-0", HttpRequest.get(baseUrl + "/etag").body("UTF-8"));
+            }
+            assertEquals(2, cache.notModifiedCount());
+            // the JDK test server closes the socket after a 304 without a length
+            assertTrue(pooled.getPool().reusedCount() >= 1);
+        } finally {
+            pooled.getPool().close();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HttpEventListenerTest {
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ok", exchange -> Exchanges.respond(exchange, 200, "hello"));
+        server.createContext("/missing", exchange -> Exchanges.respond(exchange, 404, "missing"));
+        server.createContext("/upload", exchange -> {
+            while (exchange.getRequestBody().read() != -1) {
+                // drain
+            }
+            Exchanges.respond(exchange, 200, "stored");
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        HttpRequest.setConnectionFactory(null);
+        HttpRequest.setEventListenerFactory(null);
+        server.stop(0);
+    }
+
+    @Test
+    public void reportsPhasesOverPooledTransport() {
+        final PooledConnectionFactory factory = new PooledConnectionFactory();
+        HttpRequest.setConnectionFactory(factory);
+        try {
+            final Recorder first = new Recorder();
+            assertEquals("hello", HttpRequest.get(baseUrl + "/ok").eventListener(first).body("UTF-8"));
+            assertEquals(Arrays.asList("callStart", "dnsStart", "dnsEnd", "connectStart", "connectEnd",
+                    "connectionAcquired false", "requestHeadersEnd", "responseHeadersEnd 200",
+                    "responseBodyEnd 5", "callEnd"), first.events);
+
+            final Recorder second = new Recorder();
+            assertEquals("stored", HttpRequest.post(baseUrl + "/upload").eventListener(second)
+                    .send("payload").body("UTF-8"));
+            assertEquals(Arrays.asList("callStart", "connectionAcquired true", "requestBodyEnd",
+                    "requestHeadersEnd", "responseHeadersEnd 200", "responseBodyEnd 6", "callEnd"), second.events);
+        } finally {
+            factory.getPool().close();
+        }
+    }
+
+    @Test
+    public void endsCallsOnlyAskingForTheHead() {
+        final PooledConnectionFactory factory = new PooledConnectionFactory();
+        HttpRequest.setConnectionFactory(factory);
+        final MetricsRecorder metrics = new MetricsRecorder();
+        HttpRequest.setEventListenerFactory(metrics);
+        try {
+            final Recorder recorder = new Recorder();
+            final HttpRequest request = HttpRequest.get(baseUrl + "/ok").eventListener(recorder);
+            assertEquals(200, request.code());
+            assertEquals("hello", request.body("UTF-8"));
+            assertEquals(Arrays.asList("callStart", "dnsStart", "dnsEnd", "connectStart", "connectEnd",
+                    "connectionAcquired false", "requestHeadersEnd", "responseHeadersEnd 200",
+                    "responseBodyEnd 0", "callEnd"), recorder.events);
+
+            final Recorder disconnected = new Recorder();
+            final HttpRequest streamed = HttpRequest.get(baseUrl + "/ok").eventListener(disconnected);
+            streamed.stream();
+            streamed.disconnect();
+            streamed.disconnect();
+            assertEquals(Arrays.asList("responseHeadersEnd 200", "responseBodyEnd 0", "callEnd"),
+                    disconnected.events.subList(disconnected.events.size() - 3, disconnected.events.size()));
+
+            assertEquals(2, metrics.total("127.0.0.1", "2xx").count());
+        } finally {
+            factory.getPool().close();
+        }
+    }
+
+    @Test
+    public void reportsRequestAndResponseOverJdkTransport() {
+        final Recorder recorder = new Recorder();
+        assertEquals("hello", HttpRequest.get(baseUrl + "/ok").eventListener(recorder).body("UTF-8"));
+        assertEquals(Arrays.asList("callStart", "responseHeadersEnd 200", "responseBodyEnd 5", "callEnd"),
+                recorder.events);
+    }
+
+    @Test
+    public void capturesTimings() {
+        final PooledConnectionFactory factory = new PooledConnectionFactory();
+        HttpRequest.setConnectionFactory(factory);
+        try {
+            final CallTimings timings = new CallTimings();
+            HttpRequest.get(baseUrl + "/ok").eventListener(timings).body("UTF-8");
+            assertEquals(200, timings.code());
+            assertEquals(5, timings.bodyBytes());
+            assertFalse(timings.isReused());
+            assertTrue(timings.dnsNanos() >= 0);
+            assertTrue(timings.connectNanos() >= 0);
+            assertEquals(-1, timings.tlsNanos());
+            assertTrue(timings.firstByteNanos() >= timings.connectNanos());
+            assertTrue(timings.totalNanos() >= timings.firstByteNanos() + timings.bodyNanos() - 1);
+
+            final CallTimings reused = new CallTimings();
+            HttpRequest.get(baseUrl + "/ok").eventListener(reused).body("UTF-8");
+            assertTrue(reused.isReused());
+            assertEquals(-1, reused.dnsNanos());
+            assertEquals(-1, reused.connectNanos());
+        } finally {
+            factory.getPool().close();
+        }
+    }
+
+    @Test
+    public void recordsMetricsPerHostAndStatusClass() throws IOException {
+        final MetricsRecorder metrics = new MetricsRecorder();
+        HttpRequest.setEventListenerFactory(metrics);
+        for (int i = 0; i < 3; i++) {
+            HttpRequest.get(baseUrl + "/ok").body("UTF-8");
+        }
+        HttpRequest.get(baseUrl + "/missing").body("UTF-8");
+
+        final int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = socket.getLocalPort();
+        }
+        try {
+            HttpRequest.get("http://127.0.0.1:" + closedPort + "/").code();
+            fail();
+        } catch (HttpRequestException expected) {
+        }
+
+        assertEquals(3, metrics.total("127.0.0.1", "2xx").count());
+        assertEquals(3, metrics.firstByte("127.0.0.1", "2xx").count());
+        assertEquals(1, metrics.total("127.0.0.1", "4xx").count());
+        assertEquals(1, metrics.total("127.0.0.1", "failed").count());
+        assertNull(metrics.total("127.0.0.1", "5xx"));
+        assertEquals(3, metrics.totals().size());
+    }
+
+    @Test
+    public void histogramPercentilesStayWithinBucketError() {
+        for (long value = 0; value < 1_000_000; value = value * 3 / 2 + 1) {
+            final int bucket = LatencyHistogram.bucket(value);
+            assertTrue(LatencyHistogram.upperBound(bucket) >= value);
+            assertTrue(bucket == 0 || LatencyHistogram.upperBound(bucket - 1) < value);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.bucket(Long.MAX_VALUE)));
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(1_000_000, histogram.maxNanos());
+        assertEquals(500_500, histogram.meanNanos());
+        assertEquals(500_000, histogram.percentileNanos(50), 500_000 / 8);
+        assertEquals(990_000, histogram.percentileNanos(99), 990_000 / 8);
+        assertEquals(1_000_000, histogram.percentileNanos(100));
+    }
+
+    private static final class Recorder implements HttpEventListener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void callStart(final HttpRequest request) {
+            events.add("callStart");
+        }
+
+        @Override
+        public void dnsStart(final String host) {
+            events.add("dnsStart");
+        }
+
+        @Override
+        public void dnsEnd(final String host, final InetAddress address) {
+            events.add("dnsEnd");
+        }
+
+        @Override
+        public void connectStart(final InetSocketAddress address) {
+            events.add("connectStart");
+        }
+
+        @Override
+        public void connectEnd(final InetSocketAddress address) {
+            events.add("connectEnd");
+        }
+
+        @Override
+        public void connectionAcquired(final boolean reused) {
+            events.add("connectionAcquired " + reused);
+        }
+
+        @Override
+        public void requestHeadersEnd() {
+            events.add("requestHeadersEnd");
+        }
+
+        @Override
+        public void requestBodyEnd() {
+            events.add("requestBodyEnd");
+        }
+
+        @Override
+        public void responseHeadersEnd(final int code) {
+            events.add("responseHeadersEnd " + code);
+        }
+
+        @Override
+        public void responseBodyEnd(final long bytes) {
+            events.add("responseBodyEnd " + bytes);
+        }
+
+        @Override
+        public void callEnd() {
+            events.add("callEnd");
+        }
+
+        @Override
+        public void callFailed(final IOException e) {
+            events.add("callFailed");
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HttpRequestAsyncTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/hello", exchange -> {
+            final byte[] response = "hello".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void fansOutRequests() throws Exception {
+        final List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(HttpRequest.get(baseUrl + "/hello").bodyAsync("UTF-8"));
+        }
+        for (CompletableFuture<String> future : futures) {
+            assertEquals("hello", future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(Integer.valueOf(200), HttpRequest.get(baseUrl + "/hello").codeAsync().get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancelDisconnects() throws Exception {
+        final HttpRequest request = HttpRequest.get(baseUrl + "/slow");
+        final CompletableFuture<Integer> future = request.codeAsync();
+        Thread.sleep(200);
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        try {
+            request.code();
+            fail("cancelled request must not complete");
+        } catch (HttpRequestException expected) {
+        }
+    }
+
+    @Test
+    public void failuresCompleteExceptionally() throws InterruptedException {
+        try {
+            HttpRequest.get("http://127.0.0.1:1/").bodyAsync("UTF-8").get();
+            fail("connection should be refused");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HttpRequestException);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static com.faderw.http.HttpRequestConst.BOUNDARY;
+import static com.faderw.http.HttpRequestConst.CRLF;
+import static org.junit.Assert.*;
+
+public class HttpRequestMultipartTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/upload", exchange -> {
+            final byte[] body = Exchanges.readAll(exchange.getRequestBody());
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/upload";
+    }
+
+    @After
+    public void tearDown() {
+        HttpRequest.setConnectionFactory(null);
+        server.stop(0);
+    }
+
+    @Test
+    public void writesFileParts() throws IOException {
+        final String body = upload(HttpRequest.post(baseUrl));
+        assertEquals(expected(), body);
+    }
+
+    @Test
+    public void transfersFilePartsOverPooledSocket() throws IOException {
+        final PooledConnectionFactory factory = new PooledConnectionFactory();
+        HttpRequest.setConnectionFactory(factory);
+        final HttpRequest request = HttpRequest.post(baseUrl);
+        request.getConnection().setChunkedStreamingMode(0);
+        assertEquals(expected(), upload(request));
+        factory.getPool().close();
+    }
+
+    private String upload(final HttpRequest request) throws IOException {
+        final File file = folder.newFile("data.txt");
+        Files.write(file.toPath(), content());
+        return request.part("field", "value")
+                .part("file", file)
+                .part("stream", "raw.bin", new ByteArrayInputStream("raw".getBytes(StandardCharsets.UTF_8)))
+                .body("UTF-8");
+    }
+
+    private static byte[] content() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            builder.append("row ").append(i).append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String expected() {
+        return "--" + BOUNDARY + CRLF
+                + "Content-Disposition:form-data;name=\"field\"" + CRLF + CRLF + "value"
+                + CRLF + "--" + BOUNDARY + CRLF
+                + "Content-Disposition:form-data;name=\"file\";filename=\"data.txt\"" + CRLF
+                + "Content-Type:text/plain" + CRLF + CRLF + new String(content(), StandardCharsets.UTF_8)
+                + CRLF + "--" + BOUNDARY + CRLF
+                + "Content-Disposition:form-data;name=\"stream\";filename=\"raw.bin\"" + CRLF
+                + "Content-Type:application/octet-stream" + CRLF + CRLF + "raw"
+                + CRLF + "--" + BOUNDARY + "--" + CRLF;
+    }
+}
@@ -0,0 +1,98 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HttpRequestStreamingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/echo", exchange -> {
+            final byte[] body = Exchanges.readAll(exchange.getRequestBody());
+            final String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            final String encoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+            final byte[] response = ((encoding != null ? encoding : "length=" + length) + "|"
+                    + new String(body, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/echo";
+    }
+
+    @After
+    public void tearDown() {
+        HttpRequest.setConnectionFactory(null);
+        server.stop(0);
+    }
+
+    @Test
+    public void jsonUsesFixedLength() {
+        final String json = "{\"name\":\"\u4e2d\u6587\"}";
+        assertEquals("length=" + json.getBytes(StandardCharsets.UTF_8).length + "|" + json,
+                HttpRequest.post(baseUrl).streaming().json(json).body("UTF-8"));
+    }
+
+    @Test
+    public void formUsesFixedLength() {
+        final Map<String, Object> params = new LinkedHashMap<>();
+        params.put("name", "wang yuxin");
+        params.put("age", 20);
+        assertEquals("length=22|name=wang+yuxin&age=20",
+                HttpRequest.post(baseUrl).streaming().form(params).body("UTF-8"));
+    }
+
+    @Test
+    public void sendUsesChunked() {
+        assertEquals("chunked|hello world",
+                HttpRequest.post(baseUrl).streaming().send("hello ").send("world").body("UTF-8"));
+    }
+
+    @Test
+    public void multipartUsesFixedLengthWhenSizesAreKnown() throws IOException {
+        final File file = folder.newFile("data.json");
+        Files.write(file.toPath(), "{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+        final String streamed = HttpRequest.post(baseUrl).streaming()
+                .part("field", "value").part("file", file).body("UTF-8");
+        final String buffered = HttpRequest.post(baseUrl)
+                .part("field", "value").part("file", file).body("UTF-8");
+        assertEquals(buffered, streamed);
+        assertTrue(streamed.startsWith("length="));
+    }
+
+    @Test
+    public void multipartWithStreamUsesChunkedOverPooledTransport() {
+        final PooledConnectionFactory factory = new PooledConnectionFactory();
+        HttpRequest.setConnectionFactory(factory);
+        final String body = HttpRequest.post(baseUrl).streaming()
+                .part("field", "value")
+                .part("raw", "raw.bin", new ByteArrayInputStream(new byte[]{'a', 'b'}))
+                .body("UTF-8");
+        assertTrue(body.startsWith("chunked|"));
+        assertTrue(body.contains("ab"));
+        factory.getPool().close();
+    }
+}
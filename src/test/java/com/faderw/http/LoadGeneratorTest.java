@@ -0,0 +1,114 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LoadGeneratorTest {
+
+    private static int columns(final String line) {
+        return line.split(",", -1).length;
+    }
+
+    @Test
+    public void closedLoopAgainstEmbeddedServer() throws Exception {
+        final LoadReport report = new LoadGenerator().concurrency(2).responseSize(100)
+                .warmup(100, TimeUnit.MILLISECONDS).duration(300, TimeUnit.MILLISECONDS).run();
+
+        assertEquals("closed", report.mode());
+        assertTrue(report.requests() > 0);
+        assertEquals(0, report.errors());
+        assertEquals(100 * report.requests(), report.bytesReceived());
+        assertTrue(report.throughput() > 0);
+        assertEquals(report.requests(), report.serviceTime().count());
+        assertTrue(report.latency().count() >= report.requests());
+
+        final String[] csv = report.toCsv().split("\n");
+        assertEquals(2, csv.length);
+        assertEquals(columns(csv[0]), columns(csv[1]));
+        assertTrue(csv[0].contains("latency_p999_us"));
+        final String json = report.toJson();
+        assertTrue(json.startsWith("{\"mode\":\"closed\""));
+        assertTrue(json.contains("\"latencyUs\":{\"p50\":"));
+        assertTrue(json.endsWith("}"));
+    }
+
+    @Test
+    public void openLoopSendsAtFixedRate() throws Exception {
+        final LoadReport report = new LoadGenerator().openLoop(200).concurrency(4).warmup(0, TimeUnit.SECONDS)
+                .duration(500, TimeUnit.MILLISECONDS).run();
+
+        assertEquals("open", report.mode());
+        assertEquals(100, report.requests());
+        assertEquals(0, report.errors());
+    }
+
+    @Test
+    public void openLoopCountsQueueingDelay() throws Exception {
+        // 100 requests/s to a server needing 30ms, one at a time: the backlog grows all run long
+        final LoadReport report = new LoadGenerator().openLoop(100).concurrency(1)
+                .responseDelay(30, TimeUnit.MILLISECONDS).warmup(0, TimeUnit.SECONDS)
+                .duration(500, TimeUnit.MILLISECONDS).run();
+
+        assertEquals(50, report.requests());
+        assertTrue(report.latency().percentileNanos(99) > 3 * report.serviceTime().percentileNanos(50));
+    }
+
+    @Test
+    public void closedLoopWithoutWarmupStillCorrects() throws Exception {
+        // every 20th answer stalls for 100ms, far longer than the usual one
+        final AtomicInteger calls = new AtomicInteger();
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            if (calls.incrementAndGet() % 20 == 0) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            final LoadReport report = new LoadGenerator().target("http://127.0.0.1:" + server.getAddress().getPort() + "/")
+                    .concurrency(1).warmup(0, TimeUnit.SECONDS).duration(500, TimeUnit.MILLISECONDS).run();
+
+            assertTrue(report.requests() >= 20);
+            assertTrue(report.latency().count() > report.requests());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void unreachableTargetCountsErrors() throws Exception {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        final LoadReport report = new LoadGenerator().target("http://127.0.0.1:" + port + "/").concurrency(1)
+                .warmup(0, TimeUnit.SECONDS).duration(100, TimeUnit.MILLISECONDS).run();
+
+        assertTrue(report.requests() > 0);
+        assertEquals(1.0, report.errorRate(), 0.0);
+    }
+
+    @Test
+    public void correctedRecordingBackfillsMissedRequests() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordCorrected(100, 30);
+        // 100, then 70 and 40 for the requests that would have followed every 30
+        assertEquals(3, histogram.count());
+        assertEquals(70, histogram.meanNanos());
+        histogram.recordCorrected(20, 30);
+        assertEquals(4, histogram.count());
+    }
+}
@@ -0,0 +1,64 @@
+package com.faderw.http;
+
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PercentEncoderTest {
+
+    @Test
+    public void encodesPathAndQueryKeepingDelimiters() {
+        assertEquals("http://example.com/api/search?q=reach%20http&page=3",
+                HttpRequest.encode("http://example.com/api/search?q=reach http&page=3"));
+        assertEquals("http://h:8080/a%20b/c%2520d?x=1%202&y=[a]%7Cb",
+                HttpRequest.encode("http://h:8080/a b/c%20d?x=1+2&y=[a]|b"));
+        assertEquals("http://h/%E6%96%87%F0%9F%98%80?q=%C3%A9",
+                HttpRequest.encode("http://h/\u6587\ud83d\ude00?q=\u00e9#fragment"));
+        assertEquals("http://h", HttpRequest.encode("http://h"));
+    }
+
+    @Test(expected = HttpRequestException.class)
+    public void rejectsUrlWithoutProtocol() {
+        HttpRequest.encode("example.com/path");
+    }
+
+    @Test
+    public void formEncodingMatchesUrlEncoder() throws UnsupportedEncodingException {
+        final String[] values = {"", "a b+c", "x=1&y=2", "\u00e9t\u00e9", "\u6587\u6863", "\ud83d\ude00", "\ud800", "*-._~!"};
+        for (String charset : Arrays.asList("UTF-8", "GBK", "ISO-8859-1")) {
+            for (String value : values) {
+                assertEquals(URLEncoder.encode(value, charset),
+                        PercentEncoder.encodeForm(value, Charset.forName(charset), new StringBuilder()).toString());
+            }
+        }
+    }
+
+    @Test
+    public void appendKeepsBaseUrl() {
+        final Map<String, Object> params = new LinkedHashMap<>();
+        params.put("q", "reach");
+        params.put("page", 3);
+        assertEquals("http://example.com/api?q=reach&page=3", HttpRequest.append("http://example.com/api", params));
+        assertEquals("http://example.com/?q=reach&page=3", HttpRequest.append("http://example.com", params));
+        assertEquals("http://example.com/api?a=1&q=reach&page=3", HttpRequest.append("http://example.com/api?a=1", params));
+    }
+
+    @Test
+    public void appendsArraysWithoutBoxing() {
+        final Map<String, Object> params = new LinkedHashMap<>();
+        params.put("ids", new int[]{1, 2});
+        params.put("flags", new boolean[]{true});
+        params.put("chars", new char[]{'a', ' '});
+        params.put("names", new String[]{"x", null});
+        params.put("empty", null);
+        assertEquals("http://h/?ids[]=1&ids[]=2&flags[]=true&chars[]=a&chars[]= &names[]=x&names[]=&empty=",
+                HttpRequest.append("http://h/", params));
+    }
+}
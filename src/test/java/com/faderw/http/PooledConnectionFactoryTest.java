@@ -0,0 +1,176 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PooledConnectionFactoryTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/echo", exchange -> {
+            final byte[] body = Exchanges.readAll(exchange.getRequestBody());
+            final byte[] response = ("method=" + exchange.getRequestMethod() + ";body="
+                    + new String(body, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.createContext("/chunked", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            final OutputStream out = exchange.getResponseBody();
+            for (int i = 0; i < 100; i++) {
+                out.write(("line" + i + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+            exchange.close();
+        });
+        server.createContext("/missing", exchange -> {
+            final byte[] response = "not here".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(404, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        pool = new ConnectionPool();
+        HttpRequest.setConnectionFactory(new PooledConnectionFactory(pool));
+    }
+
+    @After
+    public void tearDown() {
+        HttpRequest.setConnectionFactory(null);
+        pool.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void reusesConnectionAcrossRequests() {
+        for (int i = 0; i < 10; i++) {
+            assertEquals("method=GET;body=", HttpRequest.get(baseUrl + "/echo").body("UTF-8"));
+        }
+        assertEquals(1, pool.createdCount());
+        assertEquals(9, pool.reusedCount());
+        assertEquals(1, pool.idleCount());
+        assertEquals(0, pool.leasedCount());
+    }
+
+    @Test
+    public void sendsRequestBody() {
+        final String body = HttpRequest.post(baseUrl + "/echo").send("hello pool").body("UTF-8");
+        assertEquals("method=POST;body=hello pool", body);
+        assertEquals("method=GET;body=", HttpRequest.get(baseUrl + "/echo").body("UTF-8"));
+        assertEquals(1, pool.createdCount());
+    }
+
+    @Test
+    public void readsChunkedResponse() {
+        final String body = HttpRequest.get(baseUrl + "/chunked").body("UTF-8");
+        assertTrue(body.startsWith("line0\n"));
+        assertTrue(body.endsWith("line99\n"));
+        assertEquals(1, pool.idleCount());
+    }
+
+    @Test
+    public void readsErrorStream() {
+        final HttpRequest request = HttpRequest.get(baseUrl + "/missing");
+        assertEquals("not here", request.body("UTF-8"));
+        assertEquals(1, pool.idleCount());
+    }
+
+    @Test
+    public void codeAloneGivesConnectionBack() {
+        pool.maxTotalPerRoute(1).acquireTimeout(1000);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(200, HttpRequest.get(baseUrl + "/echo").code());
+            assertEquals(404, HttpRequest.get(baseUrl + "/missing").code());
+        }
+        assertEquals(0, pool.leasedCount());
+        assertEquals(1, pool.createdCount());
+
+        // the body read ahead is still there for the caller
+        final HttpRequest request = HttpRequest.get(baseUrl + "/echo");
+        assertEquals(200, request.code());
+        assertEquals(0, pool.leasedCount());
+        assertEquals("method=GET;body=", request.body("UTF-8"));
+    }
+
+    @Test
+    public void evictsIdleConnections() throws InterruptedException {
+        pool.keepAlive(50, TimeUnit.MILLISECONDS);
+        HttpRequest.get(baseUrl + "/echo").body("UTF-8");
+        assertEquals(1, pool.idleCount());
+        Thread.sleep(100);
+        pool.evictIdle();
+        assertEquals(0, pool.idleCount());
+        assertEquals(1, pool.evictedCount());
+    }
+
+    @Test
+    public void replacesConnectionClosedByServer() throws IOException {
+        HttpRequest.get(baseUrl + "/echo").body("UTF-8");
+        server.stop(0);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", Integer.parseInt(baseUrl.substring(baseUrl.lastIndexOf(':') + 1))), 0);
+        server.createContext("/echo", exchange -> {
+            final byte[] response = "fresh".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.start();
+        assertEquals("fresh", HttpRequest.get(baseUrl + "/echo").body("UTF-8"));
+        assertEquals(2, pool.createdCount());
+    }
+
+    @Test
+    public void preconnectParksConnections() throws InterruptedException {
+        final Preconnect warmup = HttpRequest.preconnect(Arrays.asList(baseUrl, baseUrl + "/echo"), 3);
+        assertTrue(warmup.await(5, TimeUnit.SECONDS));
+        // both urls share a route
+        assertEquals(3, warmup.requested());
+        assertEquals(3, warmup.opened());
+        assertEquals(3, pool.idleCount());
+        assertEquals(0, pool.leasedCount());
+
+        assertEquals("method=GET;body=", HttpRequest.get(baseUrl + "/echo").body("UTF-8"));
+        assertEquals(3, pool.createdCount());
+        assertEquals(1, pool.reusedCount());
+
+        final Preconnect again = HttpRequest.preconnect(Collections.singletonList(baseUrl), 3);
+        assertTrue(again.isDone());
+        assertEquals(0, again.requested());
+    }
+
+    @Test
+    public void preconnectReportsFailures() throws IOException, InterruptedException {
+        final int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+            closedPort = socket.getLocalPort();
+        }
+        final Preconnect warmup = pool.preconnect(Arrays.asList(baseUrl, "http://127.0.0.1:" + closedPort), 2);
+        assertTrue(warmup.await(5, TimeUnit.SECONDS));
+        assertEquals(2, warmup.opened());
+        assertEquals(2, warmup.failed());
+        assertEquals(2, warmup.failures().size());
+        assertEquals(2, pool.idleCount());
+        assertEquals(0, pool.leasedCount());
+    }
+}
@@ -0,0 +1,153 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProxyRouterTest {
+
+    private HttpServer server;
+    private int port;
+    private int deadPort;
+
+    @Before
+    public void setUp() throws IOException {
+        // answers as origin server for direct requests and as proxy for absolute-form ones
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            final byte[] body = exchange.getRequestURI().toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        port = server.getAddress().getPort();
+        try (ServerSocket socket = new ServerSocket(0)) {
+            deadPort = socket.getLocalPort();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        HttpRequest.setConnectionFactory(null);
+        server.stop(0);
+    }
+
+    @Test
+    public void firstMatchingRuleWins() throws IOException {
+        final ProxyRouter router = new ProxyRouter()
+                .direct("localhost")
+                .direct("10.0.0.0/8")
+                .direct("*.corp.example.com")
+                .socks("192.168.1.0/25", "socks.example.com:1080")
+                .http("*", "egress1.example.com:3128", "egress2.example.com:3128");
+
+        assertTrue(router.select(new URL("http://localhost/")).isEmpty());
+        assertTrue(router.select(new URL("http://10.20.30.40/")).isEmpty());
+        assertTrue(router.select(new URL("https://wiki.corp.example.com/")).isEmpty());
+        assertEquals(Proxy.Type.SOCKS, router.select(new URL("http://192.168.1.100/")).get(0).type());
+
+        final List<ProxyRouter.Endpoint> egress = router.select(new URL("http://192.168.1.200/"));
+        assertEquals(2, egress.size());
+        assertEquals("egress1.example.com:3128", egress.get(0).address());
+        assertEquals(Proxy.Type.HTTP, egress.get(0).type());
+        assertEquals(2, router.select(new URL("https://corp.example.com/")).size());
+    }
+
+    @Test
+    public void failsOverToNextProxy() throws IOException {
+        final ProxyRouter router = new ProxyRouter()
+                .http("*", "127.0.0.1:" + deadPort, "127.0.0.1:" + port);
+        final ProxyRoutingConnectionFactory factory = new ProxyRoutingConnectionFactory(router);
+        HttpRequest.setConnectionFactory(factory);
+        final ProxyRouter.Endpoint dead = router.select(new URL("http://target.example/")).get(0);
+        final ProxyRouter.Endpoint live = router.select(new URL("http://target.example/")).get(1);
+
+        assertEquals("http://target.example/one", HttpRequest.get("http://target.example/one").body("UTF-8"));
+        assertEquals(1, dead.failureCount());
+        assertFalse(dead.isHealthy());
+        assertSame(live, router.select(new URL("http://target.example/")).get(0));
+
+        // the failed proxy is skipped while it cools down
+        assertEquals("http://target.example/two", HttpRequest.get("http://target.example/two").body("UTF-8"));
+        assertEquals(1, dead.failureCount());
+        assertEquals(1, factory.pool(live).reusedCount());
+        assertNull(factory.directPool());
+    }
+
+    @Test
+    public void targetFailuresLeaveTheProxyHealthy() throws IOException, InterruptedException {
+        try (ServerSocket proxySocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+            // opens the tunnel, then resets it in the middle of the TLS handshake
+            final Thread proxy = new Thread(() -> {
+                try (Socket socket = proxySocket.accept()) {
+                    final InputStream in = socket.getInputStream();
+                    int state = 0;
+                    while (state < 4) {
+                        final int c = in.read();
+                        if (c == -1) {
+                            return;
+                        }
+                        state = c == (state % 2 == 0 ? '\r' : '\n') ? state + 1 : c == '\r' ? 1 : 0;
+                    }
+                    socket.getOutputStream().write("HTTP/1.1 200 Connection established\r\n\r\n"
+                            .getBytes(StandardCharsets.ISO_8859_1));
+                    socket.getOutputStream().flush();
+                    in.read();
+                    socket.setSoLinger(true, 0);
+                } catch (IOException ignored) {
+                    // the client gave up
+                }
+            });
+            proxy.start();
+            final ProxyRouter router = new ProxyRouter().http("*", "127.0.0.1:" + proxySocket.getLocalPort());
+            HttpRequest.setConnectionFactory(new ProxyRoutingConnectionFactory(router));
+
+            try {
+                HttpRequest.get("https://target.example/").connectTimeout(5000).code();
+                fail();
+            } catch (HttpRequestException expected) {
+                // the target, not the proxy, broke the handshake
+            }
+            final ProxyRouter.Endpoint endpoint = router.endpoints().get(0);
+            assertEquals(0, endpoint.failureCount());
+            assertTrue(endpoint.isHealthy());
+            proxy.join(5000);
+        }
+    }
+
+    @Test
+    public void unmatchedHostsGoDirect() throws IOException {
+        final ProxyRouter router = new ProxyRouter().http("*.example.com", "127.0.0.1:" + deadPort);
+        final ProxyRoutingConnectionFactory factory = new ProxyRoutingConnectionFactory(router);
+        HttpRequest.setConnectionFactory(factory);
+
+        assertEquals("/direct", HttpRequest.get("http://127.0.0.1:" + port + "/direct").body("UTF-8"));
+        assertEquals(1, factory.directPool().createdCount());
+        assertEquals(0, router.endpoints().get(0).failureCount());
+    }
+
+    @Test
+    public void proxyAddressIsResolvedOnce() {
+        final ProxyRouter router = new ProxyRouter().http("*", "localhost:3128");
+        final ProxyRouter.Endpoint endpoint = router.endpoints().get(0);
+
+        final Proxy proxy = endpoint.proxy();
+        assertFalse(((InetSocketAddress) proxy.address()).isUnresolved());
+        assertSame(proxy, endpoint.proxy());
+    }
+}
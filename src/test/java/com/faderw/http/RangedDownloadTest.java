@@ -0,0 +1,162 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RangedDownloadTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] content = new byte[1_000_000];
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private volatile boolean honorRange = true;
+    private volatile long failStart = -1;
+    private HttpServer server;
+    private String url;
+
+    @Before
+    public void startServer() throws IOException {
+        new Random(7).nextBytes(content);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/file", this::serve);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void serve(final HttpExchange exchange) throws IOException {
+        if (!"secret".equals(exchange.getRequestHeaders().getFirst("X-Token"))
+                || !"Bearer secret".equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            exchange.sendResponseHeaders(403, -1);
+            exchange.close();
+            return;
+        }
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        exchange.getResponseHeaders().add("ETag", ETAG);
+        if (!honorRange || range == null || ifRange != null && !ETAG.equals(ifRange)) {
+            exchange.sendResponseHeaders(200, content.length);
+            exchange.getResponseBody().write(content);
+            exchange.close();
+            return;
+        }
+        rangeRequests.incrementAndGet();
+        final String[] bounds = range.substring("bytes=".length()).split("-");
+        final int start = Integer.parseInt(bounds[0]);
+        final int end = Math.min(Integer.parseInt(bounds[1]), content.length - 1);
+        if (start == failStart) {
+            exchange.sendResponseHeaders(500, content.length);
+            exchange.getResponseBody().write(content);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().add("Content-Range", "bytes " + start + '-' + end + '/' + content.length);
+        exchange.sendResponseHeaders(206, end - start + 1);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(content, start, end - start + 1);
+        exchange.close();
+    }
+
+    private RangedDownload download() {
+        // the JDK transport hides Authorization once set, ranges must still send it
+        return new RangedDownload(HttpRequest.get(url).header("X-Token", "secret")
+                .header("Authorization", "Bearer secret").readTimeout(5000)).minPartSize(64 * 1024);
+    }
+
+    @Test
+    public void downloadsRangesInParallel() throws IOException {
+        final Path target = folder.getRoot().toPath().resolve("file.bin");
+        assertEquals(content.length, download().parallelism(4).download(target));
+        assertArrayEquals(content, Files.readAllBytes(target));
+        // the probe plus four ranges for the rest
+        assertEquals(5, rangeRequests.get());
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve("file.bin.part")));
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve("file.bin.part.ranges")));
+    }
+
+    @Test
+    public void resumesOnlyTheMissingRanges() throws IOException {
+        final Path target = folder.getRoot().toPath().resolve("file.bin");
+        final RangedDownload.Sidecar plan = RangedDownload.Sidecar.plan(url, content.length, ETAG, 64 * 1024, 4);
+        failStart = plan.start(3);
+        try {
+            download().download(target);
+            fail();
+        } catch (HttpRequestException e) {
+            assertTrue(e.getCause().getMessage().contains("500"));
+        }
+        assertFalse(Files.exists(target));
+        assertTrue(Files.exists(folder.getRoot().toPath().resolve("file.bin.part.ranges")));
+
+        failStart = -1;
+        rangeRequests.set(0);
+        assertEquals(content.length, download().download(target));
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(1, rangeRequests.get());
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve("file.bin.part.ranges")));
+    }
+
+    @Test
+    public void failedProbeGivesConnectionBack() {
+        final Path target = folder.getRoot().toPath().resolve("file.bin");
+        final ConnectionPool pool = new ConnectionPool().maxTotalPerRoute(1).acquireTimeout(1000);
+        HttpRequest.setConnectionFactory(new PooledConnectionFactory(pool));
+        try {
+            failStart = 0;
+            for (int i = 0; i < 2; i++) {
+                try {
+                    download().download(target);
+                    fail();
+                } catch (HttpRequestException e) {
+                    assertTrue(e.getCause().getMessage().contains("500"));
+                }
+            }
+            assertEquals(0, pool.leasedCount());
+        } finally {
+            HttpRequest.setConnectionFactory(null);
+            pool.close();
+        }
+    }
+
+    @Test
+    public void streamsWholeBodyWithoutRangeSupport() throws IOException {
+        honorRange = false;
+        final Path target = folder.getRoot().toPath().resolve("file.bin");
+        assertEquals(content.length, HttpRequest.get(url).header("X-Token", "secret")
+                .header("Authorization", "Bearer secret").download(target));
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(0, rangeRequests.get());
+    }
+
+    @Test
+    public void parsesContentRange() {
+        assertArrayEquals(new long[]{0, 99, 1000}, RangedDownload.parseContentRange("bytes 0-99/1000"));
+        assertNull(RangedDownload.parseContentRange("bytes 0-99/*"));
+        assertNull(RangedDownload.parseContentRange("items 0-99/1000"));
+        assertNull(RangedDownload.parseContentRange(null));
+    }
+}
@@ -0,0 +1,129 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecordReaderTest {
+
+    @Test
+    public void splitsAllLineEndings() throws IOException {
+        assertEquals(Arrays.asList("a", "b", "", "c", "d"), readAll(new RecordReader(trickle("a\nb\r\n\r\nc\rd"),
+                StandardCharsets.UTF_8)));
+        assertEquals(Arrays.asList("a", ""), readAll(new RecordReader(trickle("a\n\n"), StandardCharsets.UTF_8)));
+        assertEquals(Arrays.asList(), readAll(new RecordReader(trickle(""), StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void decodesCharactersSplitAcrossReads() throws IOException {
+        final String text = "\u6587\u6863\n\ud83d\ude00 \u00e9\n";
+        assertEquals(Arrays.asList("\u6587\u6863", "\ud83d\ude00 \u00e9"),
+                readAll(new RecordReader(trickle(text), StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void splitsOnDelimiterSpanningReads() throws IOException {
+        assertEquals(Arrays.asList("{\"a\":1}", "", "{\"b\":2}", "tail"),
+                readAll(new RecordReader(trickle("{\"a\":1}--||----||--{\"b\":2}--||--tail"),
+                        StandardCharsets.UTF_8, "--||--")));
+    }
+
+    @Test
+    public void keepsMemoryBoundedOnLongStreams() throws IOException {
+        final InputStream endless = new InputStream() {
+            long remaining = 50L << 20;
+
+            @Override
+            public int read() {
+                return remaining-- > 0 ? (remaining % 64 == 0 ? '\n' : 'x') : -1;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) {
+                int n = 0;
+                while (n < len) {
+                    final int c = read();
+                    if (c == -1) {
+                        return n == 0 ? -1 : n;
+                    }
+                    b[off + n++] = (byte) c;
+                }
+                return n;
+            }
+        };
+        long count = 0;
+        try (RecordReader lines = new RecordReader(endless, StandardCharsets.US_ASCII)) {
+            while (lines.hasNext()) {
+                lines.next();
+                count++;
+            }
+        }
+        assertEquals((50L << 20) / 64, count);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsRecordsOverTheLimit() throws IOException {
+        new RecordReader(trickle("0123456789\n"), StandardCharsets.UTF_8).maxRecordLength(5).readRecord();
+    }
+
+    @Test
+    public void readsLinesOfAResponseInItsCharset() throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/export", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "application/x-ndjson; charset=GBK");
+            exchange.sendResponseHeaders(200, 0);
+            final OutputStream out = exchange.getResponseBody();
+            for (int i = 0; i < 1000; i++) {
+                out.write(("{\"n\":" + i + ",\"s\":\"\u6587\"}\n").getBytes(Charset.forName("GBK")));
+            }
+            exchange.close();
+        });
+        server.start();
+        try (RecordReader lines = HttpRequest.get("http://127.0.0.1:" + server.getAddress().getPort() + "/export")
+                .lines()) {
+            int n = 0;
+            while (lines.hasNext()) {
+                assertEquals("{\"n\":" + n + ",\"s\":\"\u6587\"}", lines.next());
+                n++;
+            }
+            assertEquals(1000, n);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static List<String> readAll(final RecordReader reader) throws IOException {
+        final List<String> records = new ArrayList<>();
+        String record;
+        while ((record = reader.readRecord()) != null) {
+            records.add(record);
+        }
+        reader.close();
+        return records;
+    }
+
+    /**
+     * Hands out one byte per read so every boundary gets crossed
+     */
+    static InputStream trickle(final String text) {
+        return new FilterInputStream(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))) {
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+    }
+}
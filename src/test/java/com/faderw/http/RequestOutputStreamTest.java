@@ -0,0 +1,72 @@
+package com.faderw.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class RequestOutputStreamTest {
+
+    private static final String MIXED = "name=reach&city=\u4e0a\u6d77&emoji=\ud83d\ude00&latin=caf\u00e9;";
+
+    private static String repeat(final String value, final int times) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Move the index off the middle of a surrogate pair
+     */
+    private static int split(final String text, final int index) {
+        return Character.isHighSurrogate(text.charAt(index - 1)) ? index + 1 : index;
+    }
+
+    private static byte[] encode(final String charset, final int bufferSize, final String text) throws IOException {
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        final RequestOutputStream out = new RequestOutputStream(sink, charset, bufferSize);
+        final int third = split(text, text.length() / 3);
+        final int half = split(text, text.length() / 2);
+        out.write(text.substring(0, third));
+        out.write(new StringBuilder(text.substring(third, half)));
+        out.write(text.substring(half, text.length() - 1).toCharArray());
+        out.write(text.charAt(text.length() - 1));
+        out.close();
+        return sink.toByteArray();
+    }
+
+    @Test
+    public void matchesStringEncoding() throws IOException {
+        final String text = repeat(MIXED, 500);
+        for (String charset : new String[]{"UTF-8", "GB18030", "UTF-16"}) {
+            for (int bufferSize : new int[]{7, 64, 8192}) {
+                assertArrayEquals(charset + "/" + bufferSize, text.getBytes(Charset.forName(charset)),
+                        encode(charset, bufferSize, text));
+            }
+        }
+    }
+
+    @Test
+    public void encodesSingleByteCharsets() throws IOException {
+        final String text = repeat("abc=caf\u00e9&", 1000);
+        assertArrayEquals(text.getBytes("ISO-8859-1"), encode("ISO-8859-1", 64, text));
+        final String ascii = repeat("plain ascii text&", 1000);
+        assertArrayEquals(ascii.getBytes("US-ASCII"), encode("US-ASCII", 64, ascii));
+    }
+
+    @Test(expected = CharacterCodingException.class)
+    public void rejectsUnmappableCharacters() throws IOException {
+        encode("US-ASCII", 64, "caf\u00e9 au lait");
+    }
+
+    @Test(expected = CharacterCodingException.class)
+    public void rejectsLoneSurrogate() throws IOException {
+        encode("UTF-8", 64, "broken \ud83d pair");
+    }
+}
@@ -0,0 +1,110 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class RequestTemplateTest {
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/headers", exchange -> {
+            final byte[] body = (exchange.getRequestMethod() + ' ' + exchange.getRequestURI()
+                    + " accept=" + exchange.getRequestHeaders().getFirst("Accept")
+                    + " type=" + exchange.getRequestHeaders().getFirst("Content-Type"))
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void requestsCarryTemplateHeaders() {
+        final RequestTemplate template = RequestTemplate.get(baseUrl)
+                .header("Accept", "text/plain")
+                .contentType("application/json", "UTF-8");
+
+        assertEquals("GET /headers?id=1 accept=text/plain type=application/json;charset=UTF-8",
+                template.request("/headers?id=1").body("UTF-8"));
+        // a header of the request replaces the template's
+        assertEquals("GET /headers accept=application/xml type=application/json;charset=UTF-8",
+                template.request("/headers").header("Accept", "application/xml").body("UTF-8"));
+    }
+
+    @Test
+    public void settersReturnNewTemplates() {
+        final RequestTemplate base = RequestTemplate.post(baseUrl + "/headers");
+        final RequestTemplate json = base.header("Accept", "application/json").readTimeout(2500);
+        final RequestTemplate text = json.header("accept", "text/plain");
+
+        assertNull(base.header("Accept"));
+        assertEquals("application/json", json.header("Accept"));
+        assertEquals("text/plain", text.header("Accept"));
+        assertTrue(text.toString().contains("headers=1"));
+
+        final HttpRequest request = text.request();
+        assertEquals("POST", request.method());
+        assertEquals(2500, request.getConnection().getReadTimeout());
+        assertTrue(request.body("UTF-8").startsWith("POST /headers accept=text/plain"));
+    }
+
+    @Test
+    public void rejectsInvalidHeaders() {
+        final RequestTemplate template = RequestTemplate.get(baseUrl);
+        try {
+            template.header("Bad Name", "x");
+            fail("Accepted a header name with a space");
+        } catch (IllegalArgumentException expected) {
+            // names are tokens
+        }
+        try {
+            template.header("X-Injected", "a\r\nHost: evil");
+            fail("Accepted a header value spanning lines");
+        } catch (IllegalArgumentException expected) {
+            // values stay on one line
+        }
+    }
+
+    @Test
+    public void sharedBetweenThreads() throws Exception {
+        final RequestTemplate template = RequestTemplate.get(baseUrl + "/headers").header("Accept", "text/plain");
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String>> bodies = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                final int id = i;
+                bodies.add(pool.submit(() -> template.request("?id=" + id).body("UTF-8")));
+            }
+            for (int i = 0; i < bodies.size(); i++) {
+                assertEquals("GET /headers?id=" + i + " accept=text/plain type=null", bodies.get(i).get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
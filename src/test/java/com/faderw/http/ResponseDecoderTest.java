@@ -0,0 +1,135 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ResponseDecoderTest {
+
+    /**
+     * {@code key=value} lines into a map, read as they arrive
+     */
+    private static final ResponseDecoder<Map<String, String>> PROPERTIES = (body, charset) -> {
+        final Map<String, String> values = new LinkedHashMap<>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(body, charset));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final int equals = line.indexOf('=');
+            values.put(line.substring(0, equals), line.substring(equals + 1));
+        }
+        return values;
+    };
+
+    /**
+     * A list of strings as a JSON array, written piece by piece
+     */
+    private static final RequestEncoder<List<String>> JSON_ARRAY = (value, out) -> {
+        out.write('[');
+        for (int i = 0; i < value.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write('"').write(value.get(i)).write('"');
+        }
+        out.write(']');
+    };
+
+    private HttpServer server;
+    private String url;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/latin1", exchange -> {
+            final byte[] body = "name=Ren\u00e9\ncity=Z\u00fcrich\n".getBytes(StandardCharsets.ISO_8859_1);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=ISO-8859-1");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.createContext("/gzip", exchange -> {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write("a=1\nb=2\n".getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, compressed.size());
+            compressed.writeTo(exchange.getResponseBody());
+            exchange.close();
+        });
+        server.createContext("/echo", exchange -> {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            final InputStream in = exchange.getRequestBody();
+            final byte[] buffer = new byte[256];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            final byte[] response = ("type=" + exchange.getRequestHeaders().getFirst("Content-Type")
+                    + "\nbody=" + body.toString("UTF-8") + "\n").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void decodesWithResponseCharset() {
+        final Charset[] seen = new Charset[1];
+        final Map<String, String> values = HttpRequest.get(url + "/latin1").as((body, charset) -> {
+            seen[0] = charset;
+            return PROPERTIES.decode(body, charset);
+        });
+        assertEquals(StandardCharsets.ISO_8859_1, seen[0]);
+        assertEquals("Ren\u00e9", values.get("name"));
+        assertEquals("Z\u00fcrich", values.get("city"));
+    }
+
+    @Test
+    public void decodesUncompressedBody() {
+        final Map<String, String> values = HttpRequest.get(url + "/gzip").acceptGzipEncoding().uncompress(true)
+                .as(PROPERTIES);
+        assertEquals("1", values.get("a"));
+        assertEquals("2", values.get("b"));
+    }
+
+    @Test
+    public void encoderWritesJsonBody() {
+        final Map<String, String> echoed = HttpRequest.post(url + "/echo")
+                .json(Arrays.asList("a", "b\u00e9"), JSON_ARRAY).as(PROPERTIES);
+        assertEquals("application/json;charset=UTF-8", echoed.get("type"));
+        assertEquals("[\"a\",\"b\u00e9\"]", echoed.get("body"));
+    }
+
+    @Test
+    public void decodesAsync() throws Exception {
+        assertEquals("Ren\u00e9", HttpRequest.get(url + "/latin1").asAsync(PROPERTIES)
+                .get(5, TimeUnit.SECONDS).get("name"));
+    }
+}
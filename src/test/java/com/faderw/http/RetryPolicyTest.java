@@ -0,0 +1,130 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private HttpServer server;
+    private String url;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void backupAttemptAnswersSlowRequest() {
+        server.createContext("/slow-first", exchange -> {
+            if (hits.incrementAndGet() == 1) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Exchanges.respond(exchange, 200, "attempt " + hits.get());
+        });
+        final RetryPolicy policy = new RetryPolicy().hedgeDelay(50, TimeUnit.MILLISECONDS);
+
+        final long start = System.nanoTime();
+        final String body = policy.execute(() -> HttpRequest.get(url + "/slow-first"), request -> request.body("UTF-8"));
+        assertEquals("attempt 2", body);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(1, policy.hedgeCount());
+        assertEquals(1, policy.hedgeWinCount());
+        assertEquals(0, policy.retryCount());
+    }
+
+    @Test
+    public void retriesFailureStatus() {
+        server.createContext("/flaky", exchange -> Exchanges.respond(exchange, hits.incrementAndGet() == 1 ? 503 : 200, "ok"));
+        final RetryPolicy policy = new RetryPolicy().hedging(false).backoff(1, TimeUnit.MILLISECONDS);
+
+        assertEquals(Integer.valueOf(200), policy.execute(() -> HttpRequest.get(url + "/flaky"), HttpRequest::code));
+        assertEquals(2, hits.get());
+        assertEquals(1, policy.retryCount());
+    }
+
+    @Test
+    public void retriesDroppedConnection() {
+        // closed without a response, the client fails reading the status line
+        server.createContext("/drop", exchange -> exchange.close());
+        server.createContext("/up", exchange -> Exchanges.respond(exchange, 200, "up"));
+        final AtomicInteger attempt = new AtomicInteger();
+        final RetryPolicy policy = new RetryPolicy().hedging(false).backoff(0, TimeUnit.MILLISECONDS);
+
+        assertEquals("up", policy.execute(() -> HttpRequest.get(url + (attempt.getAndIncrement() == 0 ? "/drop" : "/up")),
+                request -> request.body("UTF-8")));
+        assertEquals(1, policy.retryCount());
+    }
+
+    @Test
+    public void budgetStopsRetries() {
+        server.createContext("/down", exchange -> {
+            hits.incrementAndGet();
+            Exchanges.respond(exchange, 503, "down");
+        });
+        final RetryPolicy policy = new RetryPolicy().hedging(false).maxAttempts(3)
+                .backoff(0, TimeUnit.MILLISECONDS).budget(new RetryBudget(0, 1));
+
+        // one retry paid by the initial token, then the last response is handed over
+        assertEquals(Integer.valueOf(503), policy.execute(() -> HttpRequest.get(url + "/down"), HttpRequest::code));
+        assertEquals(2, hits.get());
+        assertEquals(Integer.valueOf(503), policy.execute(() -> HttpRequest.get(url + "/down"), HttpRequest::code));
+        assertEquals(3, hits.get());
+        assertEquals(1, policy.retryCount());
+        assertEquals(2, policy.budgetExhaustedCount());
+    }
+
+    @Test
+    public void sendsPostOnce() {
+        server.createContext("/order", exchange -> {
+            hits.incrementAndGet();
+            Exchanges.respond(exchange, 503, "busy");
+        });
+        final RetryPolicy policy = new RetryPolicy().backoff(0, TimeUnit.MILLISECONDS);
+
+        assertEquals(Integer.valueOf(503), policy.execute(() -> HttpRequest.post(url + "/order"), HttpRequest::code));
+        assertEquals(1, hits.get());
+        assertEquals(0, policy.retryCount());
+    }
+
+    @Test
+    public void budgetRefillsWithRequests() {
+        final RetryBudget budget = new RetryBudget(0.5, 2);
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertTrue(budget.tryWithdraw());
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+        assertEquals(2, budget.available());
+    }
+}
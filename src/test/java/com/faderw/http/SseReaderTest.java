@@ -0,0 +1,77 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class SseReaderTest {
+
+    @Test
+    public void parsesFieldsAndDispatchesOnBlankLines() throws IOException {
+        final String stream = "\ufeff: comment\n"
+                + "data: first\n"
+                + "data:second\n"
+                + "id: 7\n"
+                + "\n"
+                + "event: update\r\n"
+                + "data\r\n"
+                + "data:  x\r\n"
+                + "retry: 1500\r\n"
+                + "\r\n"
+                + "event: ignored\n"
+                + "\n"
+                + "data: incomplete";
+        final SseReader events = new SseReader(new RecordReader(RecordReaderTest.trickle(stream),
+                StandardCharsets.UTF_8));
+
+        SseEvent event = events.readEvent();
+        assertEquals("message", event.event());
+        assertEquals("first\nsecond", event.data());
+        assertEquals("7", event.id());
+
+        event = events.readEvent();
+        assertEquals("update", event.event());
+        assertEquals("\n x", event.data());
+        assertEquals("7", event.id());
+        assertEquals(1500, events.retryMillis());
+
+        assertNull(events.readEvent());
+        assertEquals("7", events.lastEventId());
+        events.close();
+    }
+
+    @Test
+    public void readsEventsOfAResponse() throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/feed", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            final OutputStream out = exchange.getResponseBody();
+            for (int i = 0; i < 100; i++) {
+                out.write(("id: " + i + "\ndata: tick " + i + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+            exchange.close();
+        });
+        server.start();
+        try (SseReader events = HttpRequest.get("http://127.0.0.1:" + server.getAddress().getPort() + "/feed")
+                .header("Accept", "text/event-stream").events()) {
+            int n = 0;
+            while (events.hasNext()) {
+                final SseEvent event = events.next();
+                assertEquals(Integer.toString(n), event.id());
+                assertEquals("tick " + n, event.data());
+                n++;
+            }
+            assertEquals(100, n);
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.faderw.http;
+
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsParameters;
+import com.sun.net.httpserver.HttpsServer;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+
+import static org.junit.Assert.*;
+
+public class TlsConfigTest {
+
+    @ClassRule
+    public static final TemporaryFolder FOLDER = new TemporaryFolder();
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static KeyStore keyStore;
+
+    private HttpsServer server;
+    private String url;
+
+    @BeforeClass
+    public static void createKeyStore() throws Exception {
+        // self-signed certificate for 127.0.0.1, used by the server and as the client certificate
+        final File file = new File(FOLDER.getRoot(), "localhost.p12");
+        final Process keytool = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "keytool", "-genkeypair", "-alias", "localhost", "-keyalg", "EC",
+                "-groupname", "secp256r1", "-dname", "CN=localhost", "-ext", "SAN=ip:127.0.0.1,dns:localhost",
+                "-validity", "2", "-storetype", "PKCS12", "-keystore", file.getPath(),
+                "-storepass", new String(PASSWORD)).redirectErrorStream(true).start();
+        assertEquals(0, keytool.waitFor());
+        keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(file)) {
+            keyStore.load(in, PASSWORD);
+        }
+    }
+
+    private void startServer(final boolean needClientAuth) throws Exception {
+        final KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(keyStore, PASSWORD);
+        final TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(keyStore);
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+
+        server = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(context) {
+            @Override
+            public void configure(final HttpsParameters params) {
+                // set as parameters, setNeedClientAuth is undone by the server's setWantClientAuth(false)
+                final SSLParameters parameters = context.getDefaultSSLParameters();
+                parameters.setNeedClientAuth(needClientAuth);
+                params.setSSLParameters(parameters);
+            }
+        });
+        server.createContext("/hello", exchange -> {
+            final byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        url = "https://127.0.0.1:" + server.getAddress().getPort() + "/hello";
+    }
+
+    @After
+    public void tearDown() {
+        HttpRequest.setConnectionFactory(null);
+        HttpRequest.setTlsConfig(null);
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    private static void awaitHandshakes(final TlsConfig tls, final long count) throws InterruptedException {
+        // handshake listeners are notified from another thread
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (tls.fullHandshakeCount() + tls.resumedHandshakeCount() < count
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void reconnectsResumeSession() throws Exception {
+        startServer(false);
+        final TlsConfig tls = new TlsConfig().trustStore(keyStore);
+        // nothing is kept idle, so every request opens and handshakes a new connection
+        final ConnectionPool pool = new ConnectionPool().maxIdlePerRoute(0).tls(tls);
+        HttpRequest.setConnectionFactory(new PooledConnectionFactory(pool));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("hello", HttpRequest.get(url).body("UTF-8"));
+        }
+        awaitHandshakes(tls, 3);
+        assertEquals(1, tls.fullHandshakeCount());
+        assertEquals(2, tls.resumedHandshakeCount());
+        pool.close();
+    }
+
+    @Test
+    public void jdkTransportUsesSharedContext() throws Exception {
+        startServer(false);
+        final TlsConfig tls = new TlsConfig().trustStore(keyStore).protocols("TLSv1.2", "SSLv2Hello-not-a-protocol");
+        HttpRequest.setTlsConfig(tls);
+
+        assertEquals(200, HttpRequest.get(url).code());
+        awaitHandshakes(tls, 1);
+        assertEquals(1, tls.fullHandshakeCount());
+    }
+
+    @Test
+    public void presentsClientCertificateToItsHost() throws Exception {
+        startServer(true);
+        HttpRequest.setTlsConfig(new TlsConfig().trustStore(keyStore)
+                .clientCertificate("other.example", keyStore, PASSWORD));
+        try {
+            HttpRequest.get(url).code();
+            fail("Server accepted a request without a client certificate");
+        } catch (HttpRequestException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+
+        HttpRequest.setTlsConfig(new TlsConfig().trustStore(keyStore)
+                .clientCertificate("127.0.0.1", keyStore, PASSWORD));
+        assertEquals("hello", HttpRequest.get(url).body("UTF-8"));
+    }
+
+    @Test
+    public void settingsFreezeOnceBuilt() {
+        final TlsConfig tls = new TlsConfig().sessionCacheSize(10).sessionTimeout(60);
+        assertEquals(10, tls.sslContext().getClientSessionContext().getSessionCacheSize());
+        assertSame(tls.sslContext(), tls.sslContext());
+        try {
+            tls.protocols("TLSv1.3");
+            fail("Settings changed after the context was built");
+        } catch (IllegalStateException expected) {
+            // settings are read once
+        }
+    }
+}
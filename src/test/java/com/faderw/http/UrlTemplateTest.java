@@ -0,0 +1,51 @@
+package com.faderw.http;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class UrlTemplateTest {
+
+    private static final UrlTemplate SEARCH = UrlTemplate.compile("https://api.example.com/users/{id}/repos?q={q}&page={page}");
+
+    @Test
+    public void expandsPositionalValues() {
+        assertEquals(Arrays.asList("id", "q", "page"), SEARCH.variables());
+        assertEquals("https://api.example.com/users/42/repos?q=reach%20http%2Bjava&page=3",
+                SEARCH.expand(42, "reach http+java", 3));
+        assertEquals("https://api.example.com/users/a%2Fb/repos?q=%E6%96%87&page=",
+                SEARCH.expand("a/b", "\u6587", null));
+    }
+
+    @Test
+    public void expandsNamedValuesAndRepeats() {
+        final UrlTemplate template = UrlTemplate.compile("/{lang}/docs/{page}?lang={lang}");
+        final Map<String, Object> values = new HashMap<>();
+        values.put("lang", "zh-CN");
+        values.put("page", "intro");
+        assertEquals("/zh-CN/docs/intro?lang=zh-CN", template.expand(values));
+        assertEquals("/en/docs/a%26b?lang=en", template.expand("en", "a&b"));
+    }
+
+    @Test
+    public void reusesCallerBuilder() {
+        final StringBuilder out = new StringBuilder();
+        SEARCH.expandTo(out, 1, "x", 1);
+        out.setLength(0);
+        assertEquals("https://api.example.com/users/-7/repos?q=~y&page=2", SEARCH.expandTo(out, -7L, "~y", 2).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWrongValueCount() {
+        SEARCH.expand(1, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnclosedPlaceholder() {
+        UrlTemplate.compile("/users/{id");
+    }
+}